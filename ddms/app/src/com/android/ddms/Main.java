@@ -19,6 +19,7 @@ package com.android.ddms;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.DebugPortManager;
 import com.android.ddmlib.Log;
+import com.android.ddmlib.hprof.HprofAnalyzer;
 import com.android.sdkstats.SdkStatsService;
 
 import org.eclipse.swt.widgets.Display;
@@ -60,6 +61,14 @@ public class Main {
      * Parse args, start threads.
      */
     public static void main(String[] args) {
+        // the "hprof" argument means to analyze heap dumps without the UI.
+        if (args.length > 0 && args[0].equals("hprof")) {
+            String[] hprofArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, hprofArgs, 0, hprofArgs.length);
+            HprofAnalyzer.main(hprofArgs);
+            return;
+        }
+
         // In order to have the AWT/SWT bridge work on Leopard, we do this little hack.
         if (isMac()) {
             RuntimeMXBean rt = ManagementFactory.getRuntimeMXBean();
@@ -24,6 +24,7 @@ import com.android.ddmuilib.DdmUiPreferences;
 import com.android.ddmuilib.PortFieldEditor;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
+import com.android.ddmuilib.logcat.LogCatReceiver;
 import com.android.sdkstats.DdmsPreferenceStore;
 import com.android.sdkstats.SdkStatsPermissionDialog;
 
@@ -461,6 +462,12 @@ public final class PrefsDialog {
                         "Maximum number of logcat messages to buffer",
                         getFieldEditorParent());
                 addField(maxMessages);
+
+                BooleanFieldEditor binaryLog = new BooleanFieldEditor(
+                        LogCatReceiver.BINARY_LOG_PREFKEY,
+                        "Read the binary logs instead of the logcat output",
+                        getFieldEditorParent());
+                addField(binaryLog);
             }
         }
     }
@@ -23,21 +23,23 @@ import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 /**
  * Helper class to handle requests and connections to adb.
  * <p/>{@link DebugBridgeServer} is the public API to connection to adb, while {@link AdbHelper}
  * does the low level stuff.
- * <p/>This currently uses spin-wait non-blocking I/O. A Selector would be more efficient,
- * but seems like overkill for what we're doing here.
+ * <p/>This uses non-blocking I/O. Whenever a channel is not ready, the calling thread waits on
+ * the shared {@link AdbSelector} until it is, instead of spinning.
  */
 final class AdbHelper {
 
     // public static final long kOkay = 0x59414b4fL;
     // public static final long kFail = 0x4c494146L;
 
-    static final int WAIT_TIME = 5; // spin-wait sleep, in ms
+    /** max time to notice that a receiver was cancelled while no output is coming, in ms */
+    static final int CANCEL_CHECK_TIME = 100;
 
     static final String DEFAULT_ENCODING = "ISO-8859-1"; //$NON-NLS-1$
 
@@ -267,8 +269,23 @@ final class AdbHelper {
      */
     static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, Device device)
             throws TimeoutException, AdbCommandRejectedException, IOException {
+        return getFrameBuffer(adbSockAddr, device, null);
+    }
 
-        RawImage imageParams = new RawImage();
+    /**
+     * Retrieve the frame buffer from the device into an existing {@link RawImage}.
+     * @param image the image to fill, or <code>null</code> to create a new one. Its data array
+     * is reused if it has the size of the frame buffer.
+     * @return the image, or <code>null</code> if the protocol is not supported.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static RawImage getFrameBuffer(InetSocketAddress adbSockAddr, IDevice device,
+            RawImage image) throws TimeoutException, AdbCommandRejectedException, IOException {
+
+        RawImage imageParams = image != null ? image : new RawImage();
+        byte[] oldData = imageParams.data;
         byte[] request = formAdbRequest("framebuffer:"); //$NON-NLS-1$
         byte[] nudge = {
             0
@@ -316,13 +333,17 @@ final class AdbHelper {
                 return null;
             }
 
-            Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
-                    + imageParams.size + ", width=" + imageParams.width
-                    + ", height=" + imageParams.height);
+            if (oldData == null || oldData.length != imageParams.size) {
+                Log.d("ddms", "image params: bpp=" + imageParams.bpp + ", size="
+                        + imageParams.size + ", width=" + imageParams.width
+                        + ", height=" + imageParams.height);
+                reply = new byte[imageParams.size];
+            } else {
+                reply = oldData;
+            }
 
             write(adbChan, nudge);
 
-            reply = new byte[imageParams.size];
             read(adbChan, reply);
 
             imageParams.data = reply;
@@ -383,7 +404,7 @@ final class AdbHelper {
 
             byte[] data = new byte[16384];
             ByteBuffer buf = ByteBuffer.wrap(data);
-            int timeToResponseCount = 0;
+            long lastOutputTime = System.currentTimeMillis();
             while (true) {
                 int count;
 
@@ -400,19 +421,19 @@ final class AdbHelper {
                             + count);
                     break;
                 } else if (count == 0) {
-                    try {
-                        int wait = WAIT_TIME * 5;
-                        timeToResponseCount += wait;
-                        if (maxTimeToOutputResponse > 0 &&
-                                timeToResponseCount > maxTimeToOutputResponse) {
+                    int wait = CANCEL_CHECK_TIME;
+                    if (maxTimeToOutputResponse > 0) {
+                        long remaining = maxTimeToOutputResponse
+                                - (System.currentTimeMillis() - lastOutputTime);
+                        if (remaining <= 0) {
                             throw new ShellCommandUnresponsiveException();
                         }
-                        Thread.sleep(wait);
-                    } catch (InterruptedException ie) {
+                        wait = (int) Math.min(wait, remaining);
                     }
+                    waitFor(adbChan, SelectionKey.OP_READ, wait);
                 } else {
                     // reset timeout
-                    timeToResponseCount = 0;
+                    lastOutputTime = System.currentTimeMillis();
 
                     // send data to receiver if present
                     if (rcvr != null) {
@@ -489,10 +510,7 @@ final class AdbHelper {
                 if (count < 0) {
                     break;
                 } else if (count == 0) {
-                    try {
-                        Thread.sleep(WAIT_TIME * 5);
-                    } catch (InterruptedException ie) {
-                    }
+                    waitFor(adbChan, SelectionKey.OP_READ, CANCEL_CHECK_TIME);
                 } else {
                     if (rcvr != null) {
                         rcvr.parseNewData(buf.array(), buf.arrayOffset(), buf.position());
@@ -647,9 +665,22 @@ final class AdbHelper {
      */
     static void read(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
+        read(chan, ByteBuffer.wrap(data, 0, length != -1 ? length : data.length), timeout);
+    }
 
+    /**
+     * Reads from the socket until the buffer is filled (up to its limit), or no more data is
+     * coming (because the socket closed or the timeout expired). After "timeout" milliseconds
+     * since the previous successful read, this will return whether or not new data has
+     * been found.
+     *
+     * @param chan the opened socket to read from. It must be in non-blocking
+     *      mode for timeouts to work
+     * @param buf the buffer to store the read data into. It can be a direct buffer.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     */
+    static void read(SocketChannel chan, ByteBuffer buf, int timeout)
+            throws TimeoutException, IOException {
         while (buf.position() != buf.limit()) {
             int count;
 
@@ -658,19 +689,10 @@ final class AdbHelper {
                 Log.d("ddms", "read: channel EOF");
                 throw new IOException("EOF");
             } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
+                if (waitFor(chan, SelectionKey.OP_READ, timeout) == false) {
                     Log.d("ddms", "read: timeout");
                     throw new TimeoutException();
                 }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
-                }
-                numWaits++;
-            } else {
-                numWaits = 0;
             }
         }
     }
@@ -700,34 +722,58 @@ final class AdbHelper {
      */
     static void write(SocketChannel chan, byte[] data, int length, int timeout)
             throws TimeoutException, IOException {
-        ByteBuffer buf = ByteBuffer.wrap(data, 0, length != -1 ? length : data.length);
-        int numWaits = 0;
+        write(chan, new ByteBuffer[] {
+                ByteBuffer.wrap(data, 0, length != -1 ? length : data.length) }, timeout);
+    }
+
+    /**
+     * Write until all the buffers are written (up to their limit), the timeout expires, or the
+     * connection fails. The buffers are sent with a single gathering write whenever possible.
+     * @param chan the opened socket to write to.
+     * @param bufs the buffers to send, in order. They can be direct buffers.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static void write(SocketChannel chan, ByteBuffer[] bufs, int timeout)
+            throws TimeoutException, IOException {
+        // the buffers are written in order, so the last one is written only when all the
+        // others are. Skip the empty ones at the end.
+        int last = bufs.length - 1;
+        while (last > 0 && bufs[last].hasRemaining() == false) {
+            last--;
+        }
+        ByteBuffer buf = bufs[last];
 
         while (buf.position() != buf.limit()) {
-            int count;
+            long count;
 
-            count = chan.write(buf);
+            count = chan.write(bufs);
             if (count < 0) {
                 Log.d("ddms", "write: channel EOF");
                 throw new IOException("channel EOF");
             } else if (count == 0) {
-                // TODO: need more accurate timeout?
-                if (timeout != 0 && numWaits * WAIT_TIME > timeout) {
+                if (waitFor(chan, SelectionKey.OP_WRITE, timeout) == false) {
                     Log.d("ddms", "write: timeout");
                     throw new TimeoutException();
                 }
-                // non-blocking spin
-                try {
-                    Thread.sleep(WAIT_TIME);
-                } catch (InterruptedException ie) {
-                }
-                numWaits++;
-            } else {
-                numWaits = 0;
             }
         }
     }
 
+    /**
+     * Blocks until the non-blocking channel is ready for the given operations, or the timeout
+     * expires.
+     * @param chan the channel to wait on.
+     * @param ops the {@link SelectionKey} operations to wait for.
+     * @param timeout The timeout value. A timeout of zero means "wait forever".
+     * @return true if the channel is ready, false if the timeout expired.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    static boolean waitFor(SocketChannel chan, int ops, int timeout) throws IOException {
+        return AdbSelector.getInstance().waitFor(chan, ops, timeout);
+    }
+
     /**
      * tells adb to talk to a specific device
      *
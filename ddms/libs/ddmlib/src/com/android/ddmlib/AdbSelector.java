@@ -0,0 +1,400 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * Shared I/O reactor for the non-blocking adb connections opened by {@link AdbHelper}.
+ * <p/>Instead of spinning on a channel with short sleeps until it becomes readable or writable,
+ * callers register their interest with this thread, which waits on a single {@link Selector}
+ * for all the channels and notifies an {@link IReadyListener} as soon as a channel is ready or
+ * its timeout expires.
+ * <p/>Registrations are one-shot: once the listener is notified the channel is removed from the
+ * selector, so that it can be read/written (or put back in blocking mode) by the caller.
+ */
+final class AdbSelector extends Thread {
+
+    /**
+     * Classes which implement this interface provide methods that deal with the readiness of a
+     * channel registered with {@link AdbSelector#register(SocketChannel, int, int, IReadyListener)}.
+     * <p/>The methods are called from the selector thread and must not block.
+     */
+    interface IReadyListener {
+        /**
+         * Sent when the channel is ready for the requested operations.
+         * @param chan the channel.
+         */
+        void onReady(SocketChannel chan);
+
+        /**
+         * Sent when the channel did not become ready before the timeout expired.
+         * @param chan the channel.
+         */
+        void onTimeout(SocketChannel chan);
+
+        /**
+         * Sent when the channel could not be registered, usually because it was closed.
+         * @param chan the channel.
+         * @param e the error.
+         */
+        void onError(SocketChannel chan, IOException e);
+    }
+
+    /**
+     * A pending registration.
+     */
+    private final static class Request {
+        final SocketChannel mChannel;
+        final int mOps;
+        final long mDeadline; // 0 means no timeout
+        final IReadyListener mListener;
+        SelectionKey mKey;
+        IOException mError; // the reason the registration failed, if any
+
+        Request(SocketChannel chan, int ops, long deadline, IReadyListener listener) {
+            mChannel = chan;
+            mOps = ops;
+            mDeadline = deadline;
+            mListener = listener;
+        }
+    }
+
+    /**
+     * {@link IReadyListener} used by {@link AdbSelector#waitFor(SocketChannel, int, int)} to
+     * block the calling thread until the channel is ready.
+     */
+    private final static class ReadyLatch implements IReadyListener {
+        private boolean mDone = false;
+        private boolean mReady = false;
+        private IOException mError;
+
+        @Override
+        public synchronized void onReady(SocketChannel chan) {
+            mReady = true;
+            mDone = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onTimeout(SocketChannel chan) {
+            mDone = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onError(SocketChannel chan, IOException e) {
+            mError = e;
+            mDone = true;
+            notifyAll();
+        }
+
+        synchronized boolean await() throws IOException {
+            boolean interrupted = false;
+            while (mDone == false) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // keep waiting, the selector thread always releases us, even if it dies.
+                    interrupted = true;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (mError != null) {
+                throw mError;
+            }
+
+            return mReady;
+        }
+    }
+
+    private final static int READY = 0;
+    private final static int TIMEOUT = 1;
+    private final static int ERROR = 2;
+
+    private static AdbSelector sInstance;
+
+    private final Selector mSelector;
+
+    /** registrations waiting to be added to the selector by the selector thread. */
+    private final ArrayList<Request> mPending = new ArrayList<Request>();
+
+    /** registrations currently in the selector. Only accessed from the selector thread. */
+    private final ArrayList<Request> mRegistered = new ArrayList<Request>();
+
+    /** requests to notify, by event. Only accessed from the selector thread. */
+    private final ArrayList<Request> mReady = new ArrayList<Request>();
+    private final ArrayList<Request> mExpired = new ArrayList<Request>();
+    private final ArrayList<Request> mFailed = new ArrayList<Request>();
+
+    /** whether the selector thread has stopped. Guarded by {@link #mPending}. */
+    private boolean mStopped = false;
+
+    private AdbSelector() throws IOException {
+        super("ADB Selector"); //$NON-NLS-1$
+        setDaemon(true);
+        mSelector = Selector.open();
+    }
+
+    /**
+     * Returns the shared selector thread, creating and starting it if needed.
+     * @throws IOException if the selector could not be opened.
+     */
+    static synchronized AdbSelector getInstance() throws IOException {
+        if (sInstance == null || sInstance.isAlive() == false) {
+            sInstance = new AdbSelector();
+            sInstance.start();
+        }
+
+        return sInstance;
+    }
+
+    /**
+     * Registers a one-shot interest in the given operations of a non-blocking channel.
+     * <p/>Exactly one method of <var>listener</var> is called, from the selector thread.
+     * <p/>A channel must not have more than one registration active at a given time.
+     *
+     * @param chan the non-blocking channel.
+     * @param ops the operations, as a combination of {@link SelectionKey#OP_READ} and
+     *      {@link SelectionKey#OP_WRITE}.
+     * @param timeout the timeout in milliseconds. A timeout of zero means "wait forever".
+     * @param listener the listener to notify.
+     */
+    void register(SocketChannel chan, int ops, int timeout, IReadyListener listener) {
+        long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        Request request = new Request(chan, ops, deadline, listener);
+        synchronized (mPending) {
+            if (mStopped == false) {
+                mPending.add(request);
+                request = null;
+            }
+        }
+
+        if (request != null) {
+            // the selector thread is gone and would never notify the listener.
+            request.mError = new IOException("ADB selector thread stopped");
+            notifyListener(request, ERROR);
+            return;
+        }
+
+        mSelector.wakeup();
+    }
+
+    /**
+     * Blocks the calling thread until the channel is ready for the given operations, or the
+     * timeout expires.
+     *
+     * @param chan the non-blocking channel.
+     * @param ops the operations to wait for.
+     * @param timeout the timeout in milliseconds. A timeout of zero means "wait forever".
+     * @return true if the channel is ready, false if the timeout expired.
+     * @throws IOException if the channel could not be waited on.
+     */
+    boolean waitFor(SocketChannel chan, int ops, int timeout) throws IOException {
+        ReadyLatch latch = new ReadyLatch();
+        register(chan, ops, timeout, latch);
+        return latch.await();
+    }
+
+    @Override
+    public void run() {
+        try {
+            select();
+        } finally {
+            // only reached if the thread dies from an unexpected error: release all the
+            // callers, which would otherwise wait forever.
+            stopSelecting();
+        }
+    }
+
+    private void select() {
+        while (true) {
+            try {
+                // keys can already be selected from the flush at the end of the previous loop,
+                // and requests can be left to notify if the previous loop failed.
+                if (mSelector.selectedKeys().isEmpty() && mReady.isEmpty()
+                        && mExpired.isEmpty() && mFailed.isEmpty()) {
+                    mSelector.select(getSelectTimeout());
+                }
+
+                registerPending(mFailed);
+
+                Set<SelectionKey> keys = mSelector.selectedKeys();
+                Iterator<SelectionKey> iter = keys.iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+
+                    Request request = (Request) key.attachment();
+                    key.cancel();
+                    mRegistered.remove(request);
+                    mReady.add(request);
+                }
+
+                long now = System.currentTimeMillis();
+                Iterator<Request> regIter = mRegistered.iterator();
+                while (regIter.hasNext()) {
+                    Request request = regIter.next();
+                    if (request.mKey.isValid() == false) {
+                        // the channel was closed while registered.
+                        regIter.remove();
+                        mFailed.add(request);
+                    } else if (request.mDeadline != 0 && request.mDeadline <= now) {
+                        regIter.remove();
+                        request.mKey.cancel();
+                        mExpired.add(request);
+                    }
+                }
+
+                // flush the cancelled keys before notifying, so that the channels are fully
+                // deregistered (and can be switched back to blocking mode) once the listeners
+                // are called.
+                if (mReady.size() > 0 || mExpired.size() > 0) {
+                    mSelector.selectNow();
+                }
+
+                notifyListeners(mReady, READY);
+                notifyListeners(mExpired, TIMEOUT);
+                notifyListeners(mFailed, ERROR);
+            } catch (IOException e) {
+                Log.e("ddms", "ADB selector error: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Notifies the listeners of the given requests, removing each request from the list before
+     * its listener is called so that no request is notified twice.
+     */
+    private void notifyListeners(ArrayList<Request> requests, int event) {
+        while (requests.size() > 0) {
+            notifyListener(requests.remove(0), event);
+        }
+    }
+
+    /**
+     * Notifies the listener of a request, making sure a misbehaving listener cannot take down
+     * the selector thread.
+     */
+    private void notifyListener(Request request, int event) {
+        try {
+            switch (event) {
+                case READY:
+                    request.mListener.onReady(request.mChannel);
+                    break;
+                case TIMEOUT:
+                    request.mListener.onTimeout(request.mChannel);
+                    break;
+                case ERROR:
+                    request.mListener.onError(request.mChannel,
+                            request.mError != null ? request.mError : new ClosedChannelException());
+                    break;
+            }
+        } catch (Exception e) {
+            Log.e("ddms", e);
+        }
+    }
+
+    /**
+     * Fails all the pending and registered requests, and makes the next registrations fail
+     * right away.
+     */
+    private void stopSelecting() {
+        ArrayList<Request> failed = new ArrayList<Request>();
+        failed.addAll(mReady);
+        failed.addAll(mExpired);
+        failed.addAll(mFailed);
+        failed.addAll(mRegistered);
+        mReady.clear();
+        mExpired.clear();
+        mFailed.clear();
+        mRegistered.clear();
+        synchronized (mPending) {
+            mStopped = true;
+            failed.addAll(mPending);
+            mPending.clear();
+        }
+
+        for (Request request : failed) {
+            if (request.mError == null) {
+                request.mError = new IOException("ADB selector thread stopped");
+            }
+            notifyListener(request, ERROR);
+        }
+
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Returns the time to wait in {@link Selector#select(long)} until the next registration
+     * expires, or 0 if none of them have a timeout.
+     */
+    private long getSelectTimeout() {
+        long next = 0;
+        for (Request request : mRegistered) {
+            if (request.mDeadline != 0 && (next == 0 || request.mDeadline < next)) {
+                next = request.mDeadline;
+            }
+        }
+
+        if (next == 0) {
+            return 0;
+        }
+
+        return Math.max(1, next - System.currentTimeMillis());
+    }
+
+    /**
+     * Adds the pending requests to the selector. Requests that cannot be registered are added
+     * to <var>failed</var>.
+     */
+    private void registerPending(ArrayList<Request> failed) {
+        synchronized (mPending) {
+            for (Request request : mPending) {
+                try {
+                    request.mKey = request.mChannel.register(mSelector, request.mOps, request);
+                    mRegistered.add(request);
+                } catch (ClosedChannelException e) {
+                    failed.add(request);
+                } catch (CancelledKeyException e) {
+                    failed.add(request);
+                } catch (RuntimeException e) {
+                    // for instance a channel in blocking mode: only this request fails.
+                    request.mError = new IOException(e.toString());
+                    failed.add(request);
+                }
+            }
+            mPending.clear();
+        }
+    }
+}
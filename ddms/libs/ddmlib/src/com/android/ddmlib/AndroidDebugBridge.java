@@ -225,6 +225,30 @@ public final class AndroidDebugBridge {
         return sClientSupport;
     }
 
+    /**
+     * Returns the metrics of the handling of the data sent by the {@link Client}s, or
+     * <code>null</code> if client support is not enabled or the bridge is not started.
+     */
+    public static ChunkDispatchStats getChunkDispatchStats() {
+        MonitorThread monitorThread = MonitorThread.getInstance();
+        return monitorThread != null ? monitorThread.getChunkDispatchStats() : null;
+    }
+
+    /**
+     * Returns the time taken by the discovery stages of the devices, or <code>null</code> if
+     * the bridge is not started.
+     */
+    public static DeviceDiscoveryStats getDeviceDiscoveryStats() {
+        AndroidDebugBridge bridge = sThis;
+        if (bridge != null) {
+            DeviceMonitor deviceMonitor = bridge.mDeviceMonitor;
+            if (deviceMonitor != null) {
+                return deviceMonitor.getDiscoveryStats();
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the socket address of the ADB server on the host.
      */
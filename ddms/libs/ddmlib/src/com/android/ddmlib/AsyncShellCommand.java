@@ -0,0 +1,442 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A shell command running on a device without blocking any thread.
+ * <p/>The whole exchange with adb (connection, device selection, shell request and output) is
+ * driven by the {@link AdbSelector} thread, which is also the thread calling the
+ * {@link IShellOutputReceiver}. Receivers used with this class must therefore process the output
+ * quickly and must not block.
+ * <p/>Commands are started through a {@link ShellCommandQueue}, which limits the number of
+ * concurrent connections to a device.
+ */
+final class AsyncShellCommand implements Future<Void>, AdbSelector.IReadyListener {
+
+    private final static int STATE_QUEUED = 0;
+    private final static int STATE_CONNECT = 1;
+    private final static int STATE_WRITE_REQUEST = 2;
+    private final static int STATE_READ_STATUS = 3;
+    private final static int STATE_READ_FAIL_LENGTH = 4;
+    private final static int STATE_READ_FAIL_MESSAGE = 5;
+    private final static int STATE_OUTPUT = 6;
+    private final static int STATE_DONE = 7;
+
+    private final InetSocketAddress mAdbSockAddr;
+    private final IDevice mDevice;
+    private final String mCommand;
+    private final IShellOutputReceiver mReceiver;
+    private final int mMaxTimeToOutputResponse;
+    private final ShellCommandQueue mQueue;
+
+    private SocketChannel mChannel;
+    private int mState = STATE_QUEUED;
+
+    /** whether the transport request was sent, and the shell request is the current one. */
+    private boolean mTransportSelected = false;
+
+    private ByteBuffer mBuffer;
+    private long mLastOutputTime;
+
+    private boolean mCancelled = false;
+    private Exception mError;
+
+    AsyncShellCommand(InetSocketAddress adbSockAddr, IDevice device, String command,
+            IShellOutputReceiver receiver, int maxTimeToOutputResponse, ShellCommandQueue queue) {
+        mAdbSockAddr = adbSockAddr;
+        mDevice = device;
+        mCommand = command;
+        mReceiver = receiver;
+        mMaxTimeToOutputResponse = maxTimeToOutputResponse;
+        mQueue = queue;
+    }
+
+    /**
+     * Opens the connection to adb and starts the exchange. This never blocks.
+     * <p/>This is called by the {@link ShellCommandQueue} once a connection slot is available.
+     */
+    void start() {
+        boolean cancelled;
+        synchronized (this) {
+            cancelled = mState != STATE_QUEUED;
+            if (cancelled == false) {
+                mState = STATE_CONNECT;
+            }
+        }
+
+        if (cancelled) {
+            // cancelled while in the queue, give the slot to the next command.
+            mQueue.commandFinished(this);
+            return;
+        }
+
+        Log.v("ddms", "execute async: running " + mCommand);
+        try {
+            SocketChannel chan = SocketChannel.open();
+            boolean done;
+            synchronized (this) {
+                mChannel = chan;
+                // cancel() finishes the command without closing the channel if it is called
+                // while the channel is being opened.
+                done = mState == STATE_DONE;
+            }
+            if (done) {
+                chan.close();
+                return;
+            }
+            chan.configureBlocking(false);
+            chan.socket().setTcpNoDelay(true);
+            chan.connect(mAdbSockAddr);
+        } catch (IOException e) {
+            finish(e);
+            return;
+        }
+
+        step();
+    }
+
+    @Override
+    public void onReady(SocketChannel chan) {
+        step();
+    }
+
+    @Override
+    public void onTimeout(SocketChannel chan) {
+        if (getState() == STATE_OUTPUT) {
+            // only a check for cancellation or unresponsiveness.
+            step();
+        } else {
+            Log.d("ddms", "execute async: timeout");
+            finish(new TimeoutException());
+        }
+    }
+
+    @Override
+    public void onError(SocketChannel chan, IOException e) {
+        finish(e);
+    }
+
+    /**
+     * Advances the exchange as far as possible without blocking, then waits on the selector
+     * for the channel to be ready again.
+     */
+    private void step() {
+        try {
+            while (true) {
+                switch (getState()) {
+                    case STATE_CONNECT:
+                        if (mChannel.finishConnect() == false) {
+                            await(SelectionKey.OP_CONNECT, DdmPreferences.getTimeOut());
+                            return;
+                        }
+
+                        // if the device is not null, then we first tell adb we're looking to
+                        // talk to a specific device
+                        if (mDevice != null) {
+                            startRequest("host:transport:" //$NON-NLS-1$
+                                    + mDevice.getSerialNumber());
+                        } else {
+                            mTransportSelected = true;
+                            startRequest("shell:" + mCommand); //$NON-NLS-1$
+                        }
+                        break;
+                    case STATE_WRITE_REQUEST:
+                        mChannel.write(mBuffer);
+                        if (mBuffer.hasRemaining()) {
+                            await(SelectionKey.OP_WRITE, DdmPreferences.getTimeOut());
+                            return;
+                        }
+                        startRead(STATE_READ_STATUS, 4);
+                        break;
+                    case STATE_READ_STATUS:
+                        if (fill() == false) {
+                            return;
+                        }
+                        if (AdbHelper.isOkay(mBuffer.array())) {
+                            if (mTransportSelected) {
+                                mLastOutputTime = System.currentTimeMillis();
+                                startRead(STATE_OUTPUT, 16384);
+                            } else {
+                                mTransportSelected = true;
+                                startRequest("shell:" + mCommand); //$NON-NLS-1$
+                            }
+                        } else {
+                            startRead(STATE_READ_FAIL_LENGTH, 4);
+                        }
+                        break;
+                    case STATE_READ_FAIL_LENGTH:
+                        if (fill() == false) {
+                            return;
+                        }
+                        int len;
+                        try {
+                            len = Integer.parseInt(AdbHelper.replyToString(mBuffer.array()), 16);
+                        } catch (NumberFormatException nfe) {
+                            reject("");
+                            return;
+                        }
+                        startRead(STATE_READ_FAIL_MESSAGE, len);
+                        break;
+                    case STATE_READ_FAIL_MESSAGE:
+                        if (fill() == false) {
+                            return;
+                        }
+                        reject(AdbHelper.replyToString(mBuffer.array()));
+                        return;
+                    case STATE_OUTPUT:
+                        if (readOutput() == false) {
+                            return;
+                        }
+                        break;
+                    default:
+                        // done or cancelled.
+                        return;
+                }
+            }
+        } catch (IOException e) {
+            finish(e);
+        } catch (ShellCommandUnresponsiveException e) {
+            finish(e);
+        } catch (RuntimeException e) {
+            // most likely coming from the receiver, make sure the connection is released.
+            finish(e);
+        }
+    }
+
+    /**
+     * Reads as much output as is available and sends it to the receiver.
+     * @return true if the caller should keep going, false if the command is done or waiting
+     * on the selector.
+     */
+    private boolean readOutput() throws IOException, ShellCommandUnresponsiveException {
+        if (mReceiver != null && mReceiver.isCancelled()) {
+            Log.v("ddms", "execute async: cancelled");
+            finish(null);
+            return false;
+        }
+
+        mBuffer.clear();
+        int count = mChannel.read(mBuffer);
+        if (count < 0) {
+            // we're at the end, we flush the output
+            if (mReceiver != null) {
+                mReceiver.flush();
+            }
+            Log.v("ddms", "execute async '" + mCommand + "' on '" + mDevice
+                    + "' : EOF hit. Read: " + count);
+            finish(null);
+            return false;
+        } else if (count == 0) {
+            int wait = AdbHelper.CANCEL_CHECK_TIME;
+            if (mMaxTimeToOutputResponse > 0) {
+                long remaining = mMaxTimeToOutputResponse
+                        - (System.currentTimeMillis() - mLastOutputTime);
+                if (remaining <= 0) {
+                    throw new ShellCommandUnresponsiveException();
+                }
+                wait = (int) Math.min(wait, remaining);
+            }
+            await(SelectionKey.OP_READ, wait);
+            return false;
+        }
+
+        mLastOutputTime = System.currentTimeMillis();
+        if (mReceiver != null) {
+            mReceiver.addOutput(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.position());
+        }
+        return true;
+    }
+
+    private void startRequest(String request) {
+        mBuffer = ByteBuffer.wrap(AdbHelper.formAdbRequest(request));
+        setState(STATE_WRITE_REQUEST);
+    }
+
+    private void startRead(int state, int length) {
+        if (state == STATE_OUTPUT && mBuffer.capacity() >= length) {
+            mBuffer.clear();
+        } else {
+            mBuffer = ByteBuffer.allocate(length);
+        }
+        setState(state);
+    }
+
+    /**
+     * Fills {@link #mBuffer} from the channel.
+     * @return true if the buffer is full, false if waiting on the selector for more data.
+     */
+    private boolean fill() throws IOException {
+        if (mChannel.read(mBuffer) < 0) {
+            throw new IOException("EOF");
+        }
+        if (mBuffer.hasRemaining()) {
+            await(SelectionKey.OP_READ, DdmPreferences.getTimeOut());
+            return false;
+        }
+        return true;
+    }
+
+    private void reject(String message) {
+        if (mTransportSelected) {
+            Log.e("ddms", "ADB rejected shell command (" + mCommand + "): " + message);
+            finish(new AdbCommandRejectedException(message));
+        } else {
+            finish(new AdbCommandRejectedException(message, true/*errorDuringDeviceSelection*/));
+        }
+    }
+
+    private void await(int ops, int timeout) throws IOException {
+        AdbSelector.getInstance().register(mChannel, ops, timeout, this);
+    }
+
+    /**
+     * Ends the command, closing the connection and releasing its slot in the queue.
+     * @param error the error that ended the command, or null if it completed normally.
+     */
+    private void finish(Exception error) {
+        synchronized (this) {
+            if (mState == STATE_DONE) {
+                return;
+            }
+            if (mCancelled == false) {
+                mError = error;
+            }
+            mState = STATE_DONE;
+            notifyAll();
+        }
+
+        SocketChannel chan;
+        synchronized (this) {
+            chan = mChannel;
+        }
+        if (chan != null) {
+            try {
+                chan.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        Log.v("ddms", "execute async: returning");
+        mQueue.commandFinished(this);
+    }
+
+    private synchronized int getState() {
+        return mState;
+    }
+
+    private synchronized void setState(int state) {
+        if (mState != STATE_DONE) {
+            mState = state;
+        }
+    }
+
+    /**
+     * Cancels the command. If it is running, the connection to adb is closed, which ends the
+     * shell command on the device.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        SocketChannel chan;
+        synchronized (this) {
+            if (mState == STATE_DONE) {
+                return false;
+            }
+            mCancelled = true;
+            if (mState == STATE_QUEUED) {
+                mState = STATE_DONE;
+                notifyAll();
+                mQueue.remove(this);
+                return true;
+            }
+            chan = mChannel;
+        }
+
+        if (chan == null) {
+            // still opening the channel.
+            finish(null);
+            return true;
+        }
+
+        // closing the channel makes the selector (or the running step) finish the command.
+        try {
+            chan.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * Waits for the command to complete.
+     * <p/>If the command failed, the cause of the {@link ExecutionException} is one of
+     * {@link TimeoutException}, {@link AdbCommandRejectedException},
+     * {@link ShellCommandUnresponsiveException} or {@link IOException}, similar to
+     * {@link IDevice#executeShellCommand(String, IShellOutputReceiver, int)}.
+     */
+    @Override
+    public synchronized Void get() throws InterruptedException, ExecutionException {
+        while (mState != STATE_DONE) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized Void get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, java.util.concurrent.TimeoutException {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        while (mState != STATE_DONE) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new java.util.concurrent.TimeoutException();
+            }
+            wait(remaining);
+        }
+        return getResult();
+    }
+
+    private Void getResult() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Base implementation of {@link IShellOutputReceiver} that splits the raw output into lines
+ * directly on the bytes coming from the socket, without creating intermediate {@link String}
+ * objects.
+ * <p/>This is an alternative to {@link MultiLineReceiver} for receivers handling a large amount
+ * of output (like logcat). Lines are terminated by <code>\n</code>, and a <code>\r</code>
+ * preceding it is removed. Only the lines spanning several packets are copied into an internal
+ * buffer; the decoding buffers are reused from one line to the next.
+ * <p/>Classes extending it must implement {@link #processLine(CharSequence)}, or override
+ * {@link #processLine(byte[], int, int)} to work on the raw UTF-8 bytes.
+ */
+public abstract class ByteLineReceiver implements IShellOutputReceiver {
+
+    private boolean mTrimLines = true;
+
+    private final CharsetDecoder mDecoder = Charset.forName("UTF-8").newDecoder() //$NON-NLS-1$
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** bytes of the unfinished line, stored for the next packet */
+    private byte[] mLineBytes = new byte[256];
+    private int mLineLength = 0;
+
+    /** byte buffer wrapping the last array the lines were decoded from. */
+    private ByteBuffer mByteView;
+    private CharBuffer mCharBuffer = CharBuffer.allocate(256);
+
+    /**
+     * Set the trim lines flag.
+     * @param trim whether the lines are trimmed, or not.
+     */
+    public void setTrimLine(boolean trim) {
+        mTrimLines = trim;
+    }
+
+    @Override
+    public final void addOutput(byte[] data, int offset, int length) {
+        if (isCancelled()) {
+            return;
+        }
+
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (data[i] != '\n') {
+                continue;
+            }
+
+            if (mLineLength > 0) {
+                // the beginning of the line came in a previous packet.
+                appendLineBytes(data, start, i - start);
+                processRawLine(mLineBytes, 0, mLineLength);
+                mLineLength = 0;
+            } else {
+                processRawLine(data, start, i - start);
+            }
+
+            start = i + 1;
+        }
+
+        // store the unfinished line for the next packet.
+        if (start < end) {
+            appendLineBytes(data, start, end - start);
+        }
+
+        newLinesProcessed();
+    }
+
+    @Override
+    public final void flush() {
+        if (mLineLength > 0) {
+            processRawLine(mLineBytes, 0, mLineLength);
+            mLineLength = 0;
+            newLinesProcessed();
+        }
+
+        done();
+    }
+
+    /**
+     * Terminates the process. This is called after the last line has been through
+     * {@link #processLine(byte[], int, int)}.
+     */
+    public void done() {
+        // do nothing.
+    }
+
+    /**
+     * Called after all the complete lines of a packet of output have been processed. This
+     * allows receivers to process lines in batches.
+     */
+    protected void newLinesProcessed() {
+        // do nothing.
+    }
+
+    /**
+     * Called for each new line with the raw UTF-8 bytes of the line, without the line
+     * terminator.
+     * <p/>The content of <var>data</var> is only valid during the call.
+     * <p/>The default implementation decodes the line and calls {@link #processLine(CharSequence)}.
+     *
+     * @param data the array containing the line.
+     * @param offset the offset of the line in <var>data</var>.
+     * @param length the length of the line.
+     */
+    protected void processLine(byte[] data, int offset, int length) {
+        processLine(decode(data, offset, length));
+    }
+
+    /**
+     * Called for each new line.
+     * <p/>The {@link CharSequence} is reused for the next line: it is only valid during the call,
+     * and {@link Object#toString()} must be called on it to keep the line.
+     *
+     * @param line the line, without the line terminator.
+     */
+    protected abstract void processLine(CharSequence line);
+
+    /**
+     * Removes the optional <code>\r</code> at the end of the line and sends it for processing.
+     */
+    private void processRawLine(byte[] data, int offset, int length) {
+        if (length > 0 && data[offset + length - 1] == '\r') {
+            length--;
+        }
+
+        processLine(data, offset, length);
+    }
+
+    /**
+     * Decodes a line into the reusable char buffer, trimming it if needed.
+     */
+    private CharSequence decode(byte[] data, int offset, int length) {
+        if (mByteView == null || mByteView.array() != data) {
+            mByteView = ByteBuffer.wrap(data);
+        }
+        mByteView.limit(offset + length).position(offset);
+
+        // a UTF-8 byte never decodes into more than one char.
+        if (mCharBuffer.capacity() < length) {
+            mCharBuffer = CharBuffer.allocate(Math.max(length, mCharBuffer.capacity() * 2));
+        }
+        mCharBuffer.clear();
+
+        // a complete line never ends in the middle of a character since '\n' cannot be
+        // part of a multi-byte sequence, so each line can be decoded on its own.
+        mDecoder.reset();
+        mDecoder.decode(mByteView, mCharBuffer, true /*endOfInput*/);
+        mDecoder.flush(mCharBuffer);
+        mCharBuffer.flip();
+
+        if (mTrimLines) {
+            int start = mCharBuffer.position();
+            int end = mCharBuffer.limit();
+            while (start < end && mCharBuffer.get(start) <= ' ') {
+                start++;
+            }
+            while (end > start && mCharBuffer.get(end - 1) <= ' ') {
+                end--;
+            }
+            mCharBuffer.limit(end).position(start);
+        }
+
+        return mCharBuffer;
+    }
+
+    private void appendLineBytes(byte[] data, int offset, int length) {
+        if (mLineLength + length > mLineBytes.length) {
+            byte[] newBytes = new byte[Math.max(mLineLength + length, mLineBytes.length * 2)];
+            System.arraycopy(mLineBytes, 0, newBytes, 0, mLineLength);
+            mLineBytes = newBytes;
+        }
+
+        System.arraycopy(data, offset, mLineBytes, mLineLength, length);
+        mLineLength += length;
+    }
+}
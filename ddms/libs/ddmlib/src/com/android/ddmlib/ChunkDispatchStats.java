@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+/**
+ * Snapshot of the metrics of the handling of the data chunks sent by the {@link Client}s.
+ * @see AndroidDebugBridge#getChunkDispatchStats()
+ */
+public final class ChunkDispatchStats {
+
+    private final int mQueueDepth;
+    private final int mMaxQueueDepth;
+    private final long mHandledCount;
+    private final long mTotalHandlerTime;
+    private final long mMaxHandlerTime;
+
+    ChunkDispatchStats(int queueDepth, int maxQueueDepth, long handledCount,
+            long totalHandlerTime, long maxHandlerTime) {
+        mQueueDepth = queueDepth;
+        mMaxQueueDepth = maxQueueDepth;
+        mHandledCount = handledCount;
+        mTotalHandlerTime = totalHandlerTime;
+        mMaxHandlerTime = maxHandlerTime;
+    }
+
+    /**
+     * Returns the number of chunks received and not handled yet.
+     */
+    public int getQueueDepth() {
+        return mQueueDepth;
+    }
+
+    /**
+     * Returns the largest number of chunks waiting to be handled at the same time.
+     */
+    public int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    /**
+     * Returns the number of chunks handled.
+     */
+    public long getHandledCount() {
+        return mHandledCount;
+    }
+
+    /**
+     * Returns the average time spent in the handlers, in microseconds.
+     */
+    public long getAverageHandlerTime() {
+        return mHandledCount > 0 ? mTotalHandlerTime / mHandledCount / 1000 : 0;
+    }
+
+    /**
+     * Returns the longest time spent handling a chunk, in microseconds.
+     */
+    public long getMaxHandlerTime() {
+        return mMaxHandlerTime / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "queued: %1$d (max %2$d), handled: %3$d, handler time: %4$dus (max %5$dus)",
+                mQueueDepth, mMaxQueueDepth, mHandledCount, getAverageHandlerTime(),
+                getMaxHandlerTime());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs the {@link ChunkHandler}s on a small pool of worker threads, so that a slow handler
+ * (heap dump parsing, method profile, ...) doesn't stall the reads of the other clients in
+ * {@link MonitorThread}.
+ * <p/>Each client is always handled by the same worker, so the chunks of a client are handled
+ * in the order they were received. The queues of the workers are bounded: when a worker falls
+ * too far behind, {@link #dispatch(Client, ChunkHandler, int, ByteBuffer, boolean, int)} blocks
+ * until it catches up.
+ */
+final class ChunkDispatcher {
+
+    /** Max number of chunks waiting to be handled by a worker. */
+    static final int QUEUE_CAPACITY = 256;
+    /** Max number of worker threads. */
+    private static final int MAX_WORKERS = 4;
+    /** Handlers taking longer than this (in ms) are logged. */
+    private static final long SLOW_HANDLER_TIME = 500;
+
+    private final Worker[] mWorkers;
+
+    // metrics. Guarded by "this".
+    private int mQueueDepth = 0;
+    private int mMaxQueueDepth = 0;
+    private long mHandledCount = 0;
+    private long mTotalHandlerTime = 0;
+    private long mMaxHandlerTime = 0;
+
+    /**
+     * A chunk waiting to be handled.
+     */
+    private static final class Task {
+        final Client mClient;
+        final ChunkHandler mHandler;
+        final int mType;
+        final ByteBuffer mData;
+        final boolean mIsReply;
+        final int mMsgId;
+
+        Task(Client client, ChunkHandler handler, int type, ByteBuffer data, boolean isReply,
+                int msgId) {
+            mClient = client;
+            mHandler = handler;
+            mType = type;
+            mData = data;
+            mIsReply = isReply;
+            mMsgId = msgId;
+        }
+    }
+
+    private final class Worker extends Thread {
+        final BlockingQueue<Task> mQueue = new LinkedBlockingQueue<Task>(QUEUE_CAPACITY);
+
+        Worker(int index) {
+            super("Chunk Handler " + index); //$NON-NLS-1$
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    handle(mQueue.take());
+                }
+            } catch (InterruptedException e) {
+                // stopped.
+            }
+        }
+    }
+
+    /**
+     * Creates and starts a dispatcher with one worker per processor, up to {@link #MAX_WORKERS}.
+     */
+    ChunkDispatcher() {
+        this(Math.max(2, Math.min(MAX_WORKERS, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Creates and starts a dispatcher.
+     * @param workerCount the number of worker threads.
+     */
+    ChunkDispatcher(int workerCount) {
+        mWorkers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            mWorkers[i] = new Worker(i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * Queues a chunk to be handled by <var>handler</var>. The data must not be modified after
+     * this call.
+     */
+    void dispatch(Client client, ChunkHandler handler, int type, ByteBuffer data,
+            boolean isReply, int msgId) {
+        Task task = new Task(client, handler, type, data, isReply, msgId);
+        Worker worker = mWorkers[(System.identityHashCode(client) & 0x7FFFFFFF) % mWorkers.length];
+
+        synchronized (this) {
+            mQueueDepth++;
+            mMaxQueueDepth = Math.max(mMaxQueueDepth, mQueueDepth);
+        }
+        try {
+            worker.mQueue.put(task);
+        } catch (InterruptedException e) {
+            // the monitor thread is not interrupted, but don't lose the chunk if it is.
+            // handle() takes the chunk off the queue depth.
+            Thread.currentThread().interrupt();
+            handle(task);
+        }
+    }
+
+    private void handle(Task task) {
+        long start = System.nanoTime();
+        try {
+            task.mHandler.handleChunk(task.mClient, task.mType, task.mData, task.mIsReply,
+                    task.mMsgId);
+        } catch (RuntimeException e) {
+            // don't let a broken handler kill the worker of other clients.
+            Log.e("ddms", e);
+        } finally {
+            long time = System.nanoTime() - start;
+            synchronized (this) {
+                mQueueDepth--;
+                mHandledCount++;
+                mTotalHandlerTime += time;
+                mMaxHandlerTime = Math.max(mMaxHandlerTime, time);
+            }
+            if (time > SLOW_HANDLER_TIME * 1000000L) {
+                Log.w("ddms", "Handling " + ChunkHandler.name(task.mType) + " took "
+                        + (time / 1000000L) + "ms");
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. Chunks still waiting in the queues are dropped.
+     */
+    void stop() {
+        for (Worker worker : mWorkers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Returns the number of worker threads.
+     */
+    int getWorkerCount() {
+        return mWorkers.length;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of the dispatcher.
+     */
+    synchronized ChunkDispatchStats getStats() {
+        return new ChunkDispatchStats(mQueueDepth, mMaxQueueDepth, mHandledCount,
+                mTotalHandlerTime, mMaxHandlerTime);
+    }
+}
@@ -18,6 +18,7 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.DebugPortManager.IDebugPortProvider;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
@@ -65,6 +66,43 @@ abstract class ChunkHandler {
     abstract void handleChunk(Client client, int type,
         ByteBuffer data, boolean isReply, int msgId);
 
+    /**
+     * Returns whether the data of a chunk received in reply to one of our
+     * requests can be written to a file as it arrives, instead of being
+     * handed to {@link #handleChunk(Client, int, ByteBuffer, boolean, int)}
+     * once fully received.  This is meant for very large chunks, which
+     * would otherwise have to fit in the read buffer of the client.
+     *
+     * If this returns true, the chunk is sent to
+     * {@link #handleStreamedChunk(Client, int, File, int)} instead.
+     */
+    boolean canStreamChunk(Client client, int type) {
+        return false;
+    }
+
+    /**
+     * Called as the data of a streamed chunk arrives.
+     *
+     * @param received the number of bytes of the chunk received so far.
+     * @param length the length of the chunk.
+     */
+    void handleStreamedChunkProgress(Client client, int type, long received, long length) {
+        // do nothing.
+    }
+
+    /**
+     * Handle a chunk whose data was written to a file as it arrived.  The
+     * handler takes ownership of the file.
+     *
+     * @param file the file containing the chunk data, or null if it could
+     *     not be written.
+     */
+    void handleStreamedChunk(Client client, int type, File file, int msgId) {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
     /**
      * Handle chunks not recognized by handlers.  The handleChunk() method
      * in sub-classes should call this if the chunk type isn't recognized.
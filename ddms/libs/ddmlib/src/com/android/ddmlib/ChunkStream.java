@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the data of a chunk to a temporary file as it is read from a {@link Client}, so that
+ * the read buffer of the client does not have to hold the whole packet.
+ * <p/>This is used for chunks sent in reply to our requests, when the packet only contains that
+ * chunk, and {@link ChunkHandler#canStreamChunk(Client, int)} returns true.
+ */
+final class ChunkStream {
+
+    /** Length of the headers of a reply containing a single chunk. */
+    private static final int HEADER_LEN = JdwpPacket.JDWP_HEADER_LEN
+            + ChunkHandler.CHUNK_HEADER_LEN;
+
+    /** Amount of data between two progress notifications. */
+    private static final long PROGRESS_INTERVAL = 1024 * 1024;
+
+    private final Client mClient;
+    private final ChunkHandler mHandler;
+    private final int mType;
+    private final int mMsgId;
+    private final long mLength;
+    private long mReceived = 0;
+    private long mNextProgress = PROGRESS_INTERVAL;
+
+    private File mFile;
+    private FileOutputStream mOutput;
+    private FileChannel mChannel;
+
+    private ChunkStream(Client client, ChunkHandler handler, int type, int msgId, long length) {
+        mClient = client;
+        mHandler = handler;
+        mType = type;
+        mMsgId = msgId;
+        mLength = length;
+    }
+
+    /**
+     * Checks whether the data at the start of the buffer is a reply whose chunk can be
+     * streamed. If it is, the headers of the packet are removed from the buffer and a stream
+     * is returned for the data that follows.
+     * <p/>On entry and exit, the data starts at offset 0 and ends at "position".
+     *
+     * @return the stream, or null if the packet is not a reply that can be streamed, or if its
+     *     headers have not been received yet.
+     */
+    static ChunkStream start(Client client, ByteBuffer buf) {
+        if (buf.position() < HEADER_LEN) {
+            return null;
+        }
+
+        JdwpPacket packet = JdwpPacket.findPacketHeader(buf);
+        if (packet == null || packet.isReply() == false || packet.isError()) {
+            return null;
+        }
+
+        ChunkHandler handler = client.isResponseToUs(packet.getId());
+        if (handler == null) {
+            return null;
+        }
+
+        ByteOrder oldOrder = buf.order();
+        buf.order(ChunkHandler.CHUNK_ORDER);
+        int type = buf.getInt(JdwpPacket.JDWP_HEADER_LEN);
+        int length = buf.getInt(JdwpPacket.JDWP_HEADER_LEN + 4);
+        buf.order(oldOrder);
+
+        // only packets made of one chunk can be streamed.
+        if (length != packet.getLength() - HEADER_LEN
+                || handler.canStreamChunk(client, type) == false) {
+            return null;
+        }
+
+        ChunkStream stream = new ChunkStream(client, handler, type, packet.getId(), length);
+        try {
+            stream.mFile = File.createTempFile("ddms", ".tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+            stream.mOutput = new FileOutputStream(stream.mFile);
+            stream.mChannel = stream.mOutput.getChannel();
+            Log.d("ddms", "Streaming " + ChunkHandler.name(type) + " chunk of " //$NON-NLS-1$
+                    + length + " bytes to " + stream.mFile);
+        } catch (IOException e) {
+            // the data is still read, but dropped.
+            Log.e("ddms", "Unable to create a file for " + ChunkHandler.name(type)); //$NON-NLS-1$
+            Log.e("ddms", e); //$NON-NLS-1$
+            stream.close(true /*delete*/);
+        }
+
+        consume(buf, HEADER_LEN);
+        return stream;
+    }
+
+    /**
+     * Writes the data of the chunk at the start of the buffer, and removes it from the buffer.
+     * Once the whole chunk has been received, it is sent to its handler.
+     * <p/>On entry and exit, the data starts at offset 0 and ends at "position".
+     *
+     * @return true if the chunk is complete.
+     */
+    boolean write(ByteBuffer buf) {
+        int count = (int) Math.min(mLength - mReceived, buf.position());
+        if (count > 0 && mChannel != null) {
+            ByteBuffer data = buf.duplicate();
+            data.position(0);
+            data.limit(count);
+            try {
+                while (data.hasRemaining()) {
+                    mChannel.write(data);
+                }
+            } catch (IOException e) {
+                // drop the rest of the data, but keep reading it.
+                Log.e("ddms", "Unable to write " + ChunkHandler.name(mType) //$NON-NLS-1$
+                        + " data to " + mFile);
+                Log.e("ddms", e); //$NON-NLS-1$
+                close(true /*delete*/);
+            }
+        }
+        consume(buf, count);
+        mReceived += count;
+
+        if (mReceived >= mNextProgress && mReceived < mLength) {
+            mHandler.handleStreamedChunkProgress(mClient, mType, mReceived, mLength);
+            mNextProgress = mReceived + PROGRESS_INTERVAL;
+        }
+
+        if (mReceived < mLength) {
+            return false;
+        }
+
+        mHandler.handleStreamedChunkProgress(mClient, mType, mReceived, mLength);
+        File file = close(false /*delete*/);
+        mClient.removeRequestId(mMsgId);
+        mHandler.handleStreamedChunk(mClient, mType, file, mMsgId);
+        return true;
+    }
+
+    /**
+     * Stops the stream, because the client went away, and deletes the file.
+     */
+    void abort() {
+        close(true /*delete*/);
+    }
+
+    /**
+     * Closes the file.
+     * @return the file, or null if it was deleted.
+     */
+    private File close(boolean delete) {
+        try {
+            if (mOutput != null) {
+                mOutput.close();
+            }
+        } catch (IOException e) {
+            delete = true;
+        }
+        mOutput = null;
+        mChannel = null;
+
+        if (delete && mFile != null) {
+            mFile.delete();
+            mFile = null;
+        }
+        return mFile;
+    }
+
+    /**
+     * Removes bytes from the start of the buffer.
+     */
+    private static void consume(ByteBuffer buf, int count) {
+        buf.flip();             // limit<-posn, posn<-0
+        buf.position(count);
+        buf.compact();          // shift posn...limit, posn<-pending data
+    }
+}
@@ -93,15 +93,25 @@ public class Client {
      * request from the debugger.  Requests from the debugger, and from us,
      * are much smaller.
      *
-     * Pass-through debugger traffic is sent without copying.  "mWriteBuffer"
-     * is only used for data generated within Client.
+     * Pass-through debugger traffic is sent without copying.
+     *
+     * The buffers come from JdwpBufferPool.  The read buffer grows to the
+     * size of the largest packet being read, and is replaced by a small
+     * buffer once the client has been idle for BUF_IDLE_TIME ms, so
+     * monitoring many clients doesn't keep large buffers around.
      */
-    private static final int INITIAL_BUF_SIZE = 2*1024;
+    private static final int INITIAL_BUF_SIZE = JdwpBufferPool.MIN_BUFFER_SIZE;
     private static final int MAX_BUF_SIZE = 200*1024*1024;
+    private static final int STREAM_BUF_SIZE = 64*1024;
+    static final long BUF_IDLE_TIME = 10000;
     private ByteBuffer mReadBuffer;
+    private long mLastReadTime;
 
-    private static final int WRITE_BUF_SIZE = 256;
-    private ByteBuffer mWriteBuffer;
+    /*
+     * Reply chunk being written to a file as it is read, instead of being
+     * accumulated in "mReadBuffer".  See ChunkStream.
+     */
+    private ChunkStream mChunkStream;
 
     private Device mDevice;
 
@@ -128,15 +138,14 @@ public class Client {
         mDevice = device;
         mChan = chan;
 
-        mReadBuffer = ByteBuffer.allocate(INITIAL_BUF_SIZE);
-        mWriteBuffer = ByteBuffer.allocate(WRITE_BUF_SIZE);
-
         mOutstandingReqs = new HashMap<Integer,ChunkHandler>();
 
         mConnState = ST_INIT;
 
         mClientData = new ClientData(pid);
 
+        setReadBuffer(JdwpBufferPool.allocate(INITIAL_BUF_SIZE));
+
         mThreadUpdateEnabled = DdmPreferences.getInitialThreadUpdate();
         mHeapUpdateEnabled = DdmPreferences.getInitialHeapUpdate();
     }
@@ -507,14 +516,13 @@ public class Client {
      * On failure, closes the socket and returns false.
      */
     boolean sendHandshake() {
-        assert mWriteBuffer.position() == 0;
+        ByteBuffer writeBuffer = JdwpBufferPool.allocate(JdwpPacket.HANDSHAKE_LEN);
 
         try {
-            // assume write buffer can hold 14 bytes
-            JdwpPacket.putHandshake(mWriteBuffer);
-            int expectedLen = mWriteBuffer.position();
-            mWriteBuffer.flip();
-            if (mChan.write(mWriteBuffer) != expectedLen)
+            JdwpPacket.putHandshake(writeBuffer);
+            int expectedLen = writeBuffer.position();
+            writeBuffer.flip();
+            if (mChan.write(writeBuffer) != expectedLen)
                 throw new IOException("partial handshake write");
         }
         catch (IOException ioe) {
@@ -524,7 +532,7 @@ public class Client {
             return false;
         }
         finally {
-            mWriteBuffer.clear();
+            JdwpBufferPool.release(writeBuffer);
         }
 
         mConnState = ST_AWAIT_SHAKE;
@@ -604,7 +612,8 @@ public class Client {
      *
      * This is called when data is known to be available, and we don't yet
      * have a full packet in the buffer.  If the buffer is at capacity,
-     * expand it.
+     * expand it: to the size of the packet being read if its header has
+     * been received, otherwise to twice its size.
      */
     void read()
         throws IOException, BufferOverflowException {
@@ -612,29 +621,96 @@ public class Client {
         int count;
 
         if (mReadBuffer.position() == mReadBuffer.capacity()) {
-            if (mReadBuffer.capacity() * 2 > MAX_BUF_SIZE) {
+            int newSize = mReadBuffer.capacity() * 2;
+            if (mConnState == ST_NEED_DDM_PKT || mConnState == ST_NOT_DDM ||
+                    mConnState == ST_READY) {
+                // the buffer is full, so it holds the length of the packet.
+                newSize = Math.max(newSize, mReadBuffer.getInt(0));
+            }
+            if (newSize > MAX_BUF_SIZE) {
                 Log.e("ddms", "Exceeded MAX_BUF_SIZE!");
                 throw new BufferOverflowException();
             }
             Log.d("ddms", "Expanding read buffer to "
-                + mReadBuffer.capacity() * 2);
-
-            ByteBuffer newBuffer = ByteBuffer.allocate(mReadBuffer.capacity() * 2);
-
-            // copy entire buffer to new buffer
-            mReadBuffer.position(0);
-            newBuffer.put(mReadBuffer);  // leaves "position" at end of copied
+                + JdwpBufferPool.getBufferSize(newSize));
 
-            mReadBuffer = newBuffer;
+            setReadBuffer(JdwpBufferPool.resize(mReadBuffer, newSize));
         }
 
         count = mChan.read(mReadBuffer);
         if (count < 0)
             throw new IOException("read failed");
 
+        mLastReadTime = System.currentTimeMillis();
+
         if (Log.Config.LOGV) Log.v("ddms", "Read " + count + " bytes from " + this);
         //Log.hexDump("ddms", Log.DEBUG, mReadBuffer.array(),
         //    mReadBuffer.arrayOffset(), mReadBuffer.position());
+
+        streamChunks();
+    }
+
+    /**
+     * Replaces the read buffer with a small one if it was expanded and the
+     * client has been idle since.  Only called from the monitor thread, as
+     * the old buffer is returned to the pool.
+     */
+    void trimReadBuffer(long now) {
+        if (mReadBuffer.capacity() > INITIAL_BUF_SIZE && mReadBuffer.position() == 0
+                && mChunkStream == null && now - mLastReadTime >= BUF_IDLE_TIME) {
+            Log.d("ddms", "Shrinking idle read buffer of " + this);
+            setReadBuffer(JdwpBufferPool.resize(mReadBuffer, INITIAL_BUF_SIZE));
+        }
+    }
+
+    /**
+     * Returns the read buffer to the pool.  Only called from the monitor
+     * thread, once the client is closed and no longer read.
+     */
+    void releaseReadBuffer() {
+        if (mReadBuffer != null) {
+            JdwpBufferPool.release(mReadBuffer);
+            mReadBuffer = null;
+        }
+    }
+
+    private void setReadBuffer(ByteBuffer buffer) {
+        mReadBuffer = buffer;
+        mClientData.setJdwpBufferSize(buffer.capacity());
+    }
+
+    /**
+     * Writes the data of large reply chunks to a file as it arrives, so the
+     * read buffer doesn't have to grow to the size of the packet.  The data
+     * of the stream is removed from the buffer; other packets are left for
+     * getJdwpPacket().
+     */
+    private void streamChunks() {
+        if (mConnState != ST_NEED_DDM_PKT && mConnState != ST_NOT_DDM &&
+                mConnState != ST_READY) {
+            return;
+        }
+
+        while (true) {
+            if (mChunkStream == null) {
+                mChunkStream = ChunkStream.start(this, mReadBuffer);
+                if (mChunkStream == null) {
+                    return;
+                }
+
+                // read the data in larger pieces from now on.
+                if (mReadBuffer.capacity() < STREAM_BUF_SIZE) {
+                    setReadBuffer(JdwpBufferPool.resize(mReadBuffer, STREAM_BUF_SIZE));
+                }
+            }
+
+            if (mChunkStream.write(mReadBuffer) == false) {
+                return;
+            }
+
+            // done; the rest of the buffer may hold another packet.
+            mChunkStream = null;
+        }
     }
 
     /**
@@ -806,6 +882,16 @@ public class Client {
 
         mOutstandingReqs.clear();
 
+        if (mChunkStream != null) {
+            mChunkStream.abort();
+            mChunkStream = null;
+        }
+
+        // the read buffer is not returned to the pool here: this can be called
+        // from any thread, while the monitor thread is still using it.  See
+        // releaseReadBuffer().
+        mClientData.setJdwpBufferSize(0);
+
         try {
             if (mChan != null) {
                 mChan.close();
@@ -18,6 +18,7 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.HeapSegment.HeapSegmentElement;
 
+import java.io.File;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -162,6 +163,10 @@ public class ClientData {
     // List of supported features by the client.
     private final HashSet<String> mFeatures = new HashSet<String>();
 
+    // size of the buffers used to read the data of the client, and its peak.
+    private int mJdwpBufferSize = 0;
+    private int mMaxJdwpBufferSize = 0;
+
     // Thread tracking (THCR, THDE).
     private TreeMap<Integer,ThreadInfo> mThreadMap;
 
@@ -317,6 +322,28 @@ public class ClientData {
         void onEndFailure(Client client, String message);
     }
 
+    /**
+     * Handlers able to receive streamed HPROF dumps in a file, as they arrive, instead of in
+     * memory with {@link IHprofDumpHandler#onSuccess(byte[], Client)}.
+     */
+    public interface IHprofDumpStreamHandler extends IHprofDumpHandler {
+        /**
+         * Called as the data of a streamed HPROF dump is received.
+         * @param client the client that was profiled.
+         * @param receivedBytes the number of bytes received so far.
+         * @param totalBytes the size of the HPROF dump.
+         */
+        void onProgress(Client client, long receivedBytes, long totalBytes);
+
+        /**
+         * Called when a streamed HPROF dump was successful.
+         * @param hprofFile a temporary file containing the HPROF dump. The handler is
+         * responsible for moving or deleting it.
+         * @param client the client that was profiled.
+         */
+        void onSuccess(File hprofFile, Client client);
+    }
+
     /**
      * Handlers able to act on Method profiling info
      */
@@ -643,6 +670,26 @@ public class ClientData {
         return mFeatures.contains(feature);
     }
 
+    synchronized void setJdwpBufferSize(int size) {
+        mJdwpBufferSize = size;
+        mMaxJdwpBufferSize = Math.max(mMaxJdwpBufferSize, size);
+    }
+
+    /**
+     * Returns the memory used by ddmlib to buffer the data received from the client, in bytes.
+     * The buffer grows to hold large packets, and shrinks back once the client is idle.
+     */
+    public synchronized int getJdwpBufferSize() {
+        return mJdwpBufferSize;
+    }
+
+    /**
+     * Returns the largest value of {@link #getJdwpBufferSize()} since the client connected.
+     */
+    public synchronized int getMaxJdwpBufferSize() {
+        return mMaxJdwpBufferSize;
+    }
+
     /**
      * Sets the device-side path to the hprof file being written
      * @param pendingHprofDump the file to the hprof file
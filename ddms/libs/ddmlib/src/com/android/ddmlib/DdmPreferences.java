@@ -42,6 +42,8 @@ public final class DdmPreferences {
     public final static LogLevel DEFAULT_LOG_LEVEL = LogLevel.ERROR;
     /** Default timeout values for adb connection (milliseconds) */
     public static final int DEFAULT_TIMEOUT = 5000; // standard delay, in ms
+    /** Default max number of concurrent asynchronous shell connections to a device. */
+    public static final int DEFAULT_MAX_SHELL_CONNECTIONS = 4;
     /** Default profiler buffer size (megabytes) */
     public static final int DEFAULT_PROFILER_BUFFER_SIZE_MB = 8;
     /** Default values for the use of the ADBHOST environment variable. */
@@ -55,6 +57,7 @@ public final class DdmPreferences {
     private static int sDebugPortBase = DEFAULT_DEBUG_PORT_BASE;
     private static LogLevel sLogLevel = DEFAULT_LOG_LEVEL;
     private static int sTimeOut = DEFAULT_TIMEOUT;
+    private static int sMaxShellConnections = DEFAULT_MAX_SHELL_CONNECTIONS;
     private static int sProfilerBufferSizeMb = DEFAULT_PROFILER_BUFFER_SIZE_MB;
 
     private static boolean sUseAdbHost = DEFAULT_USE_ADBHOST;
@@ -166,6 +169,25 @@ public final class DdmPreferences {
         sTimeOut = timeOut;
     }
 
+    /**
+     * Returns the max number of asynchronous shell commands connected to a given device at the
+     * same time.
+     * @see IDevice#executeShellCommandAsync(String, IShellOutputReceiver, int)
+     */
+    public static int getMaxShellConnections() {
+        return sMaxShellConnections;
+    }
+
+    /**
+     * Sets the max number of asynchronous shell commands connected to a given device at the
+     * same time. Additional commands are queued until a running one completes.
+     * <p/>This change takes effect right away.
+     * @param maxConnections the max number of connections per device. Must be at least 1.
+     */
+    public static void setMaxShellConnections(int maxConnections) {
+        sMaxShellConnections = Math.max(1, maxConnections);
+    }
+
     /**
      * Returns the profiler buffer size (megabytes).
      */
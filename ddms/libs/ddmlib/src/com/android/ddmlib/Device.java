@@ -26,6 +26,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,6 +59,7 @@ final class Device implements IDevice {
     private final Map<String, String> mMountPoints = new HashMap<String, String>();
 
     private final ArrayList<Client> mClients = new ArrayList<Client>();
+    private final ShellCommandQueue mShellQueue = new ShellCommandQueue();
     private DeviceMonitor mMonitor;
 
     private static final String LOG_TAG = "Device";
@@ -463,6 +465,21 @@ final class Device implements IDevice {
                 receiver, maxTimeToOutputResponse);
     }
 
+    @Override
+    public Future<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver) {
+        return executeShellCommandAsync(command, receiver, DdmPreferences.getTimeOut());
+    }
+
+    @Override
+    public Future<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver,
+            int maxTimeToOutputResponse) {
+        AsyncShellCommand shellCommand = new AsyncShellCommand(
+                AndroidDebugBridge.getSocketAddress(), this, command, receiver,
+                maxTimeToOutputResponse, mShellQueue);
+        mShellQueue.submit(shellCommand);
+        return shellCommand;
+    }
+
     @Override
     public void runEventLogService(LogReceiver receiver)
             throws TimeoutException, AdbCommandRejectedException, IOException {
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+/**
+ * Snapshot of the time taken by each stage of the discovery of the devices, once they are
+ * online.
+ * @see AndroidDebugBridge#getDeviceDiscoveryStats()
+ */
+public final class DeviceDiscoveryStats {
+
+    /**
+     * Discovery stages of a device.
+     */
+    public enum Stage {
+        /** Starting to track the debuggable processes of the device. */
+        CLIENT_TRACKING,
+        /** Reading the properties of the device. */
+        PROPERTIES,
+        /** Reading the mount points of the device. */
+        MOUNT_POINTS,
+        /** Reading the AVD name of an emulator. */
+        AVD_NAME,
+        /** From the device coming online to the creation of its first list of clients. */
+        CLIENT_LIST;
+    }
+
+    private final long[] mCounts;
+    private final long[] mTotalTimes;
+    private final long[] mMaxTimes;
+
+    DeviceDiscoveryStats(long[] counts, long[] totalTimes, long[] maxTimes) {
+        mCounts = counts;
+        mTotalTimes = totalTimes;
+        mMaxTimes = maxTimes;
+    }
+
+    /**
+     * Returns the number of times a stage completed.
+     */
+    public long getCount(Stage stage) {
+        return mCounts[stage.ordinal()];
+    }
+
+    /**
+     * Returns the average time of a stage, in milliseconds.
+     */
+    public long getAverageTime(Stage stage) {
+        long count = mCounts[stage.ordinal()];
+        return count > 0 ? mTotalTimes[stage.ordinal()] / count / 1000000L : 0;
+    }
+
+    /**
+     * Returns the longest time of a stage, in milliseconds.
+     */
+    public long getMaxTime(Stage stage) {
+        return mMaxTimes[stage.ordinal()] / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (sb.length() > 0) {
+                sb.append(", "); //$NON-NLS-1$
+            }
+            sb.append(String.format("%1$s: %2$d x %3$dms (max %4$dms)", //$NON-NLS-1$
+                    stage.name().toLowerCase(), getCount(stage), getAverageTime(stage),
+                    getMaxTime(stage)));
+        }
+        return sb.toString();
+    }
+}
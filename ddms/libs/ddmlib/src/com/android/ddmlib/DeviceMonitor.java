@@ -19,6 +19,7 @@ package com.android.ddmlib;
 import com.android.ddmlib.AdbHelper.AdbResponse;
 import com.android.ddmlib.ClientData.DebuggerStatus;
 import com.android.ddmlib.DebugPortManager.IDebugPortProvider;
+import com.android.ddmlib.DeviceDiscoveryStats.Stage;
 import com.android.ddmlib.IDevice.DeviceState;
 
 import java.io.IOException;
@@ -36,12 +37,32 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Device monitor. This connects to the Android Debug Bridge and get device and
  * debuggable process information from it.
+ * <p/>The device and process lists are received as adb pushes them. The slow part of the
+ * discovery (starting to track the processes, reading the properties, opening the clients) is
+ * done on a pool of threads, so that many devices can be discovered in parallel and a slow
+ * device doesn't delay the others.
  */
 final class DeviceMonitor {
+    /** Number of threads querying the devices and opening their clients. */
+    private static final int DEVICE_TASK_THREADS = 8;
+    /** Delay before reopening a dropped client, so that it answers the new handshake. */
+    private static final long CLIENT_REOPEN_DELAY = 1000;
+    /** Min and max delays between two attempts to connect to adb. */
+    private static final long CONNECT_RETRY_MIN_DELAY = 50;
+    private static final long CONNECT_RETRY_MAX_DELAY = 1000;
+
+    private static final String[] MOUNT_POINTS = new String[] {
+        IDevice.MNT_EXTERNAL_STORAGE, IDevice.MNT_DATA, IDevice.MNT_ROOT
+    };
+
     private byte[] mLengthBuffer = new byte[4];
     private byte[] mLengthBuffer2 = new byte[4];
 
@@ -63,6 +84,47 @@ final class DeviceMonitor {
 
     private final HashMap<Client, Integer> mClientsToReopen = new HashMap<Client, Integer>();
 
+    private long mConnectRetryDelay = CONNECT_RETRY_MIN_DELAY;
+
+    private final ScheduledThreadPoolExecutor mDeviceTaskExecutor;
+
+    /**
+     * Latest process lists of the devices, waiting to be processed. A device with an entry has
+     * a task processing its lists, and a <code>null</code> value means there is no new list.
+     */
+    private final Map<Device, Set<Integer>> mPendingClientLists =
+            new HashMap<Device, Set<Integer>>();
+
+    /** Pids of the clients waiting to be reopened, by device. */
+    private final Map<Device, Set<Integer>> mReopeningPids = new HashMap<Device, Set<Integer>>();
+
+    /** Last known properties, mount points and AVD names of the devices, by serial number. */
+    private final Map<String, DeviceInfo> mDeviceInfoCache = new HashMap<String, DeviceInfo>();
+
+    /** Times when the devices came online, until their first process list is processed. */
+    private final Map<Device, Long> mOnlineTimes = new HashMap<Device, Long>();
+
+    // discovery metrics, by stage. Guarded by mStageCounts.
+    private final long[] mStageCounts = new long[Stage.values().length];
+    private final long[] mStageTotalTimes = new long[Stage.values().length];
+    private final long[] mStageMaxTimes = new long[Stage.values().length];
+
+    /**
+     * Snapshot of the information read from a device.
+     */
+    private static final class DeviceInfo {
+        final Map<String, String> mProperties;
+        final Map<String, String> mMountPoints;
+        final String mAvdName;
+
+        DeviceInfo(Map<String, String> properties, Map<String, String> mountPoints,
+                String avdName) {
+            mProperties = properties;
+            mMountPoints = mountPoints;
+            mAvdName = avdName;
+        }
+    }
+
     /**
      * Creates a new {@link DeviceMonitor} object and links it to the running
      * {@link AndroidDebugBridge} object.
@@ -72,6 +134,18 @@ final class DeviceMonitor {
         mServer = server;
 
         mDebuggerPorts.add(DdmPreferences.getDebugPortBase());
+
+        mDeviceTaskExecutor = new ScheduledThreadPoolExecutor(DEVICE_TASK_THREADS,
+                new ThreadFactory() {
+                    private int mCount = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Device Task " + mCount++); //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
     }
 
     /**
@@ -104,6 +178,8 @@ final class DeviceMonitor {
         if (mSelector != null) {
             mSelector.wakeup();
         }
+
+        mDeviceTaskExecutor.shutdownNow();
     }
 
 
@@ -141,6 +217,30 @@ final class DeviceMonitor {
         return mServer;
     }
 
+    /**
+     * Returns a snapshot of the time taken by the discovery stages of the devices.
+     */
+    DeviceDiscoveryStats getDiscoveryStats() {
+        synchronized (mStageCounts) {
+            return new DeviceDiscoveryStats(mStageCounts.clone(), mStageTotalTimes.clone(),
+                    mStageMaxTimes.clone());
+        }
+    }
+
+    /**
+     * Records the time taken by a discovery stage.
+     * @param startTime the start of the stage, from {@link System#nanoTime()}.
+     */
+    private void recordStage(Stage stage, long startTime) {
+        long time = System.nanoTime() - startTime;
+        synchronized (mStageCounts) {
+            int i = stage.ordinal();
+            mStageCounts[i]++;
+            mStageTotalTimes[i] += time;
+            mStageMaxTimes[i] = Math.max(mStageMaxTimes[i], time);
+        }
+    }
+
     void addClientToDropAndReopen(Client client, int port) {
         synchronized (mClientsToReopen) {
             Log.d("DeviceMonitor",
@@ -173,10 +273,14 @@ final class DeviceMonitor {
                                 mRestartAttemptCount = 0;
                             }
                         }
-                        waitABit();
+                        // adb is usually just starting, so retry quickly at first.
+                        waitABit(mConnectRetryDelay);
+                        mConnectRetryDelay = Math.min(mConnectRetryDelay * 2,
+                                CONNECT_RETRY_MAX_DELAY);
                     } else {
                         Log.d("DeviceMonitor", "Connected to adb for device monitoring");
                         mConnectionAttempt = 0;
+                        mConnectRetryDelay = CONNECT_RETRY_MIN_DELAY;
                     }
                 }
 
@@ -242,9 +346,9 @@ final class DeviceMonitor {
     /**
      * Sleeps for a little bit.
      */
-    private void waitABit() {
+    private void waitABit(long delay) {
         try {
-            Thread.sleep(1000);
+            Thread.sleep(delay);
         } catch (InterruptedException e1) {
         }
     }
@@ -332,10 +436,6 @@ final class DeviceMonitor {
         // because we are going to call mServer.deviceDisconnected which will acquire this lock
         // we lock it first, so that the AndroidDebugBridge lock is always locked first.
         synchronized (AndroidDebugBridge.getLock()) {
-            // array to store the devices that must be queried for information.
-            // it's important to not do it inside the synchronized loop as this could block
-            // the whole workspace (this lock is acquired during build too).
-            ArrayList<Device> devicesToQuery = new ArrayList<Device>();
             synchronized (mDevices) {
                 // For each device in the current list, we look for a matching the new list.
                 // * if we find it, we update the current object with whatever new information
@@ -366,17 +466,8 @@ final class DeviceMonitor {
                                 // if the device just got ready/online, we need to start
                                 // monitoring it.
                                 if (device.isOnline()) {
-                                    if (AndroidDebugBridge.getClientSupport() == true) {
-                                        if (startMonitoringDevice(device) == false) {
-                                            Log.e("DeviceMonitor",
-                                                    "Failed to start monitoring "
-                                                    + device.getSerialNumber());
-                                        }
-                                    }
-
-                                    if (device.getPropertyCount() == 0) {
-                                        devicesToQuery.add(device);
-                                    }
+                                    startDeviceDiscovery(device,
+                                            device.getPropertyCount() == 0 /* queryInfo */);
                                 }
                             }
 
@@ -402,34 +493,106 @@ final class DeviceMonitor {
                 for (Device newDevice : newList) {
                     // add them to the list
                     mDevices.add(newDevice);
-                    mServer.deviceConnected(newDevice);
 
-                    // start monitoring them.
-                    if (AndroidDebugBridge.getClientSupport() == true) {
-                        if (newDevice.isOnline()) {
-                            startMonitoringDevice(newDevice);
-                        }
+                    // give them the info of their last connection, if any, until it's
+                    // read again.
+                    boolean cached = newDevice.isOnline() && applyCachedInfo(newDevice);
+
+                    mServer.deviceConnected(newDevice);
+                    if (cached) {
+                        newDevice.update(Device.CHANGE_BUILD_INFO);
                     }
 
-                    // look for their build info.
+                    // start monitoring them, and look for their build info.
                     if (newDevice.isOnline()) {
-                        devicesToQuery.add(newDevice);
+                        startDeviceDiscovery(newDevice, true /* queryInfo */);
                     }
                 }
             }
+        }
+        newList.clear();
+    }
 
-            // query the new devices for info.
-            for (Device d : devicesToQuery) {
-                queryNewDeviceForInfo(d);
+    /**
+     * Starts monitoring the clients of an online device and querying its info, on the device
+     * task threads.
+     * @param device the device.
+     * @param queryInfo whether to query the properties, mount points and AVD name.
+     */
+    private void startDeviceDiscovery(final Device device, final boolean queryInfo) {
+        final boolean clientSupport = AndroidDebugBridge.getClientSupport();
+        if (clientSupport) {
+            synchronized (mOnlineTimes) {
+                mOnlineTimes.put(device, System.nanoTime());
             }
         }
-        newList.clear();
+
+        executeDeviceTask(new Runnable() {
+            @Override
+            public void run() {
+                if (clientSupport) {
+                    long start = System.nanoTime();
+                    if (startMonitoringDevice(device)) {
+                        recordStage(Stage.CLIENT_TRACKING, start);
+                    } else {
+                        Log.e("DeviceMonitor",
+                                "Failed to start monitoring " + device.getSerialNumber());
+                    }
+                }
+
+                if (queryInfo) {
+                    queryNewDeviceForInfo(device);
+                }
+            }
+        }, 0);
+    }
+
+    /**
+     * Runs a task on the device task threads.
+     * @param task the task.
+     * @param delay the delay before running the task, in milliseconds.
+     */
+    private void executeDeviceTask(Runnable task, long delay) {
+        try {
+            mDeviceTaskExecutor.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the monitor is stopping.
+        }
+    }
+
+    /**
+     * Sets the info of the last connection of a device, if any.
+     * @return true if the device had been seen before.
+     */
+    private boolean applyCachedInfo(Device device) {
+        DeviceInfo info;
+        synchronized (mDeviceInfoCache) {
+            info = mDeviceInfoCache.get(device.getSerialNumber());
+        }
+        if (info == null) {
+            return false;
+        }
+
+        for (Map.Entry<String, String> entry : info.mProperties.entrySet()) {
+            device.addProperty(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<String, String> entry : info.mMountPoints.entrySet()) {
+            device.setMountingPoint(entry.getKey(), entry.getValue());
+        }
+        if (info.mAvdName != null && device.isEmulator()) {
+            device.setAvdName(info.mAvdName);
+        }
+        return true;
     }
 
     private void removeDevice(Device device) {
         device.clearClientList();
         mDevices.remove(device);
 
+        synchronized (mOnlineTimes) {
+            mOnlineTimes.remove(device);
+        }
+
         SocketChannel channel = device.getClientMonitoringSocket();
         if (channel != null) {
             try {
@@ -445,22 +608,38 @@ final class DeviceMonitor {
      * @param device the device to query.
      */
     private void queryNewDeviceForInfo(Device device) {
-        // TODO: do this in a separate thread.
         try {
             // first get the list of properties.
+            long start = System.nanoTime();
             device.executeShellCommand(GetPropReceiver.GETPROP_COMMAND,
                     new GetPropReceiver(device));
+            recordStage(Stage.PROPERTIES, start);
 
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_EXTERNAL_STORAGE);
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_DATA);
-            queryNewDeviceForMountingPoint(device, IDevice.MNT_ROOT);
+            start = System.nanoTime();
+            queryNewDeviceForMountingPoints(device);
+            recordStage(Stage.MOUNT_POINTS, start);
 
             // now get the emulator Virtual Device name (if applicable).
             if (device.isEmulator()) {
+                start = System.nanoTime();
                 EmulatorConsole console = EmulatorConsole.getConsole(device);
                 if (console != null) {
                     device.setAvdName(console.getAvdName());
                 }
+                recordStage(Stage.AVD_NAME, start);
+            }
+
+            Map<String, String> mountPoints = new HashMap<String, String>();
+            for (String name : MOUNT_POINTS) {
+                String value = device.getMountPoint(name);
+                if (value != null) {
+                    mountPoints.put(name, value);
+                }
+            }
+            DeviceInfo info = new DeviceInfo(new HashMap<String, String>(device.getProperties()),
+                    mountPoints, device.getAvdName());
+            synchronized (mDeviceInfoCache) {
+                mDeviceInfoCache.put(device.getSerialNumber(), info);
             }
         } catch (TimeoutException e) {
             Log.w("DeviceMonitor", String.format("Connection timeout getting info for device %s",
@@ -484,10 +663,22 @@ final class DeviceMonitor {
         }
     }
 
-    private void queryNewDeviceForMountingPoint(final Device device, final String name)
+    /**
+     * Reads all the mount points with a single shell command. Each line of the output is
+     * "name=value".
+     */
+    private void queryNewDeviceForMountingPoints(final Device device)
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException {
-        device.executeShellCommand("echo $" + name, new MultiLineReceiver() { //$NON-NLS-1$
+        StringBuilder command = new StringBuilder();
+        for (String name : MOUNT_POINTS) {
+            if (command.length() > 0) {
+                command.append("; "); //$NON-NLS-1$
+            }
+            command.append(String.format("echo %1$s=$%1$s", name)); //$NON-NLS-1$
+        }
+
+        device.executeShellCommand(command.toString(), new MultiLineReceiver() {
             @Override
             public boolean isCancelled() {
                 return false;
@@ -496,9 +687,10 @@ final class DeviceMonitor {
             @Override
             public void processNewLines(String[] lines) {
                 for (String line : lines) {
-                    if (line.length() > 0) {
-                        // this should be the only one.
-                        device.setMountingPoint(name, line);
+                    int index = line.indexOf('=');
+                    if (index > 0 && index < line.length() - 1) {
+                        device.setMountingPoint(line.substring(0, index),
+                                line.substring(index + 1));
                     }
                 }
             }
@@ -517,14 +709,22 @@ final class DeviceMonitor {
             try {
                 boolean result = sendDeviceMonitoringRequest(socketChannel, device);
                 if (result) {
-
-                    if (mSelector == null) {
-                        startDeviceMonitorThread();
+                    // several devices can be started at the same time.
+                    synchronized (this) {
+                        if (mSelector == null) {
+                            startDeviceMonitorThread();
+                        }
                     }
 
-                    device.setClientMonitoringSocket(socketChannel);
-
                     synchronized (mDevices) {
+                        // the device may have been removed while we were connecting.
+                        if (mDevices.contains(device) == false) {
+                            socketChannel.close();
+                            return false;
+                        }
+
+                        device.setClientMonitoringSocket(socketChannel);
+
                         // always wakeup before doing the register. The synchronized block
                         // ensure that the selector won't select() before the end of this block.
                         // @see deviceClientMonitorLoop
@@ -608,18 +808,13 @@ final class DeviceMonitor {
 
                             monitorThread.dropClient(client, false /* notify */);
 
-                            // This is kinda bad, but if we don't wait a bit, the client
-                            // will never answer the second handshake!
-                            waitABit();
-
                             int port = mClientsToReopen.get(client);
 
                             if (port == IDebugPortProvider.NO_STATIC_PORT) {
                                 port = getNextDebuggerPort();
                             }
                             Log.d("DeviceMonitor", "Reopening " + client);
-                            openClient(device, pid, port, monitorThread);
-                            device.update(Device.CHANGE_CLIENT_LIST);
+                            scheduleClientReopen(device, pid, port, monitorThread);
                         }
 
                         mClientsToReopen.clear();
@@ -677,6 +872,47 @@ final class DeviceMonitor {
         } while (mQuit == false);
     }
 
+    /**
+     * Reopens a dropped client on a device task thread, after {@link #CLIENT_REOPEN_DELAY}.
+     * The client doesn't answer the second handshake if it's reopened right away, and this
+     * must not block the monitoring of the other devices.
+     */
+    private void scheduleClientReopen(final Device device, final int pid, final int port,
+            final MonitorThread monitorThread) {
+        synchronized (mReopeningPids) {
+            Set<Integer> pids = mReopeningPids.get(device);
+            if (pids == null) {
+                pids = new HashSet<Integer>();
+                mReopeningPids.put(device, pids);
+            }
+            pids.add(pid);
+        }
+
+        executeDeviceTask(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // the device may have been removed during the delay.
+                    synchronized (mDevices) {
+                        if (mDevices.contains(device) == false) {
+                            return;
+                        }
+                    }
+                    openClient(device, pid, port, monitorThread);
+                } finally {
+                    synchronized (mReopeningPids) {
+                        Set<Integer> pids = mReopeningPids.get(device);
+                        pids.remove(pid);
+                        if (pids.isEmpty()) {
+                            mReopeningPids.remove(device);
+                        }
+                    }
+                }
+                device.update(Device.CHANGE_CLIENT_LIST);
+            }
+        }, CLIENT_REOPEN_DELAY);
+    }
+
     private boolean sendDeviceMonitoringRequest(SocketChannel socket, Device device)
             throws TimeoutException, AdbCommandRejectedException, IOException {
 
@@ -704,14 +940,13 @@ final class DeviceMonitor {
         }
     }
 
-    private void processIncomingJdwpData(Device device, SocketChannel monitorSocket, int length)
-            throws IOException {
+    private void processIncomingJdwpData(final Device device, SocketChannel monitorSocket,
+            int length) throws IOException {
 
         // This methods reads @length bytes from the @monitorSocket channel.
         // These bytes correspond to the pids of the current set of processes on the device.
-        // It takes this set of pids and compares them with the existing set of clients
-        // for the device. Clients that correspond to pids that are not alive anymore are
-        // dropped, and new clients are created for pids that don't have a corresponding Client.
+        // The set is then handed to applyClientList() on a device task thread, so that opening
+        // the clients of a device doesn't delay the other devices.
 
         if (length >= 0) {
             // array for the current pids.
@@ -735,40 +970,107 @@ final class DeviceMonitor {
                 }
             }
 
-            MonitorThread monitorThread = MonitorThread.getInstance();
-
-            List<Client> clients = device.getClientList();
-            Map<Integer, Client> existingClients = new HashMap<Integer, Client>();
+            // only the latest list matters if the previous one is still being processed.
+            synchronized (mPendingClientLists) {
+                boolean running = mPendingClientLists.containsKey(device);
+                mPendingClientLists.put(device, newPids);
+                if (running == false) {
+                    executeDeviceTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            updateClients(device);
+                        }
+                    }, 0);
+                }
+            }
+        }
+    }
 
-            synchronized (clients) {
-                for (Client c : clients) {
-                    existingClients.put(
-                            Integer.valueOf(c.getClientData().getPid()),
-                            c);
+    /**
+     * Processes the pending process lists of a device, until there is none left.
+     */
+    private void updateClients(Device device) {
+        while (true) {
+            Set<Integer> newPids;
+            synchronized (mPendingClientLists) {
+                newPids = mPendingClientLists.get(device);
+                if (newPids == null) {
+                    mPendingClientLists.remove(device);
+                    return;
                 }
+                // keep the entry so that the next lists are queued behind this one.
+                mPendingClientLists.put(device, null);
             }
 
-            Set<Client> clientsToRemove = new HashSet<Client>();
-            for (Integer pid : existingClients.keySet()) {
-                if (!newPids.contains(pid)) {
-                    clientsToRemove.add(existingClients.get(pid));
+            synchronized (mDevices) {
+                if (mDevices.contains(device) == false) {
+                    continue;
                 }
             }
+            applyClientList(device, newPids);
+        }
+    }
 
-            Set<Integer> pidsToAdd = new HashSet<Integer>(newPids);
-            pidsToAdd.removeAll(existingClients.keySet());
+    /**
+     * Compares a set of pids with the existing set of clients for the device. Clients that
+     * correspond to pids that are not alive anymore are dropped, and new clients are created
+     * for pids that don't have a corresponding Client.
+     */
+    private void applyClientList(Device device, Set<Integer> newPids) {
+        MonitorThread monitorThread = MonitorThread.getInstance();
+        if (monitorThread == null) {
+            return;
+        }
+
+        // get the reopening pids first: they are removed once their client is added.
+        Set<Integer> reopeningPids = new HashSet<Integer>();
+        synchronized (mReopeningPids) {
+            Set<Integer> pids = mReopeningPids.get(device);
+            if (pids != null) {
+                reopeningPids.addAll(pids);
+            }
+        }
 
-            monitorThread.dropClients(clientsToRemove, false);
+        List<Client> clients = device.getClientList();
+        Map<Integer, Client> existingClients = new HashMap<Integer, Client>();
 
-            // at this point whatever pid is left in the list needs to be converted into Clients.
-            for (int newPid : pidsToAdd) {
-                openClient(device, newPid, getNextDebuggerPort(), monitorThread);
+        synchronized (clients) {
+            for (Client c : clients) {
+                existingClients.put(
+                        Integer.valueOf(c.getClientData().getPid()),
+                        c);
             }
+        }
 
-            if (pidsToAdd.size() > 0 || clientsToRemove.size() > 0) {
-                mServer.deviceChanged(device, Device.CHANGE_CLIENT_LIST);
+        Set<Client> clientsToRemove = new HashSet<Client>();
+        for (Integer pid : existingClients.keySet()) {
+            if (!newPids.contains(pid)) {
+                clientsToRemove.add(existingClients.get(pid));
             }
         }
+
+        Set<Integer> pidsToAdd = new HashSet<Integer>(newPids);
+        pidsToAdd.removeAll(existingClients.keySet());
+        pidsToAdd.removeAll(reopeningPids);
+
+        monitorThread.dropClients(clientsToRemove, false);
+
+        // at this point whatever pid is left in the list needs to be converted into Clients.
+        for (int newPid : pidsToAdd) {
+            openClient(device, newPid, getNextDebuggerPort(), monitorThread);
+        }
+
+        Long onlineTime;
+        synchronized (mOnlineTimes) {
+            onlineTime = mOnlineTimes.remove(device);
+        }
+        if (onlineTime != null) {
+            recordStage(Stage.CLIENT_LIST, onlineTime);
+        }
+
+        if (pidsToAdd.size() > 0 || clientsToRemove.size() > 0) {
+            mServer.deviceChanged(device, Device.CHANGE_CLIENT_LIST);
+        }
     }
 
     /**
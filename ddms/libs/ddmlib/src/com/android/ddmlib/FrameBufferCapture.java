@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Continuous capture of the frame buffer of a device, for screen recording or auto-refreshing
+ * screenshots.
+ * <p/>Each call to {@link #capture()} reads a new frame into the same {@link RawImage} and
+ * converts it into a reused array of ARGB pixels. The frame is divided in square tiles, and
+ * {@link #getChangedTiles()} returns the tiles that changed since the previous frame, so that
+ * only those need to be redrawn, encoded or compared.
+ * <p/>The arrays returned by {@link #getRawImage()} and {@link #getPixels()} are reused: they are
+ * only valid until the next call to {@link #capture()}.
+ * <p/>This class is not thread-safe.
+ */
+public final class FrameBufferCapture {
+
+    /** Default width and height of the tiles. */
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    /**
+     * A rectangular area of the frame.
+     */
+    public static final class Tile {
+        public final int x;
+        public final int y;
+        public final int width;
+        public final int height;
+
+        Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%1$dx%2$d@%3$d,%4$d", width, height, x, y); //$NON-NLS-1$
+        }
+    }
+
+    private final IDevice mDevice;
+    private final int mTileSize;
+
+    private RawImage mImage;
+    private int[] mPixels;
+    private int[] mPreviousPixels;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private final List<Tile> mChangedTiles = new ArrayList<Tile>();
+    private long mFrameCount = 0;
+
+    /**
+     * Creates a capture of the frame buffer of a device, with tiles of
+     * {@link #DEFAULT_TILE_SIZE} pixels.
+     */
+    public FrameBufferCapture(IDevice device) {
+        this(device, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a capture of the frame buffer of a device.
+     * @param device the device.
+     * @param tileSize the width and height of the tiles.
+     */
+    public FrameBufferCapture(IDevice device, int tileSize) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("tileSize must be positive");
+        }
+        mDevice = device;
+        mTileSize = tileSize;
+    }
+
+    /**
+     * Captures a new frame.
+     * @return true if a frame was read, false if the frame buffer protocol of the device is not
+     * supported.
+     * @throws TimeoutException in case of timeout on the connection.
+     * @throws AdbCommandRejectedException if adb rejects the command
+     * @throws IOException in case of I/O error on the connection.
+     */
+    public boolean capture() throws TimeoutException, AdbCommandRejectedException, IOException {
+        RawImage image = AdbHelper.getFrameBuffer(AndroidDebugBridge.getSocketAddress(), mDevice,
+                mImage);
+        if (image == null) {
+            return false;
+        }
+
+        processFrame(image);
+        return true;
+    }
+
+    /**
+     * Converts a new frame and finds its changed tiles.
+     */
+    void processFrame(RawImage image) {
+        mImage = image;
+
+        // convert into the array of the frame before the previous one, and compare.
+        int[] pixels = image.toARGB(mPreviousPixels);
+        mPreviousPixels = mPixels;
+        mPixels = pixels;
+
+        mChangedTiles.clear();
+        if (mPreviousPixels == null || image.width != mWidth || image.height != mHeight) {
+            mWidth = image.width;
+            mHeight = image.height;
+            addTiles(null);
+        } else {
+            addTiles(mPreviousPixels);
+        }
+
+        mFrameCount++;
+    }
+
+    /**
+     * Adds the tiles that differ from <var>previous</var> to the list of changed tiles, or all
+     * the tiles if <var>previous</var> is <code>null</code>.
+     */
+    private void addTiles(int[] previous) {
+        final int[] pixels = mPixels;
+        final int width = mWidth;
+        for (int tileY = 0 ; tileY < mHeight ; tileY += mTileSize) {
+            int tileHeight = Math.min(mTileSize, mHeight - tileY);
+            for (int tileX = 0 ; tileX < width ; tileX += mTileSize) {
+                int tileWidth = Math.min(mTileSize, width - tileX);
+                boolean changed = previous == null;
+                for (int y = tileY ; changed == false && y < tileY + tileHeight ; y++) {
+                    int start = y * width + tileX;
+                    int end = start + tileWidth;
+                    for (int i = start ; i < end ; i++) {
+                        if (pixels[i] != previous[i]) {
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+                if (changed) {
+                    mChangedTiles.add(new Tile(tileX, tileY, tileWidth, tileHeight));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the raw data of the last frame, or <code>null</code> if no frame was captured.
+     */
+    public RawImage getRawImage() {
+        return mImage;
+    }
+
+    /**
+     * Returns the ARGB pixels of the last frame, line by line, or <code>null</code> if no frame
+     * was captured. The array may be larger than <code>getWidth() * getHeight()</code>.
+     */
+    public int[] getPixels() {
+        return mPixels;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the tiles that changed between the last two frames. All the tiles are returned for
+     * the first frame, and when the size of the frame changes.
+     */
+    public List<Tile> getChangedTiles() {
+        return Collections.unmodifiableList(mChangedTiles);
+    }
+
+    /**
+     * Copies the pixels of a tile of the last frame into an array, line by line.
+     * @param tile the tile.
+     * @param dest the destination array, of at least <code>tile.width * tile.height</code> ints.
+     */
+    public void copyTile(Tile tile, int[] dest) {
+        for (int y = 0 ; y < tile.height ; y++) {
+            System.arraycopy(mPixels, (tile.y + y) * mWidth + tile.x, dest, y * tile.width,
+                    tile.width);
+        }
+    }
+
+    /**
+     * Returns the number of frames captured.
+     */
+    public long getFrameCount() {
+        return mFrameCount;
+    }
+}
@@ -18,7 +18,9 @@ package com.android.ddmlib;
 
 import com.android.ddmlib.ClientData.AllocationTrackingStatus;
 import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpStreamHandler;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
@@ -114,6 +116,39 @@ final class HandleHeap extends ChunkHandler {
         }
     }
 
+    /**
+     * HPDS replies are written to a file as they arrive if the app-level handler can take a
+     * file, so that the heap dump doesn't have to fit in memory.
+     */
+    @Override
+    boolean canStreamChunk(Client client, int type) {
+        return type == CHUNK_HPDS
+                && ClientData.getHprofDumpHandler() instanceof IHprofDumpStreamHandler;
+    }
+
+    @Override
+    void handleStreamedChunkProgress(Client client, int type, long received, long length) {
+        IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+        if (handler instanceof IHprofDumpStreamHandler) {
+            ((IHprofDumpStreamHandler) handler).onProgress(client, received, length);
+        }
+    }
+
+    @Override
+    void handleStreamedChunk(Client client, int type, File file, int msgId) {
+        IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
+        if (handler instanceof IHprofDumpStreamHandler) {
+            if (file != null) {
+                Log.d("ddm-hprof", "got hprof file, size: " + file.length() + " bytes");
+                ((IHprofDumpStreamHandler) handler).onSuccess(file, client);
+            } else {
+                handler.onEndFailure(client, "Unable to write the HPROF data to a file.");
+            }
+        } else {
+            super.handleStreamedChunk(client, type, file, msgId);
+        }
+    }
+
     /*
      * Handle a heap info message.
      */
@@ -260,6 +295,10 @@ final class HandleHeap extends ChunkHandler {
      * heap dump is held in RAM instead of spooled out to a temp file.  On
      * the other hand, permission to write to /sdcard is not required.
      *
+     * If the HPROF dump handler is a {@link IHprofDumpStreamHandler}, the
+     * response is written to a local temp file as it is received, instead
+     * of being held in memory.
+     *
      * @param fileName name of output file (on device)
      */
     public static void sendHPDS(Client client)
@@ -302,7 +341,8 @@ final class HandleHeap extends ChunkHandler {
 
     /*
      * Handle HeaP Dump Streaming response.  "data" contains the full
-     * hprof dump.
+     * hprof dump.  Only used when the response was not streamed to a
+     * file, see handleStreamedChunk().
      */
     private void handleHPDS(Client client, ByteBuffer data) {
         IHprofDumpHandler handler = ClientData.getHprofDumpHandler();
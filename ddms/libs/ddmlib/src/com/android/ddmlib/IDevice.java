@@ -20,6 +20,8 @@ import com.android.ddmlib.log.LogReceiver;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  *  A Device. It can be a physical device or an emulator.
@@ -318,6 +320,46 @@ public interface IDevice {
             throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException,
             IOException;
 
+    /**
+     * Executes a shell command on the device without blocking the calling thread.
+     * <p/>This is similar to calling
+     * <code>executeShellCommandAsync(command, receiver, DdmPreferences.getTimeOut())</code>.
+     *
+     * @param command the shell command to execute
+     * @param receiver the {@link IShellOutputReceiver} that will receives the output of the shell
+     *            command
+     * @return a {@link Future} completing when the command is done.
+     *
+     * @see #executeShellCommandAsync(String, IShellOutputReceiver, int)
+     */
+    public Future<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver);
+
+    /**
+     * Executes a shell command on the device without blocking the calling thread.
+     * <p/>The connection to adb and the command output are handled by a single shared thread for
+     * all devices, which is also the thread calling <var>receiver</var>. The receiver must
+     * therefore not block.
+     * <p/>At most {@link DdmPreferences#getMaxShellConnections()} commands run at the same time on
+     * a device. Additional commands are queued, in order, until a running command completes.
+     * <p/>If the command fails, {@link Future#get()} throws an {@link ExecutionException} whose
+     * cause is one of the exceptions thrown by
+     * {@link #executeShellCommand(String, IShellOutputReceiver, int)}: {@link TimeoutException},
+     * {@link AdbCommandRejectedException}, {@link ShellCommandUnresponsiveException} or
+     * {@link IOException}. Cancelling the future closes the connection to the device.
+     *
+     * @param command the shell command to execute
+     * @param receiver the {@link IShellOutputReceiver} that will receives the output of the shell
+     *            command
+     * @param maxTimeToOutputResponse the maximum amount of time during which the command is allowed
+     *            to not output any response. A value of 0 means the command will wait forever
+     *            (until the <var>receiver</var> or the future cancels the execution).
+     * @return a {@link Future} completing when the command is done.
+     *
+     * @see DdmPreferences#setMaxShellConnections(int)
+     */
+    public Future<Void> executeShellCommandAsync(String command, IShellOutputReceiver receiver,
+            int maxTimeToOutputResponse);
+
     /**
      * Runs the event log service and outputs the event log to the {@link LogReceiver}.
      * <p/>This call is blocking until {@link LogReceiver#isCancelled()} returns true.
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of the buffers used to read JDWP data from the clients.
+ * <p/>Buffers are allocated in power-of-two size classes, from {@link #MIN_BUFFER_SIZE} to
+ * {@link #MAX_POOLED_BUFFER_SIZE}. Buffers of these sizes are direct buffers, so that the
+ * socket reads don't go through a temporary buffer, and are kept in the pool when released,
+ * up to {@link #MAX_POOL_SIZE} bytes. Larger buffers are only needed for the occasional very
+ * large packet: they are heap buffers, and are left to the GC when released.
+ * <p/>This class is thread-safe.
+ */
+final class JdwpBufferPool {
+
+    /** Size of the smallest buffers. */
+    static final int MIN_BUFFER_SIZE = 2 * 1024;
+    /** Size of the largest buffers kept in the pool. */
+    static final int MAX_POOLED_BUFFER_SIZE = 1024 * 1024;
+    /** Max total size of the buffers kept in the pool. */
+    private static final int MAX_POOL_SIZE = 8 * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ArrayDeque<ByteBuffer>[] sFreeBuffers = new ArrayDeque[
+            Integer.numberOfTrailingZeros(MAX_POOLED_BUFFER_SIZE) - MIN_SHIFT + 1];
+
+    // total size of the buffers in the pool, and of the direct buffers in use.
+    private static int sPoolSize = 0;
+    private static long sDirectSizeInUse = 0;
+
+    static {
+        for (int i = 0; i < sFreeBuffers.length; i++) {
+            sFreeBuffers[i] = new ArrayDeque<ByteBuffer>();
+        }
+    }
+
+    private JdwpBufferPool() {
+    }
+
+    /**
+     * Returns the size of the buffer returned by {@link #allocate(int)} for a given size.
+     */
+    static int getBufferSize(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return MIN_BUFFER_SIZE;
+        }
+        if (size > MAX_POOLED_BUFFER_SIZE) {
+            return size;
+        }
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Returns an empty buffer of at least <var>size</var> bytes, in big-endian order.
+     */
+    static ByteBuffer allocate(int size) {
+        int bufferSize = getBufferSize(size);
+        if (bufferSize > MAX_POOLED_BUFFER_SIZE) {
+            return ByteBuffer.allocate(bufferSize);
+        }
+
+        synchronized (sFreeBuffers) {
+            sDirectSizeInUse += bufferSize;
+            ByteBuffer buffer = sFreeBuffers[getSizeClass(bufferSize)].poll();
+            if (buffer != null) {
+                sPoolSize -= bufferSize;
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Returns a buffer obtained with {@link #allocate(int)} to the pool. The buffer must not be
+     * used after this.
+     */
+    static void release(ByteBuffer buffer) {
+        if (buffer.isDirect() == false) {
+            return;
+        }
+
+        int bufferSize = buffer.capacity();
+        buffer.clear();
+        synchronized (sFreeBuffers) {
+            sDirectSizeInUse -= bufferSize;
+            if (sPoolSize + bufferSize <= MAX_POOL_SIZE) {
+                sFreeBuffers[getSizeClass(bufferSize)].push(buffer);
+                sPoolSize += bufferSize;
+            }
+        }
+    }
+
+    /**
+     * Returns a buffer with the data of <var>buffer</var>, and enough room for at least
+     * <var>size</var> bytes. <var>buffer</var> is released.
+     * <p/>On entry and exit, the data starts at offset 0 and ends at "position".
+     */
+    static ByteBuffer resize(ByteBuffer buffer, int size) {
+        ByteBuffer newBuffer = allocate(size);
+        buffer.flip();
+        newBuffer.put(buffer);
+        release(buffer);
+        return newBuffer;
+    }
+
+    /**
+     * Returns the total size of the buffers kept in the pool.
+     */
+    static int getPoolSize() {
+        synchronized (sFreeBuffers) {
+            return sPoolSize;
+        }
+    }
+
+    /**
+     * Returns the total size of the direct buffers currently allocated and not released.
+     */
+    static long getDirectSizeInUse() {
+        synchronized (sFreeBuffers) {
+            return sDirectSizeInUse;
+        }
+    }
+
+    private static int getSizeClass(int bufferSize) {
+        return Integer.numberOfTrailingZeros(bufferSize) - MIN_SHIFT;
+    }
+}
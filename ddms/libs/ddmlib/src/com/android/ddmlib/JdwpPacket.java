@@ -283,6 +283,21 @@ final class JdwpPacket {
      * a valid JDWP packet.
      */
     static JdwpPacket findPacket(ByteBuffer buf) {
+        return findPacket(buf, true /*complete*/);
+    }
+
+    /**
+     * Like findPacket(), but only requires the header of the packet to be
+     * in "buf".  This allows looking at a packet that is still arriving.
+     *
+     * The returned packet may be incomplete: it must not be consumed, and
+     * its payload must not be read.
+     */
+    static JdwpPacket findPacketHeader(ByteBuffer buf) {
+        return findPacket(buf, false /*complete*/);
+    }
+
+    private static JdwpPacket findPacket(ByteBuffer buf, boolean complete) {
         int count = buf.position();
         int length, id, flags, cmdSet, cmd;
 
@@ -302,7 +317,7 @@ final class JdwpPacket {
 
         if (length < JDWP_HEADER_LEN)
             throw new BadPacketException();
-        if (count < length)
+        if (complete && count < length)
             return null;
 
         JdwpPacket pkt = new JdwpPacket(buf);
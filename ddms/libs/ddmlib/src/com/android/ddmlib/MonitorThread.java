@@ -73,6 +73,15 @@ final class MonitorThread extends Thread {
      */
     private Client mSelectedClient = null;
 
+    // last time the read buffers of idle clients were trimmed.
+    private long mLastBufferTrim = 0;
+
+    // dropped clients, whose read buffer is returned to the pool by the monitor thread
+    private final ArrayList<Client> mDroppedClients = new ArrayList<Client>();
+
+    // runs the chunk handlers, so that slow handlers don't block the reads.
+    private final ChunkDispatcher mDispatcher;
+
     // singleton
     private static MonitorThread mInstance;
 
@@ -83,6 +92,7 @@ final class MonitorThread extends Thread {
         super("Monitor");
         mClientList = new ArrayList<Client>();
         mHandlerMap = new HashMap<Integer, ChunkHandler>();
+        mDispatcher = new ChunkDispatcher();
 
         mNewDebugSelectedPort = DdmPreferences.getSelectedDebugPort();
     }
@@ -216,6 +226,10 @@ final class MonitorThread extends Thread {
                 synchronized (mClientList) {
                 }
 
+                // the channels of the dropped clients are closed, so they are not selected
+                // anymore and their buffers can be released.
+                releaseDroppedClientBuffers();
+
                 // (re-)open the "debug selected" port, if it's not opened yet or
                 // if the port changed.
                 try {
@@ -237,7 +251,8 @@ final class MonitorThread extends Thread {
 
                 int count;
                 try {
-                    count = mSelector.select();
+                    // wake up once in a while to trim the buffers of idle clients.
+                    count = mSelector.select(Client.BUF_IDLE_TIME);
                 } catch (IOException ioe) {
                     ioe.printStackTrace();
                     continue;
@@ -245,6 +260,12 @@ final class MonitorThread extends Thread {
                     continue;
                 }
 
+                long now = System.currentTimeMillis();
+                if (now - mLastBufferTrim >= Client.BUF_IDLE_TIME) {
+                    mLastBufferTrim = now;
+                    trimClientBuffers(now);
+                }
+
                 if (count == 0) {
                     // somebody called wakeup() ?
                     // Log.i("ddms", "selector looping");
@@ -404,15 +425,38 @@ final class MonitorThread extends Thread {
         } else {
             Log.d("ddms", "Calling handler for " + ChunkHandler.name(type)
                     + " [" + handler + "] (len=" + length + ")");
-            ByteBuffer ibuf = buf.slice();
-            ByteBuffer roBuf = ibuf.asReadOnlyBuffer(); // enforce R/O
+            // the packet is consumed from the read buffer once we return, so the handler
+            // gets its own copy of the data.
+            ByteBuffer data = ByteBuffer.allocate(buf.remaining());
+            data.put(buf);
+            data.flip();
+            ByteBuffer roBuf = data.asReadOnlyBuffer(); // enforce R/O
             roBuf.order(ChunkHandler.CHUNK_ORDER);
-            // do the handling of the chunk synchronized on the client list
-            // to be sure there's no concurrency issue when we look for HOME
-            // in hasApp()
-            synchronized (mClientList) {
-                handler.handleChunk(client, type, roBuf, reply, packet.getId());
+            mDispatcher.dispatch(client, handler, type, roBuf, reply, packet.getId());
+        }
+    }
+
+    /*
+     * Shrink the read buffers of the clients that are no longer receiving
+     * large packets.
+     */
+    private void trimClientBuffers(long now) {
+        synchronized (mClientList) {
+            for (Client client : mClientList) {
+                client.trimReadBuffer(now);
+            }
+        }
+    }
+
+    /*
+     * Return the read buffers of the dropped clients to the pool.
+     */
+    private void releaseDroppedClientBuffers() {
+        synchronized (mDroppedClients) {
+            for (Client client : mDroppedClients) {
+                client.releaseReadBuffer();
             }
+            mDroppedClients.clear();
         }
     }
 
@@ -433,6 +477,9 @@ final class MonitorThread extends Thread {
             }
         }
         client.close(notify);
+        synchronized (mDroppedClients) {
+            mDroppedClients.add(client);
+        }
         broadcast(CLIENT_DISCONNECTED, client);
 
         /*
@@ -594,10 +641,12 @@ final class MonitorThread extends Thread {
             synchronized (mClientList) {
                 for (Client c : mClientList) {
                     c.close(false /* notify */);
+                    c.releaseReadBuffer();
                     broadcast(CLIENT_DISCONNECTED, c);
                 }
                 mClientList.clear();
             }
+            releaseDroppedClientBuffers();
 
             if (mDebugSelectedChan != null) {
                 mDebugSelectedChan.close();
@@ -612,9 +661,17 @@ final class MonitorThread extends Thread {
             e.printStackTrace();
         }
 
+        mDispatcher.stop();
         mInstance = null;
     }
 
+    /**
+     * Returns the metrics of the handling of the chunks received from the clients.
+     */
+    ChunkDispatchStats getChunkDispatchStats() {
+        return mDispatcher.getStats();
+    }
+
     /**
      * Add a new Client to the list of things we monitor. Also adds the client's
      * channel and the client's debugger listener to the selection list. This
@@ -196,6 +196,64 @@ public final class RawImage {
         return a << 24 | r << 16 | g << 8 | b;
     }
 
+    /**
+     * Converts the whole image to ARGB integers, line by line. This is much faster than calling
+     * {@link #getARGB(int)} for each pixel.
+     * @param pixels an array to reuse, or <code>null</code>. A new array is allocated if it is
+     * smaller than <code>width * height</code>.
+     * @return the array containing the pixels.
+     * @throws UnsupportedOperationException if the image is not a 16 or 32 bit image.
+     */
+    public int[] toARGB(int[] pixels) {
+        if (bpp != 16 && bpp != 32) {
+            throw new UnsupportedOperationException(
+                    "RawImage.toARGB(int[]) only works in 16 and 32 bit mode.");
+        }
+
+        int count = width * height;
+        if (pixels == null || pixels.length < count) {
+            pixels = new int[count];
+        }
+
+        final byte[] d = data;
+        final boolean is32 = bpp == 32;
+        final int redOffset = red_offset;
+        final int redMask = getMask(red_length);
+        final int redShift = 8 - red_length;
+        final int greenOffset = green_offset;
+        final int greenMask = getMask(green_length);
+        final int greenShift = 8 - green_length;
+        final int blueOffset = blue_offset;
+        final int blueMask = getMask(blue_length);
+        final int blueShift = 8 - blue_length;
+        final boolean hasAlpha = alpha_length != 0;
+        final int alphaOffset = alpha_offset;
+        final int alphaMask = getMask(alpha_length);
+        final int alphaShift = 8 - alpha_length;
+
+        int index = 0;
+        for (int i = 0 ; i < count ; i++) {
+            int value;
+            if (is32) {
+                value = (d[index] & 0x00FF) | (d[index+1] & 0x00FF) << 8
+                        | (d[index+2] & 0x00FF) << 16 | (d[index+3] & 0x00FF) << 24;
+                index += 4;
+            } else {
+                value = (d[index] & 0x00FF) | (d[index+1] & 0x00FF) << 8;
+                index += 2;
+            }
+
+            int r = ((value >>> redOffset) & redMask) << redShift;
+            int g = ((value >>> greenOffset) & greenMask) << greenShift;
+            int b = ((value >>> blueOffset) & blueMask) << blueShift;
+            int a = hasAlpha ? ((value >>> alphaOffset) & alphaMask) << alphaShift : 0xFF;
+
+            pixels[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+
+        return pixels;
+    }
+
     /**
      * creates a mask value based on a length and offset.
      * <p/>This value is compatible with org.eclipse.swt.graphics.PaletteData
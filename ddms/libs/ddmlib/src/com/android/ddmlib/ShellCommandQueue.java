@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import java.util.LinkedList;
+
+/**
+ * Per-device queue of {@link AsyncShellCommand}.
+ * <p/>At most {@link DdmPreferences#getMaxShellConnections()} commands are connected to adb for
+ * a given device at any time. Additional commands wait in the queue, in submission order, until
+ * a running command completes.
+ */
+final class ShellCommandQueue {
+
+    private final LinkedList<AsyncShellCommand> mWaiting = new LinkedList<AsyncShellCommand>();
+    private int mRunningCount = 0;
+
+    /**
+     * Queues a command, starting it right away if a connection slot is available.
+     */
+    void submit(AsyncShellCommand command) {
+        synchronized (this) {
+            if (mRunningCount >= DdmPreferences.getMaxShellConnections()) {
+                mWaiting.add(command);
+                return;
+            }
+            mRunningCount++;
+        }
+
+        command.start();
+    }
+
+    /**
+     * Removes a command that was cancelled before being started.
+     */
+    synchronized void remove(AsyncShellCommand command) {
+        mWaiting.remove(command);
+    }
+
+    /**
+     * Releases the connection slot of a completed command, and starts the next waiting one.
+     */
+    void commandFinished(AsyncShellCommand command) {
+        AsyncShellCommand next;
+        synchronized (this) {
+            next = mWaiting.poll();
+            if (next == null) {
+                mRunningCount--;
+            }
+        }
+
+        if (next != null) {
+            next.start();
+        }
+    }
+
+    /**
+     * Returns the number of commands currently connected to adb.
+     */
+    synchronized int getRunningCount() {
+        return mRunningCount;
+    }
+
+    /**
+     * Returns the number of commands waiting for a connection slot.
+     */
+    synchronized int getWaitingCount() {
+        return mWaiting.size();
+    }
+}
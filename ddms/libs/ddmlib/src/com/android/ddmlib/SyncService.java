@@ -27,6 +27,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 
@@ -78,6 +81,13 @@ public final class SyncService {
     private final static int SYNC_DATA_MAX = 64*1024;
     private final static int REMOTE_PATH_MAX_LENGTH = 1024;
 
+    /**
+     * Max number of requests sent to the device ahead of the one being processed. The sync
+     * service on the device handles requests in order, so sending them early removes a
+     * round-trip per file.
+     */
+    private final static int SYNC_PIPELINE_DEPTH = 16;
+
     /**
      * Classes which implement this interface provide methods that deal
      * with displaying transfer progress.
@@ -137,9 +147,10 @@ public final class SyncService {
     private SocketChannel mChannel;
 
     /**
-     * Buffer used to send data. Allocated when needed and reused afterward.
+     * Direct buffer used to transfer file content between the socket and the local files.
+     * Allocated when needed and reused afterward.
      */
-    private byte[] mBuffer;
+    private ByteBuffer mDataBuffer;
 
     /**
      * Creates a Sync service object.
@@ -285,7 +296,8 @@ public final class SyncService {
         int total = remote.getSizeValue();
         monitor.start(total);
 
-        doPullFile(remote.getFullPath(), localFilename, monitor);
+        doPullFiles(new String[] { remote.getFullPath() }, new String[] { localFilename },
+                monitor);
 
         monitor.stop();
     }
@@ -317,7 +329,39 @@ public final class SyncService {
         monitor.start(0);
         //TODO: use the {@link FileListingService} to get the file size.
 
-        doPullFile(remoteFilepath, localFilename, monitor);
+        doPullFiles(new String[] { remoteFilepath }, new String[] { localFilename }, monitor);
+
+        monitor.stop();
+    }
+
+    /**
+     * Pulls several files over this sync session.
+     * <p/>This is faster than calling {@link #pullFile(String, String, ISyncProgressMonitor)} for
+     * each file, as several requests are kept in flight to the device. The size of all the files
+     * is queried first, so that <var>monitor</var> reports the progress of the whole batch.
+     * <p/>If the transfer fails or is canceled, the sync session is left in an undefined state
+     * and must be closed.
+     * @param remoteFilepaths the full paths to the remote files
+     * @param localFilenames The local destinations, in the same order as the remote files.
+     * @param monitor The progress monitor. Cannot be null.
+     *
+     * @throws IOException in case of an IO exception.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     * @throws SyncException in case of a sync exception.
+     *
+     * @see #getNullProgressMonitor()
+     */
+    public void pullFiles(String[] remoteFilepaths, String[] localFilenames,
+            ISyncProgressMonitor monitor) throws TimeoutException, IOException, SyncException {
+        if (remoteFilepaths.length != localFilenames.length) {
+            throw new IllegalArgumentException("remote and local file counts differ");
+        }
+
+        int total = getTotalRemoteFileSize(remoteFilepaths);
+
+        monitor.start(total);
+
+        doPullFiles(remoteFilepaths, localFilenames, monitor);
 
         monitor.stop();
     }
@@ -377,11 +421,76 @@ public final class SyncService {
 
         monitor.start((int)f.length());
 
-        doPushFile(local, remote, monitor);
+        doPushFiles(new String[] { local }, null, new String[] { remote }, monitor);
 
         monitor.stop();
     }
 
+    /**
+     * Pushes several files over this sync session.
+     * <p/>This is faster than calling {@link #pushFile(String, String, ISyncProgressMonitor)} for
+     * each file, as the device acknowledgments are only waited on once several files have been
+     * sent. <var>monitor</var> reports the progress of the whole batch.
+     * <p/>If the transfer fails or is canceled, the sync session is left in an undefined state
+     * and must be closed.
+     * @param local the local filepaths.
+     * @param remote The remote filepaths, in the same order as the local files.
+     * @param monitor The progress monitor. Cannot be null.
+     *
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    public void pushFiles(String[] local, String[] remote, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        if (local.length != remote.length) {
+            throw new IllegalArgumentException("local and remote file counts differ");
+        }
+
+        int total = 0;
+        for (String path : local) {
+            File f = new File(path);
+            if (f.exists() == false) {
+                throw new SyncException(SyncError.NO_LOCAL_FILE);
+            }
+
+            if (f.isDirectory()) {
+                throw new SyncException(SyncError.LOCAL_IS_DIRECTORY);
+            }
+
+            total += f.length();
+        }
+
+        monitor.start(total);
+
+        doPushFiles(local, null, remote, monitor);
+
+        monitor.stop();
+    }
+
+    /**
+     * Pushes the content of several files over this sync session.
+     * <p/>This is similar to {@link #pushFiles(String[], String[], ISyncProgressMonitor)}, except
+     * that the content is sent directly from the given buffers (for instance files mapped in
+     * memory and shared by several sync sessions). The buffers are not modified.
+     * @param contents the content of each file, between the position and the limit of the
+     *      buffer.
+     * @param remote The remote filepaths, in the same order as the contents.
+     * @param monitor The progress monitor. Must be started already.
+     *
+     * @throws SyncException if a file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    void pushContents(ByteBuffer[] contents, String[] remote, ISyncProgressMonitor monitor)
+            throws SyncException, IOException, TimeoutException {
+        if (contents.length != remote.length) {
+            throw new IllegalArgumentException("content and remote file counts differ");
+        }
+
+        doPushFiles(null, contents, remote, monitor);
+    }
+
     /**
      * compute the recursive file size of all the files in the list. Folder
      * have a weight of 1.
@@ -405,6 +514,46 @@ public final class SyncService {
         return count;
     }
 
+    /**
+     * compute the size of all the remote files in the list. The STAT requests
+     * are pipelined.
+     * @param remotePaths the full paths of the remote files.
+     * @return the total size.
+     * @throws SyncException if a remote file does not exist
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private int getTotalRemoteFileSize(String[] remotePaths)
+            throws SyncException, IOException, TimeoutException {
+        final int timeOut = DdmPreferences.getTimeOut();
+
+        byte[][] requests = new byte[remotePaths.length][];
+        for (int i = 0 ; i < remotePaths.length ; i++) {
+            requests[i] = createFileReq(ID_STAT, getRemotePathContent(remotePaths[i]));
+        }
+
+        // read the results, in a byte array containing 4 ints
+        // (id, mode, size, time)
+        byte[] statResult = new byte[16];
+        int count = 0;
+        int sent = 0;
+        for (int i = 0 ; i < remotePaths.length ; i++) {
+            sent = sendAhead(requests, i, sent, timeOut);
+
+            AdbHelper.read(mChannel, statResult, -1 /* full length */, timeOut);
+
+            if (checkResult(statResult, ID_STAT)) {
+                if (ArrayHelper.swap32bitFromArray(statResult, 4) == 0) {
+                    throw new SyncException(SyncError.NO_REMOTE_OBJECT);
+                }
+                count += ArrayHelper.swap32bitFromArray(statResult, 8);
+            }
+            // else attempts to download anyway
+        }
+
+        return count;
+    }
+
     /**
      * compute the recursive file size of all the files in the list. Folder
      * have a weight of 1.
@@ -443,6 +592,31 @@ public final class SyncService {
             FileListingService fileListingService,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
 
+        // create the directories and list the files, so that the files can be pulled
+        // in a single pipelined batch.
+        ArrayList<String> remoteFiles = new ArrayList<String>();
+        ArrayList<String> localFiles = new ArrayList<String>();
+        listPullFiles(entries, localPath, fileListingService, monitor, remoteFiles, localFiles);
+
+        doPullFiles(remoteFiles.toArray(new String[remoteFiles.size()]),
+                localFiles.toArray(new String[localFiles.size()]), monitor);
+    }
+
+    /**
+     * Recursively creates the local directories for the remote entries, and lists the remote
+     * files to pull along with their local destinations.
+     * @param entries The list of entry to pull
+     * @param localPath the localpath to a directory
+     * @param fileListingService a FileListingService object to browse through remote directories.
+     * @param monitor the progress monitor. Must be started already.
+     * @param remoteFiles the list receiving the full paths of the remote files.
+     * @param localFiles the list receiving the local destinations.
+     * @throws SyncException if the transfer was canceled.
+     */
+    private void listPullFiles(FileEntry[] entries, String localPath,
+            FileListingService fileListingService, ISyncProgressMonitor monitor,
+            ArrayList<String> remoteFiles, ArrayList<String> localFiles) throws SyncException {
+
         for (FileEntry e : entries) {
             // check if we're cancelled
             if (monitor.isCanceled() == true) {
@@ -462,44 +636,47 @@ public final class SyncService {
                 // then recursively call the content. Since we did a ls command
                 // to get the number of files, we can use the cache
                 FileEntry[] children = fileListingService.getChildren(e, true, null);
-                doPull(children, dest, fileListingService, monitor);
+                listPullFiles(children, dest, fileListingService, monitor, remoteFiles,
+                        localFiles);
                 monitor.advance(1);
             } else if (type == FileListingService.TYPE_FILE) {
-                monitor.startSubTask(e.getFullPath());
-                String dest = localPath + File.separator + e.getName();
-                doPullFile(e.getFullPath(), dest, monitor);
+                remoteFiles.add(e.getFullPath());
+                localFiles.add(localPath + File.separator + e.getName());
             }
         }
     }
 
     /**
-     * Pulls a remote file
-     * @param remotePath the remote file (length max is 1024)
-     * @param localPath the local destination
+     * Pulls remote files, keeping up to {@link #SYNC_PIPELINE_DEPTH} requests in flight.
+     * @param remotePaths the remote files (length max is 1024)
+     * @param localPaths the local destinations
      * @param monitor the monitor. The monitor must be started already.
-     * @throws SyncException if file could not be pushed
+     * @throws SyncException if file could not be pulled
      * @throws IOException in case of I/O error on the connection.
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
-    private void doPullFile(String remotePath, String localPath,
+    private void doPullFiles(String[] remotePaths, String[] localPaths,
             ISyncProgressMonitor monitor) throws IOException, SyncException, TimeoutException {
-        byte[] msg = null;
-        byte[] pullResult = new byte[8];
-
         final int timeOut = DdmPreferences.getTimeOut();
 
-        try {
-            byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
+        // create all the request messages
+        byte[][] requests = new byte[remotePaths.length][];
+        for (int i = 0 ; i < remotePaths.length ; i++) {
+            requests[i] = createFileReq(ID_RECV, getRemotePathContent(remotePaths[i]));
+        }
 
-            if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
-                throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
+        byte[] pullResult = new byte[8];
+        int sent = 0;
+        for (int i = 0 ; i < remotePaths.length ; i++) {
+            // check if we're cancelled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
             }
 
-            // create the full request message
-            msg = createFileReq(ID_RECV, remotePathContent);
+            // send the next requests, while the device is busy with the current one.
+            sent = sendAhead(requests, i, sent, timeOut);
 
-            // and send it.
-            AdbHelper.write(mChannel, msg, -1, timeOut);
+            monitor.startSubTask(remotePaths[i]);
 
             // read the result, in a byte array containing 2 ints
             // (id, size)
@@ -511,10 +688,23 @@ public final class SyncService {
                 throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
                         readErrorMessage(pullResult, timeOut));
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
+
+            receiveFile(localPaths[i], pullResult, monitor, timeOut);
         }
+    }
 
+    /**
+     * Receives the content of a remote file, after the result of the RECV request has been read.
+     * @param localPath the local destination
+     * @param pullResult the result of the RECV request. Reused to read the following packets.
+     * @param monitor the monitor. The monitor must be started already.
+     * @param timeOut the timeout of the reads
+     * @throws SyncException if file could not be pulled
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void receiveFile(String localPath, byte[] pullResult, ISyncProgressMonitor monitor,
+            int timeOut) throws IOException, SyncException, TimeoutException {
         // access the destination file
         File f = new File(localPath);
 
@@ -523,9 +713,11 @@ public final class SyncService {
         FileOutputStream fos = null;
         try {
             fos = new FileOutputStream(f);
+            FileChannel fileChannel = fos.getChannel();
 
-            // the buffer to read the data
-            byte[] data = new byte[SYNC_DATA_MAX];
+            // the buffer to read the data. The content goes from the socket to the file
+            // without being copied in the java heap.
+            ByteBuffer data = getDataBuffer();
 
             // loop to get data until we're done.
             while (true) {
@@ -551,18 +743,21 @@ public final class SyncService {
                 }
 
                 // now read the length we received
-                AdbHelper.read(mChannel, data, length, timeOut);
+                data.clear();
+                data.limit(length);
+                AdbHelper.read(mChannel, data, timeOut);
 
                 // get the header for the next packet.
                 AdbHelper.read(mChannel, pullResult, -1, timeOut);
 
                 // write the content in the file
-                fos.write(data, 0, length);
+                data.flip();
+                while (data.hasRemaining()) {
+                    fileChannel.write(data);
+                }
 
                 monitor.advance(length);
             }
-
-            fos.flush();
         } catch (IOException e) {
             Log.e("ddms", String.format("Failed to open local file %s for writing, Reason: %s",
                     f.getAbsolutePath(), e.toString()));
@@ -587,6 +782,26 @@ public final class SyncService {
      */
     private void doPush(File[] fileArray, String remotePath, ISyncProgressMonitor monitor)
             throws SyncException, IOException, TimeoutException {
+        // list the files first, so that they can be pushed in a single pipelined batch.
+        ArrayList<String> localFiles = new ArrayList<String>();
+        ArrayList<String> remoteFiles = new ArrayList<String>();
+        listPushFiles(fileArray, remotePath, monitor, localFiles, remoteFiles);
+
+        doPushFiles(localFiles.toArray(new String[localFiles.size()]), null,
+                remoteFiles.toArray(new String[remoteFiles.size()]), monitor);
+    }
+
+    /**
+     * Recursively lists the local files to push along with their remote destinations.
+     * @param fileArray the local files and directories.
+     * @param remotePath the remote directory.
+     * @param monitor the progress monitor. Must be started already.
+     * @param localFiles the list receiving the local files.
+     * @param remoteFiles the list receiving the remote destinations.
+     * @throws SyncException if the transfer was canceled.
+     */
+    private void listPushFiles(File[] fileArray, String remotePath, ISyncProgressMonitor monitor,
+            ArrayList<String> localFiles, ArrayList<String> remoteFiles) throws SyncException {
         for (File f : fileArray) {
             // check if we're canceled
             if (monitor.isCanceled() == true) {
@@ -597,61 +812,100 @@ public final class SyncService {
                     // append the name of the directory to the remote path
                     String dest = remotePath + "/" + f.getName(); // $NON-NLS-1S
                     monitor.startSubTask(dest);
-                    doPush(f.listFiles(), dest, monitor);
+                    listPushFiles(f.listFiles(), dest, monitor, localFiles, remoteFiles);
 
                     monitor.advance(1);
                 } else if (f.isFile()) {
                     // append the name of the file to the remote path
-                    String remoteFile = remotePath + "/" + f.getName(); // $NON-NLS-1S
-                    monitor.startSubTask(remoteFile);
-                    doPushFile(f.getAbsolutePath(), remoteFile, monitor);
+                    localFiles.add(f.getAbsolutePath());
+                    remoteFiles.add(remotePath + "/" + f.getName()); // $NON-NLS-1S
                 }
             }
         }
     }
 
     /**
-     * Push a single file
-     * @param localPath the local file to push
-     * @param remotePath the remote file (length max is 1024)
+     * Push files, reading the result of a file only once {@link #SYNC_PIPELINE_DEPTH} more
+     * files have been sent.
+     * @param localPaths the local files to push. Ignored if <var>contents</var> is not null.
+     * @param contents the content of the files to push, or null to read <var>localPaths</var>.
+     * @param remotePaths the remote files (length max is 1024)
      * @param monitor the monitor. The monitor must be started already.
      *
      * @throws SyncException if file could not be pushed
      * @throws IOException in case of I/O error on the connection.
      * @throws TimeoutException in case of a timeout reading responses from the device.
      */
-    private void doPushFile(String localPath, String remotePath,
+    private void doPushFiles(String[] localPaths, ByteBuffer[] contents, String[] remotePaths,
             ISyncProgressMonitor monitor) throws SyncException, IOException, TimeoutException {
-        FileInputStream fis = null;
-        byte[] msg;
-
         final int timeOut = DdmPreferences.getTimeOut();
 
-        try {
-            byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
+        ByteBuffer data = contents == null ? getDataBuffer() : null;
+        ByteBuffer header = ByteBuffer.allocate(8);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] result = new byte[8];
+        int pendingResults = 0;
 
-            if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
-                throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
+        for (int i = 0 ; i < remotePaths.length ; i++) {
+            // check if we're canceled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
             }
 
-            File f = new File(localPath);
+            byte[] remotePathContent = getRemotePathContent(remotePaths[i]);
 
-            // create the stream to read the file
-            fis = new FileInputStream(f);
+            monitor.startSubTask(remotePaths[i]);
 
-            // create the header for the action
-            msg = createSendFileReq(ID_SEND, remotePathContent, 0644);
+            // create the header for the action. It is sent along with the first packet of data.
+            ByteBuffer request = ByteBuffer.wrap(
+                    createSendFileReq(ID_SEND, remotePathContent, 0644));
 
-            // and send it. We use a custom try/catch block to make the difference between
-            // file and network IO exceptions.
-            AdbHelper.write(mChannel, msg, -1, timeOut);
+            if (contents != null) {
+                sendContent(contents[i], request, header, monitor, timeOut);
+            } else {
+                sendFile(localPaths[i], request, header, data, monitor, timeOut);
+            }
 
-            // create the buffer used to read.
-            // we read max SYNC_DATA_MAX, but we need 2 4 bytes at the beginning.
-            if (mBuffer == null) {
-                mBuffer = new byte[SYNC_DATA_MAX + 8];
+            // create the DONE message
+            long time = System.currentTimeMillis() / 1000;
+            ByteBuffer done = ByteBuffer.wrap(createReq(ID_DONE, (int)time));
+
+            // and send it (with the SEND request if the file was empty).
+            AdbHelper.write(mChannel, new ByteBuffer[] { request, done }, timeOut);
+            pendingResults++;
+
+            // only wait for the result once enough files are in flight.
+            if (pendingResults >= SYNC_PIPELINE_DEPTH) {
+                readPushResult(result, timeOut);
+                pendingResults--;
             }
-            System.arraycopy(ID_DATA, 0, mBuffer, 0, ID_DATA.length);
+        }
+
+        while (pendingResults > 0) {
+            readPushResult(result, timeOut);
+            pendingResults--;
+        }
+    }
+
+    /**
+     * Sends the content of a local file as DATA packets.
+     * @param localPath the local file.
+     * @param request the SEND request, if not sent yet.
+     * @param header a buffer for the packet headers.
+     * @param data a buffer for the packet data.
+     * @param monitor the monitor. The monitor must be started already.
+     * @param timeOut
+     * @throws SyncException if the transfer was canceled.
+     * @throws IOException in case of I/O error on the connection or the file.
+     * @throws TimeoutException in case of a timeout writing to the device.
+     */
+    private void sendFile(String localPath, ByteBuffer request, ByteBuffer header,
+            ByteBuffer data, ISyncProgressMonitor monitor, int timeOut)
+            throws SyncException, IOException, TimeoutException {
+        // create the stream to read the file
+        FileInputStream fis = new FileInputStream(new File(localPath));
+        try {
+            FileChannel fileChannel = fis.getChannel();
 
             // look while there is something to read
             while (true) {
@@ -661,43 +915,92 @@ public final class SyncService {
                 }
 
                 // read up to SYNC_DATA_MAX
-                int readCount = fis.read(mBuffer, 8, SYNC_DATA_MAX);
+                data.clear();
+                int readCount = fileChannel.read(data);
 
                 if (readCount == -1) {
                     // we reached the end of the file
                     break;
                 }
 
-                // now send the data to the device
-                // first write the amount read
-                ArrayHelper.swap32bitsToArray(readCount, mBuffer, 4);
-
-                // now write it
-                AdbHelper.write(mChannel, mBuffer, readCount+8, timeOut);
+                // now send the data to the device, preceded by the amount read
+                data.flip();
+                sendData(request, header, data, timeOut);
 
                 // and advance the monitor
                 monitor.advance(readCount);
             }
-        } catch (UnsupportedEncodingException e) {
-            throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
         } finally {
             // close the local file
-            if (fis != null) {
-                fis.close();
-            }
+            fis.close();
         }
+    }
 
-        // create the DONE message
-        long time = System.currentTimeMillis() / 1000;
-        msg = createReq(ID_DONE, (int)time);
+    /**
+     * Sends file content already in memory (or mapped) as DATA packets. The content is sent
+     * directly from <var>content</var>, which is not modified.
+     * @param content the file content, between its position and limit.
+     * @param request the SEND request, if not sent yet.
+     * @param header a buffer for the packet headers.
+     * @param monitor the monitor. The monitor must be started already.
+     * @param timeOut
+     * @throws SyncException if the transfer was canceled.
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout writing to the device.
+     */
+    private void sendContent(ByteBuffer content, ByteBuffer request, ByteBuffer header,
+            ISyncProgressMonitor monitor, int timeOut)
+            throws SyncException, IOException, TimeoutException {
+        ByteBuffer data = content.duplicate();
+        int end = data.limit();
 
-        // and send it.
-        AdbHelper.write(mChannel, msg, -1, timeOut);
+        while (data.position() < end) {
+            // check if we're canceled
+            if (monitor.isCanceled() == true) {
+                throw new SyncException(SyncError.CANCELED);
+            }
+
+            int count = Math.min(SYNC_DATA_MAX, end - data.position());
+            data.limit(data.position() + count);
+            sendData(request, header, data, timeOut);
+            data.limit(end);
+
+            monitor.advance(count);
+        }
+    }
+
+    /**
+     * Sends a DATA packet, preceded by the SEND request if it was not sent yet.
+     * @param request the SEND request, if not sent yet.
+     * @param header a buffer for the packet header.
+     * @param data the packet data, between its position and limit.
+     * @param timeOut
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout writing to the device.
+     */
+    private void sendData(ByteBuffer request, ByteBuffer header, ByteBuffer data, int timeOut)
+            throws TimeoutException, IOException {
+        header.clear();
+        header.put(ID_DATA);
+        header.putInt(data.remaining());
+        header.flip();
+
+        AdbHelper.write(mChannel, new ByteBuffer[] { request, header, data }, timeOut);
+    }
 
+    /**
+     * Reads the result of a file push.
+     * @param result a byte array to read the result into. Must be at least 8 bytes.
+     * @param timeOut
+     * @throws SyncException if file could not be pushed
+     * @throws IOException in case of I/O error on the connection.
+     * @throws TimeoutException in case of a timeout reading responses from the device.
+     */
+    private void readPushResult(byte[] result, int timeOut)
+            throws SyncException, IOException, TimeoutException {
         // read the result, in a byte array containing 2 ints
         // (id, size)
-        byte[] result = new byte[8];
-        AdbHelper.read(mChannel, result, -1 /* full length */, timeOut);
+        AdbHelper.read(mChannel, result, 8 /* full length */, timeOut);
 
         if (checkResult(result, ID_OKAY) == false) {
             throw new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR,
@@ -705,6 +1008,63 @@ public final class SyncService {
         }
     }
 
+    /**
+     * Sends the requests following the current one, so that there are up to
+     * {@link #SYNC_PIPELINE_DEPTH} requests in flight. All the new requests are sent with a
+     * single write.
+     * @param requests all the requests.
+     * @param current the index of the request whose result is about to be read.
+     * @param sent the number of requests already sent.
+     * @param timeOut
+     * @return the new number of requests sent.
+     * @throws TimeoutException in case of a timeout writing to the device.
+     * @throws IOException in case of I/O error on the connection.
+     */
+    private int sendAhead(byte[][] requests, int current, int sent, int timeOut)
+            throws TimeoutException, IOException {
+        int max = Math.min(requests.length, current + SYNC_PIPELINE_DEPTH);
+        if (sent >= max) {
+            return sent;
+        }
+
+        ByteBuffer[] bufs = new ByteBuffer[max - sent];
+        for (int i = 0 ; i < bufs.length ; i++) {
+            bufs[i] = ByteBuffer.wrap(requests[sent + i]);
+        }
+        AdbHelper.write(mChannel, bufs, timeOut);
+
+        return max;
+    }
+
+    /**
+     * Returns the content of a remote path, checking its length.
+     * @param remotePath the remote path.
+     * @throws SyncException if the path is too long or cannot be encoded.
+     */
+    private static byte[] getRemotePathContent(String remotePath) throws SyncException {
+        try {
+            byte[] remotePathContent = remotePath.getBytes(AdbHelper.DEFAULT_ENCODING);
+
+            if (remotePathContent.length > REMOTE_PATH_MAX_LENGTH) {
+                throw new SyncException(SyncError.REMOTE_PATH_LENGTH);
+            }
+
+            return remotePathContent;
+        } catch (UnsupportedEncodingException e) {
+            throw new SyncException(SyncError.REMOTE_PATH_ENCODING, e);
+        }
+    }
+
+    /**
+     * Returns the direct buffer used to transfer file content.
+     */
+    private ByteBuffer getDataBuffer() {
+        if (mDataBuffer == null) {
+            mDataBuffer = ByteBuffer.allocateDirect(SYNC_DATA_MAX);
+        }
+        return mDataBuffer;
+    }
+
     /**
      * Reads an error message from the opened {@link #mChannel}.
      * @param result the current adb result. Must contain both FAIL and the length of the message.
@@ -719,9 +1079,10 @@ public final class SyncService {
             int len = ArrayHelper.swap32bitFromArray(result, 4);
 
             if (len > 0) {
-                AdbHelper.read(mChannel, mBuffer, len, timeOut);
+                byte[] messageContent = new byte[len];
+                AdbHelper.read(mChannel, messageContent, len, timeOut);
 
-                String message = new String(mBuffer, 0, len);
+                String message = new String(messageContent, 0, len);
                 Log.e("ddms", "transfer error: " + message);
 
                 return message;
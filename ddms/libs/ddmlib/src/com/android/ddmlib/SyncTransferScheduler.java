@@ -0,0 +1,359 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib;
+
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.SyncService.ISyncProgressMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pushes the same set of files to several devices at the same time.
+ * <p/>Each local file is read once: it is mapped in memory and the mapping is shared by the sync
+ * sessions of all the devices. At most {@link #getMaxParallelDevices()} devices are transferred
+ * to at the same time, and a device whose transfer fails is retried up to
+ * {@link #getMaxRetries()} times with a new sync session.
+ * <p/>The progress of all the transfers is reported through a single
+ * {@link ISyncProgressMonitor}.
+ */
+public final class SyncTransferScheduler {
+
+    /** Default max number of devices transferred to at the same time. */
+    public final static int DEFAULT_MAX_PARALLEL_DEVICES = 8;
+    /** Default number of retries for a device whose transfer failed. */
+    public final static int DEFAULT_MAX_RETRIES = 2;
+
+    private final int mMaxParallelDevices;
+    private final int mMaxRetries;
+
+    /**
+     * Combined view of the progress of all the devices, reported to the user monitor.
+     * <p/>The total amount of work can exceed an int, so the work is scaled down if needed.
+     */
+    private final static class CombinedProgress {
+        private final ISyncProgressMonitor mMonitor;
+        private int mShift = 0;
+        private long mWork = 0;
+        private long mReportedWork = 0;
+
+        CombinedProgress(ISyncProgressMonitor monitor) {
+            mMonitor = monitor;
+        }
+
+        synchronized void start(long totalWork) {
+            while ((totalWork >> mShift) > Integer.MAX_VALUE) {
+                mShift++;
+            }
+            mMonitor.start((int) (totalWork >> mShift));
+        }
+
+        synchronized void advance(long work) {
+            mWork += work;
+            long scaled = mWork >> mShift;
+            if (scaled > mReportedWork) {
+                mMonitor.advance((int) (scaled - mReportedWork));
+                mReportedWork = scaled;
+            }
+        }
+
+        synchronized void startSubTask(String name) {
+            mMonitor.startSubTask(name);
+        }
+
+        synchronized void stop() {
+            mMonitor.stop();
+        }
+
+        boolean isCanceled() {
+            return mMonitor.isCanceled();
+        }
+    }
+
+    /**
+     * Progress monitor of a single device. Retries don't report the work done by the previous
+     * attempts again, so that the combined progress never goes past the total.
+     */
+    private final static class DeviceProgressMonitor implements ISyncProgressMonitor {
+        private final CombinedProgress mCombined;
+        private final String mSerialNumber;
+        private long mAttemptWork = 0;
+        private long mReportedWork = 0;
+
+        DeviceProgressMonitor(CombinedProgress combined, String serialNumber) {
+            mCombined = combined;
+            mSerialNumber = serialNumber;
+        }
+
+        void startAttempt() {
+            mAttemptWork = 0;
+        }
+
+        @Override
+        public void start(int totalWork) {
+            // the combined progress is started once for all the devices.
+        }
+
+        @Override
+        public void stop() {
+            // the combined progress is stopped once for all the devices.
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return mCombined.isCanceled();
+        }
+
+        @Override
+        public void startSubTask(String name) {
+            mCombined.startSubTask(mSerialNumber + ": " + name); //$NON-NLS-1$
+        }
+
+        @Override
+        public void advance(int work) {
+            mAttemptWork += work;
+            if (mAttemptWork > mReportedWork) {
+                mCombined.advance(mAttemptWork - mReportedWork);
+                mReportedWork = mAttemptWork;
+            }
+        }
+    }
+
+    /**
+     * Creates a scheduler with the default parallelism and number of retries.
+     */
+    public SyncTransferScheduler() {
+        this(DEFAULT_MAX_PARALLEL_DEVICES, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * Creates a scheduler.
+     * @param maxParallelDevices the max number of devices transferred to at the same time.
+     * @param maxRetries the number of times the transfer to a device is retried after a failure.
+     */
+    public SyncTransferScheduler(int maxParallelDevices, int maxRetries) {
+        mMaxParallelDevices = Math.max(1, maxParallelDevices);
+        mMaxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Returns the max number of devices transferred to at the same time.
+     */
+    public int getMaxParallelDevices() {
+        return mMaxParallelDevices;
+    }
+
+    /**
+     * Returns the number of times the transfer to a device is retried after a failure.
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Pushes local files to several devices. This call is blocking until all the transfers are
+     * done.
+     * <p/>A failure on one device does not stop the transfers to the other devices. Canceling
+     * <var>monitor</var> stops all the transfers.
+     *
+     * @param devices the devices to push the files to.
+     * @param local the local filepaths.
+     * @param remote The remote filepaths, in the same order as the local files.
+     * @param monitor The progress monitor for all the transfers. Cannot be null.
+     * @return a map of the devices for which the transfer failed, to the last error received
+     *      for that device ({@link SyncException}, {@link TimeoutException},
+     *      {@link AdbCommandRejectedException} or {@link IOException}). The map is empty if all
+     *      the transfers succeeded.
+     * @throws SyncException if a local file does not exist or is a directory.
+     * @throws IOException if a local file could not be read.
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the
+     *      transfers.
+     *
+     * @see SyncService#getNullProgressMonitor()
+     */
+    public Map<IDevice, Exception> push(IDevice[] devices, String[] local, String[] remote,
+            ISyncProgressMonitor monitor)
+            throws SyncException, IOException, InterruptedException {
+        if (local.length != remote.length) {
+            throw new IllegalArgumentException("local and remote file counts differ");
+        }
+
+        // read the local files once for all the devices.
+        ByteBuffer[] contents = new ByteBuffer[local.length];
+        long size = 0;
+        for (int i = 0 ; i < local.length ; i++) {
+            contents[i] = mapFile(local[i]);
+            size += contents[i].remaining();
+        }
+
+        final CombinedProgress progress = new CombinedProgress(monitor);
+        progress.start(size * devices.length);
+
+        Map<IDevice, Exception> failures = new HashMap<IDevice, Exception>();
+        if (devices.length == 0) {
+            progress.stop();
+            return failures;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(mMaxParallelDevices, devices.length),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Sync Transfer"); //$NON-NLS-1$
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        try {
+            List<Future<Exception>> results = new ArrayList<Future<Exception>>(devices.length);
+            for (IDevice device : devices) {
+                results.add(executor.submit(
+                        new DeviceTransfer(device, contents, remote, progress)));
+            }
+
+            for (int i = 0 ; i < devices.length ; i++) {
+                Exception error;
+                try {
+                    error = results.get(i).get();
+                } catch (ExecutionException e) {
+                    // unexpected runtime error in the transfer.
+                    Log.e("ddms", e.getCause());
+                    error = new IOException(e.getCause().toString());
+                }
+
+                if (error != null) {
+                    failures.put(devices[i], error);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            progress.stop();
+        }
+
+        return failures;
+    }
+
+    /**
+     * Transfer of all the files to a single device, with retries.
+     */
+    private final class DeviceTransfer implements Callable<Exception> {
+        private final IDevice mDevice;
+        private final ByteBuffer[] mContents;
+        private final String[] mRemote;
+        private final DeviceProgressMonitor mMonitor;
+
+        DeviceTransfer(IDevice device, ByteBuffer[] contents, String[] remote,
+                CombinedProgress progress) {
+            mDevice = device;
+            mContents = contents;
+            mRemote = remote;
+            mMonitor = new DeviceProgressMonitor(progress, device.getSerialNumber());
+        }
+
+        /**
+         * Runs the transfer.
+         * @return null if the transfer succeeded, or the last error.
+         */
+        @Override
+        public Exception call() {
+            Exception lastError = null;
+            for (int attempt = 0 ; attempt <= mMaxRetries ; attempt++) {
+                if (mMonitor.isCanceled()) {
+                    return new SyncException(SyncError.CANCELED);
+                }
+
+                if (attempt > 0) {
+                    Log.w("ddms", String.format("Retrying transfer to %1$s after error: %2$s",
+                            mDevice.getSerialNumber(), lastError.getMessage()));
+                }
+
+                SyncService sync = null;
+                try {
+                    sync = mDevice.getSyncService();
+                    if (sync == null) {
+                        throw new IOException("Unable to open sync connection!");
+                    }
+
+                    mMonitor.startAttempt();
+                    sync.pushContents(mContents, mRemote, mMonitor);
+                    return null;
+                } catch (SyncException e) {
+                    if (e.wasCanceled()) {
+                        return e;
+                    }
+                    lastError = e;
+                } catch (TimeoutException e) {
+                    lastError = e;
+                } catch (AdbCommandRejectedException e) {
+                    lastError = e;
+                } catch (IOException e) {
+                    lastError = e;
+                } finally {
+                    if (sync != null) {
+                        sync.close();
+                    }
+                }
+            }
+
+            Log.e("ddms", String.format("Transfer to %1$s failed: %2$s",
+                    mDevice.getSerialNumber(), lastError.getMessage()));
+            return lastError;
+        }
+    }
+
+    /**
+     * Maps a local file in memory.
+     * @param path the path of the local file.
+     * @return a read-only buffer of the file content.
+     * @throws SyncException if the file does not exist or is a directory.
+     * @throws IOException if the file could not be mapped.
+     */
+    private static ByteBuffer mapFile(String path) throws SyncException, IOException {
+        File f = new File(path);
+        if (f.exists() == false) {
+            throw new SyncException(SyncError.NO_LOCAL_FILE);
+        }
+
+        if (f.isDirectory()) {
+            throw new SyncException(SyncError.LOCAL_IS_DIRECTORY);
+        }
+
+        RandomAccessFile file = new RandomAccessFile(f, "r"); //$NON-NLS-1$
+        try {
+            // the mapping stays valid after the file is closed.
+            FileChannel channel = file.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            file.close();
+        }
+    }
+}
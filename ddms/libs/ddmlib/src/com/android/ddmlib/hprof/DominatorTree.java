@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+import java.util.Arrays;
+
+/**
+ * Dominator tree of the objects of a {@link HprofHeap}, computed with the Lengauer-Tarjan
+ * algorithm (the simple version, with path compression).
+ * <p/>The graph has a virtual root referencing all the GC roots. The objects are numbered in
+ * depth-first order from that root, and all the work arrays are indexed by that number. The
+ * depth-first search and the path compression are iterative, since the graph of a heap is
+ * often too deep for recursion.
+ */
+final class DominatorTree {
+    /** Dominator of the objects only dominated by the virtual root. */
+    static final int ROOT = -1;
+    /** Dominator of the objects that can't be reached from the GC roots. */
+    static final int UNREACHABLE = -2;
+
+    /**
+     * Immediate dominator of each object: an object index, {@link #ROOT} or
+     * {@link #UNREACHABLE}.
+     */
+    final int[] mDominators;
+
+    /**
+     * The reachable objects, in depth-first order. An object always comes after its
+     * dominator.
+     */
+    final int[] mOrder;
+
+    private DominatorTree(int[] dominators, int[] order) {
+        mDominators = dominators;
+        mOrder = order;
+    }
+
+    static DominatorTree compute(HprofHeap heap) {
+        int objectCount = heap.getObjectCount();
+        int[] roots = heap.getRootArray();
+        int[] refStarts = heap.getRefStarts();
+        int[] refs = heap.getRefArray();
+        int root = objectCount;
+
+        // depth-first numbering, from the virtual root.
+        int[] dfnum = new int[objectCount + 1];
+        Arrays.fill(dfnum, -1);
+        int[] vertex = new int[objectCount + 1];
+        int[] parent = new int[objectCount + 1];
+        int count = 1;
+        dfnum[root] = 0;
+        vertex[0] = root;
+        parent[0] = -1;
+
+        int[] stack = new int[objectCount + 1];
+        int[] cursors = new int[objectCount + 1];
+        int sp = 0;
+        stack[0] = root;
+        cursors[0] = 0;
+        while (sp >= 0) {
+            int v = stack[sp];
+            int start = v == root ? 0 : refStarts[v];
+            int end = v == root ? roots.length : refStarts[v + 1];
+            int[] succ = v == root ? roots : refs;
+            if (start + cursors[sp] < end) {
+                int w = succ[start + cursors[sp]++];
+                if (dfnum[w] == -1) {
+                    dfnum[w] = count;
+                    vertex[count] = w;
+                    parent[count] = dfnum[v];
+                    count++;
+                    sp++;
+                    stack[sp] = w;
+                    cursors[sp] = 0;
+                }
+            } else {
+                sp--;
+            }
+        }
+        cursors = null;
+
+        // predecessors of the reachable objects, by depth-first number. The references are
+        // read in object order rather than depth-first order, which is much faster on large
+        // heaps since they are then read sequentially.
+        int[] predStarts = new int[count + 1];
+        for (int v = 0; v < objectCount; v++) {
+            if (dfnum[v] != -1) {
+                for (int j = refStarts[v]; j < refStarts[v + 1]; j++) {
+                    predStarts[dfnum[refs[j]] + 1]++;
+                }
+            }
+        }
+        for (int r : roots) {
+            predStarts[dfnum[r] + 1]++;
+        }
+        for (int i = 0; i < count; i++) {
+            predStarts[i + 1] += predStarts[i];
+        }
+        int[] preds = new int[predStarts[count]];
+        int[] fill = Arrays.copyOf(predStarts, count);
+        for (int r : roots) {
+            preds[fill[dfnum[r]]++] = 0;
+        }
+        for (int v = 0; v < objectCount; v++) {
+            int i = dfnum[v];
+            if (i != -1) {
+                for (int j = refStarts[v]; j < refStarts[v + 1]; j++) {
+                    preds[fill[dfnum[refs[j]]]++] = i;
+                }
+            }
+        }
+        fill = null;
+
+        // semi-dominators and immediate dominators.
+        int[] semi = new int[count];
+        int[] ancestor = new int[count];
+        int[] best = new int[count];
+        int[] idom = new int[count];
+        int[] samedom = new int[count];
+        int[] bucketHeads = new int[count];
+        int[] bucketNext = new int[count];
+        Arrays.fill(ancestor, -1);
+        Arrays.fill(samedom, -1);
+        Arrays.fill(bucketHeads, -1);
+
+        for (int i = count - 1; i > 0; i--) {
+            int p = parent[i];
+            int s = p;
+            for (int j = predStarts[i]; j < predStarts[i + 1]; j++) {
+                int v = preds[j];
+                int s2 = v <= i ? v : semi[eval(v, ancestor, best, semi, stack)];
+                if (s2 < s) {
+                    s = s2;
+                }
+            }
+            semi[i] = s;
+            bucketNext[i] = bucketHeads[s];
+            bucketHeads[s] = i;
+
+            ancestor[i] = p;
+            best[i] = i;
+
+            for (int v = bucketHeads[p]; v != -1; v = bucketNext[v]) {
+                int y = eval(v, ancestor, best, semi, stack);
+                if (semi[y] == semi[v]) {
+                    idom[v] = p;
+                } else {
+                    samedom[v] = y;
+                }
+            }
+            bucketHeads[p] = -1;
+        }
+        for (int i = 1; i < count; i++) {
+            if (samedom[i] != -1) {
+                idom[i] = idom[samedom[i]];
+            }
+        }
+
+        // back to object indexes.
+        int[] dominators = new int[objectCount];
+        Arrays.fill(dominators, UNREACHABLE);
+        int[] order = new int[count - 1];
+        for (int i = 1; i < count; i++) {
+            int v = vertex[i];
+            dominators[v] = idom[i] == 0 ? ROOT : vertex[idom[i]];
+            order[i - 1] = v;
+        }
+        return new DominatorTree(dominators, order);
+    }
+
+    /**
+     * Returns the vertex with the lowest semi-dominator on the path from <var>v</var> to the
+     * root of its tree in the forest built by the algorithm, and compresses that path.
+     */
+    private static int eval(int v, int[] ancestor, int[] best, int[] semi, int[] path) {
+        if (ancestor[ancestor[v]] == -1) {
+            return best[v];
+        }
+
+        int sp = 0;
+        int u = v;
+        while (ancestor[ancestor[u]] != -1) {
+            path[sp++] = u;
+            u = ancestor[u];
+        }
+        while (sp > 0) {
+            int w = path[--sp];
+            int a = ancestor[w];
+            if (semi[best[a]] < semi[best[w]]) {
+                best[w] = best[a];
+            }
+            ancestor[w] = ancestor[a];
+        }
+        return best[v];
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Computes the dominator tree and the retained sizes of the objects of a {@link HprofHeap}, and
+ * reports the objects and classes retaining the most memory.
+ * <p/>The retained size of an object is the size of the objects that would be freed along with
+ * it: its shallow size plus the retained sizes of the objects it dominates.
+ * <p/>This can be run without any UI, for instance to check heap dumps taken during automated
+ * tests:
+ * <pre>java com.android.ddmlib.hprof.HprofAnalyzer [-n count] file.hprof...</pre>
+ */
+public final class HprofAnalyzer {
+
+    /** Default number of objects and classes in reports. */
+    public static final int DEFAULT_REPORT_COUNT = 25;
+
+    /** Dominator of the objects only dominated by the GC roots. */
+    public static final int ROOT = DominatorTree.ROOT;
+    /** Dominator of the objects that can't be reached from the GC roots. */
+    public static final int UNREACHABLE = DominatorTree.UNREACHABLE;
+
+    /**
+     * Instance count, shallow size and retained size of the instances of a class.
+     */
+    public static final class ClassStats {
+        private final HprofClass mClass;
+        private int mCount;
+        private long mShallowSize;
+        private long mRetainedSize;
+
+        private ClassStats(HprofClass cls) {
+            mClass = cls;
+        }
+
+        public HprofClass getHprofClass() {
+            return mClass;
+        }
+
+        public int getInstanceCount() {
+            return mCount;
+        }
+
+        public long getShallowSize() {
+            return mShallowSize;
+        }
+
+        /**
+         * Returns the size retained by the instances of the class. The retained size of an
+         * instance is not counted when it is dominated by an instance of the same class, so
+         * that linked lists are not counted several times. Instances dominated through
+         * instances of other classes may still be counted twice.
+         */
+        public long getRetainedSize() {
+            return mRetainedSize;
+        }
+    }
+
+    private final HprofHeap mHeap;
+    private final int[] mDominators;
+    private final long[] mRetainedSizes;
+    private final int mReachableCount;
+    private long mReachableSize = 0;
+
+    /**
+     * Analyzes a heap.
+     */
+    public HprofAnalyzer(HprofHeap heap) {
+        mHeap = heap;
+
+        DominatorTree tree = DominatorTree.compute(heap);
+        mDominators = tree.mDominators;
+        mReachableCount = tree.mOrder.length;
+
+        // objects come after their dominator in the depth-first order.
+        mRetainedSizes = new long[heap.getObjectCount()];
+        int[] order = tree.mOrder;
+        for (int i = order.length - 1; i >= 0; i--) {
+            int v = order[i];
+            mRetainedSizes[v] += heap.getShallowSize(v);
+            mReachableSize += heap.getShallowSize(v);
+            int dominator = mDominators[v];
+            if (dominator >= 0) {
+                mRetainedSizes[dominator] += mRetainedSizes[v];
+            }
+        }
+    }
+
+    public HprofHeap getHeap() {
+        return mHeap;
+    }
+
+    /**
+     * Returns the immediate dominator of an object: an object index, {@link #ROOT} if the
+     * object is only dominated by the GC roots, or {@link #UNREACHABLE}.
+     */
+    public int getImmediateDominator(int object) {
+        return mDominators[object];
+    }
+
+    /**
+     * Returns the retained size of an object, or 0 if it is unreachable.
+     */
+    public long getRetainedSize(int object) {
+        return mRetainedSizes[object];
+    }
+
+    /**
+     * Returns the number of objects reachable from the GC roots.
+     */
+    public int getReachableCount() {
+        return mReachableCount;
+    }
+
+    /**
+     * Returns the total size of the objects reachable from the GC roots.
+     */
+    public long getReachableSize() {
+        return mReachableSize;
+    }
+
+    /**
+     * Returns the objects with the largest retained sizes, largest first.
+     * @param count the max number of objects to return.
+     */
+    public int[] getTopRetainers(int count) {
+        int objectCount = mHeap.getObjectCount();
+        count = Math.min(count, objectCount);
+        if (count <= 0) {
+            return new int[0];
+        }
+
+        // min-heap of the largest objects found so far.
+        int[] heap = new int[count];
+        int size = 0;
+        for (int i = 0; i < objectCount; i++) {
+            long retained = mRetainedSizes[i];
+            if (retained == 0) {
+                continue;
+            }
+            if (size < count) {
+                heap[size] = i;
+                siftUp(heap, size++);
+            } else if (retained > mRetainedSizes[heap[0]]) {
+                heap[0] = i;
+                siftDown(heap, size);
+            }
+        }
+
+        int[] result = new int[size];
+        while (size > 0) {
+            result[size - 1] = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+        }
+        return result;
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (mRetainedSizes[heap[parent]] <= mRetainedSizes[heap[i]]) {
+                break;
+            }
+            swap(heap, i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int size) {
+        int i = 0;
+        while (true) {
+            int smallest = i;
+            int left = i * 2 + 1;
+            int right = left + 1;
+            if (left < size && mRetainedSizes[heap[left]] < mRetainedSizes[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < size && mRetainedSizes[heap[right]] < mRetainedSizes[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(heap, i, smallest);
+            i = smallest;
+        }
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    /**
+     * Returns the class histogram of the heap, sorted by decreasing retained size. Classes
+     * without instances are not included.
+     */
+    public List<ClassStats> getClassHistogram() {
+        List<HprofClass> classes = mHeap.getClasses();
+        ClassStats[] stats = new ClassStats[classes.size()];
+
+        int objectCount = mHeap.getObjectCount();
+        for (int i = 0; i < objectCount; i++) {
+            HprofClass cls = mHeap.getObjectClass(i);
+            ClassStats s = stats[cls.getIndex()];
+            if (s == null) {
+                s = stats[cls.getIndex()] = new ClassStats(cls);
+            }
+            s.mCount++;
+            s.mShallowSize += mHeap.getShallowSize(i);
+
+            int dominator = mDominators[i];
+            if (dominator < 0 || mHeap.getObjectClass(dominator) != cls) {
+                s.mRetainedSize += mRetainedSizes[i];
+            }
+        }
+
+        List<ClassStats> histogram = new ArrayList<ClassStats>();
+        for (ClassStats s : stats) {
+            if (s != null) {
+                histogram.add(s);
+            }
+        }
+        Collections.sort(histogram, new Comparator<ClassStats>() {
+            @Override
+            public int compare(ClassStats s1, ClassStats s2) {
+                if (s1.mRetainedSize != s2.mRetainedSize) {
+                    return s1.mRetainedSize > s2.mRetainedSize ? -1 : 1;
+                }
+                return s1.mClass.getName().compareTo(s2.mClass.getName());
+            }
+        });
+        return histogram;
+    }
+
+    /**
+     * Writes a text report of the heap: totals, top retainers and class histogram.
+     * @param out the stream to write to.
+     * @param count the max number of objects and classes listed.
+     */
+    public void writeReport(PrintStream out, int count) {
+        long shallow = 0;
+        int objectCount = mHeap.getObjectCount();
+        for (int i = 0; i < objectCount; i++) {
+            shallow += mHeap.getShallowSize(i);
+        }
+        out.printf("Objects: %1$d (%2$d bytes), reachable: %3$d (%4$d bytes), roots: %5$d%n",
+                objectCount, shallow, mReachableCount, getReachableSize(),
+                mHeap.getRootArray().length);
+
+        out.printf("%nTop retainers:%n");
+        out.printf("%1$14s %2$12s  %3$s%n", "Retained", "Shallow", "Object");
+        for (int object : getTopRetainers(count)) {
+            out.printf("%1$14d %2$12d  %3$s%n", mRetainedSizes[object],
+                    mHeap.getShallowSize(object), mHeap.getObjectName(object));
+        }
+
+        out.printf("%nClass histogram:%n");
+        out.printf("%1$14s %2$12s %3$10s  %4$s%n", "Retained", "Shallow", "Count", "Class");
+        List<ClassStats> histogram = getClassHistogram();
+        for (ClassStats s : histogram.subList(0, Math.min(count, histogram.size()))) {
+            out.printf("%1$14d %2$12d %3$10d  %4$s%n", s.mRetainedSize, s.mShallowSize,
+                    s.mCount, s.mClass.getName());
+        }
+    }
+
+    /**
+     * Analyzes heap dumps and writes their reports on the standard output. The exit code is 1
+     * if a dump could not be read.
+     */
+    public static void main(String[] args) {
+        int count = DEFAULT_REPORT_COUNT;
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-n") && i + 1 < args.length) { //$NON-NLS-1$
+                try {
+                    count = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    files.clear();
+                    break;
+                }
+            } else {
+                files.add(args[i]);
+            }
+        }
+
+        if (files.isEmpty()) {
+            System.err.printf("Usage: java %s [-n count] file.hprof...%n",
+                    HprofAnalyzer.class.getName());
+            System.err.printf("  -n   number of objects and classes listed (default %d)%n",
+                    DEFAULT_REPORT_COUNT);
+            System.exit(1);
+        }
+
+        boolean failed = false;
+        for (String file : files) {
+            System.out.printf("%s:%n", file);
+            try {
+                new HprofAnalyzer(HprofHeap.open(new File(file))).writeReport(System.out, count);
+            } catch (IOException e) {
+                System.err.printf("Failed to analyze %1$s: %2$s%n", file, e.getMessage());
+                failed = true;
+            }
+            System.out.println();
+        }
+        System.exit(failed ? 1 : 0);
+    }
+}
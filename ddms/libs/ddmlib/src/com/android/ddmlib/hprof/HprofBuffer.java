@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Read-only view of a memory-mapped HPROF file, addressed with long positions.
+ * <p/>The file is mapped in segments of 1GB, so files larger than 2GB can be read. Consecutive
+ * segments overlap by 8 bytes, so that a value of up to 8 bytes can always be read from a
+ * single segment.
+ */
+final class HprofBuffer {
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private static final int SEGMENT_OVERLAP = 8;
+
+    private final MappedByteBuffer[] mSegments;
+    private final long mLength;
+    private int mIdSize = 4;
+
+    HprofBuffer(FileChannel channel) throws IOException {
+        mLength = channel.size();
+        int count = (int) ((mLength + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        mSegments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * SEGMENT_SIZE;
+            long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, mLength - start);
+            mSegments[i] = channel.map(MapMode.READ_ONLY, start, size);
+            mSegments[i].order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    long length() {
+        return mLength;
+    }
+
+    int getIdSize() {
+        return mIdSize;
+    }
+
+    void setIdSize(int idSize) {
+        mIdSize = idSize;
+    }
+
+    byte get(long pos) {
+        return mSegments[(int) (pos >>> SEGMENT_BITS)].get(index(pos));
+    }
+
+    short getShort(long pos) {
+        return mSegments[(int) (pos >>> SEGMENT_BITS)].getShort(index(pos));
+    }
+
+    int getInt(long pos) {
+        return mSegments[(int) (pos >>> SEGMENT_BITS)].getInt(index(pos));
+    }
+
+    long getLong(long pos) {
+        return mSegments[(int) (pos >>> SEGMENT_BITS)].getLong(index(pos));
+    }
+
+    /** Reads an unsigned 32-bit value. */
+    long getU4(long pos) {
+        return getInt(pos) & 0xffffffffL;
+    }
+
+    /** Reads an object or string id, which are 4 or 8 bytes long. */
+    long getId(long pos) {
+        return mIdSize == 4 ? getU4(pos) : getLong(pos);
+    }
+
+    /** Reads a modified UTF-8 string, as found in STRING records. */
+    String getString(long pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = get(pos + i);
+        }
+        try {
+            return new String(bytes, "UTF-8"); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported.
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int index(long pos) {
+        return (int) (pos & (SEGMENT_SIZE - 1));
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+/**
+ * A class of a {@link HprofHeap}.
+ * <p/>Besides the classes dumped in the HPROF file, the heap has a class for each type of
+ * primitive array, and one for the objects whose class is not in the dump.
+ */
+public final class HprofClass {
+    private final int mIndex;
+    private final long mId;
+    private String mName;
+
+    // set while reading the dump.
+    long mSuperId;
+    HprofClass mSuper;
+    byte[] mFieldTypes;
+    int mObjectIndex = -1;
+
+    // offsets of the object fields in the instance data, including the super classes' fields.
+    private int[] mRefOffsets;
+
+    HprofClass(int index, long id, String name) {
+        mIndex = index;
+        mId = id;
+        mName = name;
+    }
+
+    /**
+     * Returns the index of the class in {@link HprofHeap#getClasses()}.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Returns the id of the class object, or 0 for classes that are not in the dump.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * Returns the name of the class, in the <code>java.lang.String[]</code> form.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    void setName(String name) {
+        mName = name;
+    }
+
+    /**
+     * Returns the super class, or null.
+     */
+    public HprofClass getSuperClass() {
+        return mSuper;
+    }
+
+    /**
+     * Returns the index of the class object in the heap, or -1 if it is not in the dump.
+     */
+    public int getObjectIndex() {
+        return mObjectIndex;
+    }
+
+    /**
+     * Returns the offsets of the object references in the data of the instances of the class.
+     * The fields of the class come first, followed by those of the super classes.
+     */
+    int[] getRefOffsets(int idSize) {
+        if (mRefOffsets == null) {
+            int count = 0;
+            for (HprofClass c = this; c != null; c = c.mSuper) {
+                if (c.mFieldTypes != null) {
+                    for (byte type : c.mFieldTypes) {
+                        if (type == HprofHeap.TYPE_OBJECT) {
+                            count++;
+                        }
+                    }
+                }
+            }
+
+            int[] offsets = new int[count];
+            int offset = 0;
+            count = 0;
+            for (HprofClass c = this; c != null; c = c.mSuper) {
+                if (c.mFieldTypes != null) {
+                    for (byte type : c.mFieldTypes) {
+                        if (type == HprofHeap.TYPE_OBJECT) {
+                            offsets[count++] = offset;
+                        }
+                        offset += HprofHeap.getTypeSize(type, idSize);
+                    }
+                }
+            }
+            mRefOffsets = offsets;
+        }
+        return mRefOffsets;
+    }
+
+    /**
+     * Converts a class name from the JVM form (<code>[Ljava/lang/String;</code>) to the
+     * source form (<code>java.lang.String[]</code>).
+     */
+    static String getSourceName(String name) {
+        int dims = 0;
+        while (dims < name.length() && name.charAt(dims) == '[') {
+            dims++;
+        }
+        if (dims == 0) {
+            return name.replace('/', '.');
+        }
+
+        String element = name.substring(dims);
+        if (element.startsWith("L") && element.endsWith(";")) { //$NON-NLS-1$ //$NON-NLS-2$
+            element = element.substring(1, element.length() - 1).replace('/', '.');
+        } else if (element.length() == 1) {
+            element = getPrimitiveName(element.charAt(0));
+        } else {
+            element = element.replace('/', '.');
+        }
+
+        StringBuilder sb = new StringBuilder(element);
+        for (int i = 0; i < dims; i++) {
+            sb.append("[]"); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+
+    private static String getPrimitiveName(char descriptor) {
+        switch (descriptor) {
+            case 'Z': return "boolean"; //$NON-NLS-1$
+            case 'C': return "char"; //$NON-NLS-1$
+            case 'F': return "float"; //$NON-NLS-1$
+            case 'D': return "double"; //$NON-NLS-1$
+            case 'B': return "byte"; //$NON-NLS-1$
+            case 'S': return "short"; //$NON-NLS-1$
+            case 'I': return "int"; //$NON-NLS-1$
+            case 'J': return "long"; //$NON-NLS-1$
+            default: return String.valueOf(descriptor);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+}
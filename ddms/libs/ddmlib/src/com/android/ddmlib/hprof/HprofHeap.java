@@ -0,0 +1,665 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The object graph of a HPROF heap dump, as written by the VM or converted by hprof-conv.
+ * <p/>The file is memory-mapped, and the graph is kept in primitive arrays: each object of the
+ * dump gets an index in [0, {@link #getObjectCount()}), and its class, shallow size and
+ * references are stored in arrays at that index. Only the position of the objects in the file
+ * is kept, so the dump must not be modified while the heap is in use.
+ * <p/>The shallow size of an object is the size of its data in the dump: its fields, the
+ * elements of an array, or the static fields of a class. Object headers are not counted.
+ */
+public final class HprofHeap {
+    // record tags.
+    private static final int TAG_STRING = 0x01;
+    private static final int TAG_LOAD_CLASS = 0x02;
+    private static final int TAG_HEAP_DUMP = 0x0C;
+    private static final int TAG_HEAP_DUMP_SEGMENT = 0x1C;
+
+    // heap dump sub-record tags.
+    private static final int ROOT_UNKNOWN = 0xFF;
+    private static final int ROOT_JNI_GLOBAL = 0x01;
+    private static final int ROOT_JNI_LOCAL = 0x02;
+    private static final int ROOT_JAVA_FRAME = 0x03;
+    private static final int ROOT_NATIVE_STACK = 0x04;
+    private static final int ROOT_STICKY_CLASS = 0x05;
+    private static final int ROOT_THREAD_BLOCK = 0x06;
+    private static final int ROOT_MONITOR_USED = 0x07;
+    private static final int ROOT_THREAD_OBJECT = 0x08;
+    private static final int CLASS_DUMP = 0x20;
+    private static final int INSTANCE_DUMP = 0x21;
+    private static final int OBJECT_ARRAY_DUMP = 0x22;
+    private static final int PRIMITIVE_ARRAY_DUMP = 0x23;
+
+    // Android specific heap dump sub-record tags.
+    private static final int HEAP_DUMP_INFO = 0xFE;
+    private static final int ROOT_INTERNED_STRING = 0x89;
+    private static final int ROOT_FINALIZING = 0x8A;
+    private static final int ROOT_DEBUGGER = 0x8B;
+    private static final int ROOT_REFERENCE_CLEANUP = 0x8C;
+    private static final int ROOT_VM_INTERNAL = 0x8D;
+    private static final int ROOT_JNI_MONITOR = 0x8E;
+    private static final int UNREACHABLE = 0x90;
+    private static final int PRIMITIVE_ARRAY_NODATA_DUMP = 0xC3;
+
+    // basic types.
+    static final byte TYPE_OBJECT = 2;
+    static final byte TYPE_BOOLEAN = 4;
+    static final byte TYPE_LONG = 11;
+
+    private static final String[] PRIMITIVE_ARRAY_NAMES = new String[] {
+        "boolean[]", "char[]", //$NON-NLS-1$ //$NON-NLS-2$
+        "float[]", "double[]", //$NON-NLS-1$ //$NON-NLS-2$
+        "byte[]", "short[]", //$NON-NLS-1$ //$NON-NLS-2$
+        "int[]", "long[]" //$NON-NLS-1$ //$NON-NLS-2$
+    };
+
+    private final HprofBuffer mBuffer;
+    private int mIdSize;
+
+    // objects.
+    private int mObjectCount = 0;
+    private long[] mOffsets;
+    private int[] mShallowSizes;
+    private int[] mClassIndexes;
+    private LongIntMap mObjectIndexes;
+
+    // references, in [mRefStarts[i], mRefStarts[i + 1]) for object i.
+    private int[] mRefStarts;
+    private int[] mRefs;
+    private int mRefCount = 0;
+
+    private int[] mRoots;
+
+    private final List<HprofClass> mClasses = new ArrayList<HprofClass>();
+    private final LongIntMap mClassIndexesById = new LongIntMap(1024);
+    private final HprofClass[] mPrimitiveArrayClasses =
+            new HprofClass[PRIMITIVE_ARRAY_NAMES.length];
+    private HprofClass mClassClass;
+    private HprofClass mUnknownClass;
+
+    // only used while reading the dump.
+    private LongIntMap mStringIndexes = new LongIntMap(1024);
+    private long[] mStringPositions = new long[1024];
+    private long[] mLoadClassIds = new long[256];
+    private long[] mLoadClassNameIds = new long[256];
+    private int mLoadClassCount = 0;
+    private long[] mRootIds = new long[256];
+    private int mRootCount = 0;
+    private int mLastStaticSize;
+
+    private HprofHeap(HprofBuffer buffer) {
+        mBuffer = buffer;
+    }
+
+    /**
+     * Reads a heap dump.
+     * @param file the HPROF file.
+     * @throws IOException if the file could not be read or is not a valid HPROF file.
+     */
+    public static HprofHeap open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            // the mapping stays valid after the file is closed.
+            HprofHeap heap = new HprofHeap(new HprofBuffer(raf.getChannel()));
+            heap.read();
+            return heap;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated HPROF file: " + file);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid HPROF file " + file + ": " + e.getMessage());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of objects in the dump, including classes and arrays.
+     */
+    public int getObjectCount() {
+        return mObjectCount;
+    }
+
+    /**
+     * Returns the id of an object in the dump.
+     */
+    public long getObjectId(int object) {
+        return mBuffer.getId(mOffsets[object] + 1);
+    }
+
+    /**
+     * Returns the index of an object from its id, or -1 if it is not in the dump.
+     */
+    public int getObjectIndex(long id) {
+        return mObjectIndexes.get(id, -1);
+    }
+
+    /**
+     * Returns the class of an object. For class objects, this is <code>java.lang.Class</code>.
+     */
+    public HprofClass getObjectClass(int object) {
+        return mClasses.get(mClassIndexes[object]);
+    }
+
+    /**
+     * Returns the shallow size of an object.
+     */
+    public int getShallowSize(int object) {
+        return mShallowSizes[object];
+    }
+
+    /**
+     * Returns the classes of the dump.
+     */
+    public List<HprofClass> getClasses() {
+        return Collections.unmodifiableList(mClasses);
+    }
+
+    /**
+     * Returns the index of the GC roots, without duplicates.
+     */
+    public int[] getRoots() {
+        return mRoots.clone();
+    }
+
+    /**
+     * Returns the number of objects referenced by an object.
+     */
+    public int getReferenceCount(int object) {
+        return mRefStarts[object + 1] - mRefStarts[object];
+    }
+
+    /**
+     * Returns the index of an object referenced by an object.
+     * @param object the referencing object.
+     * @param i the index of the reference, in [0, {@link #getReferenceCount(int)}).
+     */
+    public int getReference(int object, int i) {
+        return mRefs[mRefStarts[object] + i];
+    }
+
+    // the following give direct access to the graph to DominatorTree.
+
+    int[] getRootArray() {
+        return mRoots;
+    }
+
+    int[] getRefStarts() {
+        return mRefStarts;
+    }
+
+    int[] getRefArray() {
+        return mRefs;
+    }
+
+    /**
+     * Returns a name for an object, made of its class name and its id.
+     */
+    public String getObjectName(int object) {
+        HprofClass cls = getObjectClass(object);
+        String name;
+        if (cls == mClassClass) {
+            name = "class " + mClasses.get(findClassIndex(object)).getName(); //$NON-NLS-1$
+        } else {
+            name = cls.getName();
+        }
+        return name + " @0x" + Long.toHexString(getObjectId(object)); //$NON-NLS-1$
+    }
+
+    private int findClassIndex(int object) {
+        return mClassIndexesById.get(getObjectId(object), mUnknownClass.getIndex());
+    }
+
+    /**
+     * Returns the size of a value of a basic type.
+     */
+    static int getTypeSize(int type, int idSize) {
+        switch (type) {
+            case TYPE_OBJECT: return idSize;
+            case 4: return 1; // boolean
+            case 5: return 2; // char
+            case 6: return 4; // float
+            case 7: return 8; // double
+            case 8: return 1; // byte
+            case 9: return 2; // short
+            case 10: return 4; // int
+            case TYPE_LONG: return 8;
+            default:
+                throw new IllegalArgumentException("Unknown basic type " + type);
+        }
+    }
+
+    private void read() throws IOException {
+        long pos = readHeader();
+
+        int estimate = (int) Math.min(Integer.MAX_VALUE / 8, mBuffer.length() / 64 + 16);
+        mOffsets = new long[estimate];
+        mShallowSizes = new int[estimate];
+        mObjectIndexes = new LongIntMap(estimate);
+
+        long length = mBuffer.length();
+        while (pos < length) {
+            if (pos + 9 > length) {
+                throw new IndexOutOfBoundsException();
+            }
+            int tag = mBuffer.get(pos) & 0xFF;
+            long recordLength = mBuffer.getU4(pos + 5);
+            long body = pos + 9;
+            if (body + recordLength > length) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            switch (tag) {
+                case TAG_STRING:
+                    addString(mBuffer.getId(body), body);
+                    break;
+                case TAG_LOAD_CLASS:
+                    addLoadClass(mBuffer.getId(body + 4), mBuffer.getId(body + 8 + mIdSize));
+                    break;
+                case TAG_HEAP_DUMP:
+                case TAG_HEAP_DUMP_SEGMENT:
+                    readHeapDump(body, body + recordLength);
+                    break;
+            }
+            pos = body + recordLength;
+        }
+
+        resolveClasses();
+        resolveRoots();
+        readReferences();
+
+        // free what's only needed while reading.
+        mStringIndexes = null;
+        mStringPositions = null;
+        mLoadClassIds = null;
+        mLoadClassNameIds = null;
+        mRootIds = null;
+    }
+
+    private long readHeader() throws IOException {
+        long pos = 0;
+        StringBuilder format = new StringBuilder();
+        while (pos < mBuffer.length() && pos < 64) {
+            byte b = mBuffer.get(pos++);
+            if (b == 0) {
+                break;
+            }
+            format.append((char) b);
+        }
+        if (format.toString().startsWith("JAVA PROFILE ") == false) { //$NON-NLS-1$
+            throw new IOException("Not an HPROF file");
+        }
+
+        mIdSize = mBuffer.getInt(pos);
+        if (mIdSize != 4 && mIdSize != 8) {
+            throw new IOException("Unsupported id size: " + mIdSize);
+        }
+        mBuffer.setIdSize(mIdSize);
+
+        // skip the id size and the timestamp.
+        return pos + 12;
+    }
+
+    private void readHeapDump(long pos, long end) {
+        int id = mIdSize;
+        while (pos < end) {
+            int tag = mBuffer.get(pos) & 0xFF;
+            long p = pos + 1;
+            switch (tag) {
+                case ROOT_UNKNOWN:
+                case ROOT_STICKY_CLASS:
+                case ROOT_MONITOR_USED:
+                case ROOT_INTERNED_STRING:
+                case ROOT_FINALIZING:
+                case ROOT_DEBUGGER:
+                case ROOT_REFERENCE_CLEANUP:
+                case ROOT_VM_INTERNAL:
+                    addRoot(mBuffer.getId(p));
+                    p += id;
+                    break;
+                case UNREACHABLE:
+                    // not a root.
+                    p += id;
+                    break;
+                case ROOT_JNI_GLOBAL:
+                    addRoot(mBuffer.getId(p));
+                    p += id * 2;
+                    break;
+                case ROOT_JNI_LOCAL:
+                case ROOT_JAVA_FRAME:
+                case ROOT_JNI_MONITOR:
+                case ROOT_THREAD_OBJECT:
+                    addRoot(mBuffer.getId(p));
+                    p += id + 8;
+                    break;
+                case ROOT_NATIVE_STACK:
+                case ROOT_THREAD_BLOCK:
+                    addRoot(mBuffer.getId(p));
+                    p += id + 4;
+                    break;
+                case HEAP_DUMP_INFO:
+                    p += 4 + id;
+                    break;
+                case CLASS_DUMP: {
+                    long classId = mBuffer.getId(p);
+                    HprofClass cls = new HprofClass(mClasses.size(), classId, null);
+                    cls.mObjectIndex = mObjectCount;
+                    mClasses.add(cls);
+                    mClassIndexesById.put(classId, cls.getIndex());
+                    long next = readClassDump(p, cls);
+                    addObject(classId, pos, mLastStaticSize);
+                    p = next;
+                    break;
+                }
+                case INSTANCE_DUMP: {
+                    int size = mBuffer.getInt(p + id * 2 + 4);
+                    addObject(mBuffer.getId(p), pos, size);
+                    p += id * 2 + 8 + size;
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    int size = mBuffer.getInt(p + id + 4) * id;
+                    addObject(mBuffer.getId(p), pos, size);
+                    p += id * 2 + 8 + size;
+                    break;
+                }
+                case PRIMITIVE_ARRAY_DUMP:
+                case PRIMITIVE_ARRAY_NODATA_DUMP: {
+                    int count = mBuffer.getInt(p + id + 4);
+                    int size = count * getTypeSize(mBuffer.get(p + id + 8), id);
+                    addObject(mBuffer.getId(p), pos, size);
+                    p += id + 9;
+                    if (tag == PRIMITIVE_ARRAY_DUMP) {
+                        p += size;
+                    }
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException(String.format(
+                            "Unknown heap dump tag 0x%1$x at %2$d", tag, pos));
+            }
+            pos = p;
+        }
+    }
+
+    /**
+     * Reads a class dump.
+     * @param p the position of the class dump, after its tag.
+     * @param cls the class to fill while reading the dump, or null to add the references of
+     *     the class object instead.
+     * @return the position of the next heap dump sub-record.
+     */
+    private long readClassDump(long p, HprofClass cls) {
+        int id = mIdSize;
+        if (cls != null) {
+            cls.mSuperId = mBuffer.getId(p + id + 4);
+        } else {
+            // super class and class loader
+            addRef(mBuffer.getId(p + id + 4));
+            addRef(mBuffer.getId(p + id * 2 + 4));
+        }
+
+        // skip class, stack trace, super class, class loader, signers, protection domain,
+        // 2 reserved ids and the instance size.
+        p += id * 7 + 8;
+
+        // constant pool.
+        int count = mBuffer.getShort(p) & 0xFFFF;
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            p += 3 + getTypeSize(mBuffer.get(p + 2), id);
+        }
+
+        // static fields.
+        int staticSize = 0;
+        count = mBuffer.getShort(p) & 0xFFFF;
+        p += 2;
+        for (int i = 0; i < count; i++) {
+            byte type = mBuffer.get(p + id);
+            int size = getTypeSize(type, id);
+            if (cls == null && type == TYPE_OBJECT) {
+                addRef(mBuffer.getId(p + id + 1));
+            }
+            staticSize += size;
+            p += id + 1 + size;
+        }
+        mLastStaticSize = staticSize;
+
+        // instance fields.
+        count = mBuffer.getShort(p) & 0xFFFF;
+        p += 2;
+        byte[] types = cls != null ? new byte[count] : null;
+        for (int i = 0; i < count; i++) {
+            byte type = mBuffer.get(p + id);
+            getTypeSize(type, id); // check the type.
+            if (types != null) {
+                types[i] = type;
+            }
+            p += id + 1;
+        }
+        if (cls != null) {
+            cls.mFieldTypes = types;
+        }
+
+        return p;
+    }
+
+    private void addString(long id, long pos) {
+        int index = mStringIndexes.size();
+        if (index == mStringPositions.length) {
+            mStringPositions = Arrays.copyOf(mStringPositions, index * 2);
+        }
+        mStringPositions[index] = pos;
+        mStringIndexes.put(id, index);
+    }
+
+    private String getString(long id) {
+        int index = mStringIndexes.get(id, -1);
+        if (index == -1) {
+            return null;
+        }
+        long pos = mStringPositions[index];
+        int length = mBuffer.getInt(pos - 4) - mIdSize;
+        return mBuffer.getString(pos + mIdSize, length);
+    }
+
+    private void addLoadClass(long classId, long nameId) {
+        if (mLoadClassCount == mLoadClassIds.length) {
+            mLoadClassIds = Arrays.copyOf(mLoadClassIds, mLoadClassCount * 2);
+            mLoadClassNameIds = Arrays.copyOf(mLoadClassNameIds, mLoadClassCount * 2);
+        }
+        mLoadClassIds[mLoadClassCount] = classId;
+        mLoadClassNameIds[mLoadClassCount] = nameId;
+        mLoadClassCount++;
+    }
+
+    private void addRoot(long id) {
+        if (mRootCount == mRootIds.length) {
+            mRootIds = Arrays.copyOf(mRootIds, mRootCount * 2);
+        }
+        mRootIds[mRootCount++] = id;
+    }
+
+    private void addObject(long id, long pos, int size) {
+        if (mObjectCount == mOffsets.length) {
+            int capacity = mObjectCount + (mObjectCount >> 1) + 16;
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mShallowSizes = Arrays.copyOf(mShallowSizes, capacity);
+        }
+        mOffsets[mObjectCount] = pos;
+        mShallowSizes[mObjectCount] = size;
+        mObjectIndexes.put(id, mObjectCount);
+        mObjectCount++;
+    }
+
+    private void addRef(long id) {
+        int index = mObjectIndexes.get(id, -1);
+        if (index == -1) {
+            return;
+        }
+        if (mRefCount == mRefs.length) {
+            mRefs = Arrays.copyOf(mRefs, mRefCount + (mRefCount >> 1) + 16);
+        }
+        mRefs[mRefCount++] = index;
+    }
+
+    /**
+     * Names the classes, links them to their super class, and sets the class of the objects.
+     */
+    private void resolveClasses() {
+        for (int i = 0; i < mLoadClassCount; i++) {
+            String name = getString(mLoadClassNameIds[i]);
+            if (name == null) {
+                continue;
+            }
+            name = HprofClass.getSourceName(name);
+            int index = mClassIndexesById.get(mLoadClassIds[i], -1);
+            if (index != -1) {
+                mClasses.get(index).setName(name);
+            } else {
+                // array classes are usually loaded but not dumped.
+                HprofClass cls = new HprofClass(mClasses.size(), mLoadClassIds[i], name);
+                mClasses.add(cls);
+                mClassIndexesById.put(cls.getId(), cls.getIndex());
+            }
+        }
+
+        for (HprofClass cls : mClasses) {
+            if (cls.getName() == null) {
+                cls.setName("class@0x" + Long.toHexString(cls.getId())); //$NON-NLS-1$
+            }
+            int superIndex = mClassIndexesById.get(cls.mSuperId, -1);
+            if (superIndex != -1) {
+                cls.mSuper = mClasses.get(superIndex);
+            }
+        }
+
+        mClassClass = findOrAddClass("java.lang.Class"); //$NON-NLS-1$
+        mUnknownClass = findOrAddClass("unknown"); //$NON-NLS-1$
+        for (int i = 0; i < PRIMITIVE_ARRAY_NAMES.length; i++) {
+            mPrimitiveArrayClasses[i] = findOrAddClass(PRIMITIVE_ARRAY_NAMES[i]);
+        }
+
+        int id = mIdSize;
+        int unknown = mUnknownClass.getIndex();
+        mClassIndexes = new int[mObjectCount];
+        for (int i = 0; i < mObjectCount; i++) {
+            long p = mOffsets[i] + 1;
+            switch (mBuffer.get(mOffsets[i]) & 0xFF) {
+                case CLASS_DUMP:
+                    mClassIndexes[i] = mClassClass.getIndex();
+                    break;
+                case INSTANCE_DUMP:
+                    mClassIndexes[i] = mClassIndexesById.get(mBuffer.getId(p + id + 4), unknown);
+                    break;
+                case OBJECT_ARRAY_DUMP:
+                    mClassIndexes[i] = mClassIndexesById.get(mBuffer.getId(p + id + 8), unknown);
+                    break;
+                default:
+                    int type = mBuffer.get(p + id + 8);
+                    if (type >= TYPE_BOOLEAN && type <= TYPE_LONG) {
+                        mClassIndexes[i] = mPrimitiveArrayClasses[type - TYPE_BOOLEAN].getIndex();
+                    } else {
+                        mClassIndexes[i] = unknown;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private HprofClass findOrAddClass(String name) {
+        for (HprofClass cls : mClasses) {
+            if (name.equals(cls.getName())) {
+                return cls;
+            }
+        }
+        HprofClass cls = new HprofClass(mClasses.size(), 0, name);
+        mClasses.add(cls);
+        return cls;
+    }
+
+    /**
+     * Converts the ids of the roots to indexes, and removes the duplicates.
+     */
+    private void resolveRoots() {
+        int[] roots = new int[mRootCount];
+        int count = 0;
+        for (int i = 0; i < mRootCount; i++) {
+            int index = mObjectIndexes.get(mRootIds[i], -1);
+            if (index != -1) {
+                roots[count++] = index;
+            }
+        }
+        Arrays.sort(roots, 0, count);
+
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || roots[unique - 1] != roots[i]) {
+                roots[unique++] = roots[i];
+            }
+        }
+        mRoots = Arrays.copyOf(roots, unique);
+    }
+
+    /**
+     * Reads the references of all the objects, now that all the classes are known.
+     */
+    private void readReferences() {
+        int id = mIdSize;
+        mRefStarts = new int[mObjectCount + 1];
+        mRefs = new int[Math.max(16, mObjectCount * 2)];
+        for (int i = 0; i < mObjectCount; i++) {
+            mRefStarts[i] = mRefCount;
+            long p = mOffsets[i] + 1;
+            switch (mBuffer.get(mOffsets[i]) & 0xFF) {
+                case CLASS_DUMP:
+                    readClassDump(p, null);
+                    break;
+                case INSTANCE_DUMP: {
+                    long data = p + id * 2 + 8;
+                    int size = mShallowSizes[i];
+                    for (int offset : mClasses.get(mClassIndexes[i]).getRefOffsets(id)) {
+                        if (offset + id <= size) {
+                            addRef(mBuffer.getId(data + offset));
+                        }
+                    }
+                    break;
+                }
+                case OBJECT_ARRAY_DUMP: {
+                    long data = p + id * 2 + 8;
+                    int count = mShallowSizes[i] / id;
+                    for (int j = 0; j < count; j++) {
+                        addRef(mBuffer.getId(data + (long) j * id));
+                    }
+                    break;
+                }
+            }
+        }
+        mRefStarts[mObjectCount] = mRefCount;
+        mRefs = Arrays.copyOf(mRefs, mRefCount);
+    }
+}
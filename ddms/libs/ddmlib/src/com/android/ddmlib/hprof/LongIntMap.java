@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmlib.hprof;
+
+/**
+ * Open-addressing hash map from long ids to int values, without boxing. Heap dumps contain
+ * millions of objects, for which a {@link java.util.HashMap} would use several times the memory
+ * of the dump itself.
+ * <p/>0 is not a valid key, as it is the null id in HPROF files.
+ */
+final class LongIntMap {
+    private long[] mKeys;
+    private int[] mValues;
+    private int mSize = 0;
+
+    LongIntMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 4 / 3) {
+            capacity <<= 1;
+        }
+        mKeys = new long[capacity];
+        mValues = new int[capacity];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the value of a key, or <var>defaultValue</var> if the map doesn't contain it.
+     */
+    int get(long key, int defaultValue) {
+        if (key == 0) {
+            return defaultValue;
+        }
+        int mask = mKeys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = mKeys[i];
+            if (k == key) {
+                return mValues[i];
+            } else if (k == 0) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * Sets the value of a key. Keys equal to 0 are ignored.
+     */
+    void put(long key, int value) {
+        if (key == 0) {
+            return;
+        }
+        if ((mSize + 1) * 4 > mKeys.length * 3) {
+            grow();
+        }
+        int mask = mKeys.length - 1;
+        int i = hash(key) & mask;
+        while (mKeys[i] != 0 && mKeys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (mKeys[i] == 0) {
+            mKeys[i] = key;
+            mSize++;
+        }
+        mValues[i] = value;
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        int[] values = mValues;
+        mKeys = new long[keys.length * 2];
+        mValues = new int[keys.length * 2];
+        mSize = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                put(keys[i], values[i]);
+            }
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
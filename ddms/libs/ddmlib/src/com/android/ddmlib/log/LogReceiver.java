@@ -76,6 +76,18 @@ public final class LogReceiver {
         public void newData(byte[] data, int offset, int length);
     }
 
+    /**
+     * An {@link ILogListener} that is also notified after each block of data has been parsed,
+     * so that it can process the new {@link LogEntry} objects in batches.
+     */
+    public interface ILogBatchListener extends ILogListener {
+        /**
+         * Sent after all the entries completed by a block of new data have been sent through
+         * {@link #newEntry(com.android.ddmlib.log.LogReceiver.LogEntry)}.
+         */
+        public void newEntriesProcessed();
+    }
+
     /** Current {@link LogEntry} being read, before sending it to the listener. */
     private LogEntry mCurrentEntry;
 
@@ -115,6 +127,18 @@ public final class LogReceiver {
             mListener.newData(data, offset, length);
         }
 
+        parseEntries(data, offset, length);
+
+        if (mListener instanceof ILogBatchListener) {
+            ((ILogBatchListener) mListener).newEntriesProcessed();
+        }
+    }
+
+    /**
+     * Extracts the {@link LogEntry} objects from new data, and sends the complete ones to the
+     * listener.
+     */
+    private void parseEntries(byte[] data, int offset, int length) {
         // loop while there is still data to be read and the receiver has not be cancelled.
         while (length > 0 && mIsCancelled == false) {
             // first check if we have no current entry.
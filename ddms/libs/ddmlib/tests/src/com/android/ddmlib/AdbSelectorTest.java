@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link AdbSelector}.
+ */
+public class AdbSelectorTest extends TestCase {
+
+    private ServerSocketChannel mServer;
+    private SocketChannel mClient;
+    private SocketChannel mPeer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        mClient = SocketChannel.open(mServer.socket().getLocalSocketAddress());
+        mPeer = mServer.accept();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPeer.close();
+        mClient.close();
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testReady() throws Exception {
+        mClient.configureBlocking(false);
+        AdbSelector selector = AdbSelector.getInstance();
+        assertTrue(selector.waitFor(mClient, SelectionKey.OP_WRITE, 1000));
+
+        assertFalse(selector.waitFor(mClient, SelectionKey.OP_READ, 50));
+        mPeer.write(ByteBuffer.wrap(new byte[] { 42 }));
+        assertTrue(selector.waitFor(mClient, SelectionKey.OP_READ, 1000));
+    }
+
+    /** A request which the selector cannot register only fails that request. */
+    public void testRegistrationError() throws Exception {
+        // blocking channels cannot be registered
+        AdbSelector selector = AdbSelector.getInstance();
+        try {
+            selector.waitFor(mClient, SelectionKey.OP_WRITE, 1000);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(selector.isAlive());
+        mClient.configureBlocking(false);
+        assertTrue(selector.waitFor(mClient, SelectionKey.OP_WRITE, 1000));
+    }
+
+    public void testInterrupt() throws Exception {
+        mClient.configureBlocking(false);
+        AdbSelector selector = AdbSelector.getInstance();
+        Thread.currentThread().interrupt();
+        try {
+            assertFalse(selector.waitFor(mClient, SelectionKey.OP_READ, 50));
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+}
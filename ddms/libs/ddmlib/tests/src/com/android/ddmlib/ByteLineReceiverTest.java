@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ByteLineReceiver}.
+ */
+public class ByteLineReceiverTest extends TestCase {
+
+    private static class CollectingLineReceiver extends ByteLineReceiver {
+        final List<String> mLines = new ArrayList<String>();
+        int mBatches = 0;
+        boolean mDone = false;
+
+        @Override
+        protected void processLine(CharSequence line) {
+            mLines.add(line.toString());
+        }
+
+        @Override
+        protected void newLinesProcessed() {
+            mBatches++;
+        }
+
+        @Override
+        public void done() {
+            mDone = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    private CollectingLineReceiver mReceiver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mReceiver = new CollectingLineReceiver();
+    }
+
+    private void send(String output) throws Exception {
+        byte[] data = output.getBytes("UTF-8");
+        mReceiver.addOutput(data, 0, data.length);
+    }
+
+    /**
+     * Test that lines terminated by \r\n or \n are split and trimmed.
+     */
+    public void testSplitLines() throws Exception {
+        send("first\r\n  second  \nthird\r\n");
+        mReceiver.flush();
+
+        assertEquals(3, mReceiver.mLines.size());
+        assertEquals("first", mReceiver.mLines.get(0));
+        assertEquals("second", mReceiver.mLines.get(1));
+        assertEquals("third", mReceiver.mLines.get(2));
+        assertTrue(mReceiver.mDone);
+    }
+
+    /**
+     * Test that lines are not trimmed if trimming is disabled.
+     */
+    public void testNoTrim() throws Exception {
+        mReceiver.setTrimLine(false);
+        send("  padded \r\n");
+
+        assertEquals(1, mReceiver.mLines.size());
+        assertEquals("  padded ", mReceiver.mLines.get(0));
+    }
+
+    /**
+     * Test that lines spanning several packets, including in the middle of a multi-byte
+     * character or of the line terminator, are reassembled.
+     */
+    public void testLineAcrossPackets() throws Exception {
+        byte[] data = "caf\u00e9 au lait\r\nend\r\n".getBytes("UTF-8");
+        // split in the middle of the 2 bytes of the e acute, and between \r and \n.
+        mReceiver.addOutput(data, 0, 4);
+        mReceiver.addOutput(data, 4, 10);
+        mReceiver.addOutput(data, 14, data.length - 14);
+
+        assertEquals(2, mReceiver.mLines.size());
+        assertEquals("caf\u00e9 au lait", mReceiver.mLines.get(0));
+        assertEquals("end", mReceiver.mLines.get(1));
+        assertEquals(3, mReceiver.mBatches);
+    }
+
+    /**
+     * Test that the data is read at the given offset in the array.
+     */
+    public void testOffset() throws Exception {
+        byte[] data = "skipped\nline\n".getBytes("UTF-8");
+        mReceiver.addOutput(data, 8, 5);
+
+        assertEquals(1, mReceiver.mLines.size());
+        assertEquals("line", mReceiver.mLines.get(0));
+    }
+
+    /**
+     * Test that an unfinished line is processed on flush.
+     */
+    public void testFlushUnfinishedLine() throws Exception {
+        send("complete\nunfinished");
+        assertEquals(1, mReceiver.mLines.size());
+
+        mReceiver.flush();
+        assertEquals(2, mReceiver.mLines.size());
+        assertEquals("unfinished", mReceiver.mLines.get(1));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ChunkDispatcher}.
+ */
+public class ChunkDispatcherTest extends TestCase {
+
+    private static final int CHUNK_COUNT = 500;
+
+    /**
+     * Handler recording the message ids of the chunks it handles, per client.
+     */
+    private static class RecordingHandler extends ChunkHandler {
+        final List<Integer> mIds1 = new ArrayList<Integer>();
+        final List<Integer> mIds2 = new ArrayList<Integer>();
+        final Client mClient1;
+        final CountDownLatch mDone;
+
+        RecordingHandler(Client client1, int count) {
+            mClient1 = client1;
+            mDone = new CountDownLatch(count);
+        }
+
+        @Override
+        void clientReady(Client client) {
+        }
+
+        @Override
+        void clientDisconnected(Client client) {
+        }
+
+        @Override
+        void handleChunk(Client client, int type, ByteBuffer data, boolean isReply, int msgId) {
+            List<Integer> ids = client == mClient1 ? mIds1 : mIds2;
+            synchronized (ids) {
+                ids.add(msgId);
+            }
+            if (msgId == 0) {
+                throw new RuntimeException("broken handler");
+            }
+            mDone.countDown();
+        }
+    }
+
+    private static void assertOrdered(List<Integer> ids) {
+        synchronized (ids) {
+            assertEquals(CHUNK_COUNT, ids.size());
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                assertEquals(i, ids.get(i).intValue());
+            }
+        }
+    }
+
+    public void testOrderPerClient() throws InterruptedException {
+        Client client1 = new Client(null, null, 1);
+        Client client2 = new Client(null, null, 2);
+        RecordingHandler handler = new RecordingHandler(client1, CHUNK_COUNT * 2 - 2);
+
+        ChunkDispatcher dispatcher = new ChunkDispatcher(3);
+        try {
+            ByteBuffer data = ByteBuffer.allocate(0);
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                dispatcher.dispatch(client1, handler, 0, data, false, i);
+                dispatcher.dispatch(client2, handler, 0, data, false, i);
+            }
+            assertTrue(handler.mDone.await(10, TimeUnit.SECONDS));
+
+            // the exceptions thrown for id 0 didn't stop the workers.
+            assertOrdered(handler.mIds1);
+            assertOrdered(handler.mIds2);
+
+            // the metrics are updated after the handler returns.
+            ChunkDispatchStats stats = dispatcher.getStats();
+            for (int i = 0; i < 100 && stats.getHandledCount() < CHUNK_COUNT * 2; i++) {
+                Thread.sleep(50);
+                stats = dispatcher.getStats();
+            }
+            assertEquals(CHUNK_COUNT * 2, stats.getHandledCount());
+            assertEquals(0, stats.getQueueDepth());
+            assertTrue(stats.getMaxQueueDepth() >= 1);
+        } finally {
+            dispatcher.stop();
+        }
+    }
+
+    public void testInterruptedDispatch() throws InterruptedException {
+        Client client1 = new Client(null, null, 1);
+        RecordingHandler handler = new RecordingHandler(client1, 1);
+
+        ChunkDispatcher dispatcher = new ChunkDispatcher(1);
+        try {
+            // the chunk is handled on the calling thread, and counted once.
+            Thread.currentThread().interrupt();
+            dispatcher.dispatch(client1, handler, 0, ByteBuffer.allocate(0), false, 1);
+            assertTrue(Thread.interrupted());
+            assertEquals(0, handler.mDone.getCount());
+
+            ChunkDispatchStats stats = dispatcher.getStats();
+            assertEquals(1, stats.getHandledCount());
+            assertEquals(0, stats.getQueueDepth());
+        } finally {
+            dispatcher.stop();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpStreamHandler;
+import com.android.ddmlib.IDevice.DeviceState;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ChunkStream}, with HPDS replies read by a {@link Client} from a local
+ * socket.
+ */
+public class ChunkStreamTest extends TestCase {
+    /** Larger than the read buffer used while streaming. */
+    private static final int DUMP_SIZE = 200 * 1024;
+    private static final int TRAILING_ID = 0x1234;
+    private static final int HEADER_LEN = JdwpPacket.JDWP_HEADER_LEN
+            + ChunkHandler.CHUNK_HEADER_LEN;
+
+    private ServerSocketChannel mServer;
+    private SocketChannel mPeer;
+    private Client mClient;
+    private IHprofDumpHandler mOldHandler;
+    private final RecordingHandler mHandler = new RecordingHandler();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = ServerSocketChannel.open();
+        mServer.socket().bind(new InetSocketAddress(InetAddress.getByName(null), 0));
+        SocketChannel chan = SocketChannel.open(mServer.socket().getLocalSocketAddress());
+        mPeer = mServer.accept();
+
+        Device device = new Device(new DeviceMonitor(null), "A", DeviceState.ONLINE);
+        mClient = new Client(device, chan, 42 /*pid*/);
+        // the handshake and the HELO exchange are done.
+        Field state = Client.class.getDeclaredField("mConnState"); //$NON-NLS-1$
+        state.setAccessible(true);
+        state.setInt(mClient, 13 /*ST_READY*/);
+
+        mOldHandler = ClientData.getHprofDumpHandler();
+        ClientData.setHprofDumpHandler(mHandler);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ClientData.setHprofDumpHandler(mOldHandler);
+        if (mHandler.mFile != null) {
+            mHandler.mFile.delete();
+        }
+        mClient.close(false /*notify*/);
+        mClient.releaseReadBuffer();
+        mPeer.close();
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testSplitReply() throws Exception {
+        int id = sendRequest();
+        byte[] dump = createDump();
+        ByteBuffer reply = createHpdsReply(id, dump);
+        ByteBuffer trailing = createHpifPacket();
+
+        // the reply arrives in pieces, then another packet in the same read as its end.
+        ByteBuffer data = ByteBuffer.allocate(reply.remaining() + trailing.remaining());
+        data.put(reply).put(trailing).flip();
+        Thread writer = startWriter(data, 7, 30, 70000);
+
+        JdwpPacket packet = null;
+        while (packet == null) {
+            mClient.read();
+            packet = mClient.getJdwpPacket();
+        }
+        writer.join(5000);
+
+        assertNotNull(mHandler.mFile);
+        assertTrue(Arrays.equals(dump, readFile(mHandler.mFile)));
+        assertEquals(DUMP_SIZE, mHandler.mReceived);
+        assertEquals(DUMP_SIZE, mHandler.mTotal);
+        assertNull(mClient.isResponseToUs(id));
+
+        // the following packet is left for getJdwpPacket().
+        assertEquals(TRAILING_ID, packet.getId());
+        assertFalse(packet.isReply());
+        assertEquals(trailing.limit(), packet.getLength());
+
+        // the read buffer did not grow to the size of the dump.
+        assertTrue(mClient.getClientData().getMaxJdwpBufferSize() < DUMP_SIZE);
+    }
+
+    public void testDisconnect() throws Exception {
+        int id = sendRequest();
+        ByteBuffer reply = createHpdsReply(id, createDump());
+        reply.limit(HEADER_LEN + DUMP_SIZE / 2);
+        Thread writer = startWriter(reply);
+
+        // read half of the dump.
+        Object stream = null;
+        while (stream == null || (Long) getField(stream, "mReceived") < DUMP_SIZE / 2) {
+            mClient.read();
+            stream = getField(mClient, "mChunkStream"); //$NON-NLS-1$
+        }
+        writer.join(5000);
+        File file = (File) getField(stream, "mFile"); //$NON-NLS-1$
+        assertTrue(file.exists());
+        assertEquals(DUMP_SIZE / 2, file.length());
+
+        // the file is deleted when the client goes away.
+        mClient.close(false /*notify*/);
+        assertFalse(file.exists());
+        assertNull(getField(mClient, "mChunkStream")); //$NON-NLS-1$
+        assertNull(mHandler.mFile);
+        assertFalse(mHandler.mCompleted);
+    }
+
+    /** Sends an HPDS request, and returns its id once read by the peer. */
+    private int sendRequest() throws IOException {
+        HandleHeap.sendHPDS(mClient);
+        DataInputStream in = new DataInputStream(mPeer.socket().getInputStream());
+        byte[] request = new byte[in.readInt() - 4];
+        in.readFully(request);
+        return ByteBuffer.wrap(request).getInt(0);
+    }
+
+    private static byte[] createDump() {
+        byte[] dump = new byte[DUMP_SIZE];
+        for (int i = 0; i < dump.length; i++) {
+            dump[i] = (byte) (i * 31);
+        }
+        return dump;
+    }
+
+    private static ByteBuffer createHpdsReply(int id, byte[] dump) {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LEN + dump.length);
+        buf.putInt(buf.capacity()).putInt(id).put((byte) 0x80).putShort((short) 0);
+        buf.putInt(HandleHeap.CHUNK_HPDS).putInt(dump.length).put(dump);
+        buf.flip();
+        return buf;
+    }
+
+    /** Creates an HPIF chunk sent by the VM, which is not a reply. */
+    private static ByteBuffer createHpifPacket() {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_LEN + 4);
+        buf.putInt(buf.capacity()).putInt(TRAILING_ID).put((byte) 0).put((byte) 0xc7)
+                .put((byte) 0x01);
+        buf.putInt(HandleHeap.CHUNK_HPIF).putInt(4).putInt(0);
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Writes data to the client from another thread, in pieces of the given sizes, then the
+     * rest of the data in one piece.
+     */
+    private Thread startWriter(final ByteBuffer data, final int... sizes) {
+        Thread thread = new Thread("ChunkStreamTest Writer") { //$NON-NLS-1$
+            @Override
+            public void run() {
+                try {
+                    int i = 0;
+                    while (data.hasRemaining()) {
+                        int size = i < sizes.length ? sizes[i++] : data.remaining();
+                        ByteBuffer piece = data.duplicate();
+                        piece.limit(Math.min(data.limit(), data.position() + size));
+                        while (piece.hasRemaining()) {
+                            mPeer.write(piece);
+                        }
+                        data.position(piece.position());
+                        Thread.sleep(20);
+                    }
+                } catch (Exception e) {
+                    // the client was closed.
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    private static Object getField(Object object, String name) throws Exception {
+        Field field = object.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(object);
+    }
+
+    private static class RecordingHandler implements IHprofDumpStreamHandler {
+        private File mFile;
+        private long mReceived;
+        private long mTotal;
+        private boolean mCompleted;
+
+        @Override
+        public void onSuccess(String remoteFilePath, Client client) {
+            fail("Unexpected dump on the device");
+        }
+
+        @Override
+        public void onSuccess(byte[] data, Client client) {
+            fail("Unexpected dump in memory");
+        }
+
+        @Override
+        public void onEndFailure(Client client, String message) {
+            fail(message);
+        }
+
+        @Override
+        public void onProgress(Client client, long receivedBytes, long totalBytes) {
+            mReceived = receivedBytes;
+            mTotal = totalBytes;
+        }
+
+        @Override
+        public void onSuccess(File hprofFile, Client client) {
+            mFile = hprofFile;
+            mCompleted = true;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.DebugPortManager.IDebugPortProvider;
+import com.android.ddmlib.DeviceDiscoveryStats.Stage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DeviceMonitor}, using a local server in place of adb.
+ */
+public class DeviceMonitorTest extends TestCase {
+    /** Output of the mount point query. The shell ends lines with "\r\n". */
+    private static final String MOUNT_POINTS = "EXTERNAL_STORAGE=/mnt/sdcard\r\n" //$NON-NLS-1$
+            + "ANDROID_DATA=/data\r\n" //$NON-NLS-1$
+            + "ANDROID_ROOT=/system\r\n"; //$NON-NLS-1$
+
+    private InetSocketAddress mSocketAddress;
+    private boolean mClientSupport;
+    private MonitorThread mMonitorThread;
+
+    private FakeAdb mAdb;
+    private DeviceMonitor mMonitor;
+
+    /** Released once getprop runs on two devices at the same time. */
+    private final CountDownLatch mConcurrentGetProps = new CountDownLatch(2);
+    private final AtomicInteger mConcurrentGetPropCount = new AtomicInteger();
+    /** Blocks getprop while it is not released. */
+    private volatile CountDownLatch mGetPropBlocker = new CountDownLatch(0);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSocketAddress = AndroidDebugBridge.getSocketAddress();
+        mClientSupport = AndroidDebugBridge.getClientSupport();
+        mMonitorThread = MonitorThread.getInstance();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGetPropBlocker.countDown();
+        if (mMonitor != null) {
+            mMonitor.stop();
+        }
+        if (mAdb != null) {
+            mAdb.close();
+        }
+        setBridgeField("sSocketAddr", mSocketAddress); //$NON-NLS-1$
+        setBridgeField("sClientSupport", mClientSupport); //$NON-NLS-1$
+        Field instance = MonitorThread.class.getDeclaredField("mInstance"); //$NON-NLS-1$
+        instance.setAccessible(true);
+        instance.set(null, mMonitorThread);
+        super.tearDown();
+    }
+
+    /** The connection to adb is retried quickly at first, and then backs off. */
+    public void testConnectRetry() throws Exception {
+        ServerSocket unused = new ServerSocket(0, 50, InetAddress.getByName(null));
+        int port = unused.getLocalPort();
+        unused.close();
+        startMonitor(port, false);
+
+        // retried after 50, 100, 200 and 400ms
+        Thread.sleep(700);
+        int attempts = mMonitor.getConnectionAttemptCount();
+        assertTrue(String.valueOf(attempts), attempts >= 3);
+        assertFalse(mMonitor.isMonitoring());
+
+        mAdb = new FakeAdb(port);
+        for (int i = 0; i < 40 && mMonitor.isMonitoring() == false; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(mMonitor.isMonitoring());
+        assertEquals(0, mMonitor.getConnectionAttemptCount());
+    }
+
+    /** The info of the devices is queried concurrently, and kept for their next connection. */
+    public void testDeviceInfo() throws Exception {
+        mAdb = new FakeAdb(0);
+        startMonitor(mAdb.getPort(), false);
+        mAdb.sendDevices("A\tdevice", "B\tdevice"); //$NON-NLS-1$ //$NON-NLS-2$
+
+        waitForStage(Stage.MOUNT_POINTS, 2);
+        assertEquals(2, mConcurrentGetPropCount.get());
+        for (Device device : mMonitor.getDevices()) {
+            assertEquals(device.getSerialNumber(), device.getProperty("ro.serialno"));
+            assertEquals("/mnt/sdcard", device.getMountPoint(IDevice.MNT_EXTERNAL_STORAGE));
+            assertEquals("/system", device.getMountPoint(IDevice.MNT_ROOT));
+        }
+
+        mAdb.sendDevices();
+        waitForDeviceCount(0);
+
+        // the info of a device coming back is set before its properties are read again.
+        mGetPropBlocker = new CountDownLatch(1);
+        mAdb.sendDevices("A\tdevice"); //$NON-NLS-1$
+        waitForDeviceCount(1);
+        Device device = mMonitor.getDevices()[0];
+        assertEquals("A", device.getProperty("ro.serialno"));
+        assertEquals("/data", device.getMountPoint(IDevice.MNT_DATA));
+        assertEquals(2, mMonitor.getDiscoveryStats().getCount(Stage.PROPERTIES));
+    }
+
+    public void testReopenClient() throws Exception {
+        Device device = startClientMonitoring();
+        mMonitor.addClientToDropAndReopen(new Client(device, null, 42),
+                IDebugPortProvider.NO_STATIC_PORT);
+        assertTrue(mAdb.waitForRequest("A jdwp:42", 5000)); //$NON-NLS-1$
+    }
+
+    /** A client is not reopened once its device is gone. */
+    public void testReopenClientOfRemovedDevice() throws Exception {
+        Device device = startClientMonitoring();
+        mMonitor.addClientToDropAndReopen(new Client(device, null, 42),
+                IDebugPortProvider.NO_STATIC_PORT);
+        mAdb.sendDevices();
+        waitForDeviceCount(0);
+
+        assertFalse(mAdb.waitForRequest("A jdwp:42", 2000)); //$NON-NLS-1$
+    }
+
+    /** Starts tracking the clients of a device "A", and returns the device. */
+    private Device startClientMonitoring() throws Exception {
+        MonitorThread.createInstance();
+        mAdb = new FakeAdb(0);
+        startMonitor(mAdb.getPort(), true);
+        mAdb.sendDevices("A\tdevice"); //$NON-NLS-1$
+        waitForStage(Stage.CLIENT_TRACKING, 1);
+        return mMonitor.getDevices()[0];
+    }
+
+    private void startMonitor(int port, boolean clientSupport) throws Exception {
+        setBridgeField("sSocketAddr", //$NON-NLS-1$
+                new InetSocketAddress(InetAddress.getByName(null), port));
+        setBridgeField("sClientSupport", clientSupport); //$NON-NLS-1$
+
+        // a bridge not linked to an adb executable.
+        Constructor<AndroidDebugBridge> constructor =
+                AndroidDebugBridge.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        mMonitor = new DeviceMonitor(constructor.newInstance());
+        mMonitor.start();
+    }
+
+    private static void setBridgeField(String name, Object value) throws Exception {
+        Field field = AndroidDebugBridge.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(null, value);
+    }
+
+    private void waitForStage(Stage stage, int count) throws InterruptedException {
+        for (int i = 0; i < 100 && mMonitor.getDiscoveryStats().getCount(stage) < count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, mMonitor.getDiscoveryStats().getCount(stage));
+    }
+
+    private void waitForDeviceCount(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && mMonitor.getDevices().length != count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, mMonitor.getDevices().length);
+    }
+
+    /** Returns the output of a shell command run on a device. */
+    private String runShellCommand(String serial, String command) throws InterruptedException {
+        if (command.equals(GetPropReceiver.GETPROP_COMMAND)) {
+            mConcurrentGetProps.countDown();
+            if (mConcurrentGetProps.await(5, TimeUnit.SECONDS)) {
+                mConcurrentGetPropCount.incrementAndGet();
+            }
+            mGetPropBlocker.await(5, TimeUnit.SECONDS);
+            return "[ro.serialno]: [" + serial + "]\r\n"; //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (command.startsWith("echo ")) { //$NON-NLS-1$
+            return MOUNT_POINTS;
+        }
+        return ""; //$NON-NLS-1$
+    }
+
+    /**
+     * Local server answering the requests of the {@link DeviceMonitor}. The jdwp connections
+     * to the clients are rejected.
+     */
+    private class FakeAdb implements Runnable {
+        private final ServerSocket mServer;
+        private final List<Socket> mSockets = new ArrayList<Socket>();
+        private final List<String> mRequests = new ArrayList<String>();
+        private Socket mDeviceTracker;
+
+        FakeAdb(int port) throws IOException {
+            mServer = new ServerSocket();
+            mServer.setReuseAddress(true);
+            mServer.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+            Thread thread = new Thread(this, "FakeAdb"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServer.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = mServer.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                synchronized (mSockets) {
+                    mSockets.add(socket);
+                }
+                Thread thread = new Thread("FakeAdb Connection") { //$NON-NLS-1$
+                    @Override
+                    public void run() {
+                        try {
+                            handle(socket);
+                        } catch (Exception e) {
+                            // the connection was closed.
+                        }
+                    }
+                };
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void handle(Socket socket) throws Exception {
+            String request = readRequest(socket);
+            addRequest(request);
+            OutputStream out = socket.getOutputStream();
+            if (request.equals("host:track-devices")) { //$NON-NLS-1$
+                synchronized (this) {
+                    out.write("OKAY".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+                    mDeviceTracker = socket;
+                    notifyAll();
+                }
+                return;
+            }
+
+            String serial = request.substring("host:transport:".length()); //$NON-NLS-1$
+            out.write("OKAY".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+            request = readRequest(socket);
+            addRequest(serial + " " + request); //$NON-NLS-1$
+            if (request.equals("track-jdwp")) { //$NON-NLS-1$
+                out.write("OKAY".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+            } else if (request.startsWith("shell:")) { //$NON-NLS-1$
+                String output = runShellCommand(serial, request.substring("shell:".length()));
+                out.write(("OKAY" + output).getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+                socket.close();
+            } else {
+                out.write(formMessage("FAIL", "closed")); //$NON-NLS-1$ //$NON-NLS-2$
+                socket.close();
+            }
+        }
+
+        /** Sends the list of devices, as "serial\tstate" lines. */
+        synchronized void sendDevices(String... devices) throws Exception {
+            long end = System.currentTimeMillis() + 5000;
+            while (mDeviceTracker == null && System.currentTimeMillis() < end) {
+                wait(50);
+            }
+            assertNotNull(mDeviceTracker);
+
+            StringBuilder sb = new StringBuilder();
+            for (String device : devices) {
+                sb.append(device).append('\n');
+            }
+            mDeviceTracker.getOutputStream().write(formMessage("", sb.toString()));
+        }
+
+        private void addRequest(String request) {
+            synchronized (mRequests) {
+                mRequests.add(request);
+                mRequests.notifyAll();
+            }
+        }
+
+        boolean waitForRequest(String request, long timeout) throws InterruptedException {
+            long end = System.currentTimeMillis() + timeout;
+            synchronized (mRequests) {
+                while (mRequests.contains(request) == false) {
+                    long delay = end - System.currentTimeMillis();
+                    if (delay <= 0) {
+                        return false;
+                    }
+                    mRequests.wait(delay);
+                }
+                return true;
+            }
+        }
+
+        void close() throws IOException {
+            mServer.close();
+            synchronized (mSockets) {
+                for (Socket socket : mSockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    private static String readRequest(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] length = new byte[4];
+        in.readFully(length);
+        byte[] request = new byte[Integer.parseInt(new String(length, "ISO-8859-1"), 16)];
+        in.readFully(request);
+        return new String(request, "ISO-8859-1");
+    }
+
+    private static byte[] formMessage(String prefix, String message) throws IOException {
+        return String.format("%1$s%2$04x%3$s", prefix, message.length(), message) //$NON-NLS-1$
+                .getBytes("ISO-8859-1"); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link FrameBufferCapture} and {@link RawImage#toARGB(int[])}.
+ */
+public class FrameBufferCaptureTest extends TestCase {
+
+    private static RawImage createImage(int version, int[] header, int width, int height,
+            byte[] data) {
+        ByteBuffer buf = ByteBuffer.allocate(header.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : header) {
+            buf.putInt(value);
+        }
+        buf.flip();
+        RawImage image = new RawImage();
+        assertTrue(image.readHeader(version, buf));
+        image.data = data;
+        return image;
+    }
+
+    /** Creates a RGBA 8888 image. */
+    private static RawImage create32(int width, int height, byte[] data) {
+        return createImage(1, new int[] {
+                32, width * height * 4, width, height, 0, 8, 16, 8, 8, 8, 24, 8 },
+                width, height, data);
+    }
+
+    /** Creates a RGB 565 image. */
+    private static RawImage create16(int width, int height, byte[] data) {
+        return createImage(16, new int[] { width * height * 2, width, height },
+                width, height, data);
+    }
+
+    private static void assertSameAsGetARGB(RawImage image) {
+        int[] pixels = image.toARGB(null);
+        int bytes = image.bpp >> 3;
+        for (int i = 0; i < image.width * image.height; i++) {
+            assertEquals(image.getARGB(i * bytes), pixels[i]);
+        }
+    }
+
+    public void testToARGB() {
+        Random random = new Random(42);
+        byte[] data = new byte[7 * 5 * 4];
+        random.nextBytes(data);
+        assertSameAsGetARGB(create32(7, 5, data));
+
+        data = new byte[7 * 5 * 2];
+        random.nextBytes(data);
+        assertSameAsGetARGB(create16(7, 5, data));
+
+        // the array is reused when large enough.
+        int[] pixels = new int[100];
+        assertSame(pixels, create16(7, 5, data).toARGB(pixels));
+    }
+
+    public void testChangedTiles() {
+        int width = 10;
+        int height = 7;
+        byte[] data = new byte[width * height * 4];
+        FrameBufferCapture capture = new FrameBufferCapture(null, 4);
+
+        // first frame: all the tiles, the last ones being smaller.
+        capture.processFrame(create32(width, height, data.clone()));
+        List<FrameBufferCapture.Tile> tiles = capture.getChangedTiles();
+        assertEquals(3 * 2, tiles.size());
+        FrameBufferCapture.Tile last = tiles.get(tiles.size() - 1);
+        assertEquals(8, last.x);
+        assertEquals(4, last.y);
+        assertEquals(2, last.width);
+        assertEquals(3, last.height);
+
+        capture.processFrame(create32(width, height, data.clone()));
+        assertEquals(0, capture.getChangedTiles().size());
+
+        // change the red of the pixel at (5, 6). The alpha channel is 0.
+        data[(6 * width + 5) * 4] = 1;
+        capture.processFrame(create32(width, height, data.clone()));
+        tiles = capture.getChangedTiles();
+        assertEquals(1, tiles.size());
+        assertEquals(4, tiles.get(0).x);
+        assertEquals(4, tiles.get(0).y);
+
+        int[] tile = new int[16];
+        capture.copyTile(tiles.get(0), tile);
+        assertEquals(0x00010000, tile[2 * 4 + 1]);
+        assertEquals(0, tile[0]);
+        assertEquals(3, capture.getFrameCount());
+    }
+}
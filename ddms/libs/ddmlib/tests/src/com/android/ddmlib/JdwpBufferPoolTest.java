@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link JdwpBufferPool}.
+ */
+public class JdwpBufferPoolTest extends TestCase {
+
+    public void testBufferSize() {
+        assertEquals(JdwpBufferPool.MIN_BUFFER_SIZE, JdwpBufferPool.getBufferSize(1));
+        assertEquals(JdwpBufferPool.MIN_BUFFER_SIZE,
+                JdwpBufferPool.getBufferSize(JdwpBufferPool.MIN_BUFFER_SIZE));
+        assertEquals(4096, JdwpBufferPool.getBufferSize(2049));
+        assertEquals(JdwpBufferPool.MAX_POOLED_BUFFER_SIZE,
+                JdwpBufferPool.getBufferSize(JdwpBufferPool.MAX_POOLED_BUFFER_SIZE));
+        // larger buffers are not rounded.
+        assertEquals(JdwpBufferPool.MAX_POOLED_BUFFER_SIZE + 1,
+                JdwpBufferPool.getBufferSize(JdwpBufferPool.MAX_POOLED_BUFFER_SIZE + 1));
+    }
+
+    public void testReuse() {
+        ByteBuffer buffer = JdwpBufferPool.allocate(3000);
+        assertTrue(buffer.isDirect());
+        assertEquals(4096, buffer.capacity());
+        buffer.putInt(42);
+
+        long inUse = JdwpBufferPool.getDirectSizeInUse();
+        JdwpBufferPool.release(buffer);
+        assertEquals(inUse - 4096, JdwpBufferPool.getDirectSizeInUse());
+
+        ByteBuffer buffer2 = JdwpBufferPool.allocate(4000);
+        assertSame(buffer, buffer2);
+        assertEquals(0, buffer2.position());
+        assertEquals(buffer2.capacity(), buffer2.limit());
+        JdwpBufferPool.release(buffer2);
+    }
+
+    public void testLargeBuffers() {
+        int poolSize = JdwpBufferPool.getPoolSize();
+        ByteBuffer buffer = JdwpBufferPool.allocate(JdwpBufferPool.MAX_POOLED_BUFFER_SIZE * 3);
+        assertFalse(buffer.isDirect());
+        JdwpBufferPool.release(buffer);
+        assertEquals(poolSize, JdwpBufferPool.getPoolSize());
+    }
+
+    public void testResize() {
+        ByteBuffer buffer = JdwpBufferPool.allocate(10);
+        buffer.putInt(1).putInt(2);
+
+        ByteBuffer larger = JdwpBufferPool.resize(buffer, 10000);
+        assertEquals(16384, larger.capacity());
+        assertEquals(8, larger.position());
+        assertEquals(1, larger.getInt(0));
+        assertEquals(2, larger.getInt(4));
+        JdwpBufferPool.release(larger);
+    }
+
+    public void testClientBuffer() {
+        long inUse = JdwpBufferPool.getDirectSizeInUse();
+        Client client = new Client(null /*device*/, null /*chan*/, 42 /*pid*/);
+        assertEquals(inUse + JdwpBufferPool.MIN_BUFFER_SIZE, JdwpBufferPool.getDirectSizeInUse());
+
+        client.releaseReadBuffer();
+        assertEquals(inUse, JdwpBufferPool.getDirectSizeInUse());
+        client.releaseReadBuffer();
+        assertEquals(inUse, JdwpBufferPool.getDirectSizeInUse());
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link ShellCommandQueue} and {@link AsyncShellCommand}, using a local server
+ * in place of adb.
+ */
+public class ShellCommandQueueTest extends TestCase {
+    private static final byte[] OKAY = new byte[] { 'O', 'K', 'A', 'Y' };
+
+    private ServerSocket mServer;
+    private InetSocketAddress mAddress;
+    private ShellCommandQueue mQueue;
+    private int mMaxConnections;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new ServerSocket(0, 50, InetAddress.getByName(null));
+        mServer.setSoTimeout(5000);
+        mAddress = new InetSocketAddress(InetAddress.getByName(null), mServer.getLocalPort());
+        mQueue = new ShellCommandQueue();
+        mMaxConnections = DdmPreferences.getMaxShellConnections();
+        DdmPreferences.setMaxShellConnections(1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        DdmPreferences.setMaxShellConnections(mMaxConnections);
+        mServer.close();
+        super.tearDown();
+    }
+
+    public void testCancelQueued() throws Exception {
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AsyncShellCommand first = submit("echo hello", receiver);
+        AsyncShellCommand second = submit("echo world", new CollectingOutputReceiver());
+        assertEquals(1, mQueue.getRunningCount());
+        assertEquals(1, mQueue.getWaitingCount());
+
+        assertTrue(second.cancel(true));
+        assertTrue(second.isCancelled());
+        assertTrue(second.isDone());
+        assertEquals(0, mQueue.getWaitingCount());
+        assertCancelled(second);
+
+        Socket socket = mServer.accept();
+        try {
+            assertEquals("shell:echo hello", readRequest(socket));
+            reply(socket, "hello");
+        } finally {
+            socket.close();
+        }
+
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals("hello", receiver.getOutput());
+        assertFalse(first.isCancelled());
+        waitForRunningCount(0);
+    }
+
+    public void testCancelRunning() throws Exception {
+        AsyncShellCommand first = submit("sleep 10", new CollectingOutputReceiver());
+        CollectingOutputReceiver receiver = new CollectingOutputReceiver();
+        AsyncShellCommand second = submit("echo world", receiver);
+        assertEquals(1, mQueue.getWaitingCount());
+
+        Socket socket = mServer.accept();
+        try {
+            assertEquals("shell:sleep 10", readRequest(socket));
+            socket.getOutputStream().write(OKAY);
+
+            assertTrue(first.cancel(true));
+            assertCancelled(first);
+            assertFalse(first.cancel(true));
+
+            // the connection is closed (reset if the reply was not read), and the slot given
+            // to the next command.
+            try {
+                assertEquals(-1, socket.getInputStream().read());
+            } catch (SocketException e) {
+                // expected
+            }
+        } finally {
+            socket.close();
+        }
+
+        socket = mServer.accept();
+        try {
+            assertEquals("shell:echo world", readRequest(socket));
+            reply(socket, "world");
+        } finally {
+            socket.close();
+        }
+
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals("world", receiver.getOutput());
+        waitForRunningCount(0);
+    }
+
+    private AsyncShellCommand submit(String command, IShellOutputReceiver receiver) {
+        AsyncShellCommand shellCommand = new AsyncShellCommand(mAddress, null /*device*/,
+                command, receiver, 0 /*maxTimeToOutputResponse*/, mQueue);
+        mQueue.submit(shellCommand);
+        return shellCommand;
+    }
+
+    private static String readRequest(Socket socket) throws IOException {
+        socket.setSoTimeout(5000);
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] length = new byte[4];
+        in.readFully(length);
+        byte[] request = new byte[Integer.parseInt(new String(length, "ISO-8859-1"), 16)];
+        in.readFully(request);
+        return new String(request, "ISO-8859-1");
+    }
+
+    private static void reply(Socket socket, String output) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(OKAY);
+        out.write(output.getBytes("ISO-8859-1"));
+        out.flush();
+    }
+
+    private static void assertCancelled(AsyncShellCommand command) throws Exception {
+        try {
+            command.get(5, TimeUnit.SECONDS);
+            fail("Expected a CancellationException");
+        } catch (CancellationException e) {
+            // expected
+        }
+    }
+
+    /** The slot is released right after the command completes, on the selector thread. */
+    private void waitForRunningCount(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && mQueue.getRunningCount() != count; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(count, mQueue.getRunningCount());
+    }
+}
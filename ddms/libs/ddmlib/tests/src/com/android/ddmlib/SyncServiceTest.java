@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.SyncService.ISyncProgressMonitor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the pipelined transfers of {@link SyncService}, using a local server in place
+ * of adb and the sync service of the device.
+ */
+public class SyncServiceTest extends TestCase {
+    /** Larger than the 64KB of a DATA packet, so that the file takes 3 packets. */
+    private static final int LARGE_SIZE = 150 * 1024;
+
+    private FakeSyncServer mServer;
+    private SyncService mSync;
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = File.createTempFile("sync", null); //$NON-NLS-1$
+        mDirectory.delete();
+        mDirectory.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSync != null) {
+            mSync.close();
+        }
+        if (mServer != null) {
+            mServer.close();
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testPullFiles() throws Exception {
+        // the replies are only sent once all the requests are received.
+        openSync(3);
+        mServer.addFile("/a", createContent(10, 1));
+        mServer.addFile("/b", createContent(0, 2));
+        mServer.addFile("/c", createContent(LARGE_SIZE, 3));
+
+        RecordingMonitor monitor = new RecordingMonitor();
+        String[] local = getLocalPaths("a", "b", "c");
+        mSync.pullFiles(new String[] { "/a", "/b", "/c" }, local, monitor);
+
+        assertTrue(Arrays.equals(createContent(10, 1), readFile(local[0])));
+        assertEquals(0, new File(local[1]).length());
+        assertTrue(Arrays.equals(createContent(LARGE_SIZE, 3), readFile(local[2])));
+        assertEquals(10 + LARGE_SIZE, monitor.mTotal);
+        assertEquals(10 + LARGE_SIZE, monitor.mDone);
+        assertTrue(monitor.mStopped);
+    }
+
+    public void testPullFailure() throws Exception {
+        openSync(3);
+        mServer.addFile("/a", createContent(LARGE_SIZE, 1));
+        mServer.addFile("/b", createContent(10, 2));
+        mServer.addFile("/c", createContent(10, 3));
+        mServer.addUnreadableFile("/b");
+
+        String[] local = getLocalPaths("a", "b", "c");
+        try {
+            mSync.pullFiles(new String[] { "/a", "/b", "/c" }, local,
+                    SyncService.getNullProgressMonitor());
+            fail("Expected a SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+            assertEquals("permission denied", e.getMessage()); //$NON-NLS-1$
+        }
+
+        // the file before the failure is complete.
+        assertTrue(Arrays.equals(createContent(LARGE_SIZE, 1), readFile(local[0])));
+        assertFalse(new File(local[2]).exists());
+    }
+
+    public void testPushFiles() throws Exception {
+        openSync(3);
+        String[] local = getLocalPaths("a", "b", "c");
+        writeFile(local[0], createContent(LARGE_SIZE, 1));
+        writeFile(local[1], createContent(0, 2));
+        writeFile(local[2], createContent(10, 3));
+
+        RecordingMonitor monitor = new RecordingMonitor();
+        mSync.pushFiles(local, new String[] { "/a", "/b", "/c" }, monitor);
+
+        assertTrue(Arrays.equals(createContent(LARGE_SIZE, 1), mServer.getFile("/a")));
+        assertEquals(0, mServer.getFile("/b").length);
+        assertTrue(Arrays.equals(createContent(10, 3), mServer.getFile("/c")));
+        assertEquals(LARGE_SIZE + 10, monitor.mTotal);
+        assertEquals(LARGE_SIZE + 10, monitor.mDone);
+    }
+
+    public void testPushContents() throws Exception {
+        openSync(2);
+        ByteBuffer large = ByteBuffer.wrap(createContent(LARGE_SIZE + 8, 1));
+        large.position(8);
+        ByteBuffer small = ByteBuffer.wrap(createContent(10, 2));
+
+        RecordingMonitor monitor = new RecordingMonitor();
+        mSync.pushContents(new ByteBuffer[] { large, small }, new String[] { "/a", "/b" },
+                monitor);
+
+        assertTrue(Arrays.equals(Arrays.copyOfRange(createContent(LARGE_SIZE + 8, 1), 8,
+                LARGE_SIZE + 8), mServer.getFile("/a")));
+        assertTrue(Arrays.equals(createContent(10, 2), mServer.getFile("/b")));
+        assertEquals(LARGE_SIZE + 10, monitor.mDone);
+
+        // the buffers are not modified.
+        assertEquals(8, large.position());
+        assertEquals(0, small.position());
+    }
+
+    public void testPushFailure() throws Exception {
+        openSync(3);
+        String[] local = getLocalPaths("a", "b", "c");
+        writeFile(local[0], createContent(10, 1));
+        writeFile(local[1], createContent(LARGE_SIZE, 2));
+        writeFile(local[2], createContent(10, 3));
+        mServer.addUnreadableFile("/b");
+
+        try {
+            mSync.pushFiles(local, new String[] { "/a", "/b", "/c" },
+                    SyncService.getNullProgressMonitor());
+            fail("Expected a SyncException");
+        } catch (SyncException e) {
+            assertEquals(SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+            assertEquals("permission denied", e.getMessage()); //$NON-NLS-1$
+        }
+
+        // the files before and after the failure were sent without waiting for its result.
+        assertTrue(Arrays.equals(createContent(10, 1), mServer.getFile("/a")));
+        assertNull(mServer.getFile("/b"));
+        assertTrue(Arrays.equals(createContent(10, 3), mServer.getFile("/c")));
+    }
+
+    /**
+     * Starts the server and opens the sync session.
+     * @param batch the number of requests the server receives before sending their replies.
+     */
+    private void openSync(int batch) throws Exception {
+        mServer = new FakeSyncServer(batch);
+        mSync = new SyncService(new InetSocketAddress(InetAddress.getByName(null),
+                mServer.getPort()), null /*device*/);
+        assertTrue(mSync.openSync());
+    }
+
+    private String[] getLocalPaths(String... names) {
+        String[] paths = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            paths[i] = new File(mDirectory, names[i]).getPath();
+        }
+        return paths;
+    }
+
+    static byte[] createContent(int size, int seed) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + seed);
+        }
+        return content;
+    }
+
+    private static byte[] readFile(String path) throws IOException {
+        File file = new File(path);
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    static void writeFile(String path, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(path);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Monitor recording the total and the work done. */
+    static class RecordingMonitor implements ISyncProgressMonitor {
+        int mTotal;
+        int mDone;
+        boolean mStopped;
+
+        @Override
+        public void start(int totalWork) {
+            mTotal = totalWork;
+        }
+
+        @Override
+        public void stop() {
+            mStopped = true;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+
+        @Override
+        public void startSubTask(String name) {
+        }
+
+        @Override
+        public void advance(int work) {
+            mDone += work;
+        }
+    }
+
+    /**
+     * Local server answering the sync requests of a single connection. The replies are held
+     * until a batch of requests is received, which only works if the requests are pipelined.
+     */
+    static class FakeSyncServer implements Runnable {
+        private final ServerSocket mServer;
+        private final int mBatch;
+        private final Thread mThread;
+        private final Map<String, byte[]> mFiles = new HashMap<String, byte[]>();
+        /** Files which can be listed but not read or written. */
+        private final Set<String> mUnreadable = new HashSet<String>();
+        private Socket mSocket;
+
+        FakeSyncServer(int batch) throws IOException {
+            mServer = new ServerSocket(0, 50, InetAddress.getByName(null));
+            mServer.setSoTimeout(5000);
+            mBatch = batch;
+            mThread = new Thread(this, "FakeSyncServer"); //$NON-NLS-1$
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        int getPort() {
+            return mServer.getLocalPort();
+        }
+
+        synchronized void addFile(String path, byte[] content) {
+            mFiles.put(path, content);
+        }
+
+        synchronized byte[] getFile(String path) {
+            return mFiles.get(path);
+        }
+
+        synchronized void addUnreadableFile(String path) {
+            mUnreadable.add(path);
+        }
+
+        private synchronized boolean isUnreadable(String path) {
+            return mUnreadable.contains(path);
+        }
+
+        @Override
+        public void run() {
+            try {
+                Socket socket = mServer.accept();
+                synchronized (this) {
+                    mSocket = socket;
+                }
+                handle(socket);
+            } catch (IOException e) {
+                // the connection was closed.
+            }
+        }
+
+        private void handle(Socket socket) throws IOException {
+            socket.setSoTimeout(5000);
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            byte[] length = new byte[4];
+            in.readFully(length);
+            byte[] request = new byte[Integer.parseInt(new String(length, "ISO-8859-1"), 16)];
+            in.readFully(request);
+            assertEquals("sync:", new String(request, "ISO-8859-1")); //$NON-NLS-1$
+            out.write("OKAY".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+
+            ByteArrayOutputStream replies = new ByteArrayOutputStream();
+            int count = 0;
+            while (true) {
+                String id;
+                try {
+                    id = readId(in);
+                } catch (EOFException e) {
+                    break;
+                }
+                String path = readString(in, readInt(in));
+                if (id.equals("STAT")) { //$NON-NLS-1$
+                    byte[] content = getFile(path);
+                    writeReply(replies, "STAT", content != null ? 0100644 : 0); //$NON-NLS-1$
+                    writeInt(replies, content != null ? content.length : 0);
+                    writeInt(replies, 0);
+                } else if (id.equals("RECV")) { //$NON-NLS-1$
+                    replyRecv(replies, path);
+                } else if (id.equals("SEND")) { //$NON-NLS-1$
+                    receiveFile(in, replies, path.substring(0, path.lastIndexOf(',')));
+                } else {
+                    fail("Unexpected request " + id);
+                }
+
+                if (++count % mBatch == 0) {
+                    replies.writeTo(out);
+                    replies.reset();
+                }
+            }
+            replies.writeTo(out);
+            socket.close();
+        }
+
+        private void replyRecv(ByteArrayOutputStream replies, String path) throws IOException {
+            byte[] content = getFile(path);
+            if (content == null || isUnreadable(path)) {
+                writeFail(replies, "permission denied"); //$NON-NLS-1$
+                return;
+            }
+            for (int offset = 0; offset < content.length; offset += 64 * 1024) {
+                int size = Math.min(64 * 1024, content.length - offset);
+                writeReply(replies, "DATA", size); //$NON-NLS-1$
+                replies.write(content, offset, size);
+            }
+            writeReply(replies, "DONE", 0); //$NON-NLS-1$
+        }
+
+        private void receiveFile(DataInputStream in, ByteArrayOutputStream replies, String path)
+                throws IOException {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            while (true) {
+                String id = readId(in);
+                int size = readInt(in);
+                if (id.equals("DONE")) { //$NON-NLS-1$
+                    break;
+                }
+                assertEquals("DATA", id); //$NON-NLS-1$
+                assertTrue(size <= 64 * 1024);
+                byte[] data = new byte[size];
+                in.readFully(data);
+                content.write(data);
+            }
+
+            if (isUnreadable(path)) {
+                writeFail(replies, "permission denied"); //$NON-NLS-1$
+            } else {
+                addFile(path, content.toByteArray());
+                writeReply(replies, "OKAY", 0); //$NON-NLS-1$
+            }
+        }
+
+        private static String readId(DataInputStream in) throws IOException {
+            return readString(in, 4);
+        }
+
+        private static String readString(DataInputStream in, int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, "ISO-8859-1"); //$NON-NLS-1$
+        }
+
+        private static int readInt(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[4];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        }
+
+        private static void writeInt(OutputStream out, int value) throws IOException {
+            out.write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value)
+                    .array());
+        }
+
+        private static void writeReply(OutputStream out, String id, int value)
+                throws IOException {
+            out.write(id.getBytes("ISO-8859-1")); //$NON-NLS-1$
+            writeInt(out, value);
+        }
+
+        private static void writeFail(OutputStream out, String message) throws IOException {
+            writeReply(out, "FAIL", message.length()); //$NON-NLS-1$
+            out.write(message.getBytes("ISO-8859-1")); //$NON-NLS-1$
+        }
+
+        void close() throws Exception {
+            mServer.close();
+            synchronized (this) {
+                if (mSocket != null) {
+                    mSocket.close();
+                }
+            }
+            mThread.join(5000);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib;
+
+import static com.android.ddmlib.SyncServiceTest.createContent;
+import static com.android.ddmlib.SyncServiceTest.writeFile;
+
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.SyncServiceTest.FakeSyncServer;
+import com.android.ddmlib.SyncServiceTest.RecordingMonitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SyncTransferScheduler}, with fake devices whose sync sessions are
+ * served by local {@link FakeSyncServer}s.
+ */
+public class SyncTransferSchedulerTest extends TestCase {
+    private static final int LARGE_SIZE = 150 * 1024;
+
+    private final List<FakeSyncServer> mServers = new ArrayList<FakeSyncServer>();
+    private File mDirectory;
+    private String[] mLocal;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = File.createTempFile("sync", null); //$NON-NLS-1$
+        mDirectory.delete();
+        mDirectory.mkdir();
+        mLocal = new String[] {
+                new File(mDirectory, "a").getPath(), new File(mDirectory, "b").getPath()
+        };
+        writeFile(mLocal[0], createContent(LARGE_SIZE, 1));
+        writeFile(mLocal[1], createContent(10, 2));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        synchronized (mServers) {
+            for (FakeSyncServer server : mServers) {
+                server.close();
+            }
+        }
+        for (String path : mLocal) {
+            new File(path).delete();
+        }
+        mDirectory.delete();
+        super.tearDown();
+    }
+
+    public void testRetries() throws Exception {
+        FakeDevice ok = new FakeDevice("ok", 0); //$NON-NLS-1$
+        FakeDevice flaky = new FakeDevice("flaky", 1); //$NON-NLS-1$
+        FakeDevice dead = new FakeDevice("dead", -1); //$NON-NLS-1$
+        IDevice[] devices = new IDevice[] { ok.mDevice, flaky.mDevice, dead.mDevice };
+
+        RecordingMonitor monitor = new RecordingMonitor();
+        Map<IDevice, Exception> failures = new SyncTransferScheduler(2, 2).push(devices,
+                mLocal, new String[] { "/a", "/b" }, monitor);
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(dead.mDevice) instanceof IOException);
+        assertEquals(1, ok.getAttempts());
+        assertEquals(2, flaky.getAttempts());
+        assertEquals(3, dead.getAttempts());
+
+        assertTrue(Arrays.equals(createContent(LARGE_SIZE, 1), ok.mLastServer.getFile("/a")));
+        assertTrue(Arrays.equals(createContent(10, 2), flaky.mLastServer.getFile("/b")));
+
+        // the failed attempt of the flaky device is not counted twice.
+        long size = LARGE_SIZE + 10;
+        assertEquals(3 * size, monitor.mTotal);
+        assertEquals(2 * size, monitor.mDone);
+        assertTrue(monitor.mStopped);
+    }
+
+    public void testNoRetry() throws Exception {
+        FakeDevice flaky = new FakeDevice("flaky", 1); //$NON-NLS-1$
+        FakeDevice ok = new FakeDevice("ok", 0); //$NON-NLS-1$
+        IDevice[] devices = new IDevice[] { flaky.mDevice, ok.mDevice };
+
+        RecordingMonitor monitor = new RecordingMonitor();
+        Map<IDevice, Exception> failures = new SyncTransferScheduler(1, 0).push(devices,
+                mLocal, new String[] { "/a", "/b" }, monitor);
+
+        assertEquals(1, failures.size());
+        SyncException e = (SyncException) failures.get(flaky.mDevice);
+        assertEquals(SyncError.TRANSFER_PROTOCOL_ERROR, e.getErrorCode());
+        assertEquals(1, flaky.getAttempts());
+        assertEquals(1, ok.getAttempts());
+
+        // the files of the failed transfer were sent before the failure was read.
+        long size = LARGE_SIZE + 10;
+        assertEquals(2 * size, monitor.mTotal);
+        assertEquals(2 * size, monitor.mDone);
+    }
+
+    /**
+     * A device whose first sync sessions fail on the second file, or which cannot open sync
+     * sessions at all.
+     */
+    private class FakeDevice implements InvocationHandler {
+        private final String mSerialNumber;
+        private final int mFailures;
+        private final IDevice mDevice;
+        private int mAttempts = 0;
+        private volatile FakeSyncServer mLastServer;
+
+        /**
+         * @param failures the number of sessions which fail, or -1 if the sync sessions
+         *      cannot be opened.
+         */
+        FakeDevice(String serialNumber, int failures) {
+            mSerialNumber = serialNumber;
+            mFailures = failures;
+            mDevice = (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(),
+                    new Class<?>[] { IDevice.class }, this);
+        }
+
+        synchronized int getAttempts() {
+            return mAttempts;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("getSerialNumber") || name.equals("toString")) {
+                return mSerialNumber;
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("getSyncService")) {
+                return getSyncService();
+            }
+            throw new UnsupportedOperationException(name);
+        }
+
+        private SyncService getSyncService() throws Exception {
+            int attempt;
+            synchronized (this) {
+                attempt = ++mAttempts;
+            }
+            if (mFailures < 0) {
+                throw new IOException("connection refused"); //$NON-NLS-1$
+            }
+
+            FakeSyncServer server = new FakeSyncServer(1);
+            synchronized (mServers) {
+                mServers.add(server);
+            }
+            if (attempt <= mFailures) {
+                server.addUnreadableFile("/b"); //$NON-NLS-1$
+            }
+            mLastServer = server;
+
+            SyncService sync = new SyncService(new InetSocketAddress(
+                    InetAddress.getByName(null), server.getPort()), null /*device*/);
+            assertTrue(sync.openSync());
+            return sync;
+        }
+    }
+}
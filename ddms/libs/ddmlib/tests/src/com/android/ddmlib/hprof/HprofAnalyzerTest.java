@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmlib.hprof;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link HprofHeap} and {@link HprofAnalyzer}.
+ */
+public class HprofAnalyzerTest extends TestCase {
+
+    private static final int CLASS_NODE = 0x100;
+    private static final int NAME_NODE = 0x200;
+    private static final int NAME_FIELD = 0x201;
+    private static final int NAME_ARRAY = 0x202;
+    private static final int CLASS_ARRAY = 0x101;
+
+    private static final int A = 0x1000;
+    private static final int B = 0x1001;
+    private static final int C = 0x1002;
+    private static final int D = 0x1003;
+    private static final int E = 0x1004;
+    private static final int X = 0x1005;
+    private static final int ARRAY = 0x1006;
+
+    /**
+     * Writes a dump with the following graph, with 4-byte ids:
+     * <pre>
+     * JNI global -> A -> B -> D -> E (int[10])
+     *                \-> C -/
+     * sticky class -> Node class -> ARRAY (Object[]) -> E
+     * X (unreachable) -> A
+     * </pre>
+     * Node instances have two references and an int, so a shallow size of 12.
+     */
+    private static byte[] createDump() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeBytes("JAVA PROFILE 1.0.2");
+        out.writeByte(0);
+        out.writeInt(4);
+        out.writeLong(0);
+
+        writeString(out, NAME_NODE, "com/example/Node");
+        writeString(out, NAME_FIELD, "field");
+        writeString(out, NAME_ARRAY, "[Ljava/lang/Object;");
+        writeLoadClass(out, CLASS_NODE, NAME_NODE);
+        writeLoadClass(out, CLASS_ARRAY, NAME_ARRAY);
+
+        ByteArrayOutputStream dumpBytes = new ByteArrayOutputStream();
+        DataOutputStream dump = new DataOutputStream(dumpBytes);
+
+        // roots
+        dump.writeByte(0x01);
+        dump.writeInt(A);
+        dump.writeInt(0);
+        dump.writeByte(0x05);
+        dump.writeInt(CLASS_NODE);
+
+        // instances come before their class, which is allowed.
+        writeNode(dump, A, B, C);
+        writeNode(dump, B, D, 0);
+        writeNode(dump, C, D, 0);
+        writeNode(dump, D, E, 0);
+        writeNode(dump, X, A, 0);
+
+        // class Node: a static reference to ARRAY, and fields "next", "other", "value".
+        dump.writeByte(0x20);
+        dump.writeInt(CLASS_NODE);
+        dump.writeInt(0);
+        for (int i = 0; i < 6; i++) {
+            dump.writeInt(0); // super, loader, signers, domain, reserved
+        }
+        dump.writeInt(12);
+        dump.writeShort(0);
+        dump.writeShort(1);
+        dump.writeInt(NAME_FIELD);
+        dump.writeByte(2);
+        dump.writeInt(ARRAY);
+        dump.writeShort(3);
+        dump.writeInt(NAME_FIELD);
+        dump.writeByte(2);
+        dump.writeInt(NAME_FIELD);
+        dump.writeByte(2);
+        dump.writeInt(NAME_FIELD);
+        dump.writeByte(10);
+
+        // Object[] { E }
+        dump.writeByte(0x22);
+        dump.writeInt(ARRAY);
+        dump.writeInt(0);
+        dump.writeInt(1);
+        dump.writeInt(CLASS_ARRAY);
+        dump.writeInt(E);
+
+        // int[10]
+        dump.writeByte(0x23);
+        dump.writeInt(E);
+        dump.writeInt(0);
+        dump.writeInt(10);
+        dump.writeByte(10);
+        dump.write(new byte[40]);
+
+        dump.flush();
+        out.writeByte(0x0C);
+        out.writeInt(0);
+        out.writeInt(dumpBytes.size());
+        out.write(dumpBytes.toByteArray());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, int id, String s) throws IOException {
+        out.writeByte(0x01);
+        out.writeInt(0);
+        out.writeInt(4 + s.length());
+        out.writeInt(id);
+        out.writeBytes(s);
+    }
+
+    private static void writeLoadClass(DataOutputStream out, int id, int nameId)
+            throws IOException {
+        out.writeByte(0x02);
+        out.writeInt(0);
+        out.writeInt(16);
+        out.writeInt(1);
+        out.writeInt(id);
+        out.writeInt(0);
+        out.writeInt(nameId);
+    }
+
+    private static void writeNode(DataOutputStream out, int id, int next, int other)
+            throws IOException {
+        out.writeByte(0x21);
+        out.writeInt(id);
+        out.writeInt(0);
+        out.writeInt(CLASS_NODE);
+        out.writeInt(12);
+        out.writeInt(next);
+        out.writeInt(other);
+        out.writeInt(42);
+    }
+
+    private static HprofHeap openDump(byte[] data) throws IOException {
+        File file = File.createTempFile("heap", ".hprof");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            return HprofHeap.open(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testRead() throws IOException {
+        HprofHeap heap = openDump(createDump());
+
+        assertEquals(8, heap.getObjectCount());
+        assertEquals(2, heap.getRoots().length);
+
+        int a = heap.getObjectIndex(A);
+        assertEquals("com.example.Node", heap.getObjectClass(a).getName());
+        assertEquals(12, heap.getShallowSize(a));
+        assertEquals(2, heap.getReferenceCount(a));
+        assertEquals(heap.getObjectIndex(B), heap.getReference(a, 0));
+        assertEquals(heap.getObjectIndex(C), heap.getReference(a, 1));
+
+        int array = heap.getObjectIndex(ARRAY);
+        assertEquals("java.lang.Object[]", heap.getObjectClass(array).getName());
+        assertEquals("int[]", heap.getObjectClass(heap.getObjectIndex(E)).getName());
+
+        int cls = heap.getObjectIndex(CLASS_NODE);
+        assertEquals("java.lang.Class", heap.getObjectClass(cls).getName());
+        assertEquals(4, heap.getShallowSize(cls));
+        assertEquals(1, heap.getReferenceCount(cls));
+    }
+
+    public void testDominators() throws IOException {
+        HprofHeap heap = openDump(createDump());
+        HprofAnalyzer analyzer = new HprofAnalyzer(heap);
+
+        int a = heap.getObjectIndex(A);
+        int cls = heap.getObjectIndex(CLASS_NODE);
+        assertEquals(HprofAnalyzer.ROOT, analyzer.getImmediateDominator(a));
+        assertEquals(a, analyzer.getImmediateDominator(heap.getObjectIndex(B)));
+        assertEquals(a, analyzer.getImmediateDominator(heap.getObjectIndex(C)));
+        assertEquals(a, analyzer.getImmediateDominator(heap.getObjectIndex(D)));
+        assertEquals(cls, analyzer.getImmediateDominator(heap.getObjectIndex(ARRAY)));
+        // E is reachable from both roots.
+        assertEquals(HprofAnalyzer.ROOT, analyzer.getImmediateDominator(heap.getObjectIndex(E)));
+        assertEquals(HprofAnalyzer.UNREACHABLE,
+                analyzer.getImmediateDominator(heap.getObjectIndex(X)));
+
+        assertEquals(48, analyzer.getRetainedSize(a));
+        assertEquals(8, analyzer.getRetainedSize(cls));
+        assertEquals(40, analyzer.getRetainedSize(heap.getObjectIndex(E)));
+        assertEquals(0, analyzer.getRetainedSize(heap.getObjectIndex(X)));
+        assertEquals(7, analyzer.getReachableCount());
+        assertEquals(96, analyzer.getReachableSize());
+
+        int[] top = analyzer.getTopRetainers(2);
+        assertEquals(2, top.length);
+        assertEquals(a, top[0]);
+        assertEquals(heap.getObjectIndex(E), top[1]);
+
+        List<HprofAnalyzer.ClassStats> histogram = analyzer.getClassHistogram();
+        HprofAnalyzer.ClassStats node = histogram.get(0);
+        assertEquals("com.example.Node", node.getHprofClass().getName());
+        assertEquals(5, node.getInstanceCount());
+        assertEquals(60, node.getShallowSize());
+        // B, C and D are dominated by A, X is unreachable.
+        assertEquals(48, node.getRetainedSize());
+    }
+
+    public void testInvalidFile() {
+        try {
+            openDump(new byte[] { 'n', 'o', 't', 0, 0, 0, 0, 4 });
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+
+        try {
+            byte[] dump = createDump();
+            byte[] truncated = new byte[dump.length - 10];
+            System.arraycopy(dump, 0, truncated, 0, truncated.length);
+            openDump(truncated);
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+}
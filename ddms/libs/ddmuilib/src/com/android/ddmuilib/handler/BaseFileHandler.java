@@ -32,6 +32,7 @@ import org.eclipse.swt.widgets.FileDialog;
 import org.eclipse.swt.widgets.Shell;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
@@ -124,6 +125,44 @@ public abstract class BaseFileHandler {
         return false;
     }
 
+    /**
+     * Prompts the user for a save location and moves a temp file into it.
+     * <p/>This <strong>must</strong> be called from the UI Thread.
+     * @param localFileName The default local name
+     * @param tempFile The temp file to move. It is deleted if the user cancels.
+     * @param title The title of the File Save dialog.
+     * @return true if success, false on error or cancel.
+     */
+    protected boolean promptAndSave(String localFileName, File tempFile, String title) {
+        FileDialog fileDialog = new FileDialog(mParentShell, SWT.SAVE);
+
+        fileDialog.setText(title);
+        fileDialog.setFileName(localFileName);
+
+        String localFilePath = fileDialog.open();
+        try {
+            if (localFilePath != null) {
+                File output = new File(localFilePath);
+                output.delete();
+                if (tempFile.renameTo(output) == false) {
+                    // the temp folder may be on a different file system.
+                    copyFile(tempFile, output);
+                }
+                return true;
+            }
+        } catch (IOException e) {
+            String errorMsg = e.getMessage();
+            displayErrorInUiThread(
+                    "Failed to save file '%1$s'%2$s",
+                    localFilePath,
+                    errorMsg != null ? ":\n" + errorMsg : ".");
+        } finally {
+            tempFile.delete();
+        }
+
+        return false;
+    }
+
     /**
      * Display an error message.
      * <p/>This will call about to {@link Display} to run this in an async {@link Runnable} in the
@@ -181,4 +220,31 @@ public abstract class BaseFileHandler {
             }
         }
     }
+
+    /**
+     * Copies a file into a given File.
+     * @param input the file to copy
+     * @param output the file into the data is copied.
+     * @throws IOException
+     */
+    protected void copyFile(File input, File output) throws IOException {
+        FileInputStream fis = null;
+        FileOutputStream fos = null;
+        try {
+            fis = new FileInputStream(input);
+            fos = new FileOutputStream(output);
+            byte[] buffer = new byte[64 * 1024];
+            int count;
+            while ((count = fis.read(buffer)) != -1) {
+                fos.write(buffer, 0, count);
+            }
+        } finally {
+            if (fis != null) {
+                fis.close();
+            }
+            if (fos != null) {
+                fos.close();
+            }
+        }
+    }
 }
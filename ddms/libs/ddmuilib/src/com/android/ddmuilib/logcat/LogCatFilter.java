@@ -203,6 +203,17 @@ public final class LogCatFilter {
      * @return true if the message matches the filter's conditions.
      */
     public boolean matches(LogCatMessage m) {
+        return matchesLevelAndPid(m)
+                && matchesAppName(m.getAppName())
+                && matchesTag(m.getTag())
+                && matchesText(m.getMessage());
+    }
+
+    /**
+     * Checks the log level and the pid of a message.
+     * @see #matches(LogCatMessage)
+     */
+    boolean matchesLevelAndPid(LogCatMessage m) {
         /* filter out messages of a lower priority */
         if (m.getLogLevel().getPriority() < mLogLevel.getPriority()) {
             return false;
@@ -214,24 +225,48 @@ public final class LogCatFilter {
             return false;
         }
 
+        return true;
+    }
+
+    /**
+     * Checks the app name of a message.
+     * @see #matches(LogCatMessage)
+     */
+    boolean matchesAppName(String appName) {
         /* if app name filter is enabled, filter out messages not matching the app name */
         if (mCheckAppName) {
-            Matcher matcher = mAppNamePattern.matcher(m.getAppName());
+            Matcher matcher = mAppNamePattern.matcher(appName);
             if (!matcher.find()) {
                 return false;
             }
         }
 
+        return true;
+    }
+
+    /**
+     * Checks the tag of a message.
+     * @see #matches(LogCatMessage)
+     */
+    boolean matchesTag(String tag) {
         /* if tag filter is enabled, filter out messages not matching the tag */
         if (mCheckTag) {
-            Matcher matcher = mTagPattern.matcher(m.getTag());
+            Matcher matcher = mTagPattern.matcher(tag);
             if (!matcher.find()) {
                 return false;
             }
         }
 
+        return true;
+    }
+
+    /**
+     * Checks the text of a message.
+     * @see #matches(LogCatMessage)
+     */
+    boolean matchesText(String text) {
         if (mCheckText) {
-            Matcher matcher = mTextPattern.matcher(m.getMessage());
+            Matcher matcher = mTextPattern.matcher(text);
             if (!matcher.find()) {
                 return false;
             }
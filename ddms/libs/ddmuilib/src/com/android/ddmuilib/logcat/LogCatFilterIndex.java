@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of the messages of a {@link LogCatMessageList} that match a {@link LogCatFilter}.
+ * <p/>The index is updated as messages are appended to the list, so each message is matched
+ * against the filter once, and the messages of the filter can be obtained without going through
+ * the whole list again. The index stores the sequence numbers of the matching messages.
+ * <p/>Tags and app names take few distinct values, so the result of the filter regexes is
+ * cached for each of them.
+ */
+public final class LogCatFilterIndex {
+    /** Max number of cached tags and app names, after which the caches are cleared. */
+    private static final int MAX_CACHE_SIZE = 4096;
+
+    private final LogCatFilter mFilter;
+
+    // only used by the thread appending to the list.
+    private final Map<String, Boolean> mTagMatches = new HashMap<String, Boolean>();
+    private final Map<String, Boolean> mAppNameMatches = new HashMap<String, Boolean>();
+
+    // sequence numbers of the matching messages, in [mStart, mStart + mSize).
+    private long[] mSequences = new long[64];
+    private int mStart = 0;
+    private int mSize = 0;
+
+    LogCatFilterIndex(LogCatFilter filter) {
+        mFilter = filter;
+    }
+
+    public LogCatFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Checks whether a message matches the filter.
+     */
+    boolean matches(LogCatMessage m) {
+        return mFilter.matchesLevelAndPid(m)
+                && matchesCached(mAppNameMatches, m.getAppName(), false)
+                && matchesCached(mTagMatches, m.getTag(), true)
+                && mFilter.matchesText(m.getMessage());
+    }
+
+    private boolean matchesCached(Map<String, Boolean> cache, String value, boolean isTag) {
+        Boolean match = cache.get(value);
+        if (match == null) {
+            match = isTag ? mFilter.matchesTag(value) : mFilter.matchesAppName(value);
+            if (cache.size() == MAX_CACHE_SIZE) {
+                cache.clear();
+            }
+            cache.put(value, match);
+        }
+        return match;
+    }
+
+    /**
+     * Adds a message to the index if it matches the filter.
+     * @param sequence the sequence number of the message in the list.
+     * @param m the message.
+     */
+    void add(long sequence, LogCatMessage m) {
+        if (!matches(m)) {
+            return;
+        }
+
+        synchronized (this) {
+            if (mStart + mSize == mSequences.length) {
+                long[] sequences = mSequences;
+                if (mSize > sequences.length / 2) {
+                    sequences = new long[sequences.length * 2];
+                }
+                System.arraycopy(mSequences, mStart, sequences, 0, mSize);
+                mSequences = sequences;
+                mStart = 0;
+            }
+            mSequences[mStart + mSize++] = sequence;
+        }
+    }
+
+    /**
+     * Removes the messages that are no longer in the list.
+     * @param firstSequence the sequence number of the first message of the list.
+     */
+    synchronized void trim(long firstSequence) {
+        while (mSize > 0 && mSequences[mStart] < firstSequence) {
+            mStart++;
+            mSize--;
+        }
+        if (mSize == 0) {
+            mStart = 0;
+        }
+    }
+
+    /**
+     * Returns the number of matching messages.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the sequence numbers of the matching messages, in increasing order.
+     */
+    public synchronized long[] getSequences() {
+        long[] sequences = new long[mSize];
+        System.arraycopy(mSequences, mStart, sequences, 0, mSize);
+        return sequences;
+    }
+}
@@ -44,6 +44,18 @@ public final class LogCatMessage {
         mTag = tag;
         mTime = time;
         mMessage = msg;
+        mTid = normalizeTid(tid);
+    }
+
+    /**
+     * Returns the thread id in radix 10, or "-1" if it cannot be decoded. A thread id that is
+     * already in radix 10 is returned as is.
+     */
+    static String normalizeTid(String tid) {
+        if (isDecimal(tid)) {
+            // already normalized, which is the case of the ids coming from the parser.
+            return tid;
+        }
 
         long tidValue;
         try {
@@ -54,7 +66,21 @@ public final class LogCatMessage {
             tidValue = -1;
         }
 
-        mTid = Long.toString(tidValue);
+        return Long.toString(tidValue);
+    }
+
+    private static boolean isDecimal(String s) {
+        int length = s.length();
+        if (length == 0 || length > 18 || (s.charAt(0) == '0' && length > 1)) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
     }
 
     public LogLevel getLogLevel() {
@@ -17,13 +17,25 @@
 package com.android.ddmuilib.logcat;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Container for a list of log messages. The list of messages are
  * maintained in a circular buffer (FIFO).
+ * <p/>Each message gets a sequence number when it is appended, starting at 0. The messages in
+ * the list are the ones in [{@link #getFirstSequence()}, {@link #getEndSequence()}).
+ * <p/>The methods modifying the list are synchronized, but the messages are read without
+ * locking: readers check the sequence numbers instead, so that reading the list never blocks
+ * the thread receiving the messages. A message being read may be removed from the list at the
+ * same time, in which case it is skipped.
+ * <p/>Messages can be indexed by filter with {@link #getIndex(LogCatFilter)}, so that the
+ * messages matching a filter can be obtained without matching all the messages again.
  */
 public final class LogCatMessageList {
     /** Preference key for size of the FIFO. */
@@ -33,17 +45,25 @@ public final class LogCatMessageList {
     /** Default value for max # of messages. */
     public static final int MAX_MESSAGES_DEFAULT = 5000;
 
-    private int mFifoSize;
-    private BlockingQueue<LogCatMessage> mQ;
+    /** Message with sequence number s is stored at s % length. Replaced by resize. */
+    private volatile AtomicReferenceArray<LogCatMessage> mMessages;
+
+    // sequence number of the first message in the list.
+    private volatile long mFirstSequence = 0;
+
+    // sequence number of the next message to be appended.
+    private volatile long mEndSequence = 0;
+
+    // indexes of the filters, synchronized on this.
+    private final Map<LogCatFilter, LogCatFilterIndex> mIndexes =
+            new IdentityHashMap<LogCatFilter, LogCatFilterIndex>();
 
     /**
      * Construct an empty message list.
      * @param maxMessages capacity of the circular buffer
      */
     public LogCatMessageList(int maxMessages) {
-        mFifoSize = maxMessages;
-
-        mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
+        mMessages = new AtomicReferenceArray<LogCatMessage>(Math.max(1, maxMessages));
     }
 
     /**
@@ -51,31 +71,47 @@ public final class LogCatMessageList {
      * @param n new size for the list
      */
     public synchronized void resize(int n) {
-        mFifoSize = n;
-
-        if (mFifoSize > mQ.size()) {
-            /* if resizing to a bigger fifo, we can copy over all elements from the current mQ */
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize, true, mQ);
-        } else {
-            /* for a smaller fifo, copy over the last n entries */
-            LogCatMessage[] curMessages = mQ.toArray(new LogCatMessage[mQ.size()]);
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-            for (int i = curMessages.length - mFifoSize; i < curMessages.length; i++) {
-                mQ.offer(curMessages[i]);
-            }
+        AtomicReferenceArray<LogCatMessage> messages =
+                new AtomicReferenceArray<LogCatMessage>(Math.max(1, n));
+
+        /* copy over the last n entries */
+        long first = Math.max(mFirstSequence, mEndSequence - messages.length());
+        for (long seq = first; seq < mEndSequence; seq++) {
+            messages.set(slot(messages, seq), mMessages.get(slot(mMessages, seq)));
         }
+
+        mFirstSequence = first;
+        mMessages = messages;
+        trimIndexes();
     }
 
     /**
-     * Append a message to the list. If the list is full, the first
-     * message will be popped off of it.
-     * @param m log to be inserted
+     * Append messages to the list. If the list is full, the first
+     * messages will be popped off of it.
+     * @param messages logs to be inserted
+     * @return the messages that were removed from the list to make room for the new ones.
      */
-    public synchronized void appendMessages(final List<LogCatMessage> messages) {
-        ensureSpace(messages.size());
-        for (LogCatMessage m: messages) {
-            mQ.offer(m);
+    public synchronized List<LogCatMessage> appendMessages(final List<LogCatMessage> messages) {
+        List<LogCatMessage> deleted = ensureSpace(messages.size());
+
+        AtomicReferenceArray<LogCatMessage> array = mMessages;
+        for (LogCatMessage m : messages) {
+            long seq = mEndSequence;
+            if (seq - mFirstSequence == array.length()) {
+                // more messages than the capacity: drop the oldest ones.
+                deleted.add(array.get(slot(array, mFirstSequence)));
+                mFirstSequence++;
+            }
+
+            array.set(slot(array, seq), m);
+            for (LogCatFilterIndex index : mIndexes.values()) {
+                index.add(seq, m);
+            }
+            mEndSequence = seq + 1;
         }
+
+        trimIndexes();
+        return deleted;
     }
 
     /**
@@ -83,12 +119,16 @@ public final class LogCatMessageList {
      * @return list of messages that were deleted to create additional space.
      */
     public synchronized List<LogCatMessage> ensureSpace(int messageCount) {
-        List<LogCatMessage> l = new ArrayList<LogCatMessage>(messageCount);
-
-        while (mQ.remainingCapacity() < messageCount) {
-            l.add(mQ.poll());
+        AtomicReferenceArray<LogCatMessage> array = mMessages;
+        int count = Math.min(messageCount, array.length()) - remainingCapacity();
+        List<LogCatMessage> l = new ArrayList<LogCatMessage>(Math.max(count, 0));
+        for (int i = 0; i < count; i++) {
+            // the first sequence is moved before the slot can be reused, see get().
+            long seq = mFirstSequence;
+            l.add(array.get(slot(array, seq)));
+            mFirstSequence = seq + 1;
         }
-
+        trimIndexes();
         return l;
     }
 
@@ -99,16 +139,167 @@ public final class LogCatMessageList {
      * @return the remaining capacity
      */
     public synchronized int remainingCapacity() {
-        return mQ.remainingCapacity();
+        return mMessages.length() - (int) (mEndSequence - mFirstSequence);
     }
 
     /** Clear all messages in the list. */
     public synchronized void clear() {
-        mQ.clear();
+        AtomicReferenceArray<LogCatMessage> array = mMessages;
+        long first = mFirstSequence;
+        long end = mEndSequence;
+        mFirstSequence = end;
+        for (long seq = first; seq < end; seq++) {
+            array.set(slot(array, seq), null);
+        }
+        trimIndexes();
+    }
+
+    /**
+     * Returns the sequence number of the first message of the list.
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * Returns the sequence number that the next message appended to the list will get.
+     */
+    public long getEndSequence() {
+        return mEndSequence;
+    }
+
+    /**
+     * Returns a message of the list, without locking.
+     * @param sequence the sequence number of the message.
+     * @return the message, or null if it is not or no longer in the list.
+     */
+    public LogCatMessage get(long sequence) {
+        while (true) {
+            if (sequence >= mEndSequence) {
+                return null;
+            }
+
+            AtomicReferenceArray<LogCatMessage> array = mMessages;
+            LogCatMessage m = array.get(slot(array, sequence));
+
+            // the slot may have been reused for a newer message while it was read, in which
+            // case the first sequence was moved past the message first.
+            if (sequence < mFirstSequence) {
+                return null;
+            }
+            if (array == mMessages) {
+                return m;
+            }
+            // the list was resized while the message was read, read it again.
+        }
+    }
+
+    /**
+     * Returns an iterator over the messages of the list, from the given sequence number to
+     * the end of the list at the time of the call. The messages are read as the iteration
+     * goes, without copying the list, so messages that are removed from the list before they
+     * are reached are skipped.
+     * @param fromSequence the sequence number of the first message to return.
+     */
+    public Iterator<LogCatMessage> iterator(final long fromSequence) {
+        final long end = mEndSequence;
+        return new Iterator<LogCatMessage>() {
+            private long mNext = fromSequence;
+            private LogCatMessage mNextMessage = null;
+
+            @Override
+            public boolean hasNext() {
+                while (mNextMessage == null && mNext < end) {
+                    mNext = Math.max(mNext, mFirstSequence);
+                    if (mNext < end) {
+                        mNextMessage = get(mNext++);
+                    }
+                }
+                return mNextMessage != null;
+            }
+
+            @Override
+            public LogCatMessage next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                LogCatMessage m = mNextMessage;
+                mNextMessage = null;
+                return m;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
     /** Obtain a copy of the message list. */
-    public synchronized List<LogCatMessage> getAllMessages() {
-        return new ArrayList<LogCatMessage>(mQ);
+    public List<LogCatMessage> getAllMessages() {
+        long first = mFirstSequence;
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(
+                (int) Math.max(0, mEndSequence - first));
+        Iterator<LogCatMessage> it = iterator(first);
+        while (it.hasNext()) {
+            messages.add(it.next());
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the index of the messages matching a filter. The index is created the first time
+     * it is requested for a filter, from the messages in the list at that time, and then kept
+     * up to date as messages are appended, until it is removed with
+     * {@link #removeIndex(LogCatFilter)}.
+     */
+    public synchronized LogCatFilterIndex getIndex(LogCatFilter filter) {
+        LogCatFilterIndex index = mIndexes.get(filter);
+        if (index == null) {
+            index = new LogCatFilterIndex(filter);
+            AtomicReferenceArray<LogCatMessage> array = mMessages;
+            for (long seq = mFirstSequence; seq < mEndSequence; seq++) {
+                index.add(seq, array.get(slot(array, seq)));
+            }
+            mIndexes.put(filter, index);
+        }
+        return index;
+    }
+
+    /**
+     * Stops indexing the messages matching a filter.
+     */
+    public synchronized void removeIndex(LogCatFilter filter) {
+        mIndexes.remove(filter);
+    }
+
+    /**
+     * Returns the messages of the list that match a filter, using the index of the filter.
+     * @see #getIndex(LogCatFilter)
+     */
+    public List<LogCatMessage> getMatchingMessages(LogCatFilter filter) {
+        long[] sequences = getIndex(filter).getSequences();
+        if (sequences.length == 0) {
+            return Collections.emptyList();
+        }
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(sequences.length);
+        for (long seq : sequences) {
+            LogCatMessage m = get(seq);
+            if (m != null) {
+                messages.add(m);
+            }
+        }
+        return messages;
+    }
+
+    private void trimIndexes() {
+        for (LogCatFilterIndex index : mIndexes.values()) {
+            index.trim(mFirstSequence);
+        }
+    }
+
+    private static int slot(AtomicReferenceArray<LogCatMessage> array, long sequence) {
+        return (int) (sequence % array.length());
     }
 }
@@ -17,26 +17,153 @@
 package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Class to parse raw output of {@code adb logcat -v long} to {@link LogCatMessage} objects.
+ * <p/>The headers are parsed by hand rather than with a regular expression, and lines can be
+ * parsed from their raw bytes so that only the text of the messages is decoded. The tags,
+ * pids and thread ids are shared by all the messages that have the same value, which keeps
+ * the many messages of the buffer small.
+ * <p/>Binary entries, as read by {@link com.android.ddmlib.log.LogReceiver}, can be parsed with
+ * {@link #processLogEntry(LogEntry, LogCatPidToNameMapper, List)}.
  */
 public final class LogCatMessageParser {
+    private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    /** Max number of distinct strings kept for sharing, after which the pool is cleared. */
+    private static final int MAX_POOL_SIZE = 4096;
+
     private LogLevel mCurLogLevel = LogLevel.WARN;
     private String mCurPid = "?";
     private String mCurTid = "?";
     private String mCurTag = "?";
     private String mCurTime = "?:??";
 
+    private final StringPool mPool = new StringPool();
+    private final AsciiSequence mAsciiLine = new AsciiSequence();
+
+    // time of the last binary entry, to only format the seconds when they change.
+    private Calendar mCalendar;
+    private int mLastEntrySec = -1;
+    private final StringBuilder mTimeBuilder = new StringBuilder(32);
+
     /**
-     * This pattern is meant to parse the first line of a log message with the option
-     * 'logcat -v long'. The first line represents the date, tag, severity, etc.. while the
-     * following lines are the message (can be several lines).<br>
+     * Parse a list of strings into {@link LogCatMessage} objects. This method
+     * maintains state from previous calls regarding the last seen header of
+     * logcat messages.
+     * @param lines list of raw strings obtained from logcat -v long
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @return list of LogMessage objects parsed from the input
+     */
+    public List<LogCatMessage> processLogLines(String[] lines,
+            LogCatPidToNameMapper pidToNameMapper) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(lines.length);
+
+        for (String line : lines) {
+            processLogLine(line, pidToNameMapper, messages);
+        }
+
+        return messages;
+    }
+
+    /**
+     * Parse a single line into a {@link LogCatMessage} object. This method
+     * maintains state from previous calls regarding the last seen header of
+     * logcat messages.
+     * <p/>The line is only converted into a {@link String} if it is part of a
+     * message, so <var>line</var> can be a reused buffer.
+     * @param line raw line obtained from logcat -v long
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @param messages list to which the message is added, if the line is part of a message
+     */
+    public void processLogLine(CharSequence line, LogCatPidToNameMapper pidToNameMapper,
+            List<LogCatMessage> messages) {
+        if (line.length() == 0) {
+            return;
+        }
+
+        if (parseHeader(line) == false) {
+            addMessage(line.toString(), pidToNameMapper, messages);
+        }
+    }
+
+    /**
+     * Parse a single line from its UTF-8 bytes. This is the same as
+     * {@link #processLogLine(CharSequence, LogCatPidToNameMapper, List)}, but headers are parsed
+     * without decoding the line.
+     * @param data the array containing the line.
+     * @param offset the offset of the line in <var>data</var>.
+     * @param length the length of the line.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @param messages list to which the message is added, if the line is part of a message
+     */
+    public void processLogLine(byte[] data, int offset, int length,
+            LogCatPidToNameMapper pidToNameMapper, List<LogCatMessage> messages) {
+        if (length == 0) {
+            return;
+        }
+
+        // header lines are pure ASCII, so the bytes can be read as chars.
+        if (parseHeader(mAsciiLine.set(data, offset, length)) == false) {
+            addMessage(new String(data, offset, length, UTF8), pidToNameMapper, messages);
+        }
+    }
+
+    /**
+     * Parse a binary log entry of the main, system or radio log. The payload of such entries is
+     * the priority on one byte, followed by the tag and the message, each ending with a null
+     * byte. A message of several lines produces one {@link LogCatMessage} per line, like
+     * {@code logcat -v long} does.
+     * @param entry the log entry.
+     * @param pidToNameMapper mapper to obtain the app name given a pid
+     * @param messages list to which the messages are added
+     */
+    public void processLogEntry(LogEntry entry, LogCatPidToNameMapper pidToNameMapper,
+            List<LogCatMessage> messages) {
+        byte[] data = entry.data;
+        int end = Math.min(entry.len, data.length);
+        if (end < 1) {
+            return;
+        }
+
+        LogLevel level = getLevelByPriority(data[0]);
+        int tagEnd = indexOf(data, (byte) 0, 1, end);
+        int msgEnd = tagEnd < end ? indexOf(data, (byte) 0, tagEnd + 1, end) : end;
+
+        mCurLogLevel = level != null ? level : LogLevel.VERBOSE;
+        mCurTag = mPool.get(mAsciiLine.set(data, 1, tagEnd - 1), true /*trim*/);
+        mCurPid = mPool.get(entry.pid);
+        mCurTid = mPool.get(entry.tid);
+        mCurTime = formatTime(entry.sec, entry.nsec);
+
+        int start = Math.min(tagEnd + 1, msgEnd);
+        while (start <= msgEnd) {
+            int lineEnd = indexOf(data, (byte) '\n', start, msgEnd);
+            // empty lines are skipped, like in the output of logcat -v long.
+            if (lineEnd > start) {
+                addMessage(new String(data, start, lineEnd - start, UTF8), pidToNameMapper,
+                        messages);
+            }
+            start = lineEnd + 1;
+        }
+    }
+
+    private void addMessage(String line, LogCatPidToNameMapper pidToNameMapper,
+            List<LogCatMessage> messages) {
+        messages.add(new LogCatMessage(mCurLogLevel, mCurPid, mCurTid,
+                pidToNameMapper.getName(mCurPid), mCurTag, mCurTime, line));
+    }
+
+    /**
+     * Parses the first line of a log message with the option 'logcat -v long'. The first line
+     * represents the date, tag, severity, etc.. while the following lines are the message (can
+     * be several lines).<br>
      * This first line looks something like:<br>
      * {@code "[ 00-00 00:00:00.000 <pid>:0x<???> <severity>/<tag>]"}
      * <br>
@@ -46,49 +173,323 @@ public final class LogCatMessageParser {
      *       such a case, the parser will change the level from F to A.<br>
      * Note: the fraction of second value can have any number of digit.<br>
      * Note: the tag should be trimmed as it may have spaces at the end.
+     * @return true if the line is a header, in which case the current header fields are
+     * updated.
+     */
+    private boolean parseHeader(CharSequence line) {
+        int length = line.length();
+        if (length < 25 || line.charAt(0) != '[' || line.charAt(length - 1) != ']'
+                || isSpace(line.charAt(1)) == false) {
+            return false;
+        }
+
+        // time: "00-00 00:00:00.0+"
+        int i = 2;
+        if (isDigits(line, i, 2) == false || line.charAt(i + 2) != '-'
+                || isDigits(line, i + 3, 2) == false || isSpace(line.charAt(i + 5)) == false
+                || isDigits(line, i + 6, 2) == false || line.charAt(i + 8) != ':'
+                || isDigits(line, i + 9, 2) == false || line.charAt(i + 11) != ':'
+                || isDigits(line, i + 12, 2) == false || line.charAt(i + 14) != '.') {
+            return false;
+        }
+        int timeStart = i;
+        i += 15;
+        int fractionStart = i;
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        if (i == fractionStart) {
+            return false;
+        }
+        int timeEnd = i;
+
+        // pid: spaces, then digits followed by ':'
+        int spacesStart = i;
+        while (i < length && isSpace(line.charAt(i))) {
+            i++;
+        }
+        if (i == spacesStart) {
+            return false;
+        }
+        int pidStart = i;
+        while (i < length && isDigit(line.charAt(i))) {
+            i++;
+        }
+        int pidEnd = i;
+        if (i == length || line.charAt(i) != ':') {
+            return false;
+        }
+        i++;
+
+        // tid: optional spaces, then anything up to the next space.
+        while (i < length && isSpace(line.charAt(i))) {
+            i++;
+        }
+        int tidStart = i;
+        while (i < length && isSpace(line.charAt(i)) == false) {
+            i++;
+        }
+        int tidEnd = i;
+        if (tidEnd == tidStart || tidEnd + 3 >= length) {
+            return false;
+        }
+
+        // level, '/' and the tag up to the final ']'
+        char levelLetter = line.charAt(tidEnd + 1);
+        if ("VDIWEAF".indexOf(levelLetter) == -1 || line.charAt(tidEnd + 2) != '/') { //$NON-NLS-1$
+            return false;
+        }
+
+        /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
+         * to generate "A", but generates "F". */
+        mCurLogLevel = levelLetter == 'F' ? LogLevel.ASSERT : LogLevel.getByLetter(levelLetter);
+        mCurTime = line.subSequence(timeStart, timeEnd).toString();
+        mCurPid = mPool.get(line.subSequence(pidStart, pidEnd), false /*trim*/);
+        mCurTid = mPool.getTid(line.subSequence(tidStart, tidEnd));
+        mCurTag = mPool.get(line.subSequence(tidEnd + 3, length - 1), true /*trim*/);
+        return true;
+    }
+
+    private String formatTime(int sec, int nsec) {
+        if (sec != mLastEntrySec || mTimeBuilder.length() == 0) {
+            if (mCalendar == null) {
+                mCalendar = Calendar.getInstance();
+            }
+            mCalendar.setTimeInMillis(sec * 1000L);
+
+            mTimeBuilder.setLength(0);
+            appendTwoDigits(mCalendar.get(Calendar.MONTH) + 1);
+            mTimeBuilder.append('-');
+            appendTwoDigits(mCalendar.get(Calendar.DAY_OF_MONTH));
+            mTimeBuilder.append(' ');
+            appendTwoDigits(mCalendar.get(Calendar.HOUR_OF_DAY));
+            mTimeBuilder.append(':');
+            appendTwoDigits(mCalendar.get(Calendar.MINUTE));
+            mTimeBuilder.append(':');
+            appendTwoDigits(mCalendar.get(Calendar.SECOND));
+            mTimeBuilder.append('.');
+            mLastEntrySec = sec;
+        }
+
+        // milliseconds, like logcat -v long.
+        int length = mTimeBuilder.length();
+        int millis = nsec / 1000000;
+        mTimeBuilder.append((char) ('0' + millis / 100));
+        mTimeBuilder.append((char) ('0' + millis / 10 % 10));
+        mTimeBuilder.append((char) ('0' + millis % 10));
+        String time = mTimeBuilder.toString();
+        mTimeBuilder.setLength(length);
+        return time;
+    }
+
+    private void appendTwoDigits(int value) {
+        mTimeBuilder.append((char) ('0' + value / 10));
+        mTimeBuilder.append((char) ('0' + value % 10));
+    }
+
+    private static LogLevel getLevelByPriority(int priority) {
+        for (LogLevel level : LogLevel.values()) {
+            if (level.getPriority() == priority) {
+                return level;
+            }
+        }
+
+        // fatal (8) and above are shown as assert, like the 'F' level of logcat -v long.
+        return priority > LogLevel.ASSERT.getPriority() ? LogLevel.ASSERT : null;
+    }
+
+    private static int indexOf(byte[] data, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean isDigits(CharSequence s, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            if (isDigit(s.charAt(i)) == false) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** Same as the \s class of regular expressions. */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Read-only view of ASCII bytes as chars, reused for each line.
      */
-    private static Pattern sLogHeaderPattern = Pattern.compile(
-            "^\\[\\s(\\d\\d-\\d\\d\\s\\d\\d:\\d\\d:\\d\\d\\.\\d+)"
-          + "\\s+(\\d*):\\s*(\\S+)\\s([VDIWEAF])/(.*)\\]$");
+    private static final class AsciiSequence implements CharSequence {
+        private byte[] mData;
+        private int mOffset;
+        private int mLength;
+
+        AsciiSequence set(byte[] data, int offset, int length) {
+            mData = data;
+            mOffset = offset;
+            mLength = length;
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            // non ASCII bytes are negative, and never match the chars the parser looks for.
+            return (char) (mData[mOffset + index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new AsciiSequence().set(mData, mOffset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mData, mOffset, mLength, UTF8);
+        }
+    }
 
     /**
-     * Parse a list of strings into {@link LogCatMessage} objects. This method
-     * maintains state from previous calls regarding the last seen header of
-     * logcat messages.
-     * @param lines list of raw strings obtained from logcat -v long
-     * @param pidToNameMapper mapper to obtain the app name given a pid
-     * @return list of LogMessage objects parsed from the input
+     * Pool of the strings of the headers, looked up from a {@link CharSequence} so that a string
+     * is only created the first time a value is seen.
      */
-    public List<LogCatMessage> processLogLines(String[] lines,
-            LogCatPidToNameMapper pidToNameMapper) {
-        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(lines.length);
+    private static final class StringPool {
+        private String[] mStrings = new String[256];
+        private int mSize = 0;
 
-        for (String line : lines) {
-            if (line.length() == 0) {
-                continue;
-            }
-
-            Matcher matcher = sLogHeaderPattern.matcher(line);
-            if (matcher.matches()) {
-                mCurTime = matcher.group(1);
-                mCurPid = matcher.group(2);
-                mCurTid = matcher.group(3);
-                mCurLogLevel = LogLevel.getByLetterString(matcher.group(4));
-                mCurTag = matcher.group(5).trim();
-
-                /* LogLevel doesn't support messages with severity "F". Log.wtf() is supposed
-                 * to generate "A", but generates "F". */
-                if (mCurLogLevel == null && matcher.group(4).equals("F")) {
-                    mCurLogLevel = LogLevel.ASSERT;
+        // thread ids as found in the headers, and their value in radix 10.
+        private String[] mTidKeys = new String[64];
+        private String[] mTids = new String[64];
+
+        // pids and thread ids of the binary entries.
+        private final int[] mInts = new int[64];
+        private final String[] mIntStrings = new String[64];
+
+        String get(CharSequence s, boolean trim) {
+            int start = 0;
+            int end = s.length();
+            if (trim) {
+                while (start < end && s.charAt(start) <= ' ') {
+                    start++;
+                }
+                while (end > start && s.charAt(end - 1) <= ' ') {
+                    end--;
+                }
+            }
+
+            if (s instanceof AsciiSequence && isAscii(s, start, end) == false) {
+                // the pool holds decoded strings: look up the decoded chars, not the bytes.
+                s = s.subSequence(start, end).toString();
+                start = 0;
+                end = s.length();
+            }
+
+            int hash = hash(s, start, end);
+            int mask = mStrings.length - 1;
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                String str = mStrings[i];
+                if (str == null) {
+                    str = s.subSequence(start, end).toString();
+                    add(str, i);
+                    return str;
+                }
+                if (str.hashCode() == hash && equals(str, s, start, end)) {
+                    return str;
                 }
-            } else {
-                LogCatMessage m = new LogCatMessage(mCurLogLevel, mCurPid, mCurTid,
-                        pidToNameMapper.getName(mCurPid),
-                        mCurTag, mCurTime, line);
-                messages.add(m);
             }
         }
 
-        return messages;
+        String get(int value) {
+            int i = value & (mInts.length - 1);
+            if (mIntStrings[i] == null || mInts[i] != value) {
+                mInts[i] = value;
+                mIntStrings[i] = get(Integer.toString(value), false);
+            }
+            return mIntStrings[i];
+        }
+
+        String getTid(CharSequence s) {
+            String key = get(s, false);
+            int i = key.hashCode() & (mTidKeys.length - 1);
+            if (mTidKeys[i] != key) {
+                mTidKeys[i] = key;
+                mTids[i] = get(LogCatMessage.normalizeTid(key), false);
+            }
+            return mTids[i];
+        }
+
+        private void add(String str, int slot) {
+            if (mSize == MAX_POOL_SIZE) {
+                // too many distinct values: start over.
+                mStrings = new String[mStrings.length];
+                mSize = 0;
+                slot = str.hashCode() & (mStrings.length - 1);
+            } else if ((mSize + 1) * 2 > mStrings.length) {
+                String[] strings = mStrings;
+                mStrings = new String[strings.length * 2];
+                for (String s : strings) {
+                    if (s != null) {
+                        insert(s);
+                    }
+                }
+                insert(str);
+                mSize++;
+                return;
+            }
+            mStrings[slot] = str;
+            mSize++;
+        }
+
+        private void insert(String str) {
+            int mask = mStrings.length - 1;
+            int i = str.hashCode() & mask;
+            while (mStrings[i] != null) {
+                i = (i + 1) & mask;
+            }
+            mStrings[i] = str;
+        }
+
+        private static boolean isAscii(CharSequence s, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (s.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Same as {@link String#hashCode()} for the chars of the range. */
+        private static int hash(CharSequence s, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + s.charAt(i);
+            }
+            return h;
+        }
+
+        private static boolean equals(String str, CharSequence s, int start, int end) {
+            if (str.length() != end - start) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                if (str.charAt(i - start) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
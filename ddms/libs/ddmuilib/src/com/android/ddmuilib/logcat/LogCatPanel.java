@@ -82,6 +82,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -485,7 +486,8 @@ public final class LogCatPanel extends SelectionDependentPanel
             return;
         }
 
-        mLogCatFilters.remove(selectedIndex);
+        LogCatFilter filter = mLogCatFilters.remove(selectedIndex);
+        removeFilterIndex(filter);
         mFiltersTableViewer.refresh();
         mFiltersTableViewer.getTable().setSelection(selectedIndex - 1);
 
@@ -516,6 +518,7 @@ public final class LogCatPanel extends SelectionDependentPanel
                 dialog.getAppName(),
                 LogLevel.getByString(dialog.getLogLevel()));
         mLogCatFilters.set(selectedIndex, f);
+        removeFilterIndex(curFilter);
         mFiltersTableViewer.refresh();
 
         mFiltersTableViewer.getTable().setSelection(selectedIndex);
@@ -523,6 +526,13 @@ public final class LogCatPanel extends SelectionDependentPanel
         saveFilterPreferences();
     }
 
+    /** Stops indexing the messages of a filter that was deleted or replaced. */
+    private void removeFilterIndex(LogCatFilter filter) {
+        if (mReceiver != null && mReceiver.getMessages() != null) {
+            mReceiver.getMessages().removeIndex(filter);
+        }
+    }
+
     /**
      * Select the transient filter for the specified application. If no such filter
      * exists, then create one and then select that. This method should be called from
@@ -809,10 +819,16 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private List<LogCatMessage> applyCurrentFilters(List<LogCatMessage> msgList) {
-        List<LogCatMessage> filteredItems = new ArrayList<LogCatMessage>(msgList.size());
+        return applyFilters(msgList.iterator(), mCurrentFilters);
+    }
 
-        for (LogCatMessage msg: msgList) {
-            if (isMessageAccepted(msg, mCurrentFilters)) {
+    private List<LogCatMessage> applyFilters(Iterator<LogCatMessage> messages,
+            List<LogCatFilter> filters) {
+        List<LogCatMessage> filteredItems = new ArrayList<LogCatMessage>();
+
+        while (messages.hasNext()) {
+            LogCatMessage msg = messages.next();
+            if (isMessageAccepted(msg, filters)) {
                 filteredItems.add(msg);
             }
         }
@@ -1099,9 +1115,28 @@ public final class LogCatPanel extends SelectionDependentPanel
             return;
         }
 
-        List<LogCatMessage> addedMessages = mReceiver.getMessages().getAllMessages();
-        List<LogCatMessage> deletedMessages = Collections.emptyList();
-        bufferChanged(addedMessages, deletedMessages);
+        LogCatMessageList messageList = mReceiver.getMessages();
+        Iterator<LogCatMessage> messages;
+        List<LogCatFilter> filters = mCurrentFilters;
+        if (mCurrentSelectedFilterIndex != DEFAULT_FILTER_INDEX) {
+            // The messages matching the saved filter are obtained from its index, so only
+            // the live filters are applied to them.
+            LogCatFilter savedFilter = getSelectedSavedFilter();
+            messages = messageList.getMatchingMessages(savedFilter).iterator();
+            filters = new ArrayList<LogCatFilter>(mCurrentFilters);
+            filters.remove(savedFilter);
+        } else {
+            messages = messageList.iterator(messageList.getFirstSequence());
+        }
+
+        List<LogCatMessage> addedMessages = applyFilters(messages, filters);
+        synchronized (mLogBuffer) {
+            mLogBuffer.addAll(addedMessages);
+        }
+
+        refreshLogCatTable();
+        updateUnreadCount(addedMessages);
+        refreshFiltersTable();
     }
 
     /**
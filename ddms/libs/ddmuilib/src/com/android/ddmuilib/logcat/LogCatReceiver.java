@@ -16,14 +16,19 @@
 
 package com.android.ddmuilib.logcat;
 
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.ByteLineReceiver;
 import com.android.ddmlib.IDevice;
 import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
-import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.log.LogReceiver;
+import com.android.ddmlib.log.LogReceiver.ILogBatchListener;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -32,9 +37,21 @@ import java.util.Set;
 /**
  * A class to monitor a device for logcat messages. It stores the received
  * log messages in a circular buffer.
+ * <p/>By default the messages are read from the text output of {@code logcat -v long}. If
+ * {@link #BINARY_LOG_PREFKEY} is set, they are read instead from the binary log services of the
+ * main and system logs, which avoids formatting the messages on the device and parsing text on
+ * the host. The two logs are read by separate threads, and their messages are appended as they
+ * arrive: the messages of each log are in order, but unlike logcat, which merges the logs by
+ * time, messages logged at about the same time in the main and system logs can be appended in
+ * either order.
  */
 public final class LogCatReceiver {
+    /** Preference key for reading the binary logs instead of the output of logcat. */
+    public static final String BINARY_LOG_PREFKEY = "logcat.receiver.binary";
+
     private static final String LOGCAT_COMMAND = "logcat -v long";
+    /** Logs read in binary mode, the same as the default logs of logcat. */
+    private static final String[] BINARY_LOG_NAMES = new String[] { "main", "system" };
     private static final int DEVICE_POLL_INTERVAL_MSEC = 1000;
     private static LogCatMessage DEVICE_DISCONNECTED_MESSAGE =
             new LogCatMessage(LogLevel.ERROR, "", "", "",
@@ -42,7 +59,14 @@ public final class LogCatReceiver {
 
     private LogCatMessageList mLogMessages;
     private IDevice mCurrentDevice;
+    /** Receivers of the binary logs. Also the lock for {@link #mCurrentLogCatOutputReceiver}
+     * and {@link #mStopped}, as the fallback to logcat happens on a receiver thread. */
+    private final List<LogReceiver> mBinaryLogReceivers = new ArrayList<LogReceiver>();
     private LogCatOutputReceiver mCurrentLogCatOutputReceiver;
+    private boolean mStopped = false;
+    /** Lock for appending the messages and sending the events, as the binary logs are read
+     * by several threads. */
+    private final Object mProcessLock = new Object();
     private Set<ILogCatBufferChangeListener> mLogCatMessageListeners;
     private LogCatMessageParser mLogCatMessageParser;
     private LogCatPidToNameMapper mPidToNameMapper;
@@ -73,11 +97,21 @@ public final class LogCatReceiver {
      * Stop receiving messages from currently active device.
      */
     public void stop() {
-        if (mCurrentLogCatOutputReceiver != null) {
-            /* stop the current logcat command */
-            mCurrentLogCatOutputReceiver.mIsCancelled = true;
-            mCurrentLogCatOutputReceiver = null;
+        boolean wasReceiving = false;
+        synchronized (mBinaryLogReceivers) {
+            mStopped = true;
+            if (mCurrentLogCatOutputReceiver != null) {
+                /* stop the current logcat command */
+                mCurrentLogCatOutputReceiver.mIsCancelled = true;
+                mCurrentLogCatOutputReceiver = null;
+                wasReceiving = true;
+            }
+            if (cancelBinaryReceivers()) {
+                wasReceiving = true;
+            }
+        }
 
+        if (wasReceiving) {
             // add a message to the log indicating that the device has been disconnected.
             processLogMessages(Collections.singletonList(DEVICE_DISCONNECTED_MESSAGE));
         }
@@ -91,51 +125,146 @@ public final class LogCatReceiver {
     }
 
     private void startReceiverThread() {
-        mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
+        if (mPrefStore.getBoolean(BINARY_LOG_PREFKEY)) {
+            // all the receivers are registered before the threads start, so that only the
+            // first log to be rejected falls back to logcat.
+            LogReceiver[] receivers = new LogReceiver[BINARY_LOG_NAMES.length];
+            synchronized (mBinaryLogReceivers) {
+                for (int i = 0; i < receivers.length; i++) {
+                    receivers[i] = new LogReceiver(new BinaryLogListener());
+                    mBinaryLogReceivers.add(receivers[i]);
+                }
+            }
+            for (int i = 0; i < receivers.length; i++) {
+                startBinaryReceiverThread(BINARY_LOG_NAMES[i], receivers[i]);
+            }
+            return;
+        }
+
+        synchronized (mBinaryLogReceivers) {
+            mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
+        }
 
         Thread t = new Thread(new Runnable() {
             @Override
             public void run() {
-                /* wait while the device comes online */
-                while (mCurrentDevice != null && !mCurrentDevice.isOnline()) {
-                    try {
-                        Thread.sleep(DEVICE_POLL_INTERVAL_MSEC);
-                    } catch (InterruptedException e) {
-                        return;
-                    }
+                if (waitForDevice()) {
+                    runLogcat();
+                }
+            }
+        });
+        t.setName("LogCat output receiver for " + mCurrentDevice.getSerialNumber());
+        t.start();
+    }
+
+    private void startBinaryReceiverThread(final String logName, final LogReceiver receiver) {
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (waitForDevice() == false) {
+                    return;
                 }
 
+                IDevice device = mCurrentDevice;
                 try {
-                    if (mCurrentDevice != null) {
-                        mCurrentDevice.executeShellCommand(LOGCAT_COMMAND,
-                            mCurrentLogCatOutputReceiver, 0);
+                    if (device != null) {
+                        device.runLogService(logName, receiver);
+                    }
+                } catch (AdbCommandRejectedException e) {
+                    // the log services are not supported: read the output of logcat instead,
+                    // which covers all the logs. Only the first log to fail falls back, and
+                    // not once the receiver is stopped.
+                    boolean fallback = false;
+                    synchronized (mBinaryLogReceivers) {
+                        if (mStopped == false && cancelBinaryReceivers()) {
+                            mCurrentLogCatOutputReceiver = new LogCatOutputReceiver();
+                            fallback = true;
+                        }
+                    }
+                    if (fallback) {
+                        Log.w("logcat", "Binary log service rejected, using logcat: " //$NON-NLS-1$
+                                + e.getMessage());
+                        runLogcat();
                     }
                 } catch (Exception e) {
-                    /* There are 4 possible exceptions: TimeoutException,
-                     * AdbCommandRejectedException, ShellCommandUnresponsiveException and
-                     * IOException. In case of any of them, the only recourse is to just
-                     * log this unexpected situation and move on.
+                    /* TimeoutException or IOException: there's nothing to do but log this
+                     * unexpected situation and move on.
                      */
-                    Log.e("Unexpected error while launching logcat. Try reselecting the device.",
-                            e);
+                    Log.e("Unexpected error while reading the " + logName
+                            + " log. Try reselecting the device.", e);
                 }
             }
         });
-        t.setName("LogCat output receiver for " + mCurrentDevice.getSerialNumber());
+        t.setName("LogCat " + logName + " log receiver for " + mCurrentDevice.getSerialNumber());
         t.start();
     }
 
     /**
-     * LogCatOutputReceiver implements {@link MultiLineReceiver#processNewLines(String[])},
-     * which is called whenever there is output from logcat. It simply redirects this output
-     * to {@link LogCatReceiver#processLogLines(String[])}. This class is expected to be
-     * used from a different thread, and the only way to stop that thread is by using the
-     * {@link LogCatOutputReceiver#mIsCancelled} variable.
+     * Cancels the receivers of the binary logs.
+     * @return false if they were already cancelled.
+     */
+    private boolean cancelBinaryReceivers() {
+        synchronized (mBinaryLogReceivers) {
+            if (mBinaryLogReceivers.isEmpty()) {
+                return false;
+            }
+            for (LogReceiver r : mBinaryLogReceivers) {
+                r.cancel();
+            }
+            mBinaryLogReceivers.clear();
+            return true;
+        }
+    }
+
+    /**
+     * Waits while the device comes online.
+     * @return false if the wait was interrupted.
+     */
+    private boolean waitForDevice() {
+        while (mCurrentDevice != null && !mCurrentDevice.isOnline()) {
+            try {
+                Thread.sleep(DEVICE_POLL_INTERVAL_MSEC);
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void runLogcat() {
+        try {
+            IDevice device = mCurrentDevice;
+            LogCatOutputReceiver receiver;
+            synchronized (mBinaryLogReceivers) {
+                receiver = mCurrentLogCatOutputReceiver;
+            }
+            if (device != null && receiver != null) {
+                device.executeShellCommand(LOGCAT_COMMAND, receiver, 0);
+            }
+        } catch (Exception e) {
+            /* There are 4 possible exceptions: TimeoutException,
+             * AdbCommandRejectedException, ShellCommandUnresponsiveException and
+             * IOException. In case of any of them, the only recourse is to just
+             * log this unexpected situation and move on.
+             */
+            Log.e("Unexpected error while launching logcat. Try reselecting the device.",
+                    e);
+        }
+    }
+
+    /**
+     * LogCatOutputReceiver implements {@link ByteLineReceiver#processLine(byte[], int, int)},
+     * which is called for every line of output from logcat. Lines are parsed as they
+     * arrive, and the resulting messages are sent to
+     * {@link LogCatReceiver#processLogMessages(List)} once per packet of output. This class
+     * is expected to be used from a different thread, and the only way to stop that thread
+     * is by using the {@link LogCatOutputReceiver#mIsCancelled} variable.
      * See {@link IDevice#executeShellCommand(String, IShellOutputReceiver, int)} for more
      * details.
      */
-    private class LogCatOutputReceiver extends MultiLineReceiver {
-        private boolean mIsCancelled;
+    private class LogCatOutputReceiver extends ByteLineReceiver {
+        private volatile boolean mIsCancelled;
+        private List<LogCatMessage> mNewMessages = new ArrayList<LogCatMessage>();
 
         public LogCatOutputReceiver() {
             setTrimLine(false);
@@ -148,27 +277,69 @@ public final class LogCatReceiver {
         }
 
         @Override
-        public void processNewLines(String[] lines) {
+        protected void processLine(byte[] data, int offset, int length) {
+            // the parser only decodes the message lines, not the headers.
+            if (!mIsCancelled) {
+                mLogCatMessageParser.processLogLine(data, offset, length, mPidToNameMapper,
+                        mNewMessages);
+            }
+        }
+
+        @Override
+        protected void processLine(CharSequence line) {
             if (!mIsCancelled) {
-                processLogLines(lines);
+                mLogCatMessageParser.processLogLine(line, mPidToNameMapper, mNewMessages);
+            }
+        }
+
+        @Override
+        protected void newLinesProcessed() {
+            if (mNewMessages.size() > 0) {
+                // the list is handed over to the listeners, start a new one.
+                List<LogCatMessage> messages = mNewMessages;
+                mNewMessages = new ArrayList<LogCatMessage>();
+                processLogMessages(messages);
             }
         }
     }
 
-    private void processLogLines(String[] lines) {
-        List<LogCatMessage> newMessages = mLogCatMessageParser.processLogLines(lines,
-                mPidToNameMapper);
-        processLogMessages(newMessages);
+    /**
+     * BinaryLogListener parses the binary entries of a log service, read by a
+     * {@link LogReceiver}. The messages are sent to
+     * {@link LogCatReceiver#processLogMessages(List)} once per block of data.
+     */
+    private class BinaryLogListener implements ILogBatchListener {
+        // one parser per log, as each log is read by its own thread.
+        private final LogCatMessageParser mParser = new LogCatMessageParser();
+        private List<LogCatMessage> mNewMessages = new ArrayList<LogCatMessage>();
+
+        @Override
+        public void newEntry(LogEntry entry) {
+            mParser.processLogEntry(entry, mPidToNameMapper, mNewMessages);
+        }
+
+        @Override
+        public void newData(byte[] data, int offset, int length) {
+            // the entries are parsed by the LogReceiver.
+        }
+
+        @Override
+        public void newEntriesProcessed() {
+            if (mNewMessages.size() > 0) {
+                List<LogCatMessage> messages = mNewMessages;
+                mNewMessages = new ArrayList<LogCatMessage>();
+                processLogMessages(messages);
+            }
+        }
     }
 
     private void processLogMessages(List<LogCatMessage> newMessages) {
         if (newMessages.size() > 0) {
-            List<LogCatMessage> deletedMessages;
-            synchronized (mLogMessages) {
-                deletedMessages = mLogMessages.ensureSpace(newMessages.size());
-                mLogMessages.appendMessages(newMessages);
+            // the listeners expect the events in the order of the list.
+            synchronized (mProcessLock) {
+                List<LogCatMessage> deletedMessages = mLogMessages.appendMessages(newMessages);
+                sendLogChangedEvent(newMessages, deletedMessages);
             }
-            sendLogChangedEvent(newMessages, deletedMessages);
         }
     }
 
@@ -0,0 +1,792 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Disk-backed store of logcat messages, to keep a history much longer than what a
+ * {@link LogCatMessageList} can hold in memory.
+ * <p/>The store is an {@link ILogCatBufferChangeListener}: once added to a
+ * {@link LogCatReceiver}, it records all the messages that the receiver gets.
+ * <p/>Messages are written in blocks of {@link #MESSAGES_PER_BLOCK} messages, compressed, to
+ * append-only segment files. When a segment reaches its max size a new one is started, and
+ * the oldest segments are deleted once the store reaches its max size.
+ * <p/>The header of each block describes its messages: the range of their times, their highest
+ * level, and their distinct pids, tags and app names. The headers are kept in memory, which
+ * makes a sparse index of the store: {@link #query(String, String, LogCatFilter)} only
+ * decompresses the blocks that can contain matching messages. Blocks are read from memory
+ * mapped segments, so querying the store does not load it into the heap.
+ * <p/>Times in logcat messages have no year, so the time ranges of queries do not work across
+ * the end of a year.
+ */
+public final class LogCatStore implements ILogCatBufferChangeListener {
+    /** Default max size of a segment file. */
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /** Number of messages in a block. Pending messages are also written by {@link #flush()}. */
+    public static final int MESSAGES_PER_BLOCK = 1024;
+
+    private static final int BLOCK_MAGIC = 0x4C434231; // "LCB1"
+    private static final String SEGMENT_PREFIX = "logcat-"; //$NON-NLS-1$
+    private static final String SEGMENT_SUFFIX = ".seg"; //$NON-NLS-1$
+
+    private final File mDirectory;
+    private final long mMaxSegmentSize;
+    private final long mMaxSize;
+
+    // the following fields are synchronized on this.
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private Segment mCurrentSegment;
+    private FileOutputStream mOutput;
+    private List<LogCatMessage> mPendingMessages = new ArrayList<LogCatMessage>();
+    private long mMessageCount = 0;
+    private boolean mClosed = false;
+    /** Evicted segment files which could not be deleted yet, as they may still be mapped. */
+    private final List<File> mUndeletedFiles = new ArrayList<File>();
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * Opens a store with the default segment size and no max size.
+     * @param directory the directory of the segment files. It is created if needed.
+     * @throws IOException if the directory cannot be created or read.
+     */
+    public LogCatStore(File directory) throws IOException {
+        this(directory, DEFAULT_MAX_SEGMENT_SIZE, 0);
+    }
+
+    /**
+     * Opens a store. The messages already in the directory are part of the store, and new
+     * messages are written to a new segment.
+     * @param directory the directory of the segment files. It is created if needed.
+     * @param maxSegmentSize the size after which a new segment is started, which must be less
+     * than 1GB.
+     * @param maxSize the size after which the oldest segments are deleted, or 0 to keep all
+     * the segments.
+     * @throws IOException if the directory cannot be created or read.
+     */
+    public LogCatStore(File directory, long maxSegmentSize, long maxSize) throws IOException {
+        if (maxSegmentSize <= 0 || maxSegmentSize >= 1024 * 1024 * 1024) {
+            // segments are mapped in one buffer.
+            throw new IllegalArgumentException("Invalid segment size: " + maxSegmentSize);
+        }
+
+        mDirectory = directory;
+        mMaxSegmentSize = maxSegmentSize;
+        mMaxSize = maxSize;
+
+        if (directory.isDirectory() == false && directory.mkdirs() == false) {
+            throw new IOException("Unable to create " + directory.getPath());
+        }
+
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return getSegmentNumber(name) >= 0;
+            }
+        });
+        if (files == null) {
+            throw new IOException("Unable to read " + directory.getPath());
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long n1 = getSegmentNumber(f1.getName());
+                long n2 = getSegmentNumber(f2.getName());
+                return n1 < n2 ? -1 : (n1 == n2 ? 0 : 1);
+            }
+        });
+
+        // delete the oldest segments over the max size, such as the ones the last session could
+        // not delete, before they are mapped.
+        int first = 0;
+        if (maxSize > 0) {
+            long size = 0;
+            for (File file : files) {
+                size += file.length();
+            }
+            while (size > maxSize && first < files.length - 1) {
+                long length = files[first].length();
+                if (files[first].delete() == false) {
+                    Log.w("logcat", "Unable to delete " + files[first].getPath()); //$NON-NLS-1$
+                    break;
+                }
+                size -= length;
+                first++;
+            }
+        }
+
+        for (File file : Arrays.asList(files).subList(first, files.length)) {
+            Segment segment = new Segment(file, getSegmentNumber(file.getName()));
+            segment.readBlocks();
+            mSegments.add(segment);
+            for (Block block : segment.mBlocks) {
+                mMessageCount += block.mCount;
+            }
+        }
+    }
+
+    /**
+     * Returns the directory of the segment files.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Returns the number of messages in the store, including the ones not yet written.
+     */
+    public synchronized long getMessageCount() {
+        return mMessageCount;
+    }
+
+    @Override
+    public void bufferChanged(List<LogCatMessage> addedMessages,
+            List<LogCatMessage> deletedMessages) {
+        try {
+            append(addedMessages);
+        } catch (IOException e) {
+            Log.e("logcat", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Adds messages to the store. The messages are written once there are enough of them to fill
+     * a block, but they are returned by the queries right away.
+     * @throws IOException if writing a block failed.
+     */
+    public synchronized void append(List<LogCatMessage> messages) throws IOException {
+        if (mClosed) {
+            return;
+        }
+
+        for (LogCatMessage m : messages) {
+            mPendingMessages.add(m);
+            mMessageCount++;
+            if (mPendingMessages.size() == MESSAGES_PER_BLOCK) {
+                writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Writes the pending messages to disk.
+     * @throws IOException if writing the block failed.
+     */
+    public synchronized void flush() throws IOException {
+        if (mClosed == false && mPendingMessages.size() > 0) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the pending messages and closes the store. Messages appended after this are
+     * ignored, but the store can still be queried.
+     * @throws IOException if writing the last block failed.
+     */
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mClosed = true;
+            mDeflater.end();
+            if (mOutput != null) {
+                mOutput.close();
+                mOutput = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the messages of the store, oldest first, that match a filter and whose time
+     * is in a range. The messages are read from the disk as the iteration goes.
+     * <p/>The iterator covers the messages in the store at the time of the call.
+     * @param fromTime the time of the first message, in the format of
+     * {@link LogCatMessage#getTime()}, or null to start with the first message.
+     * @param toTime the time of the last message, or null to end with the last message.
+     * @param filter the filter of the messages, or null to return all the messages.
+     */
+    public Iterator<LogCatMessage> query(String fromTime, String toTime, LogCatFilter filter) {
+        long from = fromTime != null ? getTimeKey(fromTime) : Long.MIN_VALUE;
+        long to = toTime != null ? getTimeKey(toTime) : Long.MAX_VALUE;
+
+        List<Block> blocks = new ArrayList<Block>();
+        List<LogCatMessage> pending;
+        synchronized (this) {
+            for (Segment segment : mSegments) {
+                blocks.addAll(segment.mBlocks);
+            }
+            pending = new ArrayList<LogCatMessage>(mPendingMessages);
+        }
+
+        return new QueryIterator(blocks, pending, from, to, filter);
+    }
+
+    /**
+     * Returns a value of a time in the format of {@link LogCatMessage#getTime()}, which is
+     * {@code "MM-dd HH:mm:ss.SSS"}, that increases with the time. The value does not account
+     * for the year.
+     * @return the value of the time, or -1 if the time cannot be parsed.
+     */
+    public static long getTimeKey(String time) {
+        if (time.length() < 14 || time.charAt(2) != '-' || time.charAt(5) != ' '
+                || time.charAt(8) != ':' || time.charAt(11) != ':') {
+            return -1;
+        }
+
+        long month = parseDigits(time, 0, 2);
+        long day = parseDigits(time, 3, 2);
+        long hour = parseDigits(time, 6, 2);
+        long minute = parseDigits(time, 9, 2);
+        long second = parseDigits(time, 12, 2);
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+
+        // milliseconds, from the first 3 digits of the fraction, if any.
+        long millis = 0;
+        int digits = 0;
+        if (time.length() > 15 && time.charAt(14) == '.') {
+            for (int i = 15; i < time.length() && digits < 3; i++, digits++) {
+                char c = time.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                millis = millis * 10 + c - '0';
+            }
+        }
+        for (; digits < 3; digits++) {
+            millis *= 10;
+        }
+
+        return ((((month * 32 + day) * 24 + hour) * 60 + minute) * 60 + second) * 1000 + millis;
+    }
+
+    private static long parseDigits(String s, int start, int count) {
+        long value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static long getSegmentNumber(String name) {
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+            try {
+                return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                        name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                // not a segment.
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Compresses the pending messages into a block, and appends it to the current segment.
+     */
+    private void writeBlock() throws IOException {
+        List<LogCatMessage> messages = mPendingMessages;
+
+        // raw messages.
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(messages.size() * 128);
+        DataOutputStream out = new DataOutputStream(raw);
+        for (LogCatMessage m : messages) {
+            out.writeByte(m.getLogLevel().getPriority());
+            out.writeUTF(m.getPid());
+            out.writeUTF(m.getTid());
+            out.writeUTF(m.getAppName());
+            out.writeUTF(m.getTag());
+            out.writeUTF(m.getTime());
+            byte[] text = m.getMessage().getBytes("UTF-8"); //$NON-NLS-1$
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        out.flush();
+
+        byte[] rawBytes = raw.toByteArray();
+        mDeflater.reset();
+        mDeflater.setInput(rawBytes);
+        mDeflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(rawBytes.length / 4 + 64);
+        byte[] buffer = new byte[8192];
+        while (mDeflater.finished() == false) {
+            int count = mDeflater.deflate(buffer);
+            compressed.write(buffer, 0, count);
+        }
+
+        Block block = new Block(messages);
+        block.mRawLength = rawBytes.length;
+        block.mCompressedLength = compressed.size();
+
+        // header, then the compressed messages.
+        ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+        block.writeHeader(new DataOutputStream(header));
+
+        if (mOutput == null) {
+            startSegment();
+        }
+        block.mSegment = mCurrentSegment;
+        block.mOffset = mCurrentSegment.mSize + header.size();
+        header.writeTo(mOutput);
+        compressed.writeTo(mOutput);
+        mOutput.flush();
+
+        mCurrentSegment.mSize = block.mOffset + block.mCompressedLength;
+        mCurrentSegment.mBlocks.add(block);
+        mPendingMessages = new ArrayList<LogCatMessage>();
+
+        if (mCurrentSegment.mSize >= mMaxSegmentSize) {
+            mOutput.close();
+            mOutput = null;
+        }
+        deleteOldSegments();
+    }
+
+    private void startSegment() throws IOException {
+        long number = mSegments.isEmpty() ? 0 : mSegments.get(mSegments.size() - 1).mNumber + 1;
+        File file = new File(mDirectory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+        mOutput = new FileOutputStream(file);
+        mCurrentSegment = new Segment(file, number);
+        mSegments.add(mCurrentSegment);
+    }
+
+    private void deleteOldSegments() {
+        // the mapping of an evicted segment is only released once it is garbage collected, and
+        // until then the file cannot be deleted on Windows.
+        for (Iterator<File> it = mUndeletedFiles.iterator(); it.hasNext(); ) {
+            File file = it.next();
+            if (file.delete() || file.exists() == false) {
+                it.remove();
+            }
+        }
+
+        if (mMaxSize <= 0) {
+            return;
+        }
+
+        long size = 0;
+        for (Segment segment : mSegments) {
+            size += segment.mSize;
+        }
+
+        // the current segment is never deleted.
+        while (size > mMaxSize && mSegments.size() > 1 && mSegments.get(0) != mCurrentSegment) {
+            Segment segment = mSegments.remove(0);
+            size -= segment.mSize;
+            for (Block block : segment.mBlocks) {
+                mMessageCount -= block.mCount;
+            }
+            segment.evict();
+            if (segment.mFile.delete() == false) {
+                mUndeletedFiles.add(segment.mFile);
+            }
+        }
+    }
+
+    /**
+     * A segment file, and the blocks it contains.
+     */
+    private static final class Segment {
+        private final File mFile;
+        private final long mNumber;
+        // blocks and size of the segment, synchronized on the store.
+        private final List<Block> mBlocks = new ArrayList<Block>();
+        private long mSize = 0;
+
+        /** Mapping of the file, replaced when blocks are read beyond its end. */
+        private MappedByteBuffer mMap;
+        /** Whether the segment was deleted, after which its blocks can no longer be read. */
+        private boolean mEvicted = false;
+
+        Segment(File file, long number) {
+            mFile = file;
+            mNumber = number;
+        }
+
+        /**
+         * Reads the headers of the blocks of an existing segment. An incomplete block at the end
+         * of the segment, which was being written when the store was closed, is ignored.
+         */
+        void readBlocks() throws IOException {
+            ByteBuffer map = getMap(mFile.length());
+            while (map.remaining() > 0) {
+                int start = map.position();
+                try {
+                    Block block = Block.readHeader(map);
+                    if (block == null || block.mCompressedLength > map.remaining()) {
+                        break;
+                    }
+                    block.mSegment = this;
+                    block.mOffset = map.position();
+                    map.position(map.position() + block.mCompressedLength);
+                    mBlocks.add(block);
+                } catch (BufferUnderflowException e) {
+                    map.position(start);
+                    break;
+                }
+            }
+            mSize = map.position();
+        }
+
+        /**
+         * Returns a view of the file, mapped up to at least <var>end</var>.
+         */
+        synchronized ByteBuffer getMap(long end) throws IOException {
+            if (mEvicted) {
+                throw new IOException(mFile.getPath() + " was deleted"); //$NON-NLS-1$
+            }
+            if (mMap == null || mMap.capacity() < end) {
+                RandomAccessFile file = new RandomAccessFile(mFile, "r"); //$NON-NLS-1$
+                try {
+                    FileChannel channel = file.getChannel();
+                    mMap = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                } finally {
+                    file.close();
+                }
+            }
+            return mMap.duplicate();
+        }
+
+        synchronized boolean isEvicted() {
+            return mEvicted;
+        }
+
+        /**
+         * Drops the mapping of the file before it is deleted, so that it can be released.
+         */
+        synchronized void evict() {
+            mEvicted = true;
+            mMap = null;
+        }
+    }
+
+    /**
+     * A block of compressed messages, and the header describing them.
+     */
+    private static final class Block {
+        private Segment mSegment;
+        /** Offset of the compressed messages in the segment. */
+        private long mOffset;
+        private int mCompressedLength;
+        private int mRawLength;
+        private int mCount;
+
+        private long mMinTime = Long.MAX_VALUE;
+        private long mMaxTime = Long.MIN_VALUE;
+        private int mMaxPriority = 0;
+        private String[] mPids;
+        private String[] mTags;
+        private String[] mAppNames;
+
+        Block() {
+        }
+
+        Block(List<LogCatMessage> messages) {
+            Set<String> pids = new LinkedHashSet<String>();
+            Set<String> tags = new LinkedHashSet<String>();
+            Set<String> appNames = new LinkedHashSet<String>();
+            for (LogCatMessage m : messages) {
+                long time = getTimeKey(m.getTime());
+                if (time >= 0) {
+                    mMinTime = Math.min(mMinTime, time);
+                    mMaxTime = Math.max(mMaxTime, time);
+                }
+                mMaxPriority = Math.max(mMaxPriority, m.getLogLevel().getPriority());
+                pids.add(m.getPid());
+                tags.add(m.getTag());
+                appNames.add(m.getAppName());
+            }
+            mCount = messages.size();
+            mPids = pids.toArray(new String[pids.size()]);
+            mTags = tags.toArray(new String[tags.size()]);
+            mAppNames = appNames.toArray(new String[appNames.size()]);
+        }
+
+        void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(BLOCK_MAGIC);
+            out.writeInt(mCompressedLength);
+            out.writeInt(mRawLength);
+            out.writeInt(mCount);
+            out.writeLong(mMinTime);
+            out.writeLong(mMaxTime);
+            out.writeByte(mMaxPriority);
+            writeStrings(out, mPids);
+            writeStrings(out, mTags);
+            writeStrings(out, mAppNames);
+            out.flush();
+        }
+
+        /**
+         * Reads a block header.
+         * @return the block, or null if the data is not a block header.
+         * @throws BufferUnderflowException if the header is incomplete.
+         */
+        static Block readHeader(ByteBuffer in) throws IOException {
+            if (in.getInt() != BLOCK_MAGIC) {
+                return null;
+            }
+            Block block = new Block();
+            block.mCompressedLength = in.getInt();
+            block.mRawLength = in.getInt();
+            block.mCount = in.getInt();
+            block.mMinTime = in.getLong();
+            block.mMaxTime = in.getLong();
+            block.mMaxPriority = in.get();
+            block.mPids = readStrings(in);
+            block.mTags = readStrings(in);
+            block.mAppNames = readStrings(in);
+            return block.mCompressedLength >= 0 && block.mRawLength >= 0 ? block : null;
+        }
+
+        /**
+         * Returns whether the block may contain messages that match a filter and a time range.
+         */
+        boolean mayMatch(long from, long to, LogCatFilter filter) {
+            // a block with no times only matches queries without time range.
+            if (from > mMaxTime || to < mMinTime) {
+                return false;
+            }
+
+            if (filter == null) {
+                return true;
+            }
+
+            if (mMaxPriority < filter.getLogLevel().getPriority()) {
+                return false;
+            }
+
+            String pid = filter.getPid();
+            if (pid.length() > 0 && Arrays.asList(mPids).contains(pid) == false) {
+                return false;
+            }
+
+            boolean tagMatch = false;
+            for (String tag : mTags) {
+                if (filter.matchesTag(tag)) {
+                    tagMatch = true;
+                    break;
+                }
+            }
+            if (tagMatch == false) {
+                return false;
+            }
+
+            for (String appName : mAppNames) {
+                if (filter.matchesAppName(appName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Decompresses the messages of the block.
+         */
+        List<LogCatMessage> readMessages(Inflater inflater) throws IOException {
+            ByteBuffer map = mSegment.getMap(mOffset + mCompressedLength);
+            byte[] compressed = new byte[mCompressedLength];
+            map.position((int) mOffset);
+            map.get(compressed);
+
+            byte[] raw = new byte[mRawLength];
+            inflater.reset();
+            inflater.setInput(compressed);
+            try {
+                int length = 0;
+                while (length < raw.length && inflater.finished() == false) {
+                    int count = inflater.inflate(raw, length, raw.length - length);
+                    if (count == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    length += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupted block in " + mSegment.mFile.getPath());
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+            List<LogCatMessage> messages = new ArrayList<LogCatMessage>(mCount);
+            for (int i = 0; i < mCount; i++) {
+                LogLevel level = getLevel(in.readByte());
+                String pid = in.readUTF();
+                String tid = in.readUTF();
+                String appName = in.readUTF();
+                String tag = in.readUTF();
+                String time = in.readUTF();
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                messages.add(new LogCatMessage(level, pid, tid, appName, tag, time,
+                        new String(text, "UTF-8"))); //$NON-NLS-1$
+            }
+            return messages;
+        }
+
+        private static LogLevel getLevel(int priority) {
+            for (LogLevel level : LogLevel.values()) {
+                if (level.getPriority() == priority) {
+                    return level;
+                }
+            }
+            return LogLevel.VERBOSE;
+        }
+
+        private static void writeStrings(DataOutputStream out, String[] strings)
+                throws IOException {
+            out.writeShort(strings.length);
+            for (String s : strings) {
+                byte[] bytes = s.getBytes("UTF-8"); //$NON-NLS-1$
+                out.writeShort(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        private static String[] readStrings(ByteBuffer in) throws IOException {
+            String[] strings = new String[in.getShort() & 0xFFFF];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[in.getShort() & 0xFFFF];
+                in.get(bytes);
+                strings[i] = new String(bytes, "UTF-8"); //$NON-NLS-1$
+            }
+            return strings;
+        }
+    }
+
+    /**
+     * Iterator over the result of a query. The blocks are decompressed one at a time.
+     */
+    private static final class QueryIterator implements Iterator<LogCatMessage> {
+        private final Iterator<Block> mBlocks;
+        private final List<LogCatMessage> mPendingMessages;
+        private final long mFrom;
+        private final long mTo;
+        private final LogCatFilter mFilter;
+        private final Inflater mInflater = new Inflater();
+
+        private Iterator<LogCatMessage> mMessages = null;
+        private boolean mPendingRead = false;
+        private LogCatMessage mNext = null;
+
+        QueryIterator(List<Block> blocks, List<LogCatMessage> pendingMessages, long from,
+                long to, LogCatFilter filter) {
+            mBlocks = blocks.iterator();
+            mPendingMessages = pendingMessages;
+            mFrom = from;
+            mTo = to;
+            mFilter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (mNext == null) {
+                if (mMessages != null && mMessages.hasNext()) {
+                    LogCatMessage m = mMessages.next();
+                    if (matches(m)) {
+                        mNext = m;
+                    }
+                } else if (nextMessages() == false) {
+                    mInflater.end();
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public LogCatMessage next() {
+            if (hasNext() == false) {
+                throw new NoSuchElementException();
+            }
+            LogCatMessage m = mNext;
+            mNext = null;
+            return m;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private boolean matches(LogCatMessage m) {
+            if (mFrom != Long.MIN_VALUE || mTo != Long.MAX_VALUE) {
+                long time = getTimeKey(m.getTime());
+                if (time < 0 || time < mFrom || time > mTo) {
+                    return false;
+                }
+            }
+            return mFilter == null || mFilter.matches(m);
+        }
+
+        /**
+         * Moves to the messages of the next block that may match the query.
+         * @return false if there are no more messages.
+         */
+        private boolean nextMessages() {
+            while (mBlocks.hasNext()) {
+                Block block = mBlocks.next();
+                // blocks of the segments deleted since the query started are skipped.
+                if (block.mayMatch(mFrom, mTo, mFilter) && block.mSegment.isEvicted() == false) {
+                    try {
+                        mMessages = block.readMessages(mInflater).iterator();
+                        return true;
+                    } catch (IOException e) {
+                        // skip the block, the others may still be fine.
+                        Log.e("logcat", e); //$NON-NLS-1$
+                    }
+                }
+            }
+
+            if (mPendingRead == false) {
+                mPendingRead = true;
+                mMessages = mPendingMessages.iterator();
+                return true;
+            }
+            return false;
+        }
+    }
+}
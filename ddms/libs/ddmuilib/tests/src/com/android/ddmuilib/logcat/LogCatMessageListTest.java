@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogCatMessageListTest extends TestCase {
+    private static List<LogCatMessage> createMessages(int first, int count, String tag) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = first; i < first + count; i++) {
+            messages.add(new LogCatMessage(LogLevel.INFO, "1", "1", "app", tag, "",
+                    Integer.toString(i)));
+        }
+        return messages;
+    }
+
+    public void testAppendBeyondCapacity() {
+        LogCatMessageList list = new LogCatMessageList(10);
+
+        List<LogCatMessage> deleted = list.appendMessages(createMessages(0, 8, "tag"));
+        assertEquals(0, deleted.size());
+        assertEquals(2, list.remainingCapacity());
+
+        deleted = list.appendMessages(createMessages(8, 5, "tag"));
+        assertEquals(3, deleted.size());
+        assertEquals("0", deleted.get(0).getMessage());
+
+        assertEquals(3, list.getFirstSequence());
+        assertEquals(13, list.getEndSequence());
+        assertNull(list.get(2));
+        assertEquals("3", list.get(3).getMessage());
+        assertEquals("12", list.get(12).getMessage());
+        assertNull(list.get(13));
+
+        // more messages than the capacity at once
+        deleted = list.appendMessages(createMessages(13, 15, "tag"));
+        assertEquals(15, deleted.size());
+        List<LogCatMessage> all = list.getAllMessages();
+        assertEquals(10, all.size());
+        assertEquals("18", all.get(0).getMessage());
+        assertEquals("27", all.get(9).getMessage());
+    }
+
+    public void testIteratorSkipsRemovedMessages() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 10, "tag"));
+
+        Iterator<LogCatMessage> it = list.iterator(0);
+        assertEquals("0", it.next().getMessage());
+
+        // messages 1 to 4 are removed while iterating.
+        list.appendMessages(createMessages(10, 5, "tag"));
+        assertEquals("5", it.next().getMessage());
+
+        // the iteration stops at the end of the list when it was started.
+        int count = 1;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(5, count);
+    }
+
+    public void testResize() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 10, "tag"));
+
+        list.resize(4);
+        assertEquals(6, list.getFirstSequence());
+        assertEquals("6", list.get(6).getMessage());
+        assertEquals(0, list.remainingCapacity());
+
+        list.resize(8);
+        assertEquals(4, list.remainingCapacity());
+        assertEquals("9", list.get(9).getMessage());
+    }
+
+    public void testFilterIndex() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 4, "tagA"));
+        list.appendMessages(createMessages(4, 4, "tagB"));
+
+        LogCatFilter filter = new LogCatFilter("", "tagA", "", "", "", LogLevel.VERBOSE);
+        assertEquals(4, list.getMatchingMessages(filter).size());
+
+        // new messages are indexed as they are appended.
+        list.appendMessages(createMessages(8, 2, "tagA"));
+        List<LogCatMessage> messages = list.getMatchingMessages(filter);
+        assertEquals(6, messages.size());
+        assertEquals("9", messages.get(5).getMessage());
+
+        // removed messages are removed from the index.
+        list.appendMessages(createMessages(10, 3, "tagB"));
+        assertEquals(3, list.getIndex(filter).size());
+
+        list.clear();
+        assertEquals(0, list.getMatchingMessages(filter).size());
+    }
+}
@@ -16,7 +16,9 @@
 package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.log.LogReceiver.LogEntry;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import junit.framework.TestCase;
@@ -96,4 +98,94 @@ public final class LogCatMessageParserTest extends TestCase {
         assertEquals(mParsedMessages.get(0).getTid(), Integer.toString(0x1ef));
         assertEquals(mParsedMessages.get(1).getTid(), "234");
     }
+
+    /** Check that parsing the raw bytes of the lines gives the same messages. */
+    public void testBytes() throws Exception {
+        LogCatMessageParser parser = new LogCatMessageParser();
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        for (String line : MESSAGES) {
+            byte[] data = ("xx" + line + "\n").getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+            parser.processLogLine(data, 2, data.length - 3, mapper, messages);
+        }
+
+        assertEquals(mParsedMessages.size(), messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(mParsedMessages.get(i).toString(), messages.get(i).toString());
+            assertEquals(mParsedMessages.get(i).getTid(), messages.get(i).getTid());
+        }
+    }
+
+    /** Check that the tags are shared when they are not ASCII. */
+    public void testNonAsciiTag() throws Exception {
+        LogCatMessageParser parser = new LogCatMessageParser();
+        LogCatPidToNameMapper mapper = new LogCatPidToNameMapper(null);
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        String[] lines = new String[] {
+                "[ 08-11 19:11:07.132   495:0x1ef D/\u6807\u7b7e   ]", //$NON-NLS-1$
+                "first",                                           //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]",   //$NON-NLS-1$
+                "second",                                          //$NON-NLS-1$
+                "[ 08-11 19:11:07.133   495:0x1ef D/\u6807\u7b7e   ]", //$NON-NLS-1$
+                "third",                                           //$NON-NLS-1$
+        };
+        for (String line : lines) {
+            byte[] data = line.getBytes("UTF-8"); //$NON-NLS-1$
+            parser.processLogLine(data, 0, data.length, mapper, messages);
+        }
+        messages.addAll(parser.processLogLines(lines, mapper));
+
+        assertEquals(6, messages.size());
+        assertEquals("\u6807\u7b7e", messages.get(0).getTag()); //$NON-NLS-1$
+        assertSame(messages.get(0).getTag(), messages.get(2).getTag());
+        assertSame(messages.get(0).getTag(), messages.get(3).getTag());
+        assertSame(messages.get(0).getTag(), messages.get(5).getTag());
+        assertSame(messages.get(1).getTag(), messages.get(4).getTag());
+    }
+
+    /** Check lines that look like headers but are part of a message. */
+    public void testInvalidHeaders() {
+        String[] lines = new String[] {
+                "[ 08-11 19:11:07.132   495:0x1ef D/dtag     ]", //$NON-NLS-1$
+                "[ 08-11 19:11:07.   495:0x1ef D/dtag     ]",    //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495:0x1ef X/dtag     ]", //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   495:0x1ef D/dtag",       //$NON-NLS-1$
+                "[ 08-11 19:11:07.132   49a:0x1ef D/dtag     ]", //$NON-NLS-1$
+        };
+        List<LogCatMessage> messages = new LogCatMessageParser().processLogLines(lines,
+                new LogCatPidToNameMapper(null));
+
+        assertEquals(4, messages.size());
+        assertEquals(lines[4], messages.get(3).getMessage());
+        assertEquals("dtag", messages.get(3).getTag()); //$NON-NLS-1$
+    }
+
+    /** Check the parsing of binary log entries. */
+    public void testLogEntry() throws Exception {
+        LogEntry entry = new LogEntry();
+        entry.pid = 495;
+        entry.tid = 496;
+        entry.sec = 1000;
+        entry.nsec = 7000000;
+        byte[] tag = "dtag".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        byte[] msg = "line1\nline2\n".getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+        entry.data = new byte[1 + tag.length + 1 + msg.length + 1];
+        entry.data[0] = 6;
+        System.arraycopy(tag, 0, entry.data, 1, tag.length);
+        System.arraycopy(msg, 0, entry.data, tag.length + 2, msg.length);
+        entry.len = entry.data.length;
+
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        new LogCatMessageParser().processLogEntry(entry, new LogCatPidToNameMapper(null),
+                messages);
+
+        assertEquals(2, messages.size());
+        assertEquals(LogLevel.ERROR, messages.get(0).getLogLevel());
+        assertEquals("dtag", messages.get(0).getTag());   //$NON-NLS-1$
+        assertEquals("495", messages.get(0).getPid());    //$NON-NLS-1$
+        assertEquals("496", messages.get(0).getTid());    //$NON-NLS-1$
+        assertEquals("line2", messages.get(1).getMessage()); //$NON-NLS-1$
+        assertTrue(messages.get(0).getTime().endsWith(".007")); //$NON-NLS-1$
+        assertSame(messages.get(0).getTime(), messages.get(1).getTime());
+    }
 }
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.Client;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
+
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for the fallback of {@link LogCatReceiver} from the binary logs to logcat.
+ */
+public class LogCatReceiverTest extends TestCase {
+    private static final String SERIAL = "LogCatReceiverTest"; //$NON-NLS-1$
+    private static final String LOGCAT_OUTPUT =
+            "[ 08-11 19:11:07.132   495:  234 I/itag     ]\n" //$NON-NLS-1$
+            + "Hello\n" //$NON-NLS-1$
+            + "\n";
+
+    private final AtomicInteger mLogcatCount = new AtomicInteger();
+    private final CountDownLatch mLogServicesStarted = new CountDownLatch(2);
+    private final CountDownLatch mRejectLogServices = new CountDownLatch(1);
+    private final CountDownLatch mLogcatStarted = new CountDownLatch(1);
+
+    /** Both log services are rejected: logcat is run once. */
+    public void testFallback() throws Exception {
+        mRejectLogServices.countDown();
+        LogCatReceiver receiver = new LogCatReceiver(createDevice(false), createPrefStore());
+        joinReceiverThreads();
+
+        assertEquals(1, mLogcatCount.get());
+        assertEquals("[Hello]", getMessages(receiver).toString());
+
+        receiver.stop();
+        assertEquals("[Hello, Device disconnected]", getMessages(receiver).toString());
+    }
+
+    /** The receiver is stopped before the log services are rejected: logcat is not run. */
+    public void testStopBeforeFallback() throws Exception {
+        LogCatReceiver receiver = new LogCatReceiver(createDevice(false), createPrefStore());
+        assertTrue(mLogServicesStarted.await(5, TimeUnit.SECONDS));
+
+        receiver.stop();
+        mRejectLogServices.countDown();
+        joinReceiverThreads();
+
+        assertEquals(0, mLogcatCount.get());
+        assertEquals("[Device disconnected]", getMessages(receiver).toString());
+    }
+
+    /** The receiver is stopped while running logcat after the fallback: logcat is cancelled. */
+    public void testStopAfterFallback() throws Exception {
+        mRejectLogServices.countDown();
+        LogCatReceiver receiver = new LogCatReceiver(createDevice(true), createPrefStore());
+        assertTrue(mLogcatStarted.await(5, TimeUnit.SECONDS));
+
+        receiver.stop();
+        joinReceiverThreads();
+
+        assertEquals(1, mLogcatCount.get());
+        assertEquals("[Device disconnected]", getMessages(receiver).toString());
+    }
+
+    private static IPreferenceStore createPrefStore() {
+        return (IPreferenceStore) Proxy.newProxyInstance(
+                LogCatReceiverTest.class.getClassLoader(),
+                new Class<?>[] { IPreferenceStore.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getBoolean")) { //$NON-NLS-1$
+                            return LogCatReceiver.BINARY_LOG_PREFKEY.equals(args[0]);
+                        }
+                        return getDefaultValue(method);
+                    }
+                });
+    }
+
+    /**
+     * Creates a device whose log services are rejected once {@link #mRejectLogServices} is
+     * released.
+     * @param runUntilCancelled whether logcat runs until it is cancelled, instead of sending
+     *      {@link #LOGCAT_OUTPUT}.
+     */
+    private IDevice createDevice(final boolean runUntilCancelled) {
+        return (IDevice) Proxy.newProxyInstance(LogCatReceiverTest.class.getClassLoader(),
+                new Class<?>[] { IDevice.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Exception {
+                        String name = method.getName();
+                        if (name.equals("getSerialNumber")) { //$NON-NLS-1$
+                            return SERIAL;
+                        } else if (name.equals("isOnline")) { //$NON-NLS-1$
+                            return true;
+                        } else if (name.equals("getClients")) { //$NON-NLS-1$
+                            return new Client[0];
+                        } else if (name.equals("runLogService")) { //$NON-NLS-1$
+                            mLogServicesStarted.countDown();
+                            mRejectLogServices.await();
+                            throw createRejectedException();
+                        } else if (name.equals("executeShellCommand")) { //$NON-NLS-1$
+                            mLogcatCount.incrementAndGet();
+                            runLogcat((IShellOutputReceiver) args[1], runUntilCancelled);
+                        }
+                        return getDefaultValue(method);
+                    }
+                });
+    }
+
+    private void runLogcat(IShellOutputReceiver receiver, boolean runUntilCancelled)
+            throws Exception {
+        mLogcatStarted.countDown();
+        if (runUntilCancelled) {
+            while (receiver.isCancelled() == false) {
+                Thread.sleep(10);
+            }
+        } else {
+            byte[] output = LOGCAT_OUTPUT.getBytes("UTF-8"); //$NON-NLS-1$
+            receiver.addOutput(output, 0, output.length);
+            receiver.flush();
+        }
+    }
+
+    private static Object getDefaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == float.class) {
+            return 0f;
+        } else if (type == double.class) {
+            return 0.0;
+        }
+        return null;
+    }
+
+    /** The constructor of {@link AdbCommandRejectedException} is not public. */
+    private static AdbCommandRejectedException createRejectedException() throws Exception {
+        Constructor<AdbCommandRejectedException> constructor =
+                AdbCommandRejectedException.class.getDeclaredConstructor(String.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance("closed"); //$NON-NLS-1$
+    }
+
+    /** Waits for the threads started by the receiver to complete. */
+    private static void joinReceiverThreads() throws InterruptedException {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().endsWith(SERIAL)) {
+                thread.join(5000);
+                assertFalse(thread.isAlive());
+            }
+        }
+    }
+
+    private static List<String> getMessages(LogCatReceiver receiver) {
+        List<String> messages = new ArrayList<String>();
+        for (LogCatMessage m : receiver.getMessages().getAllMessages()) {
+            messages.add(m.getMessage());
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class LogCatStoreTest extends TestCase {
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        mDirectory = File.createTempFile("logcatstore", null); //$NON-NLS-1$
+        mDirectory.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /** Creates messages, one per second, with the pid and tag changing every 100 messages. */
+    private static List<LogCatMessage> createMessages(int first, int count) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = first; i < first + count; i++) {
+            String time = String.format("01-%02d %02d:%02d:%02d.000", //$NON-NLS-1$
+                    i / 86400 + 1, i / 3600 % 24, i / 60 % 60, i % 60);
+            LogLevel level = i % 10 == 0 ? LogLevel.ERROR : LogLevel.DEBUG;
+            String pid = Integer.toString(100 + i / 100);
+            messages.add(new LogCatMessage(level, pid, "1", "app", //$NON-NLS-1$ //$NON-NLS-2$
+                    "tag" + (i / 100), time, "message " + i)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return messages;
+    }
+
+    private static List<LogCatMessage> toList(Iterator<LogCatMessage> it) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        while (it.hasNext()) {
+            messages.add(it.next());
+        }
+        return messages;
+    }
+
+    public void testQuery() throws IOException {
+        LogCatStore store = new LogCatStore(mDirectory, 16 * 1024, 0);
+        store.append(createMessages(0, 5000));
+
+        // the last messages are not written yet, but can be queried.
+        List<LogCatMessage> messages = toList(store.query(null, null, null));
+        assertEquals(5000, messages.size());
+        assertEquals("message 4999", messages.get(4999).getMessage()); //$NON-NLS-1$
+
+        messages = toList(store.query("01-01 00:10:00.000", "01-01 00:10:59.999", null));
+        assertEquals(60, messages.size());
+        assertEquals("message 600", messages.get(0).getMessage()); //$NON-NLS-1$
+
+        LogCatFilter filter = new LogCatFilter("", "tag12$", "", "", "", LogLevel.ERROR);
+        messages = toList(store.query(null, null, filter));
+        assertEquals(10, messages.size());
+        assertEquals("message 1200", messages.get(0).getMessage()); //$NON-NLS-1$
+
+        filter = new LogCatFilter("", "", "", "142", "", LogLevel.VERBOSE);
+        assertEquals(100, toList(store.query(null, null, filter)).size());
+
+        store.close();
+        assertTrue(mDirectory.list().length > 1);
+
+        // reopen the store.
+        store = new LogCatStore(mDirectory, 16 * 1024, 0);
+        assertEquals(5000, store.getMessageCount());
+        messages = toList(store.query(null, null, filter));
+        assertEquals(100, messages.size());
+        assertEquals("01-01 01:10:00.000", messages.get(0).getTime()); //$NON-NLS-1$
+        assertEquals(LogLevel.ERROR, messages.get(0).getLogLevel());
+
+        // new messages go after the existing ones.
+        store.append(createMessages(5000, 10));
+        messages = toList(store.query("01-01 01:23:20", null, null)); //$NON-NLS-1$
+        assertEquals(10, messages.size());
+        store.close();
+    }
+
+    public void testMaxSize() throws IOException {
+        LogCatStore store = new LogCatStore(mDirectory, 8 * 1024, 32 * 1024);
+        store.append(createMessages(0, 20000));
+        store.flush();
+
+        long count = store.getMessageCount();
+        assertTrue(count < 20000);
+        List<LogCatMessage> messages = toList(store.query(null, null, null));
+        assertEquals(count, messages.size());
+        assertEquals("message 19999", messages.get(messages.size() - 1).getMessage());
+        store.close();
+    }
+
+    public void testEvictionDuringQuery() throws IOException {
+        LogCatStore store = new LogCatStore(mDirectory, 8 * 1024, 32 * 1024);
+        store.append(createMessages(0, 5000));
+        File first = new File(mDirectory, "logcat-0.seg"); //$NON-NLS-1$
+        assertTrue(first.exists());
+
+        // the query maps the first segment, which is then deleted.
+        Iterator<LogCatMessage> it = store.query(null, null, null);
+        assertEquals("message 0", it.next().getMessage()); //$NON-NLS-1$
+        store.append(createMessages(5000, 20000));
+        assertFalse(first.exists());
+
+        // the blocks of the deleted segments are skipped, but not the block being read.
+        List<LogCatMessage> messages = toList(it);
+        assertEquals("message 1", messages.get(0).getMessage()); //$NON-NLS-1$
+        assertTrue(messages.size() < 4999);
+        assertEquals("message 4999", messages.get(messages.size() - 1).getMessage());
+        store.close();
+    }
+
+    public void testMaxSizeOnOpen() throws IOException {
+        LogCatStore store = new LogCatStore(mDirectory, 8 * 1024, 0);
+        store.append(createMessages(0, 20000));
+        store.close();
+        int segments = mDirectory.list().length;
+        assertTrue(segments > 4);
+
+        // the segments over the new max size are deleted, newest kept.
+        store = new LogCatStore(mDirectory, 8 * 1024, 32 * 1024);
+        assertTrue(mDirectory.list().length < segments);
+        assertTrue(new File(mDirectory, "logcat-" + (segments - 1) + ".seg").exists());
+        assertFalse(new File(mDirectory, "logcat-0.seg").exists()); //$NON-NLS-1$
+        long count = store.getMessageCount();
+        assertTrue(count < 20000);
+        List<LogCatMessage> messages = toList(store.query(null, null, null));
+        assertEquals(count, messages.size());
+        assertEquals("message 19999", messages.get(messages.size() - 1).getMessage());
+        store.close();
+    }
+
+    public void testTimeKey() {
+        assertTrue(LogCatStore.getTimeKey("12-31 23:59:59.999")      //$NON-NLS-1$
+                > LogCatStore.getTimeKey("12-31 23:59:59.99"));      //$NON-NLS-1$
+        assertEquals(LogCatStore.getTimeKey("08-11 21:15:35.7524"),  //$NON-NLS-1$
+                LogCatStore.getTimeKey("08-11 21:15:35.752"));       //$NON-NLS-1$
+        assertEquals(-1, LogCatStore.getTimeKey(""));
+    }
+}
@@ -77,6 +77,7 @@ public class Messages extends NLS {
     public static String FileExplorerView_Push_File_Onto_Device;
     public static String LogCatPreferencePage_Display_Font;
     public static String LogCatPreferencePage_MaxMessages;
+    public static String LogCatPreferencePage_BinaryLog;
     public static String LogCatPreferencePage_Switch_Perspective;
     public static String LogCatPreferencePage_Switch_To;
     public static String LogCatPreferencePage_AutoMonitorLogcat;
@@ -19,6 +19,7 @@ package com.android.ide.eclipse.ddms.preferences;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
+import com.android.ddmuilib.logcat.LogCatReceiver;
 import com.android.ide.eclipse.base.InstallDetails;
 import com.android.ide.eclipse.ddms.DdmsPlugin;
 import com.android.ide.eclipse.ddms.LogCatMonitor;
@@ -65,6 +66,11 @@ public class LogCatPreferencePage extends FieldEditorPreferencePage implements
                 Messages.LogCatPreferencePage_MaxMessages, getFieldEditorParent());
         addField(mMaxMessages);
 
+        BooleanFieldEditor binaryLog = new BooleanFieldEditor(
+                LogCatReceiver.BINARY_LOG_PREFKEY,
+                Messages.LogCatPreferencePage_BinaryLog, getFieldEditorParent());
+        addField(binaryLog);
+
         createHorizontalSeparator();
 
         if (InstallDetails.isAdtInstalled()) {
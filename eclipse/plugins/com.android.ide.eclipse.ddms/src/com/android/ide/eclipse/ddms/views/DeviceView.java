@@ -20,7 +20,7 @@ import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IClientChangeListener;
 import com.android.ddmlib.Client;
 import com.android.ddmlib.ClientData;
-import com.android.ddmlib.ClientData.IHprofDumpHandler;
+import com.android.ddmlib.ClientData.IHprofDumpStreamHandler;
 import com.android.ddmlib.ClientData.MethodProfilingStatus;
 import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.IDevice;
@@ -95,7 +95,7 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
     private ImageDescriptor mTracingStartImage;
     private ImageDescriptor mTracingStopImage;
 
-    public class HProfHandler extends BaseFileHandler implements IHprofDumpHandler {
+    public class HProfHandler extends BaseFileHandler implements IHprofDumpStreamHandler {
         public final static String ACTION_SAVE = "hprof.save"; //$NON-NLS-1$
         public final static String ACTION_OPEN = "hprof.open"; //$NON-NLS-1$
 
@@ -232,6 +232,41 @@ public class DeviceView extends ViewPart implements IUiSelectionListener, IClien
             });
         }
 
+        @Override
+        public void onSuccess(final File hprofFile, final Client client) {
+            mParentShell.getDisplay().asyncExec(new Runnable() {
+                @Override
+                public void run() {
+                    // get from the preference what action to take
+                    IPreferenceStore store = DdmsPlugin.getDefault().getPreferenceStore();
+                    String value = store.getString(PreferenceInitializer.ATTR_HPROF_ACTION);
+
+                    if (ACTION_OPEN.equals(value)) {
+                        try {
+                            open(hprofFile.getAbsolutePath());
+                        } catch (Exception e) {
+                            String errorMsg = e.getMessage();
+                            displayErrorFromUiThread(
+                                    Messages.DeviceView_Failed_To_Save_HPROF_Data,
+                                    errorMsg != null ? ":\n" + errorMsg : "."); //$NON-NLS-1$ //$NON-NLS-2$
+                        } finally {
+                            // the converted file is opened, not this one.
+                            hprofFile.delete();
+                        }
+                    } else {
+                        // default action is ACTION_SAVE
+                        promptAndSave(client.getClientData().getClientDescription() + DOT_HPROF,
+                                hprofFile, Messages.DeviceView_Save_HPROF_File);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onProgress(Client client, long receivedBytes, long totalBytes) {
+            // nothing to do, the dump is not shown until it is complete.
+        }
+
         private void open(String path) throws IOException, InterruptedException, PartInitException {
             // make a temp file to convert the hprof into something
             // readable by normal tools
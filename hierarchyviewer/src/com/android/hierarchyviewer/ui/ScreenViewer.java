@@ -1,7 +1,7 @@
 package com.android.hierarchyviewer.ui;
 
+import com.android.ddmlib.FrameBufferCapture;
 import com.android.ddmlib.IDevice;
-import com.android.ddmlib.RawImage;
 import com.android.hierarchyviewer.util.WorkerThread;
 import com.android.hierarchyviewer.scene.ViewNode;
 import com.android.hierarchyviewer.ui.util.PngFileFilter;
@@ -55,8 +55,9 @@ class ScreenViewer extends JPanel implements ActionListener {
     private final IDevice device;
 
     private GetScreenshotTask task;
+    private final FrameBufferCapture capture;
     private BufferedImage image;
-    private int[] scanline;
+    private int[] tilePixels;
     private volatile boolean isLoading;
 
     private BufferedImage overlay;
@@ -80,6 +81,9 @@ class ScreenViewer extends JPanel implements ActionListener {
 
         this.workspace = workspace;
         this.device = device;
+        capture = new FrameBufferCapture(device);
+        tilePixels = new int[FrameBufferCapture.DEFAULT_TILE_SIZE *
+                FrameBufferCapture.DEFAULT_TILE_SIZE];
 
         timer = new Timer(5000, this);
         timer.setInitialDelay(0);
@@ -670,9 +674,10 @@ class ScreenViewer extends JPanel implements ActionListener {
         @Override
         @WorkerThread
         protected Boolean doInBackground() throws Exception {
-            RawImage rawImage;
             try {
-                rawImage = device.getScreenshot();
+                if (!capture.capture()) {
+                    return false;
+                }
             } catch (IOException ioe) {
                 return false;
             }
@@ -680,23 +685,18 @@ class ScreenViewer extends JPanel implements ActionListener {
             boolean resize = false;
             isLoading = true;
             try {
-                if (rawImage != null) {
-                    if (image == null || rawImage.width != image.getWidth() ||
-                            rawImage.height != image.getHeight()) {
-                        image = new BufferedImage(rawImage.width, rawImage.height,
-                                BufferedImage.TYPE_INT_ARGB);
-                        scanline = new int[rawImage.width];
-                        resize = true;
-                    }
+                int width = capture.getWidth();
+                int height = capture.getHeight();
+                if (image == null || width != image.getWidth() || height != image.getHeight()) {
+                    image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                    resize = true;
+                }
 
-                    switch (rawImage.bpp) {
-                        case 16:
-                            rawImage16toARGB(rawImage);
-                            break;
-                        case 32:
-                            rawImage32toARGB(rawImage);
-                            break;
-                    }
+                // only update what changed since the last refresh.
+                for (FrameBufferCapture.Tile tile : capture.getChangedTiles()) {
+                    capture.copyTile(tile, tilePixels);
+                    image.setRGB(tile.x, tile.y, tile.width, tile.height, tilePixels,
+                            0, tile.width);
                 }
             } finally {
                 isLoading = false;
@@ -704,77 +704,6 @@ class ScreenViewer extends JPanel implements ActionListener {
 
             return resize;
         }
-        
-        private int getMask(int length) {
-            int res = 0;
-            for (int i = 0 ; i < length ; i++) {
-                res = (res << 1) + 1;
-            }
-    
-            return res;
-        }
-
-        private void rawImage32toARGB(RawImage rawImage) {
-            byte[] buffer = rawImage.data;
-            int index = 0;
-
-            final int redOffset = rawImage.red_offset;
-            final int redLength = rawImage.red_length;
-            final int redMask = getMask(redLength);
-            final int greenOffset = rawImage.green_offset;
-            final int greenLength = rawImage.green_length;
-            final int greenMask = getMask(greenLength);
-            final int blueOffset = rawImage.blue_offset;
-            final int blueLength = rawImage.blue_length;
-            final int blueMask = getMask(blueLength);
-            final int alphaLength = rawImage.alpha_length;
-            final int alphaOffset = rawImage.alpha_offset;
-            final int alphaMask = getMask(alphaLength);
-
-            for (int y = 0 ; y < rawImage.height ; y++) {
-                for (int x = 0 ; x < rawImage.width ; x++) {
-                    int value = buffer[index++] & 0x00FF;
-                    value |= (buffer[index++] & 0x00FF) << 8;
-                    value |= (buffer[index++] & 0x00FF) << 16;
-                    value |= (buffer[index++] & 0x00FF) << 24;
-
-                    int r = ((value >>> redOffset) & redMask) << (8 - redLength);
-                    int g = ((value >>> greenOffset) & greenMask) << (8 - greenLength);
-                    int b = ((value >>> blueOffset) & blueMask) << (8 - blueLength);
-                    int a = 0xFF;
-
-                    if (alphaLength != 0) {
-                        a = ((value >>> alphaOffset) & alphaMask) << (8 - alphaLength);
-                    }
-
-                    scanline[x] = a << 24 | r << 16 | g << 8 | b;
-                }
-
-                image.setRGB(0, y, rawImage.width, 1, scanline,
-                        0, rawImage.width);
-            }
-        }
-
-        private void rawImage16toARGB(RawImage rawImage) {
-            byte[] buffer = rawImage.data;
-            int index = 0;
-
-            for (int y = 0 ; y < rawImage.height ; y++) {
-                for (int x = 0 ; x < rawImage.width ; x++) {
-                    int value = buffer[index++] & 0x00FF;
-                    value |= (buffer[index++] << 8) & 0x0FF00;
-
-                    int r = ((value >> 11) & 0x01F) << 3;
-                    int g = ((value >> 5) & 0x03F) << 2;
-                    int b = ((value     ) & 0x01F) << 3;
-
-                    scanline[x] = 0xFF << 24 | r << 16 | g << 8 | b;
-                }
-
-                image.setRGB(0, y, rawImage.width, 1, scanline,
-                        0, rawImage.width);
-            }
-        }
 
         @Override
         protected void done() {
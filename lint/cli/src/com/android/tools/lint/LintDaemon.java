@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import com.android.tools.lint.checks.ApiLookup;
+import com.android.tools.lint.checks.BuiltinIssueRegistry;
+import com.android.tools.lint.checks.TypoLookup;
+import com.android.tools.lint.client.api.IssueRegistry;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lint server, which keeps the VM, the issue registry and the API and typo
+ * databases loaded between lint runs, such that repeated runs (for example from
+ * pre-commit hooks) don't pay for loading them each time.
+ * <p>
+ * The server listens on a port of the loopback interface, and handles one run
+ * per connection, one connection at a time. When it starts, it writes a random
+ * token to a file in the lint cache directory which only the user running the
+ * server can read, and it rejects the connections which don't send that token,
+ * such that other users of the machine cannot run lint as that user.
+ * <p>
+ * The client sends the token, the working directory and then the lint flags
+ * and files, one per line, followed by an empty line, within
+ * {@link #REQUEST_TIMEOUT_MS}. The server sends back the output of the run (standard output
+ * and standard error), followed by a line made of {@link #EXIT_MARKER} and the
+ * exit code of the run. The single flag {@link Main#ARG_STOP} stops the server.
+ * All text is in UTF-8.
+ * <p>
+ * Each run still creates its own {@link Main} client and driver, and with them
+ * new XML and Java parsers, so the parsers are not kept warm between runs.
+ */
+class LintDaemon {
+    /** First character of the last line of a response, followed by the exit code */
+    static final char EXIT_MARKER = '\0';
+    /** Time a client has to send its request, in milliseconds */
+    private static final int REQUEST_TIMEOUT_MS = 10000;
+    private static final String ENCODING = "UTF-8"; //$NON-NLS-1$
+
+    private final String mToken;
+
+    /** The registry shared by all the runs */
+    private final IssueRegistry mRegistry;
+
+    LintDaemon(String token) {
+        mToken = token;
+        mRegistry = new BuiltinIssueRegistry();
+    }
+
+    /**
+     * Runs the lint server on the given port until it is stopped
+     *
+     * @param port the port to listen on
+     * @throws IOException if the port cannot be listened on
+     */
+    static void serve(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(null));
+        File tokenFile = null;
+        try {
+            tokenFile = getTokenFile(port);
+            LintDaemon daemon = new LintDaemon(createToken());
+            writeToken(tokenFile, daemon.mToken);
+            daemon.load();
+            System.out.println(String.format("Lint server listening on port %1$d", port));
+            daemon.run(server);
+        } finally {
+            if (tokenFile != null) {
+                tokenFile.delete();
+            }
+            server.close();
+        }
+    }
+
+    /**
+     * Handles the connections made to the given server socket until a stop
+     * request
+     *
+     * @param server the server socket
+     * @throws IOException if the server socket fails
+     */
+    void run(ServerSocket server) throws IOException {
+        while (true) {
+            Socket socket = server.accept();
+            try {
+                if (!handle(socket)) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Lint server connection error: " + e.getMessage());
+            } finally {
+                socket.close();
+            }
+        }
+    }
+
+    /**
+     * Runs lint in the lint server on the given port, and writes its output on
+     * the standard output
+     *
+     * @param port the port of the server
+     * @param args the lint flags and files
+     * @return the exit code of the run
+     * @throws IOException if the server cannot be reached
+     */
+    static int send(int port, String[] args) throws IOException {
+        return send(port, readToken(getTokenFile(port)), args, System.out);
+    }
+
+    /**
+     * Runs lint in the lint server on the given port
+     *
+     * @param port the port of the server
+     * @param token the token of the server
+     * @param args the lint flags and files
+     * @param out the stream to write the output of the run to
+     * @return the exit code of the run
+     * @throws IOException if the server cannot be reached, or rejects the token
+     */
+    static int send(int port, String token, String[] args, PrintStream out)
+            throws IOException {
+        Socket socket = new Socket(InetAddress.getByName(null), port);
+        try {
+            File workDir = Main.getLintWorkDir();
+            String dir = workDir != null ? workDir.getPath() : System.getProperty("user.dir");
+
+            Writer writer = new OutputStreamWriter(socket.getOutputStream(), ENCODING);
+            writer.write(token);
+            writer.write('\n');
+            writer.write(dir);
+            writer.write('\n');
+            for (String arg : args) {
+                writer.write(arg);
+                writer.write('\n');
+            }
+            writer.write('\n');
+            writer.flush();
+
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), ENCODING));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0 && line.charAt(0) == EXIT_MARKER) {
+                    out.flush();
+                    try {
+                        return Integer.parseInt(line.substring(1));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+                out.println(line);
+            }
+            throw new IOException("The lint server closed the connection");
+        } finally {
+            socket.close();
+        }
+    }
+
+    /** Returns the file holding the token of the server on the given port */
+    private static File getTokenFile(int port) throws IOException {
+        File dir = new Main().getCacheDir(true);
+        if (dir == null) {
+            throw new IOException("Could not create the lint cache directory");
+        }
+        return new File(dir, "lint-server-" + port + ".token"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b & 0xFF)); //$NON-NLS-1$
+        }
+        return sb.toString();
+    }
+
+    /** Writes the token to a new file which only the current user can read and write */
+    private static void writeToken(File file, String token) throws IOException {
+        if ((file.exists() && !file.delete()) || !file.createNewFile()) {
+            throw new IOException("Could not create " + file.getPath());
+        }
+        // Restrict the access before the token is written
+        file.setReadable(false, false);
+        file.setWritable(false, false);
+        file.setExecutable(false, false);
+        if (!file.setReadable(true, true) || !file.setWritable(true, true)) {
+            throw new IOException("Could not restrict the access to " + file.getPath());
+        }
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), ENCODING);
+        try {
+            writer.write(token);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String readToken(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IOException("No lint server is running on this port");
+        }
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            String token = reader.readLine();
+            return token != null ? token : "";
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void load() {
+        Main client = new Main();
+        // The databases are shared for the lifetime of the VM once opened
+        ApiLookup.get(client);
+        TypoLookup.get(client);
+    }
+
+    /** Handles a connection, and returns false if the server should stop */
+    private boolean handle(Socket socket) throws IOException {
+        // Don't let an idle connection block the server
+        socket.setSoTimeout(REQUEST_TIMEOUT_MS);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), ENCODING));
+        String token = reader.readLine();
+        if (token == null) {
+            return true;
+        }
+        if (!MessageDigest.isEqual(token.getBytes(ENCODING), mToken.getBytes(ENCODING))) {
+            System.err.println("Lint server: rejected a connection with an invalid token");
+            return true;
+        }
+        String workDir = reader.readLine();
+        if (workDir == null) {
+            return true;
+        }
+        List<String> args = new ArrayList<String>();
+        String line;
+        while ((line = reader.readLine()) != null && line.length() > 0) {
+            args.add(line);
+        }
+
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(socket.getOutputStream()), true, ENCODING);
+        if (args.size() == 1 && args.get(0).equals(Main.ARG_STOP)) {
+            out.print(EXIT_MARKER + "0\n"); //$NON-NLS-1$
+            out.flush();
+            return false;
+        }
+
+        // Runs are handled one at a time, so the output and the working directory
+        // of the VM can be redirected for the duration of a run
+        PrintStream oldOut = System.out;
+        PrintStream oldErr = System.err;
+        String oldWorkDir = System.getProperty(Main.PROP_WORK_DIR);
+        int exitCode;
+        try {
+            System.setOut(out);
+            System.setErr(out);
+            System.setProperty(Main.PROP_WORK_DIR, workDir);
+            exitCode = new Main(mRegistry).execute(args.toArray(new String[args.size()]));
+        } catch (RuntimeException e) {
+            // Same exit code as an uncaught exception in a standalone run
+            e.printStackTrace(out);
+            exitCode = 1;
+        } finally {
+            System.setOut(oldOut);
+            System.setErr(oldErr);
+            if (oldWorkDir != null) {
+                System.setProperty(Main.PROP_WORK_DIR, oldWorkDir);
+            } else {
+                System.clearProperty(Main.PROP_WORK_DIR);
+            }
+        }
+
+        out.print(EXIT_MARKER + Integer.toString(exitCode) + '\n');
+        out.flush();
+        return true;
+    }
+}
@@ -30,6 +30,7 @@ import com.android.tools.lint.client.api.IDomParser;
 import com.android.tools.lint.client.api.IJavaParser;
 import com.android.tools.lint.client.api.IssueRegistry;
 import com.android.tools.lint.client.api.LintClient;
+import com.android.tools.lint.client.api.LintCache;
 import com.android.tools.lint.client.api.LintDriver;
 import com.android.tools.lint.client.api.LintListener;
 import com.android.tools.lint.detector.api.Category;
@@ -48,6 +49,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -80,6 +82,11 @@ public class Main extends LintClient {
     private static final String ARG_URL        = "--url";          //$NON-NLS-1$
     private static final String ARG_VERSION    = "--version";      //$NON-NLS-1$
     private static final String ARG_EXITCODE   = "--exitcode";     //$NON-NLS-1$
+    private static final String ARG_THREADS    = "--threads";      //$NON-NLS-1$
+    private static final String ARG_CACHE      = "--cache";        //$NON-NLS-1$
+    private static final String ARG_DAEMON     = "--daemon";       //$NON-NLS-1$
+    private static final String ARG_CLIENT     = "--client";       //$NON-NLS-1$
+    static final String ARG_STOP               = "--stop";         //$NON-NLS-1$
 
     private static final String ARG_NOWARN2    = "--nowarn";       //$NON-NLS-1$
     // GCC style flag names for options
@@ -89,7 +96,7 @@ public class Main extends LintClient {
 
     private static final String VALUE_NONE     = "none";           //$NON-NLS-1$
 
-    private static final String PROP_WORK_DIR = "com.android.tools.lint.workdir"; //$NON-NLS-1$
+    static final String PROP_WORK_DIR = "com.android.tools.lint.workdir"; //$NON-NLS-1$
 
     private static final int ERRNO_ERRORS = 1;
     private static final int ERRNO_USAGE = 2;
@@ -118,18 +125,90 @@ public class Main extends LintClient {
     private IssueRegistry mRegistry;
     private LintDriver mDriver;
     private boolean mShowAll;
+    private int mThreadCount = 1;
+    private LintCache mCache;
 
     /** Creates a CLI driver */
     public Main() {
     }
 
+    /**
+     * Creates a CLI driver checking the issues of the given registry, such as a
+     * registry shared between runs
+     *
+     * @param registry the registry containing the issues to check
+     */
+    Main(@NonNull IssueRegistry registry) {
+        mRegistry = registry;
+    }
+
     /**
      * Runs the static analysis command line driver
      *
      * @param args program arguments
      */
     public static void main(String[] args) {
-        new Main().run(args);
+        if (args.length > 0 && (args[0].equals(ARG_DAEMON) || args[0].equals(ARG_CLIENT))) {
+            System.exit(runDaemonCommand(args));
+        }
+        System.exit(new Main().execute(args));
+    }
+
+    /**
+     * Runs the static analysis command line driver, without exiting the VM
+     *
+     * @param args program arguments
+     * @return the exit code
+     */
+    int execute(String[] args) {
+        try {
+            run(args);
+        } catch (ExitException e) {
+            return e.mCode;
+        }
+        return 0;
+    }
+
+    /** Runs the lint server, or a run in the lint server, and returns the exit code */
+    private static int runDaemonCommand(String[] args) {
+        int port = -1;
+        if (args.length > 1) {
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        if (port <= 0 || port > 0xFFFF) {
+            System.err.println("Missing or invalid port number");
+            return ERRNO_INVALIDARGS;
+        }
+
+        try {
+            if (args[0].equals(ARG_DAEMON)) {
+                LintDaemon.serve(port);
+                return 0;
+            } else {
+                return LintDaemon.send(port, Arrays.copyOfRange(args, 2, args.length));
+            }
+        } catch (IOException e) {
+            System.err.println("Lint server error: " + e.getMessage());
+            return ERRNO_EXISTS;
+        }
+    }
+
+    /** Stops the current run with the given exit code */
+    private static void exit(int code) {
+        throw new ExitException(code);
+    }
+
+    private static class ExitException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private final int mCode;
+
+        private ExitException(int code) {
+            mCode = code;
+        }
     }
 
     /**
@@ -140,10 +219,13 @@ public class Main extends LintClient {
     private void run(String[] args) {
         if (args.length < 1) {
             printUsage(System.err);
-            System.exit(ERRNO_USAGE);
+            exit(ERRNO_USAGE);
         }
 
-        IssueRegistry registry = mRegistry = new BuiltinIssueRegistry();
+        if (mRegistry == null) {
+            mRegistry = new BuiltinIssueRegistry();
+        }
+        IssueRegistry registry = mRegistry;
 
         // Mapping from file path prefix to URL. Applies only to HTML reports
         String urlMap = null;
@@ -158,14 +240,14 @@ public class Main extends LintClient {
                     String topic = args[index + 1];
                     if (topic.equals("suppress") || topic.equals("ignore")) {
                         printHelpTopicSuppress();
-                        System.exit(ERRNO_HELP);
+                        exit(ERRNO_HELP);
                     } else {
                         System.err.println(String.format("Unknown help topic \"%1$s\"", topic));
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     }
                 }
                 printUsage(System.out);
-                System.exit(ERRNO_HELP);
+                exit(ERRNO_HELP);
             } else if (arg.equals(ARG_LISTIDS)) {
                 // Did the user provide a category list?
                 if (index < args.length - 1 && !args[index + 1].startsWith("-")) { //$NON-NLS-1$
@@ -185,13 +267,13 @@ public class Main extends LintClient {
                         } else {
                             System.err.println("Invalid category \"" + id + "\".\n");
                             displayValidIds(registry, System.err);
-                            System.exit(ERRNO_INVALIDARGS);
+                            exit(ERRNO_INVALIDARGS);
                         }
                     }
                 } else {
                     displayValidIds(registry, System.out);
                 }
-                System.exit(0);
+                exit(0);
             } else if (arg.equals(ARG_SHOW)) {
                 // Show specific issues?
                 if (index < args.length - 1 && !args[index + 1].startsWith("-")) { //$NON-NLS-1$
@@ -215,13 +297,13 @@ public class Main extends LintClient {
                         } else {
                             System.err.println("Invalid id or category \"" + id + "\".\n");
                             displayValidIds(registry, System.err);
-                            System.exit(ERRNO_INVALIDARGS);
+                            exit(ERRNO_INVALIDARGS);
                         }
                     }
                 } else {
                     showIssues(registry);
                 }
-                System.exit(0);
+                exit(0);
             } else if (arg.equals(ARG_FULLPATH)
                     || arg.equals(ARG_FULLPATH + "s")) { // allow "--fullpaths" too
                 mFullPath = true;
@@ -235,11 +317,32 @@ public class Main extends LintClient {
                 mSetExitCode = true;
             } else if (arg.equals(ARG_VERSION)) {
                 printVersion();
-                System.exit(0);
+                exit(0);
+            } else if (arg.equals(ARG_THREADS)) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing thread count");
+                    exit(ERRNO_INVALIDARGS);
+                }
+                String count = args[++index];
+                try {
+                    mThreadCount = Integer.parseInt(count);
+                } catch (NumberFormatException e) {
+                    mThreadCount = 0;
+                }
+                if (mThreadCount < 1) {
+                    System.err.println("Invalid thread count: " + count);
+                    exit(ERRNO_INVALIDARGS);
+                }
+            } else if (arg.equals(ARG_CACHE)) {
+                if (index == args.length - 1) {
+                    System.err.println("Missing cache file name");
+                    exit(ERRNO_INVALIDARGS);
+                }
+                mCache = new LintCache(getOutArgumentPath(args[++index]));
             } else if (arg.equals(ARG_URL)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing URL mapping string");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 String map = args[++index];
                 // Allow repeated usage of the argument instead of just comma list
@@ -251,18 +354,18 @@ public class Main extends LintClient {
             } else if (arg.equals(ARG_CONFIG)) {
                 if (index == args.length - 1 || !endsWith(args[index + 1], DOT_XML)) {
                     System.err.println("Missing XML configuration file argument");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 File file = getInArgumentPath(args[++index]);
                 if (!file.exists()) {
                     System.err.println(file.getAbsolutePath() + " does not exist");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 mDefaultConfiguration = new CliConfiguration(file);
             } else if (arg.equals(ARG_HTML) || arg.equals(ARG_SIMPLEHTML)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing HTML output file name");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 File output = getOutArgumentPath(args[++index]);
                 // Get an absolute path such that we can ask its parent directory for
@@ -274,7 +377,7 @@ public class Main extends LintClient {
                         boolean mkdirs = output.mkdirs();
                         if (!mkdirs) {
                             log(null, "Could not create output directory %1$s", output);
-                            System.exit(ERRNO_EXISTS);
+                            exit(ERRNO_EXISTS);
                         }
                     }
                     try {
@@ -286,7 +389,7 @@ public class Main extends LintClient {
                         mReporter = reporter;
                     } catch (IOException e) {
                         log(e, null);
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     }
                     continue;
                 }
@@ -294,12 +397,12 @@ public class Main extends LintClient {
                     boolean delete = output.delete();
                     if (!delete) {
                         System.err.println("Could not delete old " + output);
-                        System.exit(ERRNO_EXISTS);
+                        exit(ERRNO_EXISTS);
                     }
                 }
                 if (output.getParentFile() != null && !output.getParentFile().canWrite()) {
                     System.err.println("Cannot write HTML output file " + output);
-                    System.exit(ERRNO_EXISTS);
+                    exit(ERRNO_EXISTS);
                 }
                 try {
                     HtmlReporter htmlReporter = new HtmlReporter(this, output);
@@ -309,35 +412,35 @@ public class Main extends LintClient {
                     mReporter = htmlReporter;
                 } catch (IOException e) {
                     log(e, null);
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
             } else if (arg.equals(ARG_XML)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing XML output file name");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 File output = getOutArgumentPath(args[++index]);
                 if (output.exists()) {
                     boolean delete = output.delete();
                     if (!delete) {
                         System.err.println("Could not delete old " + output);
-                        System.exit(ERRNO_EXISTS);
+                        exit(ERRNO_EXISTS);
                     }
                 }
                 if (output.canWrite()) {
                     System.err.println("Cannot write XML output file " + output);
-                    System.exit(ERRNO_EXISTS);
+                    exit(ERRNO_EXISTS);
                 }
                 try {
                     mReporter = new XmlReporter(this, output);
                 } catch (IOException e) {
                     log(e, null);
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
             } else if (arg.equals(ARG_DISABLE) || arg.equals(ARG_IGNORE)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing categories or id's to disable");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 String[] ids = args[++index].split(",");
                 for (String id : ids) {
@@ -355,7 +458,7 @@ public class Main extends LintClient {
                     } else if (!registry.isIssueId(id)) {
                         System.err.println("Invalid id or category \"" + id + "\".\n");
                         displayValidIds(registry, System.err);
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     } else {
                         mSuppress.add(id);
                     }
@@ -363,7 +466,7 @@ public class Main extends LintClient {
             } else if (arg.equals(ARG_ENABLE)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing categories or id's to enable");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 String[] ids = args[++index].split(",");
                 for (String id : ids) {
@@ -379,7 +482,7 @@ public class Main extends LintClient {
                     } else if (!registry.isIssueId(id)) {
                         System.err.println("Invalid id or category \"" + id + "\".\n");
                         displayValidIds(registry, System.err);
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     } else {
                         mEnabled.add(id);
                     }
@@ -387,7 +490,7 @@ public class Main extends LintClient {
             } else if (arg.equals(ARG_CHECK)) {
                 if (index == args.length - 1) {
                     System.err.println("Missing categories or id's to check");
-                    System.exit(ERRNO_INVALIDARGS);
+                    exit(ERRNO_INVALIDARGS);
                 }
                 mCheck = new HashSet<String>();
                 String[] ids = args[++index].split(",");
@@ -406,7 +509,7 @@ public class Main extends LintClient {
                     } else if (!registry.isIssueId(id)) {
                         System.err.println("Invalid id or category \"" + id + "\".\n");
                         displayValidIds(registry, System.err);
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     } else {
                         mCheck.add(id);
                     }
@@ -420,14 +523,14 @@ public class Main extends LintClient {
             } else if (arg.startsWith("--")) {
                 System.err.println("Invalid argument " + arg + "\n");
                 printUsage(System.err);
-                System.exit(ERRNO_INVALIDARGS);
+                exit(ERRNO_INVALIDARGS);
             } else {
                 String filename = arg;
                 File file = getInArgumentPath(filename);
 
                 if (!file.exists()) {
                     System.err.println(String.format("%1$s does not exist.", filename));
-                    System.exit(ERRNO_EXISTS);
+                    exit(ERRNO_EXISTS);
                 }
                 files.add(file);
             }
@@ -435,7 +538,7 @@ public class Main extends LintClient {
 
         if (files.size() == 0) {
             System.err.println("No files to analyze.");
-            System.exit(ERRNO_INVALIDARGS);
+            exit(ERRNO_INVALIDARGS);
         }
 
         if (mReporter == null) {
@@ -466,7 +569,7 @@ public class Main extends LintClient {
                     if (index == -1) {
                         System.err.println(
                             "The URL map argument must be of the form 'path_prefix=url_prefix'");
-                        System.exit(ERRNO_INVALIDARGS);
+                        exit(ERRNO_INVALIDARGS);
                     }
                     String key = s.substring(0, index);
                     String value = s.substring(index + 1);
@@ -479,22 +582,40 @@ public class Main extends LintClient {
         mDriver = new LintDriver(registry, this);
 
         mDriver.setAbbreviating(!mShowAll);
+        mDriver.setThreadCount(mThreadCount);
+        if (mCache != null) {
+            try {
+                mCache.read();
+            } catch (IOException e) {
+                log(e, "Could not read the lint cache %1$s; checking all files",
+                        mCache.getFile().getPath());
+            }
+            mDriver.setCache(mCache);
+        }
         if (!mQuiet) {
             mDriver.addLintListener(new ProgressPrinter());
         }
 
         mDriver.analyze(files, null /* scope */);
 
+        if (mCache != null) {
+            try {
+                mCache.write();
+            } catch (IOException e) {
+                log(e, "Could not write the lint cache %1$s", mCache.getFile().getPath());
+            }
+        }
+
         Collections.sort(mWarnings);
 
         try {
             mReporter.write(mErrorCount, mWarningCount, mWarnings);
         } catch (IOException e) {
             log(e, null);
-            System.exit(ERRNO_INVALIDARGS);
+            exit(ERRNO_INVALIDARGS);
         }
 
-        System.exit(mSetExitCode ? (mHasErrors ? ERRNO_ERRORS : 0) : 0);
+        exit(mSetExitCode ? (mHasErrors ? ERRNO_ERRORS : 0) : 0);
     }
 
     /**
@@ -559,7 +680,7 @@ public class Main extends LintClient {
      * @return A new File corresponding to {@link #PROP_WORK_DIR} or null.
      */
     @Nullable
-    private File getLintWorkDir() {
+    static File getLintWorkDir() {
         // First check the Java properties (e.g. set using "java -jar ... -Dname=value")
         String path = System.getProperty(PROP_WORK_DIR);
         if (path == null || path.length() == 0) {
@@ -814,6 +935,13 @@ public class Main extends LintClient {
             ARG_EXITCODE, "Set the exit code to " + ERRNO_ERRORS + " if errors are found.",
             ARG_SHOW, "List available issues along with full explanations.",
             ARG_SHOW + " <ids>", "Show full explanations for the given list of issue id's.",
+            ARG_DAEMON + " <port>", "Run a lint server on the given local port, which keeps " +
+                "lint loaded between runs. Must be the first flag.",
+            ARG_CLIENT + " <port> <flags>", "Run lint with the given flags and project " +
+                "directories in the lint server on the given local port. Must be the first " +
+                "flag. The flags " + ARG_CLIENT + " <port> " + ARG_STOP + " stop the server.",
+            ARG_THREADS + " <count>", "Parse files on the given number of threads. The " +
+                "output is the same as with a single thread, which is the default.",
 
             "", "\nEnabled Checks:",
             ARG_DISABLE + " <list>", "Disable the list of categories or " +
@@ -828,6 +956,9 @@ public class Main extends LintClient {
             ARG_NOWARN1 + ", " + ARG_NOWARN2, "Only check for errors (ignore warnings)",
             ARG_WARNALL, "Check all warnings, including those off by default",
             ARG_ALLERROR, "Treat all warnings as errors",
+            ARG_CACHE + " <filename>", "Cache the results of individual files in the given " +
+                "file, and only check the files which changed since the previous run with the " +
+                "same cache file. Checks which look at the whole project always run.",
             ARG_CONFIG + " <filename>", "Use the given configuration file to " +
                     "determine whether issues are enabled or disabled. If a project contains " +
                     "a lint.xml file, then this config file will be used as a fallback.",
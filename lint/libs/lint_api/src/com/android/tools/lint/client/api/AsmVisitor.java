@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.tools.lint.detector.api.ClassContext;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Detector.ClassScanner;
+
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Specialized visitor for running detectors on a class object model.
+ * <p>
+ * Like the {@link JavaVisitor}, it first computes a map from each instruction
+ * type to the detectors to consult whenever an instruction of that type is
+ * encountered, as defined by {@link ClassScanner#getApplicableAsmNodeTypes()}.
+ * It then iterates over the instructions of each class a single time,
+ * delegating to those detectors, and passes the whole class to the remaining
+ * detectors. It also notifies all the detectors before and after each class is
+ * processed.
+ */
+class AsmVisitor {
+    /** Number of instruction types, as defined by the type constants in AbstractInsnNode */
+    private static final int TYPE_COUNT = AbstractInsnNode.LINE + 1;
+    /** Default size of lists holding detectors of the same type for a given node type */
+    private static final int SAME_TYPE_COUNT = 8;
+
+    private final List<VisitingDetector> mAllDetectors;
+    private final List<VisitingDetector> mFullClassDetectors;
+    private final List<List<VisitingDetector>> mNodeTypeDetectors =
+            new ArrayList<List<VisitingDetector>>(TYPE_COUNT);
+    private boolean mVisitInstructions;
+
+    AsmVisitor(@NonNull List<Detector> detectors) {
+        mAllDetectors = new ArrayList<VisitingDetector>(detectors.size());
+        mFullClassDetectors = new ArrayList<VisitingDetector>(detectors.size());
+        for (int i = 0; i < TYPE_COUNT; i++) {
+            mNodeTypeDetectors.add(null);
+        }
+
+        for (Detector detector : detectors) {
+            VisitingDetector v = new VisitingDetector(detector, (ClassScanner) detector);
+            mAllDetectors.add(v);
+
+            int[] types = detector.getApplicableAsmNodeTypes();
+            if (types == null) {
+                mFullClassDetectors.add(v);
+                continue;
+            }
+
+            for (int type : types) {
+                if (type < 0 || type >= TYPE_COUNT) {
+                    // Not a valid instruction type
+                    assert false : type;
+                    continue;
+                }
+                List<VisitingDetector> list = mNodeTypeDetectors.get(type);
+                if (list == null) {
+                    list = new ArrayList<VisitingDetector>(SAME_TYPE_COUNT);
+                    mNodeTypeDetectors.set(type, list);
+                }
+                list.add(v);
+                mVisitInstructions = true;
+            }
+        }
+    }
+
+    /**
+     * Runs the detectors which apply to the given class file
+     *
+     * @param context the context for the class, which must have a class node
+     * @param file the class file, passed to {@link Detector#appliesTo}
+     */
+    @SuppressWarnings("rawtypes") // ASM API uses raw types
+    void runClassDetectors(@NonNull ClassContext context, @NonNull File file) {
+        ClassNode classNode = context.getClassNode();
+        boolean applies = false;
+        for (VisitingDetector v : mAllDetectors) {
+            v.mApplies = v.mDetector.appliesTo(context, file);
+            if (v.mApplies) {
+                v.mDetector.beforeCheckFile(context);
+                applies = true;
+            }
+        }
+        if (!applies) {
+            return;
+        }
+
+        for (VisitingDetector v : mFullClassDetectors) {
+            if (v.mApplies) {
+                v.mScanner.checkClass(context, classNode);
+            }
+        }
+
+        if (mVisitInstructions) {
+            List methodList = classNode.methods;
+            for (Object m : methodList) {
+                MethodNode method = (MethodNode) m;
+                AbstractInsnNode instruction = method.instructions.getFirst();
+                while (instruction != null) {
+                    int type = instruction.getType();
+                    List<VisitingDetector> list = type >= 0 && type < TYPE_COUNT
+                            ? mNodeTypeDetectors.get(type) : null;
+                    if (list != null) {
+                        for (VisitingDetector v : list) {
+                            if (v.mApplies) {
+                                v.mScanner.checkInstruction(context, classNode, method,
+                                        instruction);
+                            }
+                        }
+                    }
+                    instruction = instruction.getNext();
+                }
+            }
+        }
+
+        for (VisitingDetector v : mAllDetectors) {
+            if (v.mApplies) {
+                v.mDetector.afterCheckFile(context);
+            }
+        }
+    }
+
+    private static class VisitingDetector {
+        private final Detector mDetector;
+        private final ClassScanner mScanner;
+        /** Whether the detector applies to the class being visited */
+        private boolean mApplies;
+
+        private VisitingDetector(@NonNull Detector detector, @NonNull ClassScanner scanner) {
+            mDetector = detector;
+            mScanner = scanner;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import static com.android.tools.lint.detector.api.LintConstants.DOT_CLASS;
+import static org.objectweb.asm.Opcodes.ASM4;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Index of the super classes of the classes in library jars, shared by all
+ * lint runs in the VM.
+ * <p>
+ * Each jar is read and skimmed at most once: the index is looked up by the jar
+ * path, and as long as the jar size and timestamp are unchanged it is not read
+ * again. When they do change, the jar is read and its checksum compared, and
+ * jars with the same contents (such as a support library copied into several
+ * projects) share a single table.
+ * <p>
+ * The tables are softly referenced, so they are reclaimed (and read again when
+ * needed) if memory runs low, and the entries of jars which no longer exist are
+ * dropped whenever a jar is indexed.
+ */
+class ClassIndex {
+    /** Checksums of the jars that have been indexed, by jar path */
+    private static final Map<File, JarStamp> sStamps = new HashMap<File, JarStamp>();
+    /** Super class tables, by jar checksum */
+    private static final Map<String, SoftReference<Map<String, String>>> sTables =
+            new HashMap<String, SoftReference<Map<String, String>>>();
+
+    private ClassIndex() {
+    }
+
+    /**
+     * Returns a map from each class in the given jar (VM name) to its super
+     * class (VM name)
+     *
+     * @param client the client to log errors with
+     * @param jarFile the jar file
+     * @return the super class map, which should not be modified, or null if the
+     *         jar could not be read
+     */
+    @Nullable
+    static Map<String, String> getSuperClasses(@NonNull LintClient client,
+            @NonNull File jarFile) {
+        synchronized (ClassIndex.class) {
+            long length = jarFile.length();
+            long lastModified = jarFile.lastModified();
+            JarStamp stamp = sStamps.get(jarFile);
+            if (stamp != null && stamp.mLength == length
+                    && stamp.mLastModified == lastModified) {
+                Map<String, String> table = getTable(stamp.mHash);
+                if (table != null) {
+                    return table;
+                }
+            }
+
+            byte[] bytes;
+            try {
+                bytes = Files.toByteArray(jarFile);
+            } catch (IOException e) {
+                client.log(e, "Could not read jar file contents from %1$s", jarFile);
+                return null;
+            }
+
+            String hash = LintCache.hash(bytes);
+            Map<String, String> table = getTable(hash);
+            if (table == null) {
+                table = index(client, jarFile, bytes);
+                sTables.put(hash, new SoftReference<Map<String, String>>(table));
+            }
+            sStamps.put(jarFile, new JarStamp(length, lastModified, hash));
+            removeUnused();
+
+            return table;
+        }
+    }
+
+    /** Returns true if the given jar is in the index, for tests */
+    static boolean isIndexed(@NonNull File jarFile) {
+        synchronized (ClassIndex.class) {
+            return sStamps.containsKey(jarFile);
+        }
+    }
+
+    @Nullable
+    private static Map<String, String> getTable(@NonNull String hash) {
+        SoftReference<Map<String, String>> reference = sTables.get(hash);
+        return reference != null ? reference.get() : null;
+    }
+
+    /**
+     * Removes the stamps of the jars which no longer exist, and the tables which
+     * have been reclaimed or are no longer used by any jar
+     */
+    private static void removeUnused() {
+        Set<String> used = new HashSet<String>();
+        Iterator<Map.Entry<File, JarStamp>> stamps = sStamps.entrySet().iterator();
+        while (stamps.hasNext()) {
+            Map.Entry<File, JarStamp> entry = stamps.next();
+            if (entry.getKey().exists()) {
+                used.add(entry.getValue().mHash);
+            } else {
+                stamps.remove();
+            }
+        }
+
+        Iterator<Map.Entry<String, SoftReference<Map<String, String>>>> tables =
+                sTables.entrySet().iterator();
+        while (tables.hasNext()) {
+            Map.Entry<String, SoftReference<Map<String, String>>> entry = tables.next();
+            if (!used.contains(entry.getKey()) || entry.getValue().get() == null) {
+                tables.remove();
+            }
+        }
+    }
+
+    @NonNull
+    private static Map<String, String> index(@NonNull LintClient client,
+            @NonNull File jarFile, @NonNull byte[] bytes) {
+        Map<String, String> map = new HashMap<String, String>();
+        SuperclassVisitor visitor = new SuperclassVisitor(map);
+        ZipInputStream zis = null;
+        try {
+            zis = new ZipInputStream(new ByteArrayInputStream(bytes));
+            ZipEntry entry = zis.getNextEntry();
+            while (entry != null) {
+                if (entry.getName().endsWith(DOT_CLASS)) {
+                    String path = jarFile.getPath() + ':' + entry.getName();
+                    visitor.skim(client, ByteStreams.toByteArray(zis), path);
+                }
+                entry = zis.getNextEntry();
+            }
+        } catch (IOException e) {
+            client.log(e, "Could not read jar file contents from %1$s", jarFile);
+        } finally {
+            Closeables.closeQuietly(zis);
+        }
+
+        return Collections.unmodifiableMap(map);
+    }
+
+    /** Size, timestamp and checksum of an indexed jar */
+    private static class JarStamp {
+        private final long mLength;
+        private final long mLastModified;
+        private final String mHash;
+
+        private JarStamp(long length, long lastModified, String hash) {
+            mLength = length;
+            mLastModified = lastModified;
+            mHash = hash;
+        }
+    }
+
+    /** Visitor skimming classes and initializing a map of super classes */
+    static class SuperclassVisitor extends ClassVisitor {
+        private final Map<String, String> mMap;
+
+        SuperclassVisitor(Map<String, String> map) {
+            super(ASM4);
+            mMap = map;
+        }
+
+        /** Adds the super class of the given class file to the map */
+        void skim(@NonNull LintClient client, @NonNull byte[] bytes, @NonNull String path) {
+            try {
+                ClassReader reader = new ClassReader(bytes);
+                int flags = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG
+                        | ClassReader.SKIP_FRAMES;
+                reader.accept(this, flags);
+            } catch (Throwable t) {
+                client.log(null, "Error processing %1$s: broken class file?", path);
+            }
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                String[] interfaces) {
+            if (superName != null) {
+                mMap.put(name, superName);
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import static com.android.tools.lint.detector.api.LintConstants.ANDROID_PKG;
 import static com.android.tools.lint.detector.api.LintConstants.R_CLASS;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Detector.JavaScanner;
 import com.android.tools.lint.detector.api.Detector.XmlScanner;
@@ -188,12 +189,30 @@ public class JavaVisitor {
         }
     }
 
+    /**
+     * Parses the given file without visiting it, such that the compilation unit can be
+     * parsed on another thread ahead of {@link #visitFile}
+     */
+    @Nullable
+    Node parse(@NonNull JavaContext context) {
+        context.parser = mParser;
+        return mParser.parseJava(context);
+    }
+
+    /** Disposes a compilation unit returned by {@link #parse} which is not visited */
+    void dispose(@NonNull JavaContext context, @NonNull Node compilationUnit) {
+        mParser.dispose(context, compilationUnit);
+    }
+
     void visitFile(@NonNull JavaContext context, @NonNull File file) {
         context.parser = mParser;
 
         Node compilationUnit = null;
         try {
-            compilationUnit = mParser.parseJava(context);
+            compilationUnit = context.compilationUnit;
+            if (compilationUnit == null) {
+                compilationUnit = mParser.parseJava(context);
+            }
             if (compilationUnit == null) {
                 // No need to log this; the parser should be reporting
                 // a full warning (such as IssueRegistry#PARSER_ERROR)
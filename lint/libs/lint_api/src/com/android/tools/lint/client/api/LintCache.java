@@ -0,0 +1,519 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+import com.android.tools.lint.detector.api.DefaultPosition;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Position;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.annotations.Beta;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of the issues reported for the individual files of projects,
+ * which lets {@link LintDriver} check only the files which changed since the
+ * previous run.
+ * <p>
+ * Only the issues of detectors which work on single files (see
+ * {@link com.android.tools.lint.detector.api.Scope#checkSingleFile}) are
+ * cached: for an unchanged file, these detectors are skipped and their
+ * issues are reported from the cache. Detectors which look at the whole
+ * project still check every file. The cached results of a project are
+ * discarded when the lint configuration or the project manifest changes.
+ * <p>
+ * The data passed along with a report (see
+ * {@link LintClient#report(com.android.tools.lint.detector.api.Context, Issue, Severity,
+ * Location, String, Object)}) is cached when it is a string. A file with a report
+ * carrying any other kind of data is checked again on the next run.
+ * <p>
+ * Detectors which gather facts from each file for a project-wide check (see
+ * {@link com.android.tools.lint.detector.api.Detector.FileFactScanner}) have
+ * these facts cached as well, and replayed for unchanged files.
+ * <p>
+ * <b>NOTE: This is not a public or final API; if you rely on this be prepared
+ * to adjust your code for the next tools release.</b>
+ */
+@Beta
+public class LintCache {
+    private static final int MAGIC = 0x4C494E54; // "LINT"
+    private static final int VERSION = 3;
+
+    /**
+     * Files modified less than this many milliseconds before the previous run
+     * may have been modified again during that second without a change of
+     * timestamp, so their contents are always compared.
+     */
+    private static final long TIMESTAMP_RESOLUTION = 2000;
+
+    private final File mFile;
+    private final Map<String, ProjectResults> mProjects = new HashMap<String, ProjectResults>();
+    private long mPreviousRunTime;
+    private final long mRunTime = System.currentTimeMillis();
+
+    /**
+     * Creates a new cache stored in the given file. Call {@link #read()} to
+     * load the results of the previous run.
+     *
+     * @param file the cache file, which does not need to exist
+     */
+    public LintCache(@NonNull File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the file the cache is stored in
+     *
+     * @return the cache file
+     */
+    @NonNull
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Reads the cache file, if it exists. If the file cannot be read, the cache
+     * is left empty and every file will be checked.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    public void read() throws IOException {
+        mProjects.clear();
+        if (!mFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(mFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // Different format: start over
+                return;
+            }
+            mPreviousRunTime = in.readLong();
+            int projectCount = in.readInt();
+            for (int i = 0; i < projectCount; i++) {
+                String key = in.readUTF();
+                ProjectResults project = new ProjectResults(this, key, in.readUTF());
+                int fileCount = in.readInt();
+                for (int j = 0; j < fileCount; j++) {
+                    FileResults file = new FileResults(in.readUTF(), in.readLong(),
+                            in.readLong(), in.readUTF());
+                    int reportCount = in.readInt();
+                    for (int k = 0; k < reportCount; k++) {
+                        String issueId = in.readUTF();
+                        Severity severity = Severity.valueOf(in.readUTF());
+                        String message = in.readUTF();
+                        Location location = readLocation(in);
+                        String data = in.readBoolean() ? in.readUTF() : null;
+                        file.mReports.add(new Report(issueId, severity, location, message,
+                                data));
+                    }
+                    int detectorCount = in.readInt();
+                    for (int k = 0; k < detectorCount; k++) {
+                        String detector = in.readUTF();
+                        int factCount = in.readInt();
+                        List<String> facts = new ArrayList<String>(factCount);
+                        for (int l = 0; l < factCount; l++) {
+                            facts.add(in.readUTF());
+                        }
+                        file.mFacts.put(detector, facts);
+                    }
+                    project.mPrevious.put(file.mPath, file);
+                }
+                mProjects.put(key, project);
+            }
+        } catch (IOException e) {
+            mProjects.clear();
+            throw e;
+        } catch (IllegalArgumentException e) {
+            // Unknown severity
+            mProjects.clear();
+            throw new IOException(e.toString());
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the cache file
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void write() throws IOException {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(mFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(mRunTime);
+            out.writeInt(mProjects.size());
+            for (ProjectResults project : mProjects.values()) {
+                out.writeUTF(project.mKey);
+                out.writeUTF(project.mConfigurationKey);
+                out.writeInt(project.mPrevious.size());
+                for (FileResults file : project.mPrevious.values()) {
+                    out.writeUTF(file.mPath);
+                    out.writeLong(file.mLength);
+                    out.writeLong(file.mLastModified);
+                    out.writeUTF(file.mHash);
+                    out.writeInt(file.mReports.size());
+                    for (Report report : file.mReports) {
+                        out.writeUTF(report.mIssueId);
+                        out.writeUTF(report.mSeverity.name());
+                        out.writeUTF(report.mMessage);
+                        writeLocation(out, report.mLocation);
+                        out.writeBoolean(report.mData != null);
+                        if (report.mData != null) {
+                            out.writeUTF(report.mData);
+                        }
+                    }
+                    out.writeInt(file.mFacts.size());
+                    for (Map.Entry<String, List<String>> entry : file.mFacts.entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.writeInt(entry.getValue().size());
+                        for (String fact : entry.getValue()) {
+                            out.writeUTF(fact);
+                        }
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the results of the previous run for the given project. The results
+     * are empty if the project was not checked before, or was checked with a
+     * different configuration.
+     *
+     * @param key a key identifying the project, such as its path
+     * @param configurationKey a key identifying everything besides the contents
+     *            of its files which affects the results of the project
+     * @return the results of the project
+     */
+    @NonNull
+    ProjectResults getProjectResults(@NonNull String key, @NonNull String configurationKey) {
+        ProjectResults project = mProjects.get(key);
+        if (project == null || !project.mConfigurationKey.equals(configurationKey)) {
+            project = new ProjectResults(this, key, configurationKey);
+        }
+        return project;
+    }
+
+    /** Computes a hash of the given bytes */
+    @NonNull
+    static String hash(@NonNull byte[] bytes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5"); //$NON-NLS-1$
+            byte[] hash = digest.digest(bytes);
+            StringBuilder sb = new StringBuilder(2 * hash.length);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Nullable
+    private static Location readLocation(@NonNull DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        File file = new File(in.readUTF());
+        Position start = readPosition(in);
+        Position end = readPosition(in);
+        Location location = start != null ? Location.create(file, start, end)
+                : Location.create(file);
+        if (in.readBoolean()) {
+            location.setMessage(in.readUTF());
+        }
+        location.setSecondary(readLocation(in));
+        return location;
+    }
+
+    private static void writeLocation(@NonNull DataOutputStream out, @Nullable Location location)
+            throws IOException {
+        out.writeBoolean(location != null);
+        if (location == null) {
+            return;
+        }
+        out.writeUTF(location.getFile().getPath());
+        writePosition(out, location.getStart());
+        writePosition(out, location.getEnd());
+        String message = location.getMessage();
+        out.writeBoolean(message != null);
+        if (message != null) {
+            out.writeUTF(message);
+        }
+        writeLocation(out, location.getSecondary());
+    }
+
+    @Nullable
+    private static Position readPosition(@NonNull DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        int line = in.readInt();
+        int column = in.readInt();
+        int offset = in.readInt();
+        return new DefaultPosition(line, column, offset);
+    }
+
+    private static void writePosition(@NonNull DataOutputStream out, @Nullable Position position)
+            throws IOException {
+        out.writeBoolean(position != null);
+        if (position != null) {
+            out.writeInt(position.getLine());
+            out.writeInt(position.getColumn());
+            out.writeInt(position.getOffset());
+        }
+    }
+
+    /** The cached results of the files of a project */
+    static class ProjectResults {
+        private final LintCache mCache;
+        private final String mKey;
+        private final String mConfigurationKey;
+        /** The results of the previous run, or of this run once it is finished */
+        private Map<String, FileResults> mPrevious = new HashMap<String, FileResults>();
+        /** The results of this run */
+        private final Map<String, FileResults> mCurrent = new HashMap<String, FileResults>();
+
+        private ProjectResults(LintCache cache, String key, String configurationKey) {
+            mCache = cache;
+            mKey = key;
+            mConfigurationKey = configurationKey;
+        }
+
+        /**
+         * Starts recording the results of the given file for this run, and
+         * returns whether it is unchanged since the previous run, in which case
+         * its previous results are kept.
+         *
+         * @param file the file to check
+         * @return true if the file is unchanged
+         */
+        boolean checkFile(@NonNull File file) {
+            String path = file.getPath();
+            FileResults previous = mPrevious.get(path);
+            long length = file.length();
+            long lastModified = file.lastModified();
+
+            String hash;
+            if (previous != null && previous.mHash.length() > 0 && previous.mLength == length
+                    && previous.mLastModified == lastModified
+                    && lastModified < mCache.mPreviousRunTime - TIMESTAMP_RESOLUTION) {
+                hash = previous.mHash;
+            } else {
+                try {
+                    hash = hash(Files.toByteArray(file));
+                } catch (IOException e) {
+                    // Treat it as changed; lint will report the problem when reading it
+                    hash = ""; //$NON-NLS-1$
+                }
+            }
+
+            FileResults current = new FileResults(path, length, lastModified, hash);
+            mCurrent.put(path, current);
+            if (previous != null && hash.length() > 0 && hash.equals(previous.mHash)) {
+                current.mReports.addAll(previous.mReports);
+                current.mFacts.putAll(previous.mFacts);
+                current.mUnchanged = true;
+                return true;
+            }
+            return false;
+        }
+
+        /** Returns true if the given file was passed to {@link #checkFile} */
+        boolean isChecked(@NonNull File file) {
+            return mCurrent.containsKey(file.getPath());
+        }
+
+        /** Returns true if the given file was found unchanged by {@link #checkFile} */
+        boolean isUnchanged(@NonNull File file) {
+            FileResults results = mCurrent.get(file.getPath());
+            return results != null && results.mUnchanged;
+        }
+
+        /**
+         * Returns the previous results of a file passed to {@link #checkFile}
+         *
+         * @param file the file
+         * @return the cached reports of the file
+         */
+        @NonNull
+        List<Report> getReports(@NonNull File file) {
+            FileResults results = mCurrent.get(file.getPath());
+            if (results == null) {
+                return Collections.emptyList();
+            }
+            return results.mReports;
+        }
+
+        /**
+         * Records a report for a file passed to {@link #checkFile}. If the data
+         * of the report cannot be cached, the file will be checked again on the
+         * next run.
+         */
+        void addReport(@NonNull File file, @NonNull Issue issue, @NonNull Severity severity,
+                @Nullable Location location, @NonNull String message, @Nullable Object data) {
+            FileResults results = mCurrent.get(file.getPath());
+            if (results != null) {
+                String cachedData = null;
+                if (data instanceof String) {
+                    cachedData = (String) data;
+                } else if (data != null) {
+                    results.mHash = ""; //$NON-NLS-1$
+                }
+                results.mReports.add(new Report(issue.getId(), severity, location, message,
+                        cachedData));
+            }
+        }
+
+        /**
+         * Returns the facts recorded for a file passed to {@link #checkFile}
+         *
+         * @param file the file
+         * @return a map from detector class names to the facts of the file
+         */
+        @NonNull
+        Map<String, List<String>> getFacts(@NonNull File file) {
+            FileResults results = mCurrent.get(file.getPath());
+            if (results == null) {
+                return Collections.emptyMap();
+            }
+            return results.mFacts;
+        }
+
+        /**
+         * Records the facts a detector gathered from a file passed to
+         * {@link #checkFile}
+         *
+         * @param file the file
+         * @param detector the class name of the detector
+         * @param facts the facts of the file
+         */
+        void addFacts(@NonNull File file, @NonNull String detector, @NonNull List<String> facts) {
+            FileResults results = mCurrent.get(file.getPath());
+            if (results != null) {
+                results.mFacts.put(detector, new ArrayList<String>(facts));
+            }
+        }
+
+        /**
+         * Finishes this run, replacing the results of the previous run. This is
+         * not called when the run is canceled.
+         */
+        void finish() {
+            mPrevious = new HashMap<String, FileResults>(mCurrent);
+            mCache.mProjects.put(mKey, this);
+        }
+    }
+
+    /** The cached results of a single file */
+    private static class FileResults {
+        private final String mPath;
+        private final long mLength;
+        private final long mLastModified;
+        /** The hash of the contents, or an empty string to check the file again */
+        private String mHash;
+        private final List<Report> mReports = new ArrayList<Report>();
+        /** The facts gathered by each {@code FileFactScanner}, by class name */
+        private final Map<String, List<String>> mFacts = new HashMap<String, List<String>>();
+        private boolean mUnchanged;
+
+        private FileResults(String path, long length, long lastModified, String hash) {
+            mPath = path;
+            mLength = length;
+            mLastModified = lastModified;
+            mHash = hash;
+        }
+    }
+
+    /** A cached report of an issue */
+    static class Report {
+        private final String mIssueId;
+        private final Severity mSeverity;
+        private final Location mLocation;
+        private final String mMessage;
+        private final String mData;
+
+        private Report(String issueId, Severity severity, Location location, String message,
+                String data) {
+            mIssueId = issueId;
+            mSeverity = severity;
+            mLocation = location;
+            mMessage = message;
+            mData = data;
+        }
+
+        @NonNull
+        String getIssueId() {
+            return mIssueId;
+        }
+
+        @NonNull
+        Severity getSeverity() {
+            return mSeverity;
+        }
+
+        @Nullable
+        Location getLocation() {
+            return mLocation;
+        }
+
+        @NonNull
+        String getMessage() {
+            return mMessage;
+        }
+
+        @Nullable
+        String getData() {
+            return mData;
+        }
+    }
+}
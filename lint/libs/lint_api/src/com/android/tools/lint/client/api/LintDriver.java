@@ -24,11 +24,11 @@ import static com.android.tools.lint.detector.api.LintConstants.DOT_JAVA;
 import static com.android.tools.lint.detector.api.LintConstants.DOT_XML;
 import static com.android.tools.lint.detector.api.LintConstants.OLD_PROGUARD_FILE;
 import static com.android.tools.lint.detector.api.LintConstants.PROGUARD_FILE;
+import static com.android.tools.lint.detector.api.LintConstants.PROJECT_PROPERTIES;
 import static com.android.tools.lint.detector.api.LintConstants.RES_FOLDER;
 import static com.android.tools.lint.detector.api.LintConstants.SUPPRESS_ALL;
 import static com.android.tools.lint.detector.api.LintConstants.SUPPRESS_LINT;
 import static com.android.tools.lint.detector.api.LintConstants.TOOLS_URI;
-import static org.objectweb.asm.Opcodes.ASM4;
 
 import com.android.annotations.NonNull;
 import com.android.annotations.Nullable;
@@ -50,6 +50,7 @@ import com.android.tools.lint.detector.api.Severity;
 import com.android.tools.lint.detector.api.XmlContext;
 import com.google.common.annotations.Beta;
 import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Multimap;
@@ -58,12 +59,12 @@ import com.google.common.io.Closeables;
 import com.google.common.io.Files;
 
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
 import org.objectweb.asm.tree.MethodNode;
 import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import java.io.File;
@@ -83,6 +84,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
@@ -127,6 +131,19 @@ public class LintDriver {
     private EnumSet<Scope> mRepeatScope;
     private Project[] mCurrentProjects;
     private boolean mAbbreviating = true;
+    private int mThreadCount = 1;
+    private ExecutorService mParseExecutor;
+    private final ThreadLocal<List<Runnable>> mDeferredCalls = new ThreadLocal<List<Runnable>>();
+    private LintCache mCache;
+    /** The cached results of the project being checked, or null when not caching */
+    private LintCache.ProjectResults mCacheResults;
+    /** The detectors whose results are cached, when caching */
+    private Set<Class<? extends Detector>> mCachedDetectors;
+    /** The detectors whose facts of each file are cached, when caching */
+    private List<Detector> mFactDetectors;
+    /** The file whose results are being cached, if any */
+    private File mCachedFile;
+    private boolean mCachedFileUnchanged;
 
     /**
      * Creates a new {@link LintDriver}
@@ -217,6 +234,76 @@ public class LintDriver {
         return mAbbreviating;
     }
 
+    /**
+     * Sets the number of threads used to parse XML, Java and class files. When
+     * more than one, files are parsed concurrently ahead of the detectors, which
+     * still run one file at a time, in the same order as with a single thread,
+     * and the results are identical. The parsers returned by the client must be
+     * thread-safe. The default is 1.
+     *
+     * @param threadCount the number of parsing threads
+     */
+    public void setThreadCount(int threadCount) {
+        mThreadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * Returns the number of threads used to parse files
+     *
+     * @return the number of parsing threads, 1 if files are parsed on the lint thread
+     */
+    public int getThreadCount() {
+        return mThreadCount;
+    }
+
+    /**
+     * Sets the cache used to check projects incrementally. The cache must have
+     * been read, and should be written after {@link #analyze}. Only full
+     * project checks use the cache, not checks of individual files.
+     *
+     * @param cache the cache, or null to check every file
+     */
+    public void setCache(@Nullable LintCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Returns the cache used to check projects incrementally, if any
+     *
+     * @return the cache, or null
+     */
+    @Nullable
+    public LintCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Defers a call made while parsing a file on a parsing thread, such as a
+     * report of a parser error. Deferred calls are run on the lint thread, in
+     * order, when the detectors reach that file.
+     *
+     * @param call the call to defer
+     * @return true if the call was deferred, false if the current thread is
+     *         not a parsing thread and the call should be made right away
+     */
+    public boolean defer(@NonNull Runnable call) {
+        List<Runnable> deferredCalls = mDeferredCalls.get();
+        if (deferredCalls == null) {
+            return false;
+        }
+        deferredCalls.add(call);
+        return true;
+    }
+
+    /** Sets the list of deferred calls of the current parsing thread, or null when done */
+    void setDeferredCalls(@Nullable List<Runnable> deferredCalls) {
+        if (deferredCalls != null) {
+            mDeferredCalls.set(deferredCalls);
+        } else {
+            mDeferredCalls.remove();
+        }
+    }
+
     /**
      * Analyze the given file (which can point to an Android project). Issues found
      * are reported to the associated {@link LintClient}.
@@ -274,23 +361,44 @@ public class LintDriver {
 
         fireEvent(EventType.STARTING, null);
 
-        for (Project project : projects) {
-            mPhase = 1;
+        if (mThreadCount > 1) {
+            mParseExecutor = Executors.newFixedThreadPool(mThreadCount, new ThreadFactory() {
+                private int mCount;
 
-            // The set of available detectors varies between projects
-            computeDetectors(project);
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Lint Parser " + ++mCount); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
 
-            if (mApplicableDetectors.size() == 0) {
-                // No detectors enabled in this project: skip it
-                continue;
-            }
+        try {
+            for (Project project : projects) {
+                mPhase = 1;
 
-            checkProject(project);
-            if (mCanceled) {
-                break;
-            }
+                // The set of available detectors varies between projects
+                computeDetectors(project);
 
-            runExtraPhases(project);
+                if (mApplicableDetectors.size() == 0) {
+                    // No detectors enabled in this project: skip it
+                    continue;
+                }
+
+                checkProject(project);
+                finishCaching();
+                if (mCanceled) {
+                    break;
+                }
+
+                runExtraPhases(project);
+            }
+        } finally {
+            if (mParseExecutor != null) {
+                mParseExecutor.shutdownNow();
+                mParseExecutor = null;
+            }
         }
 
         fireEvent(mCanceled ? EventType.CANCELED : EventType.COMPLETED, null);
@@ -651,6 +759,10 @@ public class LintDriver {
         allProjects.addAll(allLibraries);
         mCurrentProjects = allProjects.toArray(new Project[allProjects.size()]);
 
+        if (mCache != null && mPhase == 1 && project.getSubset() == null) {
+            startCaching(project);
+        }
+
         for (Detector check : mApplicableDetectors) {
             check.beforeCheckProject(projectContext);
             if (mCanceled) {
@@ -709,6 +821,162 @@ public class LintDriver {
         mCurrentProjects = null;
     }
 
+    private void startCaching(@NonNull Project project) {
+        // The cached results depend on the configuration, and on the manifest and
+        // properties of the project and its libraries (e.g. the minimum SDK version)
+        List<Project> projects = new ArrayList<Project>();
+        projects.add(project);
+        projects.addAll(project.getAllLibraries());
+        StringBuilder sb = new StringBuilder();
+        sb.append(mScope);
+        for (Project p : projects) {
+            sb.append('\n').append(p.getDir().getPath());
+            Configuration configuration = p.getConfiguration();
+            for (Issue issue : mRegistry.getIssues()) {
+                sb.append(',').append(issue.getId()).append('=');
+                sb.append(configuration.getSeverity(issue));
+            }
+            appendFileHash(sb, p.getManifestFile());
+            appendFileHash(sb, new File(p.getDir(), PROJECT_PROPERTIES));
+        }
+        String configurationKey = LintCache.hash(sb.toString().getBytes(Charsets.UTF_8));
+        mCacheResults = mCache.getProjectResults(project.getDir().getAbsolutePath(),
+                configurationKey);
+
+        // Only cache the results of detectors whose issues are all computed from
+        // single files, and which don't report anything at the end of the project
+        Set<Class<? extends Detector>> projectWide = new HashSet<Class<? extends Detector>>();
+        for (Issue issue : mRegistry.getIssues()) {
+            if (!Scope.checkSingleFile(issue.getScope())) {
+                projectWide.add(issue.getDetectorClass());
+            }
+        }
+        mCachedDetectors = new HashSet<Class<? extends Detector>>();
+        mCachedDetectors.add(IssueRegistry.PARSER_ERROR.getDetectorClass());
+        for (Issue issue : mRegistry.getIssues()) {
+            Class<? extends Detector> detectorClass = issue.getDetectorClass();
+            if (!projectWide.contains(detectorClass) && !checksProjects(detectorClass)) {
+                mCachedDetectors.add(detectorClass);
+            }
+        }
+
+        // Detectors which only gather facts from each file for the end of the
+        // project can skip unchanged files as well, by replaying their facts
+        mFactDetectors = new ArrayList<Detector>();
+        for (Detector detector : mApplicableDetectors) {
+            if (detector instanceof Detector.FileFactScanner) {
+                mCachedDetectors.add(detector.getClass());
+                mFactDetectors.add(detector);
+            }
+        }
+    }
+
+    private static void appendFileHash(@NonNull StringBuilder sb, @Nullable File file) {
+        sb.append(',');
+        if (file != null && file.exists()) {
+            try {
+                sb.append(LintCache.hash(Files.toByteArray(file)));
+            } catch (IOException e) {
+                // Not hashed
+            }
+        }
+    }
+
+    /** Returns true if the given detector class does anything after checking projects */
+    private static boolean checksProjects(@NonNull Class<? extends Detector> detectorClass) {
+        try {
+            return detectorClass.getMethod("afterCheckProject", Context.class) //$NON-NLS-1$
+                        .getDeclaringClass() != Detector.class
+                    || detectorClass.getMethod("afterCheckLibraryProject", //$NON-NLS-1$
+                            Context.class).getDeclaringClass() != Detector.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    private void finishCaching() {
+        if (mCacheResults != null) {
+            if (!mCanceled) {
+                mCacheResults.finish();
+            }
+            mCacheResults = null;
+            mCachedDetectors = null;
+            mFactDetectors = null;
+        }
+    }
+
+    /**
+     * Returns true if the given file has not changed since the previous run, such
+     * that the cached detectors can skip it. Must be called once, before the file
+     * is checked.
+     */
+    private boolean isUnchanged(@NonNull File file) {
+        return mCacheResults != null && mCacheResults.checkFile(file);
+    }
+
+    /**
+     * Starts checking a file passed to {@link #isUnchanged}. The results of the
+     * cached detectors are reported from the cache for unchanged files, and
+     * recorded in the cache for changed files. The facts of the
+     * {@link Detector.FileFactScanner} detectors are replayed likewise.
+     */
+    private void beginCachedFile(@NonNull Context context) {
+        if (mCacheResults == null || !mCacheResults.isChecked(context.file)) {
+            return;
+        }
+        boolean unchanged = mCacheResults.isUnchanged(context.file);
+        if (unchanged) {
+            for (LintCache.Report report : mCacheResults.getReports(context.file)) {
+                Issue issue = mRegistry.getIssue(report.getIssueId());
+                if (issue != null) {
+                    mClient.report(context, issue, report.getSeverity(), report.getLocation(),
+                            report.getMessage(), report.getData());
+                }
+            }
+            Map<String, List<String>> facts = mCacheResults.getFacts(context.file);
+            for (Detector detector : mFactDetectors) {
+                List<String> detectorFacts = facts.get(detector.getClass().getName());
+                if (detectorFacts != null) {
+                    ((Detector.FileFactScanner) detector).replayFileFacts(context,
+                            detectorFacts);
+                }
+            }
+        }
+        mCachedFile = context.file;
+        mCachedFileUnchanged = unchanged;
+    }
+
+    /**
+     * Finishes checking a file passed to {@link #beginCachedFile}, recording the
+     * facts the {@link Detector.FileFactScanner} detectors gathered from it
+     */
+    private void endCachedFile(@NonNull Context context) {
+        if (mCachedFile != null && !mCachedFileUnchanged) {
+            for (Detector detector : mFactDetectors) {
+                List<String> facts = ((Detector.FileFactScanner) detector).getFileFacts(context);
+                if (facts != null) {
+                    mCacheResults.addFacts(mCachedFile, detector.getClass().getName(), facts);
+                }
+            }
+        }
+        mCachedFile = null;
+    }
+
+    /** Returns the given detectors, minus those whose results are cached */
+    @NonNull
+    private <T extends Detector> List<T> getUncachedDetectors(@NonNull List<T> detectors) {
+        if (mCacheResults == null) {
+            return detectors;
+        }
+        List<T> uncached = new ArrayList<T>(detectors.size());
+        for (T detector : detectors) {
+            if (!mCachedDetectors.contains(detector.getClass())) {
+                uncached.add(detector);
+            }
+        }
+        return uncached;
+    }
+
     private void runFileDetectors(@NonNull Project project, @Nullable Project main) {
         // Look up manifest information (but not for library projects)
         File manifestFile = project.getManifestFile();
@@ -840,11 +1108,19 @@ public class LintDriver {
     }
 
     /**
-     * Map from VM class name to corresponding super class VM name, if available.
+     * Map from VM class name to corresponding super class VM name, if available,
+     * for the classes of the project and of the library class folders.
      * This map is typically null except <b>during</b> class processing.
      */
     private Map<String, String> mSuperClassMap;
 
+    /**
+     * Maps from VM class name to super class VM name for each library jar, shared
+     * with other projects and runs through the {@link ClassIndex}, in class path
+     * order. Consulted after {@link #mSuperClassMap}, from the last jar to the first.
+     */
+    private List<Map<String, String>> mLibrarySuperClasses;
+
     /**
      * Returns the super class for the given class name,
      * which should be in VM format (e.g. java/lang/Integer, not java.lang.Integer).
@@ -862,7 +1138,19 @@ public class LintDriver {
             throw new IllegalStateException("Only callable during ClassScanner#checkClass");
         }
         assert name.indexOf('.') == -1 : "Use VM signatures, e.g. java/lang/Integer";
-        return mSuperClassMap.get(name);
+        String superClass = mSuperClassMap.get(name);
+        if (superClass == null) {
+            // As with a single map filled in class path order, the last library
+            // jar defining the class wins
+            for (int i = mLibrarySuperClasses.size() - 1; i >= 0; i--) {
+                superClass = mLibrarySuperClasses.get(i).get(name);
+                if (superClass != null) {
+                    break;
+                }
+            }
+        }
+
+        return superClass;
     }
 
     /**
@@ -925,9 +1213,11 @@ public class LintDriver {
         // the parent chains (such that for example for a virtual dispatch, we can
         // also check the super classes).
 
+        // The library classes themselves are only read when there are library
+        // checks; their super classes come from the shared class index
         List<File> libraries = project.getJavaLibraries();
         List<ClassEntry> libraryEntries;
-        if (libraries.size() > 0) {
+        if (libraries.size() > 0 && hasDetectors(Scope.JAVA_LIBRARIES)) {
             libraryEntries = new ArrayList<ClassEntry>(64);
             findClasses(libraryEntries, libraries);
             Collections.sort(libraryEntries);
@@ -954,7 +1244,7 @@ public class LintDriver {
         }
 
         if (getPhase() == 1) {
-            mSuperClassMap = getSuperMap(libraryEntries, classEntries);
+            initSuperClasses(libraries, libraryEntries, classEntries);
         }
 
         // Actually run the detectors. Libraries should be called before the
@@ -1005,6 +1295,7 @@ public class LintDriver {
                 Collections.sort(entries);
                 // No superclass info available on individual lint runs
                 mSuperClassMap = Collections.emptyMap();
+                mLibrarySuperClasses = Collections.emptyList();
                 runClassDetectors(Scope.CLASS_FILE, entries, project, main);
             }
         }
@@ -1024,16 +1315,33 @@ public class LintDriver {
             List<Detector> classDetectors = mScopeDetectors.get(scope);
             if (classDetectors != null && classDetectors.size() > 0 && entries.size() > 0) {
                 mOuterClasses = new ArrayDeque<ClassNode>();
+                AsmVisitor visitor = new AsmVisitor(classDetectors);
+                AsmVisitor uncachedVisitor = null;
+                List<Detector> uncachedDetectors = getUncachedDetectors(classDetectors);
+                List<ParseQueue.Task<ClassNode>> tasks =
+                        new ArrayList<ParseQueue.Task<ClassNode>>(entries.size());
+                for (final ClassEntry entry : entries) {
+                    tasks.add(new ParseQueue.Task<ClassNode>() {
+                        @Override
+                        ClassNode parse() {
+                            try {
+                                ClassReader reader = new ClassReader(entry.bytes);
+                                ClassNode classNode = new ClassNode();
+                                // None of the checks look at the stack map frames
+                                reader.accept(classNode, ClassReader.SKIP_FRAMES);
+                                return classNode;
+                            } catch (Throwable t) {
+                                mClient.log(null, "Error processing %1$s: broken class file?",
+                                        entry.path());
+                                return null;
+                            }
+                        }
+                    });
+                }
+                ParseQueue<ClassNode> queue = createParseQueue(tasks);
                 for (ClassEntry entry : entries) {
-                    ClassReader reader;
-                    ClassNode classNode;
-                    try {
-                        reader = new ClassReader(entry.bytes);
-                        classNode = new ClassNode();
-                        reader.accept(classNode, 0 /* flags */);
-                    } catch (Throwable t) {
-                        mClient.log(null, "Error processing %1$s: broken class file?",
-                                entry.path());
+                    ClassNode classNode = queue.take();
+                    if (classNode == null) {
                         continue;
                     }
 
@@ -1052,12 +1360,31 @@ public class LintDriver {
                         continue;
                     }
 
+                    // The outer classes are always parsed, since inner classes may need them
+                    AsmVisitor classVisitor = visitor;
+                    if (scope == Scope.CLASS_FILE && entry.jarFile == null
+                            && isUnchanged(entry.file)) {
+                        if (uncachedDetectors.isEmpty()) {
+                            classVisitor = null;
+                        } else if (uncachedVisitor == null) {
+                            uncachedVisitor = new AsmVisitor(uncachedDetectors);
+                            classVisitor = uncachedVisitor;
+                        } else {
+                            classVisitor = uncachedVisitor;
+                        }
+                    }
+
                     ClassContext context = new ClassContext(this, project, main,
                             entry.file, entry.jarFile, entry.binDir, entry.bytes,
                             classNode, scope == Scope.JAVA_LIBRARIES /*fromLibrary*/);
-                    runClassDetectors(context, classDetectors);
+                    beginCachedFile(context);
+                    if (classVisitor != null) {
+                        runClassDetectors(context, classVisitor);
+                    }
+                    endCachedFile(context);
 
                     if (mCanceled) {
+                        queue.cancel();
                         return;
                     }
                 }
@@ -1088,47 +1415,64 @@ public class LintDriver {
         return null;
     }
 
-    private Map<String, String> getSuperMap(List<ClassEntry> libraryEntries,
-            List<ClassEntry> classEntries) {
-        int size = libraryEntries.size() + classEntries.size();
-        Map<String, String> map = new HashMap<String, String>(size);
-
-        SuperclassVisitor visitor = new SuperclassVisitor(map);
-        addSuperClasses(visitor, libraryEntries);
-        addSuperClasses(visitor, classEntries);
-
-        return map;
-    }
-
-    private void addSuperClasses(SuperclassVisitor visitor, List<ClassEntry> entries) {
-        for (ClassEntry entry : entries) {
-            try {
-                ClassReader reader = new ClassReader(entry.bytes);
-                int flags = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG
-                        | ClassReader.SKIP_FRAMES;
-                reader.accept(visitor, flags);
-            } catch (Throwable t) {
-                mClient.log(null, "Error processing %1$s: broken class file?", entry.path());
-            }
+    private boolean hasDetectors(@NonNull Scope scope) {
+        if (!mScope.contains(scope)) {
+            return false;
         }
+        List<Detector> detectors = mScopeDetectors.get(scope);
+        return detectors != null && detectors.size() > 0;
     }
 
-    /** Visitor skimming classes and initializing a map of super classes */
-    private static class SuperclassVisitor extends ClassVisitor {
-        private final Map<String, String> mMap;
-
-        public SuperclassVisitor(Map<String, String> map) {
-            super(ASM4);
-            mMap = map;
+    /**
+     * Initializes the super class maps used by {@link #getSuperClass(String)}
+     *
+     * @param libraries the class path entries of the libraries
+     * @param libraryEntries the library classes, if they have been read
+     * @param classEntries the project classes
+     */
+    private void initSuperClasses(
+            @NonNull List<File> libraries,
+            @NonNull List<ClassEntry> libraryEntries,
+            @NonNull List<ClassEntry> classEntries) {
+        mLibrarySuperClasses = new ArrayList<Map<String, String>>(libraries.size());
+        List<File> libraryFolders = null;
+        for (File library : libraries) {
+            if (library.getName().endsWith(DOT_JAR)) {
+                Map<String, String> map = ClassIndex.getSuperClasses(mClient, library);
+                if (map != null) {
+                    mLibrarySuperClasses.add(map);
+                }
+            } else {
+                if (libraryFolders == null) {
+                    libraryFolders = new ArrayList<File>();
+                }
+                libraryFolders.add(library);
+            }
         }
 
-        @Override
-        public void visit(int version, int access, String name, String signature, String superName,
-                String[] interfaces) {
-            if (superName != null) {
-                mMap.put(name, superName);
+        Map<String, String> map = new HashMap<String, String>(classEntries.size());
+        ClassIndex.SuperclassVisitor visitor = new ClassIndex.SuperclassVisitor(map);
+        if (libraryFolders != null) {
+            // Library class folders are not indexed, since they belong to a single
+            // project and are typically rebuilt along with it
+            List<ClassEntry> folderEntries;
+            if (libraryEntries.isEmpty()) {
+                folderEntries = new ArrayList<ClassEntry>();
+                findClasses(folderEntries, libraryFolders);
+            } else {
+                folderEntries = libraryEntries;
+            }
+            for (ClassEntry entry : folderEntries) {
+                if (entry.jarFile == null) {
+                    visitor.skim(mClient, entry.bytes, entry.path());
+                }
             }
         }
+        for (ClassEntry entry : classEntries) {
+            visitor.skim(mClient, entry.bytes, entry.path());
+        }
+
+        mSuperClassMap = map;
     }
 
     private void findClasses(
@@ -1196,24 +1540,10 @@ public class LintDriver {
         }
     }
 
-    private void runClassDetectors(ClassContext context, @NonNull List<Detector> checks) {
+    private void runClassDetectors(ClassContext context, @NonNull AsmVisitor visitor) {
         try {
-            File file = context.file;
-            ClassNode classNode = context.getClassNode();
-            for (Detector detector : checks) {
-                if (detector.appliesTo(context, file)) {
-                    fireEvent(EventType.SCANNING_FILE, context);
-                    detector.beforeCheckFile(context);
-
-                    Detector.ClassScanner scanner = (Detector.ClassScanner) detector;
-                    scanner.checkClass(context, classNode);
-                    detector.afterCheckFile(context);
-                }
-
-                if (mCanceled) {
-                    return;
-                }
-            }
+            fireEvent(EventType.SCANNING_FILE, context);
+            visitor.runClassDetectors(context, context.file);
         } catch (Exception e) {
             mClient.log(e, null);
         }
@@ -1253,15 +1583,7 @@ public class LintDriver {
             gatherJavaFiles(folder, sources);
         }
         if (sources.size() > 0) {
-            JavaVisitor visitor = new JavaVisitor(javaParser, checks);
-            for (File file : sources) {
-                JavaContext context = new JavaContext(this, project, main, file);
-                fireEvent(EventType.SCANNING_FILE, context);
-                visitor.visitFile(context, file);
-                if (mCanceled) {
-                    return;
-                }
-            }
+            visitJavaFiles(project, main, javaParser, checks, sources);
         }
     }
 
@@ -1277,20 +1599,83 @@ public class LintDriver {
             return;
         }
 
-        JavaVisitor visitor = new JavaVisitor(javaParser, checks);
-
+        List<File> sources = new ArrayList<File>(files.size());
         for (File file : files) {
             if (file.isFile() && file.getPath().endsWith(DOT_JAVA)) {
-                JavaContext context = new JavaContext(this, project, main, file);
-                fireEvent(EventType.SCANNING_FILE, context);
-                visitor.visitFile(context, file);
-                if (mCanceled) {
-                    return;
+                sources.add(file);
+            }
+        }
+        visitJavaFiles(project, main, javaParser, checks, sources);
+    }
+
+    private void visitJavaFiles(
+            @NonNull Project project,
+            @Nullable Project main,
+            @NonNull IJavaParser javaParser,
+            @NonNull List<Detector> checks,
+            @NonNull List<File> sources) {
+        JavaVisitor visitor = new JavaVisitor(javaParser, checks);
+        JavaVisitor uncachedVisitor = null;
+        if (mCacheResults != null) {
+            List<Detector> uncached = getUncachedDetectors(checks);
+            if (uncached.size() > 0) {
+                uncachedVisitor = new JavaVisitor(javaParser, uncached);
+            }
+        }
+
+        List<JavaContext> contexts = new ArrayList<JavaContext>(sources.size());
+        List<JavaVisitor> fileVisitors = new ArrayList<JavaVisitor>(sources.size());
+        List<ParseQueue.Task<Node>> tasks =
+                new ArrayList<ParseQueue.Task<Node>>(sources.size());
+        for (File file : sources) {
+            final JavaContext context = new JavaContext(this, project, main, file);
+            final JavaVisitor fileVisitor = isUnchanged(file) ? uncachedVisitor : visitor;
+            contexts.add(context);
+            fileVisitors.add(fileVisitor);
+            if (fileVisitor != null) {
+                tasks.add(new ParseQueue.Task<Node>() {
+                    @Override
+                    Node parse() {
+                        return fileVisitor.parse(context);
+                    }
+
+                    @Override
+                    void dispose(@NonNull Node compilationUnit) {
+                        fileVisitor.dispose(context, compilationUnit);
+                    }
+                });
+            }
+        }
+
+        ParseQueue<Node> queue = createParseQueue(tasks);
+        for (int i = 0, n = contexts.size(); i < n; i++) {
+            JavaContext context = contexts.get(i);
+            JavaVisitor fileVisitor = fileVisitors.get(i);
+            fireEvent(EventType.SCANNING_FILE, context);
+            beginCachedFile(context);
+            if (fileVisitor != null) {
+                context.compilationUnit = queue.take();
+                if (context.compilationUnit != null) {
+                    fileVisitor.visitFile(context, context.file);
                 }
             }
+            endCachedFile(context);
+
+            // Only keep the files in the parsing window alive
+            context.compilationUnit = null;
+            contexts.set(i, null);
+            if (mCanceled) {
+                queue.cancel();
+                return;
+            }
         }
     }
 
+    /** Creates a queue parsing the given files on the parsing threads, if any */
+    private <T> ParseQueue<T> createParseQueue(@NonNull List<? extends ParseQueue.Task<T>> tasks) {
+        return new ParseQueue<T>(this, mParseExecutor, mThreadCount, tasks);
+    }
+
     private void gatherJavaFiles(@NonNull File dir, @NonNull List<File> result) {
         File[] files = dir.listFiles();
         if (files != null) {
@@ -1343,6 +1728,26 @@ public class LintDriver {
         return mCurrentVisitor;
     }
 
+    /** Returns a visitor for the detectors whose results are not cached, if any */
+    @Nullable
+    private XmlVisitor getUncachedVisitor(
+            @NonNull ResourceFolderType type,
+            @NonNull List<ResourceXmlDetector> checks) {
+        List<ResourceXmlDetector> applicableChecks =
+                new ArrayList<ResourceXmlDetector>(checks.size());
+        for (ResourceXmlDetector check : getUncachedDetectors(checks)) {
+            if (check.appliesTo(type)) {
+                applicableChecks.add(check);
+            }
+        }
+        if (applicableChecks.size() == 0) {
+            return null;
+        }
+
+        IDomParser parser = mClient.getDomParser();
+        return parser != null ? new XmlVisitor(parser, applicableChecks) : null;
+    }
+
     private void checkResFolder(
             @NonNull Project project,
             @Nullable Project main,
@@ -1382,16 +1787,59 @@ public class LintDriver {
         if (xmlFiles != null && xmlFiles.length > 0) {
             XmlVisitor visitor = getVisitor(type, checks);
             if (visitor != null) { // if not, there are no applicable rules in this folder
+                XmlVisitor uncachedVisitor = null;
+                if (mCacheResults != null) {
+                    uncachedVisitor = getUncachedVisitor(type, checks);
+                }
+
+                List<XmlContext> contexts = new ArrayList<XmlContext>(xmlFiles.length);
+                List<XmlVisitor> fileVisitors = new ArrayList<XmlVisitor>(xmlFiles.length);
+                List<ParseQueue.Task<Document>> tasks =
+                        new ArrayList<ParseQueue.Task<Document>>(xmlFiles.length);
                 for (File file : xmlFiles) {
                     if (LintUtils.isXmlFile(file)) {
-                        XmlContext context = new XmlContext(this, project, main, file, type);
-                        fireEvent(EventType.SCANNING_FILE, context);
-                        visitor.visitFile(context, file);
-                        if (mCanceled) {
-                            return;
+                        final XmlContext context = new XmlContext(this, project, main, file, type);
+                        final XmlVisitor fileVisitor =
+                                isUnchanged(file) ? uncachedVisitor : visitor;
+                        contexts.add(context);
+                        fileVisitors.add(fileVisitor);
+                        if (fileVisitor != null) {
+                            tasks.add(new ParseQueue.Task<Document>() {
+                                @Override
+                                Document parse() {
+                                    return fileVisitor.parse(context);
+                                }
+
+                                @Override
+                                void dispose(@NonNull Document document) {
+                                    fileVisitor.dispose(context, document);
+                                }
+                            });
                         }
                     }
                 }
+
+                ParseQueue<Document> queue = createParseQueue(tasks);
+                for (int i = 0, n = contexts.size(); i < n; i++) {
+                    XmlContext context = contexts.get(i);
+                    XmlVisitor fileVisitor = fileVisitors.get(i);
+                    fireEvent(EventType.SCANNING_FILE, context);
+                    beginCachedFile(context);
+                    if (fileVisitor != null) {
+                        context.document = queue.take();
+                        if (context.document != null) {
+                            fileVisitor.visitFile(context, context.file);
+                        }
+                    }
+                    endCachedFile(context);
+
+                    // Only keep the files in the parsing window alive
+                    contexts.set(i, null);
+                    if (mCanceled) {
+                        queue.cancel();
+                        return;
+                    }
+                }
             }
         }
     }
@@ -1491,6 +1939,14 @@ public class LintDriver {
                 @Nullable Location location,
                 @NonNull String message,
                 @Nullable Object data) {
+            if (mCachedFile != null && mCachedDetectors.contains(issue.getDetectorClass())) {
+                if (mCachedFileUnchanged) {
+                    // Already reported from the cache
+                    return;
+                }
+                mCacheResults.addReport(mCachedFile, issue, severity, location, message, data);
+            }
+
             Configuration configuration = context.getConfiguration();
             if (!configuration.isEnabled(issue)) {
                 if (issue != IssueRegistry.PARSER_ERROR && issue != IssueRegistry.LINT_ERROR) {
@@ -1521,9 +1977,17 @@ public class LintDriver {
 
 
         @Override
-        public void log(@NonNull Severity severity, @Nullable Throwable exception,
-                @Nullable String format, @Nullable Object... args) {
-            mDelegate.log(exception, format, args);
+        public void log(@NonNull Severity severity, @Nullable final Throwable exception,
+                @Nullable final String format, @Nullable final Object... args) {
+            boolean deferred = defer(new Runnable() {
+                @Override
+                public void run() {
+                    mDelegate.log(exception, format, args);
+                }
+            });
+            if (!deferred) {
+                mDelegate.log(exception, format, args);
+            }
         }
 
         @Override
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a list of files ahead of the detectors, and hands back the results in
+ * list order.
+ * <p>
+ * When the driver has a parsing thread pool, up to a few files per thread are
+ * parsed concurrently. Any reports and log messages made while parsing a file
+ * are held back and replayed on the lint thread when that file is taken, so
+ * the output is the same as when the files are parsed one at a time. Without
+ * a thread pool, each file is simply parsed when it is taken.
+ * <p>
+ * The queue lets go of each task once it has been handed to a parsing thread
+ * or run, so callers which also drop their own references to a file's context
+ * after visiting it only keep the files in the lookahead window in memory.
+ * <p>
+ * When the queue is canceled, or when a parse fails, the files which were
+ * already parsed ahead but not taken are disposed with {@link Task#dispose}.
+ *
+ * @param <T> the type of the parse results
+ */
+class ParseQueue<T> {
+    /** Number of files parsed ahead per parsing thread */
+    private static final int LOOKAHEAD_PER_THREAD = 4;
+
+    /** Parses a single file */
+    abstract static class Task<T> {
+        /** Parses the file, returning null if it could not be parsed */
+        @Nullable
+        abstract T parse();
+
+        /**
+         * Releases the result of {@link #parse()} when it is not taken, for
+         * example because the queue was canceled
+         *
+         * @param result the parse result
+         */
+        void dispose(@NonNull T result) {
+        }
+    }
+
+    private final LintDriver mDriver;
+    private final ExecutorService mExecutor;
+    /** The tasks, each of which is released once it has been submitted or run */
+    private final List<Task<T>> mTasks;
+    private final Deque<Future<Result<T>>> mPending = new ArrayDeque<Future<Result<T>>>();
+    private final int mLookahead;
+    private int mSubmitted;
+    private int mTaken;
+    /** Set once canceled, such that the files not parsed yet are skipped */
+    private volatile boolean mCanceled;
+
+    ParseQueue(
+            @NonNull LintDriver driver,
+            @Nullable ExecutorService executor,
+            int threadCount,
+            @NonNull List<? extends Task<T>> tasks) {
+        mDriver = driver;
+        mExecutor = executor;
+        mTasks = new ArrayList<Task<T>>(tasks);
+        mLookahead = Math.max(1, threadCount * LOOKAHEAD_PER_THREAD);
+    }
+
+    /**
+     * Returns the result of the next task in the list, parsing it now if it has
+     * not been parsed ahead
+     *
+     * @return the parse result, possibly null
+     */
+    @Nullable
+    T take() {
+        assert mTaken < mTasks.size();
+        if (mExecutor == null) {
+            return mTasks.set(mTaken++, null).parse();
+        }
+
+        while (mSubmitted < mTasks.size() && mPending.size() < mLookahead) {
+            Task<T> task = mTasks.set(mSubmitted++, null);
+            mPending.add(mExecutor.submit(new ParseCall(task)));
+        }
+        mTaken++;
+
+        Result<T> result = getUninterruptibly(mPending.poll());
+        for (Runnable call : result.mDeferredCalls) {
+            call.run();
+        }
+        if (result.mFailure != null) {
+            // The caller won't take the files parsed ahead
+            cancel();
+        }
+        if (result.mFailure instanceof RuntimeException) {
+            throw (RuntimeException) result.mFailure;
+        } else if (result.mFailure instanceof Error) {
+            throw (Error) result.mFailure;
+        }
+
+        return result.mValue;
+    }
+
+    /**
+     * Cancels the parsing of the files which have not been taken yet, and
+     * disposes those which were already parsed. This waits for the files being
+     * parsed to be done.
+     */
+    void cancel() {
+        // Not Future#cancel: it doesn't wait for a running parse, whose result
+        // would then never be disposed
+        mCanceled = true;
+        for (Future<Result<T>> future : mPending) {
+            Result<T> result = getUninterruptibly(future);
+            if (result.mValue != null) {
+                result.mTask.dispose(result.mValue);
+            }
+        }
+        mPending.clear();
+        for (int i = mSubmitted, n = mTasks.size(); i < n; i++) {
+            mTasks.set(i, null);
+        }
+        mSubmitted = mTaken = mTasks.size();
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    // ParseCall catches everything
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** The outcome of a task run on a parsing thread */
+    private static class Result<T> {
+        private final Task<T> mTask;
+        private final T mValue;
+        private final Throwable mFailure;
+        private final List<Runnable> mDeferredCalls;
+
+        private Result(Task<T> task, T value, Throwable failure,
+                List<Runnable> deferredCalls) {
+            mTask = task;
+            mValue = value;
+            mFailure = failure;
+            mDeferredCalls = deferredCalls;
+        }
+    }
+
+    /**
+     * Runs a task on a parsing thread, deferring its reports and log messages.
+     * The task is skipped if the queue was canceled.
+     */
+    private class ParseCall implements Callable<Result<T>> {
+        private final Task<T> mTask;
+
+        private ParseCall(Task<T> task) {
+            mTask = task;
+        }
+
+        @Override
+        public Result<T> call() {
+            List<Runnable> deferredCalls = new ArrayList<Runnable>();
+            if (mCanceled) {
+                return new Result<T>(mTask, null, null, deferredCalls);
+            }
+            mDriver.setDeferredCalls(deferredCalls);
+            try {
+                return new Result<T>(mTask, mTask.parse(), null, deferredCalls);
+            } catch (Throwable t) {
+                return new Result<T>(mTask, null, t, deferredCalls);
+            } finally {
+                mDriver.setDeferredCalls(null);
+            }
+        }
+    }
+}
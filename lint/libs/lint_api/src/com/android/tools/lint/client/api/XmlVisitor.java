@@ -17,6 +17,7 @@
 package com.android.tools.lint.client.api;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Detector.XmlScanner;
 import com.android.tools.lint.detector.api.LintUtils;
@@ -24,6 +25,7 @@ import com.android.tools.lint.detector.api.XmlContext;
 import com.google.common.annotations.Beta;
 
 import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
@@ -118,6 +120,21 @@ class XmlVisitor {
         }
     }
 
+    /**
+     * Parses the given file without visiting it, such that the document can be
+     * parsed on another thread ahead of {@link #visitFile}
+     */
+    @Nullable
+    Document parse(@NonNull XmlContext context) {
+        context.parser = mParser;
+        return mParser.parseXml(context);
+    }
+
+    /** Disposes a document returned by {@link #parse} which is not visited */
+    void dispose(@NonNull XmlContext context, @NonNull Document document) {
+        mParser.dispose(context, document);
+    }
+
     void visitFile(@NonNull XmlContext context,@NonNull  File file) {
         assert LintUtils.isXmlFile(file);
         context.parser = mParser;
@@ -131,10 +148,10 @@ class XmlVisitor {
                     // with details, location, etc.
                     return;
                 }
-                if (context.document.getDocumentElement() == null) {
-                    // Ignore empty documents
-                    return;
-                }
+            }
+            if (context.document.getDocumentElement() == null) {
+                // Ignore empty documents
+                return;
             }
 
             for (Detector check : mAllDetectors) {
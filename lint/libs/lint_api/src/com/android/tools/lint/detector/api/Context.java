@@ -253,6 +253,24 @@ public class Context {
      * @param data any associated data, or null
      */
     public void report(
+            @NonNull final Issue issue,
+            @Nullable final Location location,
+            @NonNull final String message,
+            @Nullable final Object data) {
+        // Reports made while parsing ahead on a parsing thread, such as parser
+        // errors, are made on the lint thread when the detectors reach this file
+        boolean deferred = mDriver.defer(new Runnable() {
+            @Override
+            public void run() {
+                doReport(issue, location, message, data);
+            }
+        });
+        if (!deferred) {
+            doReport(issue, location, message, data);
+        }
+    }
+
+    private void doReport(
             @NonNull Issue issue,
             @Nullable Location location,
             @NonNull String message,
@@ -21,7 +21,9 @@ import com.android.annotations.Nullable;
 import com.android.tools.lint.client.api.LintDriver;
 import com.google.common.annotations.Beta;
 
+import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -196,13 +198,45 @@ public abstract class Detector {
     /** Specialized interface for detectors that scan Java class files */
     public interface ClassScanner  {
         /**
-         * Checks the given class' bytecode for issues.
+         * Checks the given class' bytecode for issues. This is only called for
+         * scanners which return null from {@link #getApplicableAsmNodeTypes()}.
          *
          * @param context the context of the lint check, pointing to for example
          *            the file
          * @param classNode the root class node
          */
         void checkClass(@NonNull ClassContext context, @NonNull ClassNode classNode);
+
+        /**
+         * Returns the types of instructions, as defined by the type constants in
+         * {@link AbstractInsnNode} such as {@link AbstractInsnNode#METHOD_INSN},
+         * that this scanner should be passed in
+         * {@link #checkInstruction(ClassContext, ClassNode, MethodNode, AbstractInsnNode)}.
+         * <p>
+         * This is more efficient than iterating over the methods in
+         * {@link #checkClass(ClassContext, ClassNode)}, since the instructions
+         * of each class are then iterated once for all the scanners.
+         * <p>
+         * If you return null from this method, then
+         * {@link #checkClass(ClassContext, ClassNode)} is called instead.
+         *
+         * @return the applicable instruction types, or null
+         */
+        @Nullable
+        int[] getApplicableAsmNodeTypes();
+
+        /**
+         * Checks the given instruction for issues. This is called for each
+         * instruction of a type returned by {@link #getApplicableAsmNodeTypes()}.
+         *
+         * @param context the context of the lint check, pointing to for example
+         *            the file
+         * @param classNode the root class node
+         * @param method the method containing the instruction
+         * @param instruction the instruction
+         */
+        void checkInstruction(@NonNull ClassContext context, @NonNull ClassNode classNode,
+                @NonNull MethodNode method, @NonNull AbstractInsnNode instruction);
     }
 
     /** Specialized interface for detectors that scan XML files */
@@ -276,6 +310,34 @@ public abstract class Detector {
         // We want to distinguish this from just an *empty* list returned by the caller!
     }
 
+    /**
+     * Specialized interface for detectors which gather facts from each file and
+     * only report in {@link Detector#afterCheckProject(Context)}. When the
+     * driver has a {@link com.android.tools.lint.client.api.LintCache}, the
+     * facts of each file are stored, and for files which have not changed
+     * they are replayed instead of visiting the file again.
+     */
+    public interface FileFactScanner {
+        /**
+         * Returns the facts gathered from the file which was just checked
+         * (called after {@link Detector#afterCheckFile(Context)}).
+         *
+         * @param context the context of the file
+         * @return the facts, or null if this detector did not check the file
+         */
+        @Nullable
+        List<String> getFileFacts(@NonNull Context context);
+
+        /**
+         * Replays the facts previously returned by {@link #getFileFacts} for a
+         * file which has not changed since; the file itself is not visited.
+         *
+         * @param context the context of the file
+         * @param facts the facts stored for the file
+         */
+        void replayFileFacts(@NonNull Context context, @NonNull List<String> facts);
+    }
+
     /**
      * Runs the detector. This method will not be called for certain specialized
      * detectors, such as {@link XmlScanner} and {@link JavaScanner}, where
@@ -454,4 +516,14 @@ public abstract class Detector {
     @SuppressWarnings("javadoc")
     public void checkClass(@NonNull ClassContext context, @NonNull ClassNode classNode) {
     }
+
+    @Nullable @SuppressWarnings("javadoc")
+    public int[] getApplicableAsmNodeTypes() {
+        return null;
+    }
+
+    @SuppressWarnings("javadoc")
+    public void checkInstruction(@NonNull ClassContext context, @NonNull ClassNode classNode,
+            @NonNull MethodNode method, @NonNull AbstractInsnNode instruction) {
+    }
 }
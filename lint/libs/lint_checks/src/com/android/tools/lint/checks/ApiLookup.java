@@ -30,7 +30,6 @@ import com.google.common.primitives.UnsignedBytes;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
@@ -53,10 +52,10 @@ import java.util.Set;
  * The {@link Api} class provides access to the full Android API along with version
  * information, initialized from an XML file. This lookup class adds a binary cache around
  * the API to make initialization faster and to require fewer objects. It creates
- * a binary cache data structure, which fits in a single byte array, which means that
- * to open the database you can just read in the byte array and go. On one particular
- * machine, this takes about 30-50 ms versus 600-800ms for the full parse. It also
- * helps memory by placing everything in a compact byte array instead of needing separate
+ * a binary cache data structure, which fits in a single file that is memory mapped and
+ * queried in place, which means that opening the database only needs to check the file
+ * header, versus 600-800ms for the full parse. It also helps memory by keeping
+ * everything in a compact mapped file outside of the heap instead of needing separate
  * strings (2 bytes per character in a char[] for the 25k method entries, 11k field entries
  * and 6k class entries) - and it also avoids the same number of Map.Entry objects.
  * When creating the memory data structure it performs a few other steps to help memory:
@@ -84,13 +83,19 @@ public class ApiLookup {
     private final File mXmlFile;
     private final File mBinaryFile;
     private final Api mInfo;
-    private byte[] mData;
-    private int[] mIndices;
+    /** The mapped database file, or null when not using a binary cache */
+    private ByteBuffer mData;
+    /** Position of the class and member offset tables in {@link #mData} */
+    private int mIndexOffset;
     private int mClassCount;
     private int mMethodCount;
 
-    private static WeakReference<ApiLookup> sInstance =
-            new WeakReference<ApiLookup>(null);
+    /**
+     * The shared database. Since the data is memory mapped rather than read
+     * into the heap, it is kept for the lifetime of the VM rather than
+     * reloaded whenever it is garbage collected.
+     */
+    private static ApiLookup sInstance;
 
     /**
      * Returns an instance of the API database
@@ -105,7 +110,7 @@ public class ApiLookup {
      */
     public static ApiLookup get(LintClient client) {
         synchronized (ApiLookup.class) {
-            ApiLookup db = sInstance.get();
+            ApiLookup db = sInstance;
             if (db == null) {
                 File file = client.findResource(XML_FILE_PATH);
                 if (file == null) {
@@ -123,7 +128,7 @@ public class ApiLookup {
                 } else {
                     db = get(client, file);
                 }
-                sInstance = new WeakReference<ApiLookup>(db);
+                sInstance = db;
             }
 
             return db;
@@ -244,11 +249,10 @@ public class ApiLookup {
      *      followed by the JVM method/field signature, encoded as UTF-8, followed by a 0 byte
      *      signature terminator, followed by the API level as a byte.
      * <p>
-     * TODO: Pack the offsets: They increase by a small amount for each entry, so no need
-     * to spend 4 bytes on each. These will need to be processed when read back in anyway,
-     * so consider storing the offset -deltas- as single bytes and adding them up cumulatively
-     * in readData().
      * </pre>
+     * The file is memory mapped and the lookup methods read the offset tables and
+     * the entries straight from the mapped buffer, using absolute reads only, such
+     * that a single instance can be queried from multiple threads.
      */
     private void readData() {
         if (!mBinaryFile.exists()) {
@@ -284,30 +288,13 @@ public class ApiLookup {
             mClassCount = buffer.getInt();
             mMethodCount = buffer.getInt();
 
-            // Read in the class table indices;
-            int count = mClassCount + mMethodCount;
-            int[] offsets = new int[count];
-
-            // Another idea: I can just store the DELTAS in the file (and add them up
-            // when reading back in) such that it takes just ONE byte instead of four!
-
-            for (int i = 0; i < count; i++) {
-                offsets[i] = buffer.getInt();
+            // The offset tables follow; they are read on demand by getIndex()
+            mIndexOffset = buffer.position();
+            if (mIndexOffset + 4 * (mClassCount + mMethodCount) > buffer.limit()) {
+                mClient.log(null, "Truncated API database cache file %1$s", mBinaryFile);
+                return;
             }
-
-            // No need to read in the rest -- we'll just keep the whole byte array in memory
-            // TODO: Make this code smarter/more efficient.
-            int size = buffer.limit();
-            byte[] b = new byte[size];
-            buffer.rewind();
-            buffer.get(b);
-            mData = b;
-            mIndices = offsets;
-
-            // TODO: We only need to keep the data portion here since we've initialized
-            // the offset array separately.
-            // TODO: Investigate (profile) accessing the byte buffer directly instead of
-            // accessing a byte array.
+            mData = buffer;
         } catch (IOException e) {
             mClient.log(e, null);
         }
@@ -315,8 +302,8 @@ public class ApiLookup {
             long end = System.currentTimeMillis();
             System.out.println("\nRead API database in " + (end - start)
                     + " milliseconds.");
-            System.out.println("Size of data table: " + mData.length + " bytes ("
-                    + Integer.toString(mData.length/1024) + "k)\n");
+            System.out.println("Size of data table: " + mData.limit() + " bytes ("
+                    + Integer.toString(mData.limit()/1024) + "k)\n");
         }
     }
 
@@ -531,11 +518,11 @@ public class ApiLookup {
     private String dumpEntry(int offset) {
         if (DEBUG_SEARCH) {
             StringBuilder sb = new StringBuilder();
-            for (int i = offset; i < mData.length; i++) {
-                if (mData[i] == 0) {
+            for (int i = offset; i < mData.limit(); i++) {
+                if (mData.get(i) == 0) {
                     break;
                 }
-                char c = (char) UnsignedBytes.toInt(mData[i]);
+                char c = (char) UnsignedBytes.toInt(mData.get(i));
                 sb.append(c);
             }
 
@@ -545,11 +532,17 @@ public class ApiLookup {
         }
     }
 
-    private static int compare(byte[] data, int offset, byte terminator, String s, int max) {
+    /** Returns the offset of the entry with the given class or member index */
+    private int getIndex(int index) {
+        return mData.getInt(mIndexOffset + 4 * index);
+    }
+
+    private static int compare(ByteBuffer data, int offset, byte terminator, String s,
+            int max) {
         int i = offset;
         int j = 0;
         for (; j < max; i++, j++) {
-            byte b = data[i];
+            byte b = data.get(i);
             char c = s.charAt(j);
             // TODO: Check somewhere that the strings are purely in the ASCII range; if not
             // they're not a match in the database
@@ -560,7 +553,7 @@ public class ApiLookup {
             }
         }
 
-        return data[i] - terminator;
+        return data.get(i) - terminator;
     }
 
     /**
@@ -599,12 +592,12 @@ public class ApiLookup {
         if (mData != null) {
             int classNumber = findClass(className);
             if (classNumber != -1) {
-                int offset = mIndices[classNumber];
-                while (mData[offset] != 0) {
+                int offset = getIndex(classNumber);
+                while (mData.get(offset) != 0) {
                     offset++;
                 }
                 offset++;
-                return UnsignedBytes.toInt(mData[offset]);
+                return UnsignedBytes.toInt(mData.get(offset));
             }
         }  else {
            ApiClass clz = mInfo.getClass(className);
@@ -706,13 +699,13 @@ public class ApiLookup {
     private int findClass(@NonNull String owner) {
         assert owner.indexOf('.') == -1 : "Should use / instead of . in owner: " + owner;
 
-        // The index array contains class indexes from 0 to classCount and
-        //   member indices from classCount to mIndices.length.
+        // The index table contains class indexes from 0 to classCount and
+        //   member indices from classCount to classCount + methodCount.
         int low = 0;
         int high = mClassCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getIndex(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + owner +" with entry at " + offset
@@ -740,13 +733,13 @@ public class ApiLookup {
     }
 
     private int findMember(int classNumber, @NonNull String name, @Nullable String desc) {
-        // The index array contains class indexes from 0 to classCount and
-        // member indices from classCount to mIndices.length.
+        // The index table contains class indexes from 0 to classCount and
+        // member indices from classCount to classCount + methodCount.
         int low = mClassCount;
-        int high = mIndices.length - 1;
+        int high = mClassCount + mMethodCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getIndex(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + (name + ';' + desc) +
@@ -754,7 +747,8 @@ public class ApiLookup {
             }
 
             // Check class number: read short. The byte data is always big endian.
-            int entryClass = (mData[offset++] & 0xFF) << 8 | (mData[offset++] & 0xFF);
+            int entryClass = mData.getShort(offset) & 0xFFFF;
+            offset += 2;
             int compare = entryClass - classNumber;
             if (compare == 0) {
                 if (desc != null) {
@@ -770,9 +764,9 @@ public class ApiLookup {
                         if (compare == 0) {
                             offset += argsEnd + 1;
 
-                            if (mData[offset++] == 0) {
+                            if (mData.get(offset++) == 0) {
                                 // Yes, terminated argument list: get the API level
-                                return UnsignedBytes.toInt(mData[offset]);
+                                return UnsignedBytes.toInt(mData.get(offset));
                             }
                         }
                     }
@@ -782,9 +776,9 @@ public class ApiLookup {
                     compare = compare(mData, offset, (byte) 0, name, nameLength);
                     if (compare == 0) {
                         offset += nameLength;
-                        if (mData[offset++] == 0) {
+                        if (mData.get(offset++) == 0) {
                             // Yes, terminated argument list: get the API level
-                            return UnsignedBytes.toInt(mData[offset]);
+                            return UnsignedBytes.toInt(mData.get(offset));
                         }
                     }
                 }
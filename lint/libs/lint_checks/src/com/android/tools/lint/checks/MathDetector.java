@@ -30,13 +30,11 @@ import com.android.tools.lint.detector.api.Speed;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
 import java.io.File;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Set;
 
 /**
@@ -80,51 +78,44 @@ public class MathDetector extends Detector implements Detector.ClassScanner {
 
     // ---- Implements ClassScanner ----
 
-    @SuppressWarnings("rawtypes")
     @Override
-    public void checkClass(@NonNull ClassContext context, @NonNull ClassNode classNode) {
-        List methodList = classNode.methods;
-        for (Object m : methodList) {
-            MethodNode method = (MethodNode) m;
-            InsnList nodes = method.instructions;
-            for (int i = 0, n = nodes.size(); i < n; i++) {
-                AbstractInsnNode instruction = nodes.get(i);
-                int type = instruction.getType();
-                if (type == AbstractInsnNode.METHOD_INSN) {
-                    MethodInsnNode node = (MethodInsnNode) instruction;
-                    String name = node.name;
-                    String owner = node.owner;
-
-                    if (sFloatMethods.contains(name)
-                            && owner.equals("java/lang/Math")) { //$NON-NLS-1$
-                        boolean paramFromFloat = getPrevOpcode(nodes, i) == Opcodes.F2D;
-                        boolean returnToFloat = getNextOpcode(nodes, i) == Opcodes.D2F;
-                        if (paramFromFloat || returnToFloat) {
-                            String message;
-                            if (paramFromFloat) {
-                                message = String.format(
-                                        "Use android.util.FloatMath#%1$s() instead of " +
-                                        "java.lang.Math#%1$s to avoid argument float to " +
-                                        "double conversion", name);
-                            } else {
-                                message = String.format(
-                                        "Use android.util.FloatMath#%1$s() instead of " +
-                                        "java.lang.Math#%1$s to avoid double to float return " +
-                                        "value conversion", name);
-                            }
-                            int lineNumber = ClassContext.findLineNumber(instruction);
-                            Location location = context.getLocationForLine(lineNumber, name, null);
-                            context.report(ISSUE, method, location, message, null /*data*/);
-                        }
-                    }
+    public int[] getApplicableAsmNodeTypes() {
+        return new int[] { AbstractInsnNode.METHOD_INSN };
+    }
+
+    @Override
+    public void checkInstruction(@NonNull ClassContext context, @NonNull ClassNode classNode,
+            @NonNull MethodNode method, @NonNull AbstractInsnNode instruction) {
+        MethodInsnNode node = (MethodInsnNode) instruction;
+        String name = node.name;
+        String owner = node.owner;
+
+        if (sFloatMethods.contains(name)
+                && owner.equals("java/lang/Math")) { //$NON-NLS-1$
+            boolean paramFromFloat = getPrevOpcode(instruction) == Opcodes.F2D;
+            boolean returnToFloat = getNextOpcode(instruction) == Opcodes.D2F;
+            if (paramFromFloat || returnToFloat) {
+                String message;
+                if (paramFromFloat) {
+                    message = String.format(
+                            "Use android.util.FloatMath#%1$s() instead of " +
+                            "java.lang.Math#%1$s to avoid argument float to " +
+                            "double conversion", name);
+                } else {
+                    message = String.format(
+                            "Use android.util.FloatMath#%1$s() instead of " +
+                            "java.lang.Math#%1$s to avoid double to float return " +
+                            "value conversion", name);
                 }
+                int lineNumber = ClassContext.findLineNumber(instruction);
+                Location location = context.getLocationForLine(lineNumber, name, null);
+                context.report(ISSUE, method, location, message, null /*data*/);
             }
         }
     }
 
-    private int getPrevOpcode(InsnList nodes, int i) {
-        for (i--; i >= 0; i--) {
-            AbstractInsnNode node = nodes.get(i);
+    private static int getPrevOpcode(AbstractInsnNode node) {
+        for (node = node.getPrevious(); node != null; node = node.getPrevious()) {
             int type = node.getType();
             if (type == AbstractInsnNode.LINE || type == AbstractInsnNode.LABEL) {
                 continue;
@@ -135,9 +126,8 @@ public class MathDetector extends Detector implements Detector.ClassScanner {
         return Opcodes.NOP;
     }
 
-    private int getNextOpcode(InsnList nodes, int i) {
-        for (i++; i < nodes.size(); i++) {
-            AbstractInsnNode node = nodes.get(i);
+    private static int getNextOpcode(AbstractInsnNode node) {
+        for (node = node.getNext(); node != null; node = node.getNext()) {
             int type = node.getType();
             if (type == AbstractInsnNode.LINE || type == AbstractInsnNode.LABEL) {
                 continue;
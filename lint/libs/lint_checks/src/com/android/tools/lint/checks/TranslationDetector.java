@@ -25,10 +25,12 @@ import static com.android.tools.lint.detector.api.LintConstants.TAG_STRING;
 import static com.android.tools.lint.detector.api.LintConstants.TAG_STRING_ARRAY;
 
 import com.android.annotations.NonNull;
+import com.android.annotations.Nullable;
 import com.android.annotations.VisibleForTesting;
 import com.android.resources.ResourceFolderType;
 import com.android.tools.lint.detector.api.Category;
 import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Detector;
 import com.android.tools.lint.detector.api.Issue;
 import com.android.tools.lint.detector.api.Location;
 import com.android.tools.lint.detector.api.ResourceXmlDetector;
@@ -58,7 +60,8 @@ import java.util.regex.Pattern;
  * Checks for incomplete translations - e.g. keys that are only present in some
  * locales but not all.
  */
-public class TranslationDetector extends ResourceXmlDetector {
+public class TranslationDetector extends ResourceXmlDetector
+        implements Detector.FileFactScanner {
     @VisibleForTesting
     static boolean COMPLETE_REGIONS =
             System.getenv("ANDROID_LINT_COMPLETE_REGIONS") != null; //$NON-NLS-1$
@@ -101,6 +104,15 @@ public class TranslationDetector extends ResourceXmlDetector {
     private Set<String> mTranslatedArrays;
     private boolean mIgnoreFile;
     private Map<File, Set<String>> mFileToNames;
+    /** The file whose translated arrays are in {@link #mFileArrays} */
+    private File mArraysFile;
+    /** The translated arrays of the current file, in phase 1 */
+    private List<String> mFileArrays;
+
+    /** Prefix of the file facts which are string names */
+    private static final char NAME_FACT = 'N';
+    /** Prefix of the file facts which are translated array names */
+    private static final char ARRAY_FACT = 'A';
 
     /** Locations for each untranslated string name. Populated during phase 2, if necessary */
     private Map<String, Location> mMissingLocations;
@@ -139,6 +151,8 @@ public class TranslationDetector extends ResourceXmlDetector {
     public void beforeCheckFile(@NonNull Context context) {
         if (context.getPhase() == 1) {
             mNames = new HashSet<String>();
+            mArraysFile = context.file;
+            mFileArrays = new ArrayList<String>();
         }
 
         // Convention seen in various projects
@@ -155,6 +169,51 @@ public class TranslationDetector extends ResourceXmlDetector {
         }
     }
 
+    // ---- Implements FileFactScanner ----
+
+    @Override
+    @Nullable
+    public List<String> getFileFacts(@NonNull Context context) {
+        if (context.getPhase() != 1 || mFileToNames == null) {
+            return null;
+        }
+        Set<String> names = mFileToNames.get(context.file);
+        if (names == null) {
+            return null;
+        }
+        List<String> facts = new ArrayList<String>(names.size());
+        for (String name : names) {
+            facts.add(NAME_FACT + name);
+        }
+        if (context.file.equals(mArraysFile)) {
+            for (String name : mFileArrays) {
+                facts.add(ARRAY_FACT + name);
+            }
+        }
+        return facts;
+    }
+
+    @Override
+    public void replayFileFacts(@NonNull Context context, @NonNull List<String> facts) {
+        if (mFileToNames == null) {
+            return;
+        }
+        Set<String> names = new HashSet<String>();
+        for (String fact : facts) {
+            String name = fact.substring(1);
+            if (fact.charAt(0) == NAME_FACT) {
+                names.add(name);
+            } else {
+                if (mTranslatedArrays == null) {
+                    mTranslatedArrays = new HashSet<String>();
+                }
+                mTranslatedArrays.add(name);
+            }
+        }
+        // Files without strings are recorded too, as they still count as translations
+        mFileToNames.put(context.file, names);
+    }
+
     @Override
     public void afterCheckProject(@NonNull Context context) {
         if (context.getPhase() == 1) {
@@ -165,6 +224,8 @@ public class TranslationDetector extends ResourceXmlDetector {
             checkTranslations(context);
 
             mFileToNames = null;
+            mArraysFile = null;
+            mFileArrays = null;
 
             if (mMissingLocations != null || mExtraLocations != null) {
                 context.getDriver().requestRepeat(this, Scope.ALL_RESOURCES_SCOPE);
@@ -470,6 +531,9 @@ public class TranslationDetector extends ResourceXmlDetector {
                     mTranslatedArrays = new HashSet<String>();
                 }
                 mTranslatedArrays.add(name);
+                if (mFileArrays != null) {
+                    mFileArrays.add(name);
+                }
                 return;
             }
 
@@ -30,7 +30,6 @@ import com.google.common.primitives.UnsignedBytes;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
@@ -65,12 +64,17 @@ public class TypoLookup {
     private final LintClient mClient;
     private final File mXmlFile;
     private final File mBinaryFile;
-    private byte[] mData;
-    private int[] mIndices;
+    /** The mapped database file */
+    private ByteBuffer mData;
+    /** Position of the word offset table in {@link #mData} */
+    private int mIndexOffset;
     private int mWordCount;
 
-    private static WeakReference<TypoLookup> sInstance =
-            new WeakReference<TypoLookup>(null);
+    /**
+     * The shared database. Since the data is memory mapped rather than read
+     * into the heap, it is kept for the lifetime of the VM.
+     */
+    private static TypoLookup sInstance;
 
     /**
      * Returns an instance of the Typo database
@@ -85,7 +89,7 @@ public class TypoLookup {
      */
     public static TypoLookup get(LintClient client) {
         synchronized (TypoLookup.class) {
-            TypoLookup db = sInstance.get();
+            TypoLookup db = sInstance;
             if (db == null) {
                 File file = client.findResource(XML_FILE_PATH);
                 if (file == null) {
@@ -103,7 +107,7 @@ public class TypoLookup {
                 } else {
                     db = get(client, file);
                 }
-                sInstance = new WeakReference<TypoLookup>(db);
+                sInstance = db;
             }
 
             return db;
@@ -237,30 +241,16 @@ public class TypoLookup {
 
             mWordCount = buffer.getInt();
 
-            // Read in the word table indices;
-            int count = mWordCount;
-            int[] offsets = new int[count];
-
-            // Another idea: I can just store the DELTAS in the file (and add them up
-            // when reading back in) such that it takes just ONE byte instead of four!
-
-            for (int i = 0; i < count; i++) {
-                offsets[i] = buffer.getInt();
+            // The word offset table follows; lookups read it (and the words) straight
+            // from the mapped buffer, with absolute reads only so that the database
+            // can be shared between threads
+            mIndexOffset = buffer.position();
+            if (mIndexOffset + 4 * mWordCount > buffer.limit()) {
+                mClient.log(null, "Truncated typo database cache file %1$s", mBinaryFile);
+                mWordCount = 0;
+                return;
             }
-
-            // No need to read in the rest -- we'll just keep the whole byte array in memory
-            // TODO: Make this code smarter/more efficient.
-            int size = buffer.limit();
-            byte[] b = new byte[size];
-            buffer.rewind();
-            buffer.get(b);
-            mData = b;
-            mIndices = offsets;
-
-            // TODO: We only need to keep the data portion here since we've initialized
-            // the offset array separately.
-            // TODO: Investigate (profile) accessing the byte buffer directly instead of
-            // accessing a byte array.
+            mData = buffer;
         } catch (IOException e) {
             mClient.log(e, null);
         }
@@ -268,8 +258,8 @@ public class TypoLookup {
             long end = System.currentTimeMillis();
             System.out.println("\nRead typo database in " + (end - start)
                     + " milliseconds.");
-            System.out.println("Size of data table: " + mData.length + " bytes ("
-                    + Integer.toString(mData.length/1024) + "k)\n");
+            System.out.println("Size of data table: " + mData.limit() + " bytes ("
+                    + Integer.toString(mData.limit()/1024) + "k)\n");
         }
     }
 
@@ -372,11 +362,11 @@ public class TypoLookup {
     private String dumpEntry(int offset) {
         if (DEBUG_SEARCH) {
             StringBuilder sb = new StringBuilder();
-            for (int i = offset; i < mData.length; i++) {
-                if (mData[i] == 0) {
+            for (int i = offset; i < mData.limit(); i++) {
+                if (mData.get(i) == 0) {
                     break;
                 }
-                char c = (char) UnsignedBytes.toInt(mData[i]);
+                char c = (char) UnsignedBytes.toInt(mData.get(i));
                 sb.append(c);
             }
 
@@ -386,12 +376,17 @@ public class TypoLookup {
         }
     }
 
-    private static int compare(byte[] data, int offset, byte terminator, CharSequence s,
+    /** Returns the offset of the entry with the given word index */
+    private int getIndex(int index) {
+        return mData.getInt(mIndexOffset + 4 * index);
+    }
+
+    private static int compare(ByteBuffer data, int offset, byte terminator, CharSequence s,
             int begin, int end) {
         int i = offset;
         int j = begin;
         for (; j < end; i++, j++) {
-            byte b = data[i];
+            byte b = data.get(i);
             char c = s.charAt(j);
             byte cb = (byte) c;
             int delta = b - cb;
@@ -404,7 +399,7 @@ public class TypoLookup {
             }
         }
 
-        return data[i] - terminator;
+        return data.get(i) - terminator;
     }
 
     /**
@@ -425,7 +420,7 @@ public class TypoLookup {
         int high = mWordCount - 1;
         while (low <= high) {
             int middle = (low + high) >>> 1;
-            int offset = mIndices[middle];
+            int offset = getIndex(middle);
 
             if (DEBUG_SEARCH) {
                 System.out.println("Comparing string " + text +" with entry at " + offset
@@ -435,14 +430,14 @@ public class TypoLookup {
             // Compare the word at the given index.
             int compare = compare(mData, offset, (byte) 0, text, begin, end);
             if (compare == 0) {
-                offset = mIndices[middle];
+                offset = getIndex(middle);
 
                 // Make sure there is a case match; we only want to allow
                 // matching capitalized words to capitalized typos or uncapitalized typos
                 //  (e.g. "Teh" and "teh" to "the"), but not uncapitalized words to capitalized
                 // typos (e.g. "enlish" to "Enlish").
                 for (int i = begin; i < end; i++) {
-                    int b = mData[offset++];
+                    int b = mData.get(offset++);
                     char c = text.charAt(i);
                     byte cb = (byte) c;
                     if (b != cb && i > begin) {
@@ -450,11 +445,11 @@ public class TypoLookup {
                     }
                 }
 
-                assert mData[offset] == 0;
+                assert mData.get(offset) == 0;
                 offset++;
                 StringBuilder sb = new StringBuilder();
-                while (mData[offset] != 0) {
-                    sb.append((char) mData[offset]);
+                while (mData.get(offset) != 0) {
+                    sb.append((char) mData.get(offset));
                     offset++;
                 }
                 return Splitter.on(',').omitEmptyStrings().trimResults().split(sb.toString());
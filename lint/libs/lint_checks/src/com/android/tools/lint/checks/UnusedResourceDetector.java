@@ -87,7 +87,8 @@ import lombok.ast.VariableDefinition;
  * BCEL for bytecode analysis etc) and once it does this should be updated to
  * use it.
  */
-public class UnusedResourceDetector extends ResourceXmlDetector implements Detector.JavaScanner {
+public class UnusedResourceDetector extends ResourceXmlDetector
+        implements Detector.JavaScanner, Detector.FileFactScanner {
 
     /** Unused resources (other than ids). */
     public static final Issue ISSUE = Issue.create("UnusedResources", //$NON-NLS-1$
@@ -115,6 +116,15 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
     private Set<String> mDeclarations;
     private Set<String> mReferences;
     private Map<String, Location> mUnused;
+    /** The file whose declarations and references are in {@link #mFileFacts} */
+    private File mFactFile;
+    /** The declarations and references of the current file, in phase 1 */
+    private List<String> mFileFacts;
+
+    /** Prefix of the file facts which are declarations */
+    private static final char DECLARATION_FACT = 'D';
+    /** Prefix of the file facts which are references */
+    private static final char REFERENCE_FACT = 'R';
 
     /**
      * Constructs a new {@link UnusedResourceDetector}
@@ -145,6 +155,10 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
     @Override
     public void beforeCheckFile(@NonNull Context context) {
         File file = context.file;
+        if (context.getPhase() == 1) {
+            mFactFile = file;
+            mFileFacts = new ArrayList<String>();
+        }
 
         String fileName = file.getName();
         boolean isXmlFile = endsWith(fileName, DOT_XML);
@@ -160,7 +174,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                 String baseName = fileName.substring(0, fileName.length() - DOT_XML.length());
                 String resource = R_PREFIX + typeName + '.' + baseName;
                 if (context.getPhase() == 1) {
-                    mDeclarations.add(resource);
+                    declare(resource);
                 } else {
                     assert context.getPhase() == 2;
                     if (mUnused.containsKey(resource)) {
@@ -189,6 +203,48 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
         }
     }
 
+    private void declare(@NonNull String resource) {
+        mDeclarations.add(resource);
+        if (mFileFacts != null) {
+            mFileFacts.add(DECLARATION_FACT + resource);
+        }
+    }
+
+    private void reference(@NonNull String resource) {
+        mReferences.add(resource);
+        if (mFileFacts != null) {
+            mFileFacts.add(REFERENCE_FACT + resource);
+        }
+    }
+
+    // ---- Implements FileFactScanner ----
+
+    @Override
+    @Nullable
+    public List<String> getFileFacts(@NonNull Context context) {
+        if (context.getPhase() == 1 && context.file.equals(mFactFile)) {
+            return mFileFacts;
+        }
+        return null;
+    }
+
+    @Override
+    public void replayFileFacts(@NonNull Context context, @NonNull List<String> facts) {
+        if (mDeclarations == null) {
+            return;
+        }
+        mFactFile = null;
+        mFileFacts = null;
+        for (String fact : facts) {
+            String resource = fact.substring(1);
+            if (fact.charAt(0) == DECLARATION_FACT) {
+                mDeclarations.add(resource);
+            } else {
+                mReferences.add(resource);
+            }
+        }
+    }
+
     @Override
     public void afterCheckProject(@NonNull Context context) {
         if (context.getPhase() == 1) {
@@ -196,6 +252,8 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
             Set<String> unused = mDeclarations;
             mReferences = null;
             mDeclarations = null;
+            mFactFile = null;
+            mFileFacts = null;
 
             // Remove styles and attributes: they may be used, analysis isn't complete for these
             List<String> styles = new ArrayList<String>();
@@ -352,7 +410,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                     String resource = R_PREFIX + type + '.' + name;
 
                     if (context.getPhase() == 1) {
-                        mDeclarations.add(resource);
+                        declare(resource);
                         checkChildRefs(item);
                     } else {
                         assert context.getPhase() == 2;
@@ -387,7 +445,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                 int index = text.indexOf(ATTR_REF_PREFIX);
                 if (index != -1) {
                     String name = text.substring(index + ATTR_REF_PREFIX.length()).trim();
-                    mReferences.add(R_ATTR_PREFIX + name);
+                    reference(R_ATTR_PREFIX + name);
                 } else {
                     index = text.indexOf('@');
                     if (index != -1 && text.indexOf('/', index) != -1
@@ -395,7 +453,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                         // Compute R-string, e.g. @string/foo => R.string.foo
                         String token = text.substring(index + 1).trim().replace('/', '.');
                         String r = R_PREFIX + token;
-                        mReferences.add(r);
+                        reference(r);
                     }
                 }
             }
@@ -412,7 +470,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
             // these here to get attributes for position info
 
             if (context.getPhase() == 1) {
-                mDeclarations.add(resource);
+                declare(resource);
             } else if (mUnused.containsKey(resource)) {
                 if (context.getDriver().isSuppressed(getIssue(resource), attribute)) {
                     mUnused.remove(resource);
@@ -426,15 +484,15 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                     && !value.startsWith("@android:")) {  //$NON-NLS-1$
                 // Compute R-string, e.g. @string/foo => R.string.foo
                 String r = R_PREFIX + value.substring(1).replace('/', '.');
-                mReferences.add(r);
+                reference(r);
             } else if (value.startsWith(ATTR_REF_PREFIX)) {
-                mReferences.add(R_ATTR_PREFIX + value.substring(ATTR_REF_PREFIX.length()));
+                reference(R_ATTR_PREFIX + value.substring(ATTR_REF_PREFIX.length()));
             }
         }
 
         if (attribute.getNamespaceURI() != null
                 && !ANDROID_URI.equals(attribute.getNamespaceURI()) && mReferences != null) {
-            mReferences.add(R_ATTR_PREFIX + attribute.getLocalName());
+            reference(R_ATTR_PREFIX + attribute.getLocalName());
         }
     }
 
@@ -459,7 +517,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
             boolean isFramework) {
         if (mReferences != null && !isFramework) {
             String reference = R_PREFIX + type + '.' + name;
-            mReferences.add(reference);
+            reference(reference);
         }
     }
 
@@ -506,7 +564,7 @@ public class UnusedResourceDetector extends ResourceXmlDetector implements Detec
                                                                 .astName().astValue();
                                                         String resource = R_PREFIX + className
                                                                 + '.' + name;
-                                                        mDeclarations.add(resource);
+                                                        declare(resource);
                                                     } // Else: It could be a comment node
                                                 }
                                             }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LintDaemonTest extends TestCase {
+    private static final String TOKEN = "0123456789abcdef"; //$NON-NLS-1$
+
+    private ServerSocket mServer;
+    private Thread mThread;
+    private int mPort;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new ServerSocket(0, 50, InetAddress.getByName(null));
+        mPort = mServer.getLocalPort();
+        final LintDaemon daemon = new LintDaemon(TOKEN);
+        mThread = new Thread("Lint server") {
+            @Override
+            public void run() {
+                try {
+                    daemon.run(mServer);
+                } catch (IOException e) {
+                    // Closed by tearDown
+                }
+            }
+        };
+        mThread.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        mServer.close();
+        mThread.join(5000);
+    }
+
+    public void testExitCode() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int code = LintDaemon.send(mPort, TOKEN, new String[] { "--list" },
+                new PrintStream(output, true, "UTF-8"));
+        assertEquals(0, code);
+        String text = output.toString("UTF-8");
+        assertTrue(text, text.startsWith("Valid issue categories:"));
+    }
+
+    public void testInvalidArguments() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int code = LintDaemon.send(mPort, TOKEN, new String[] { "--threads", "none" },
+                new PrintStream(output, true, "UTF-8"));
+        assertEquals(5 /* ERRNO_INVALIDARGS */, code);
+        assertEquals("Invalid thread count: none\n", output.toString("UTF-8"));
+
+        // The server is still running
+        assertEquals(0, LintDaemon.send(mPort, TOKEN, new String[] { "--list" },
+                new PrintStream(new ByteArrayOutputStream())));
+        assertTrue(mThread.isAlive());
+    }
+
+    public void testInvalidToken() throws Exception {
+        try {
+            LintDaemon.send(mPort, "fedcba9876543210", new String[] { "--list" },
+                    new PrintStream(new ByteArrayOutputStream()));
+            fail("Expected the connection to be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // The server is still running
+        assertEquals(0, LintDaemon.send(mPort, TOKEN, new String[] { "--list" },
+                new PrintStream(new ByteArrayOutputStream())));
+    }
+
+    public void testStop() throws Exception {
+        assertEquals(0, LintDaemon.send(mPort, TOKEN, new String[] { Main.ARG_STOP },
+                new PrintStream(new ByteArrayOutputStream())));
+        mThread.join(5000);
+        assertFalse(mThread.isAlive());
+    }
+}
@@ -92,6 +92,7 @@ public abstract class AbstractCheckTest extends TestCase {
         mOutput = new StringBuilder();
         TestLintClient lintClient = new TestLintClient();
         LintDriver driver = new LintDriver(new CustomIssueRegistry(), lintClient);
+        configureDriver(driver);
         driver.analyze(files, null /* scope */);
 
         List<String> errors = lintClient.getErrors();
@@ -110,6 +111,10 @@ public abstract class AbstractCheckTest extends TestCase {
         return mOutput.toString();
     }
 
+    /** Configures the driver before it analyzes the files */
+    protected void configureDriver(LintDriver driver) {
+    }
+
     /**
      * Run lint on the given files when constructed as a separate project
      * @return The output of the lint check. On Windows, this transforms all directory
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.checks;
+
+import com.android.tools.lint.client.api.IssueRegistry;
+import com.android.tools.lint.client.api.LintDriver;
+import com.android.tools.lint.detector.api.Detector;
+import com.android.tools.lint.detector.api.Issue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Checks that parsing files on several threads does not change the lint results */
+@SuppressWarnings("javadoc")
+public class ParallelLintTest extends AbstractCheckTest {
+    private int mThreadCount = 1;
+
+    @Override
+    protected Detector getDetector() {
+        return new ToastDetector();
+    }
+
+    @Override
+    protected List<Issue> getIssues() {
+        return Arrays.asList(
+                ToastDetector.ISSUE,
+                SdCardDetector.ISSUE,
+                HardcodedValuesDetector.ISSUE,
+                ExtraTextDetector.ISSUE,
+                UselessViewDetector.USELESS_PARENT,
+                UselessViewDetector.USELESS_LEAF);
+    }
+
+    @Override
+    protected boolean isEnabled(Issue issue) {
+        return issue == IssueRegistry.PARSER_ERROR || getIssues().contains(issue);
+    }
+
+    @Override
+    protected void configureDriver(LintDriver driver) {
+        driver.setThreadCount(mThreadCount);
+    }
+
+    public void testThreadCount() throws Exception {
+        // Enough files to fill the parsing window of several threads
+        List<String> files = new ArrayList<String>();
+        for (int i = 0; i < 8; i++) {
+            files.add("src/test/pkg/ToastTest.java.txt=>src/test/pkg/ToastTest" + i + ".java");
+            files.add("src/test/pkg/SdCardTest.java.txt=>src/test/pkg/SdCardTest" + i + ".java");
+            files.add("res/layout/useless.xml=>res/layout/useless" + i + ".xml");
+            files.add("res/layout/layout1.xml=>res/layout/layout" + i + ".xml");
+        }
+        // Files which cannot be parsed
+        files.add("src/test/pkg/ParserError.java.txt=>src/test/pkg/ParserError.java");
+        files.add("res/layout/parser_error.xml=>res/layout/parser_error.xml");
+        String[] paths = files.toArray(new String[files.size()]);
+
+        mThreadCount = 1;
+        String serial = lintProject(paths);
+        assertTrue(serial, serial.contains("parser_error.xml: Error"));
+        assertTrue(serial, serial.contains("ToastTest7.java"));
+        assertTrue(serial, serial.contains("useless7.xml"));
+
+        mThreadCount = 4;
+        assertEquals(serial, lintProject(paths));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.tools.lint.detector.api.Context;
+import com.android.tools.lint.detector.api.Issue;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.io.Files;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ClassIndexTest extends TestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    public void testSuperClasses() throws Exception {
+        LintClient client = new TestClient();
+        File jar1 = new File(mDir, "lib1.jar");
+        writeJar(jar1, "test/Foo", "test/Bar", "test/Bar", "java/lang/Object");
+
+        Map<String, String> map = ClassIndex.getSuperClasses(client, jar1);
+        assertNotNull(map);
+        assertEquals("test/Bar", map.get("test/Foo"));
+        assertEquals("java/lang/Object", map.get("test/Bar"));
+        assertSame(map, ClassIndex.getSuperClasses(client, jar1));
+
+        // Jars with the same contents share their table
+        File jar2 = new File(mDir, "lib2.jar");
+        Files.copy(jar1, jar2);
+        assertSame(map, ClassIndex.getSuperClasses(client, jar2));
+
+        // Changed jars are indexed again
+        writeJar(jar1, "test/Baz", "java/lang/Object");
+        jar1.setLastModified(jar1.lastModified() + 2000);
+        Map<String, String> changed = ClassIndex.getSuperClasses(client, jar1);
+        assertNotNull(changed);
+        assertEquals("java/lang/Object", changed.get("test/Baz"));
+        assertNull(changed.get("test/Foo"));
+        assertSame(map, ClassIndex.getSuperClasses(client, jar2));
+    }
+
+    public void testRemovedJars() throws Exception {
+        LintClient client = new TestClient();
+        File jar1 = new File(mDir, "lib1.jar");
+        writeJar(jar1, "test/Foo", "java/lang/Object");
+        assertNotNull(ClassIndex.getSuperClasses(client, jar1));
+        assertTrue(ClassIndex.isIndexed(jar1));
+
+        // Jars which no longer exist are dropped when another jar is indexed
+        jar1.delete();
+        File jar2 = new File(mDir, "lib2.jar");
+        writeJar(jar2, "test/Bar", "java/lang/Object");
+        assertNotNull(ClassIndex.getSuperClasses(client, jar2));
+        assertFalse(ClassIndex.isIndexed(jar1));
+        assertTrue(ClassIndex.isIndexed(jar2));
+    }
+
+    private static void writeJar(File jar, String... classes) throws Exception {
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (int i = 0; i < classes.length; i += 2) {
+                ClassWriter writer = new ClassWriter(0);
+                writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, classes[i], null,
+                        classes[i + 1], null);
+                writer.visitEnd();
+                zos.putNextEntry(new ZipEntry(classes[i] + ".class"));
+                zos.write(writer.toByteArray());
+                zos.closeEntry();
+            }
+        } finally {
+            zos.close();
+        }
+    }
+
+    private static class TestClient extends LintClient {
+        @Override
+        public void report(Context context, Issue issue, Severity severity, Location location,
+                String message, Object data) {
+            fail(message);
+        }
+
+        @Override
+        public void log(Severity severity, Throwable exception, String format,
+                Object... args) {
+            fail(format != null ? String.format(format, args) : String.valueOf(exception));
+        }
+
+        @Override
+        public IDomParser getDomParser() {
+            return null;
+        }
+
+        @Override
+        public IJavaParser getJavaParser() {
+            return null;
+        }
+
+        @Override
+        public String readFile(File file) {
+            return "";
+        }
+    }
+}
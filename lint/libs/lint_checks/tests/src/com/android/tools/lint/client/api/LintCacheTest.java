@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.tools.lint.detector.api.DefaultPosition;
+import com.android.tools.lint.detector.api.Location;
+import com.android.tools.lint.detector.api.Severity;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class LintCacheTest extends TestCase {
+    private File mDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDir = Files.createTempDir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    public void testCache() throws Exception {
+        File file = new File(mDir, "layout.xml");
+        Files.write("<LinearLayout/>", file, Charsets.UTF_8);
+        File cacheFile = new File(mDir, "lint.cache");
+
+        LintCache cache = new LintCache(cacheFile);
+        cache.read();
+        LintCache.ProjectResults results = cache.getProjectResults("project", "config");
+        assertFalse(results.checkFile(file));
+        assertTrue(results.isChecked(file));
+        assertFalse(results.isUnchanged(file));
+
+        Location location = Location.create(file, new DefaultPosition(1, 2, 3),
+                new DefaultPosition(1, 5, 6));
+        Location secondary = Location.create(file);
+        secondary.setMessage("Other");
+        location.setSecondary(secondary);
+        results.addReport(file, IssueRegistry.PARSER_ERROR, Severity.ERROR, location, "Broken",
+                "Data");
+        results.finish();
+        cache.write();
+
+        cache = new LintCache(cacheFile);
+        cache.read();
+        results = cache.getProjectResults("project", "config");
+        assertTrue(results.checkFile(file));
+        assertTrue(results.isUnchanged(file));
+
+        List<LintCache.Report> reports = results.getReports(file);
+        assertEquals(1, reports.size());
+        LintCache.Report report = reports.get(0);
+        assertEquals(IssueRegistry.PARSER_ERROR.getId(), report.getIssueId());
+        assertEquals(Severity.ERROR, report.getSeverity());
+        assertEquals("Broken", report.getMessage());
+        assertEquals("Data", report.getData());
+        Location cached = report.getLocation();
+        assertEquals(file, cached.getFile());
+        assertEquals(1, cached.getStart().getLine());
+        assertEquals(2, cached.getStart().getColumn());
+        assertEquals(3, cached.getStart().getOffset());
+        assertEquals(6, cached.getEnd().getOffset());
+        assertEquals("Other", cached.getSecondary().getMessage());
+        assertNull(cached.getSecondary().getStart());
+
+        // Other configurations don't share the results
+        assertFalse(cache.getProjectResults("project", "other").checkFile(file));
+
+        Files.write("<FrameLayout/>", file, Charsets.UTF_8);
+        results = cache.getProjectResults("project", "config");
+        assertFalse(results.checkFile(file));
+        assertTrue(results.getReports(file).isEmpty());
+    }
+
+    public void testUncachedData() throws Exception {
+        File file = new File(mDir, "layout.xml");
+        Files.write("<LinearLayout/>", file, Charsets.UTF_8);
+        File cacheFile = new File(mDir, "lint.cache");
+
+        LintCache cache = new LintCache(cacheFile);
+        cache.read();
+        LintCache.ProjectResults results = cache.getProjectResults("project", "config");
+        assertFalse(results.checkFile(file));
+        results.addReport(file, IssueRegistry.PARSER_ERROR, Severity.ERROR,
+                Location.create(file), "Broken", Integer.valueOf(42));
+        results.finish();
+        cache.write();
+
+        // Reports with other data than strings are not cached: the file is checked again
+        cache = new LintCache(cacheFile);
+        cache.read();
+        results = cache.getProjectResults("project", "config");
+        assertFalse(results.checkFile(file));
+    }
+
+    public void testInvalidCache() throws Exception {
+        File cacheFile = new File(mDir, "lint.cache");
+        Files.write("not a cache", cacheFile, Charsets.UTF_8);
+        LintCache cache = new LintCache(cacheFile);
+        cache.read();
+        File file = new File(mDir, "layout.xml");
+        Files.write("<LinearLayout/>", file, Charsets.UTF_8);
+        assertFalse(cache.getProjectResults("project", "config").checkFile(file));
+    }
+}
@@ -16,7 +16,12 @@
 
 package com.android.tools.lint.client.api;
 
+import com.android.tools.lint.checks.AbstractCheckTest;
+import com.android.tools.lint.checks.HardcodedValuesDetector;
+import com.android.tools.lint.checks.TranslationDetector;
+import com.android.tools.lint.checks.UnusedResourceDetector;
 import com.android.tools.lint.client.api.LintDriver.ClassEntry;
+import com.android.tools.lint.detector.api.Detector;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -24,10 +29,110 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import junit.framework.TestCase;
-
 @SuppressWarnings("javadoc")
-public class LintDriverTest extends TestCase {
+public class LintDriverTest extends AbstractCheckTest {
+    private LintCache mCache;
+    private Detector mDetector = new HardcodedValuesDetector();
+
+    @Override
+    protected Detector getDetector() {
+        return mDetector;
+    }
+
+    @Override
+    protected void configureDriver(LintDriver driver) {
+        driver.setCache(mCache);
+    }
+
+    public void testCache() throws Exception {
+        File cacheFile = new File(getTargetDir(), "lint.cache");
+        cacheFile.delete();
+
+        String expected = lintProjectWithCache(cacheFile,
+                "res/layout/accessibility.xml", "res/layout/ignores.xml");
+        assertEquals(expected, lintProject(
+                "res/layout/accessibility.xml", "res/layout/ignores.xml"));
+        assertTrue(expected, expected.contains("accessibility.xml:3"));
+        assertTrue(expected, expected.contains("ignores.xml:61"));
+
+        // Unchanged files are reported from the cache
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+
+        // Changed files are checked again
+        String edited = lintProjectWithCache(cacheFile,
+                "res/layout/simple.xml=>res/layout/ignores.xml");
+        assertFalse(edited, edited.contains("ignores.xml"));
+        assertEquals(edited, lintProject());
+        assertEquals(edited, lintProjectWithCache(cacheFile));
+    }
+
+    public void testCachedUnusedResources() throws Exception {
+        mDetector = new UnusedResourceDetector();
+        File cacheFile = new File(getTargetDir(), "lint.cache");
+        cacheFile.delete();
+
+        String expected = lintProjectWithCache(cacheFile,
+                "res/values/strings2.xml",
+                "res/layout/layout1.xml=>res/layout/main.xml",
+                "res/layout/layout1.xml=>res/layout/other.xml",
+                "src/my/pkg/Test.java.txt=>src/my/pkg/Test.java",
+                "gen/my/pkg/R.java.txt=>gen/my/pkg/R.java",
+                "res/layout/accessibility.xml");
+        assertTrue(expected, expected.contains("R.layout.main appears to be unused"));
+        assertTrue(expected, expected.contains("R.string.hello appears to be unused"));
+
+        // The declarations and references of unchanged files are replayed
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+
+        String edited = lintProjectWithCache(cacheFile,
+                "res/values/arrayusage.xml=>res/values/strings2.xml");
+        assertTrue(edited, edited.contains("R.array.my_array appears to be unused"));
+        assertEquals(edited, lintProject());
+        assertEquals(edited, lintProjectWithCache(cacheFile));
+    }
+
+    public void testCachedTranslations() throws Exception {
+        mDetector = new TranslationDetector();
+        File cacheFile = new File(getTargetDir(), "lint.cache");
+        cacheFile.delete();
+
+        String expected = lintProjectWithCache(cacheFile,
+                "res/values/strings.xml",
+                "res/values-cs/strings.xml",
+                "res/values-de-rDE/strings.xml",
+                "res/values-es/strings.xml",
+                "res/values-nl-rNL/strings.xml",
+                "res/values-es/donottranslate.xml",
+                "res/values/translatedarrays.xml",
+                "res/values-cs/translatedarrays.xml");
+        assertEquals(expected, lintProject());
+        assertTrue(expected, expected.contains("\"show_all_apps\" is not translated"));
+
+        // The string names and translated arrays of unchanged files are replayed
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+        assertEquals(expected, lintProjectWithCache(cacheFile));
+
+        String edited = lintProjectWithCache(cacheFile,
+                "res/values/strings.xml=>res/values-nl-rNL/strings.xml");
+        assertFalse(edited, edited.contains("\"show_all_apps\" is not translated"));
+        assertEquals(edited, lintProject());
+        assertEquals(edited, lintProjectWithCache(cacheFile));
+    }
+
+    private String lintProjectWithCache(File cacheFile, String... relativePaths)
+            throws Exception {
+        mCache = new LintCache(cacheFile);
+        mCache.read();
+        try {
+            return lintProject(relativePaths);
+        } finally {
+            mCache.write();
+            mCache = null;
+        }
+    }
+
     public void testClassEntryCompare() throws Exception {
         ClassEntry c0 = new ClassEntry(new File("/a1/Foo.class"), null, null, null);
         ClassEntry c1 = new ClassEntry(new File("/a1/Foo.clazz"), null, null, null);
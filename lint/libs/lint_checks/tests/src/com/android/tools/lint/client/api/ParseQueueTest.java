@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tools.lint.client.api;
+
+import com.android.tools.lint.Main;
+import com.android.tools.lint.checks.BuiltinIssueRegistry;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+@SuppressWarnings("javadoc")
+public class ParseQueueTest extends TestCase {
+    private static final int TASK_COUNT = 20;
+    private static final int THREAD_COUNT = 2;
+
+    private ExecutorService mExecutor;
+    private final Set<String> mParsed = new HashSet<String>();
+    private final Set<String> mDisposed = new HashSet<String>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mExecutor = Executors.newFixedThreadPool(THREAD_COUNT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testCancelDisposesParsedFiles() throws Exception {
+        List<ParseQueue.Task<String>> tasks = new ArrayList<ParseQueue.Task<String>>();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            tasks.add(new RecordingTask("file" + i, null, null));
+        }
+        ParseQueue<String> queue = createQueue(tasks);
+        assertEquals("file0", queue.take());
+        assertEquals("file1", queue.take());
+
+        // Let the files in the lookahead window be parsed
+        long deadline = System.currentTimeMillis() + 5000;
+        while (getParsedCount() < 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        queue.cancel();
+
+        checkDisposed("file0", "file1");
+        assertTrue(getParsedCount() >= 6);
+        assertTrue(getParsedCount() < TASK_COUNT);
+    }
+
+    public void testFailureDisposesParsedFiles() throws Exception {
+        // The first file only fails once the next ones have been parsed
+        CountDownLatch parsed = new CountDownLatch(THREAD_COUNT * 2);
+        List<ParseQueue.Task<String>> tasks = new ArrayList<ParseQueue.Task<String>>();
+        tasks.add(new RecordingTask("file0", parsed, null));
+        for (int i = 1; i < TASK_COUNT; i++) {
+            tasks.add(new RecordingTask("file" + i, null, parsed));
+        }
+        ParseQueue<String> queue = createQueue(tasks);
+        try {
+            queue.take();
+            fail("Expected the parse failure");
+        } catch (IllegalArgumentException e) {
+            assertEquals("file0", e.getMessage());
+        }
+
+        checkDisposed("file0");
+        assertTrue(getParsedCount() > THREAD_COUNT * 2);
+    }
+
+    private ParseQueue<String> createQueue(List<ParseQueue.Task<String>> tasks) {
+        LintDriver driver = new LintDriver(new BuiltinIssueRegistry(), new Main());
+        return new ParseQueue<String>(driver, mExecutor, THREAD_COUNT, tasks);
+    }
+
+    private int getParsedCount() {
+        synchronized (mParsed) {
+            return mParsed.size();
+        }
+    }
+
+    /** Checks that all the parsed files which were not taken or failed were disposed */
+    private void checkDisposed(String... taken) {
+        Set<String> expected;
+        synchronized (mParsed) {
+            expected = new HashSet<String>(mParsed);
+        }
+        for (String name : taken) {
+            expected.remove(name);
+        }
+        synchronized (mDisposed) {
+            assertEquals(expected, mDisposed);
+        }
+    }
+
+    private class RecordingTask extends ParseQueue.Task<String> {
+        private final String mName;
+        /** If not null, the parse waits for this latch, then fails */
+        private final CountDownLatch mFailAfter;
+        /** If not null, counted down once parsed */
+        private final CountDownLatch mParsedLatch;
+
+        private RecordingTask(String name, CountDownLatch failAfter,
+                CountDownLatch parsedLatch) {
+            mName = name;
+            mFailAfter = failAfter;
+            mParsedLatch = parsedLatch;
+        }
+
+        @Override
+        String parse() {
+            if (mFailAfter != null) {
+                try {
+                    mFailAfter.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (mParsed) {
+                    mParsed.add(mName);
+                }
+                throw new IllegalArgumentException(mName);
+            }
+            synchronized (mParsed) {
+                mParsed.add(mName);
+            }
+            if (mParsedLatch != null) {
+                mParsedLatch.countDown();
+            }
+            return mName;
+        }
+
+        @Override
+        void dispose(String result) {
+            assertEquals(mName, result);
+            synchronized (mDisposed) {
+                assertTrue(result, mDisposed.add(result));
+            }
+        }
+    }
+}
@@ -18,160 +18,137 @@ package com.android.traceview;
 
 import org.eclipse.swt.graphics.Color;
 
+/**
+ * A call to a method, as a view of the call stored in a {@link CallStore}.
+ */
 class Call implements TimeLineView.Block {
-    final private ThreadData mThreadData;
-    final private MethodData mMethodData;
-    final Call mCaller; // the caller, or null if this is the root
-
-    private String mName;
-    private boolean mIsRecursive;
-
-    long mGlobalStartTime;
-    long mGlobalEndTime;
-
-    long mThreadStartTime;
-    long mThreadEndTime;
+    private final CallStore mStore;
+    private final int mId;
 
-    long mInclusiveRealTime; // real time spent in this call including its children
-    long mExclusiveRealTime; // real time spent in this call including its children
-
-    long mInclusiveCpuTime; // cpu time spent in this call including its children
-    long mExclusiveCpuTime; // cpu time spent in this call excluding its children
-
-    Call(ThreadData threadData, MethodData methodData, Call caller) {
-        mThreadData = threadData;
-        mMethodData = methodData;
-        mName = methodData.getProfileName();
-        mCaller = caller;
+    Call(CallStore store, int id) {
+        mStore = store;
+        mId = id;
     }
 
-    public void updateName() {
-        mName = mMethodData.getProfileName();
+    /**
+     * Returns the id of the call in its {@link CallStore}.
+     */
+    int getId() {
+        return mId;
     }
 
     @Override
     public double addWeight(int x, int y, double weight) {
-        return mMethodData.addWeight(x, y, weight);
+        return getMethodData().addWeight(x, y, weight);
     }
 
     @Override
     public void clearWeight() {
-        mMethodData.clearWeight();
+        getMethodData().clearWeight();
     }
 
     @Override
     public long getStartTime() {
-        return mGlobalStartTime;
+        return mStore.mGlobalStartTime[mId];
     }
 
     @Override
     public long getEndTime() {
-        return mGlobalEndTime;
+        return mStore.mGlobalEndTime[mId];
+    }
+
+    public long getThreadStartTime() {
+        return mStore.mThreadStartTime[mId];
+    }
+
+    public long getThreadEndTime() {
+        return mStore.mThreadEndTime[mId];
     }
 
     @Override
     public long getExclusiveCpuTime() {
-        return mExclusiveCpuTime;
+        return mStore.mExclusiveCpuTime[mId];
     }
 
     @Override
     public long getInclusiveCpuTime() {
-        return mInclusiveCpuTime;
+        return mStore.mInclusiveCpuTime[mId];
     }
 
     @Override
     public long getExclusiveRealTime() {
-        return mExclusiveRealTime;
+        return mStore.mExclusiveRealTime[mId];
     }
 
     @Override
     public long getInclusiveRealTime() {
-        return mInclusiveRealTime;
+        return mStore.mInclusiveRealTime[mId];
     }
 
     @Override
     public Color getColor() {
-        return mMethodData.getColor();
+        return getMethodData().getColor();
     }
 
     @Override
     public String getName() {
-        return mName;
-    }
-
-    public void setName(String name) {
-        mName = name;
+        // The top-level call is named after its thread.
+        if (mStore.isRootCall(mId)) {
+            return getThreadData().getName();
+        }
+        return getMethodData().getProfileName();
     }
 
     public ThreadData getThreadData() {
-        return mThreadData;
+        return mStore.mThreadData[mId];
     }
 
     public int getThreadId() {
-        return mThreadData.getId();
+        return getThreadData().getId();
     }
 
     @Override
     public MethodData getMethodData() {
-        return mMethodData;
+        return mStore.mMethodData[mId];
     }
 
     @Override
     public boolean isContextSwitch() {
-        return mMethodData.getId() < 0;
+        return getMethodData().getId() < 0;
     }
 
     @Override
     public boolean isIgnoredBlock() {
         // Ignore the top-level call or context switches within the top-level call.
-        return mCaller == null || isContextSwitch() && mCaller.mCaller == null;
+        int caller = mStore.mCaller[mId];
+        return caller == CallStore.NO_CALLER
+                || isContextSwitch() && mStore.isRootCall(caller);
     }
 
     @Override
     public TimeLineView.Block getParentBlock() {
-        return mCaller;
+        int caller = mStore.mCaller[mId];
+        if (caller == CallStore.NO_CALLER) {
+            return null;
+        }
+        return mStore.getCall(caller);
     }
 
     public boolean isRecursive() {
-        return mIsRecursive;
-    }
-
-    void setRecursive(boolean isRecursive) {
-        mIsRecursive = isRecursive;
+        return mStore.mIsRecursive[mId];
     }
 
-    void addCpuTime(long elapsedCpuTime) {
-        mExclusiveCpuTime += elapsedCpuTime;
-        mInclusiveCpuTime += elapsedCpuTime;
-    }
-
-    /**
-     * Record time spent in the method call.
-     */
-    void finish() {
-        if (mCaller != null) {
-            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
-            mCaller.mInclusiveRealTime += mInclusiveRealTime;
-        }
-
-        mMethodData.addElapsedExclusive(mExclusiveCpuTime, mExclusiveRealTime);
-        if (!mIsRecursive) {
-            mMethodData.addTopExclusive(mExclusiveCpuTime, mExclusiveRealTime);
+    @Override
+    public boolean equals(Object obj) {
+        if (obj instanceof Call) {
+            Call call = (Call) obj;
+            return call.mStore == mStore && call.mId == mId;
         }
-        mMethodData.addElapsedInclusive(mInclusiveCpuTime, mInclusiveRealTime,
-                mIsRecursive, mCaller);
+        return false;
     }
 
-    public static final class TraceAction {
-        public static final int ACTION_ENTER = 0;
-        public static final int ACTION_EXIT = 1;
-
-        public final int mAction;
-        public final Call mCall;
-
-        public TraceAction(int action, Call call) {
-            mAction = action;
-            mCall = call;
-        }
+    @Override
+    public int hashCode() {
+        return mId;
     }
 }
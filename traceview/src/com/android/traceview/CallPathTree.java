@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Tree of the distinct call paths of a trace, with the exclusive time spent in each of them.
+ * <p/>A path is the list of methods on the stack, from the top-level call of a thread down to
+ * the method running. The calls of all the threads are merged, so a path is counted once no
+ * matter which threads or how many times it was executed.
+ */
+final class CallPathTree {
+
+    /** Parent of the root paths. */
+    static final int NO_PARENT = -1;
+
+    private final HashMap<Long, Integer> mPathsByKey = new HashMap<Long, Integer>();
+
+    private int mSize = 0;
+    private int[] mParent = new int[1024];
+    private MethodData[] mMethodData = new MethodData[1024];
+    private int[] mCalls = new int[1024];
+    private long[] mExclusiveCpuTime = new long[1024];
+    private long[] mExclusiveRealTime = new long[1024];
+
+    /**
+     * Builds the tree of the calls of a call store.
+     */
+    CallPathTree(CallStore store) {
+        // Callers are always stored before the calls they make.
+        int[] pathOfCall = new int[store.size()];
+        for (int call = 0; call < store.size(); call++) {
+            int caller = store.mCaller[call];
+            int parent = caller == CallStore.NO_CALLER ? NO_PARENT : pathOfCall[caller];
+            int path = getPath(parent, store.mMethodData[call]);
+            pathOfCall[call] = path;
+            mCalls[path]++;
+            mExclusiveCpuTime[path] += store.mExclusiveCpuTime[call];
+            mExclusiveRealTime[path] += store.mExclusiveRealTime[call];
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int getParent(int path) {
+        return mParent[path];
+    }
+
+    MethodData getMethodData(int path) {
+        return mMethodData[path];
+    }
+
+    int getCalls(int path) {
+        return mCalls[path];
+    }
+
+    long getExclusiveCpuTime(int path) {
+        return mExclusiveCpuTime[path];
+    }
+
+    long getExclusiveRealTime(int path) {
+        return mExclusiveRealTime[path];
+    }
+
+    /**
+     * Returns the methods of a path, starting with the top-level method.
+     */
+    List<MethodData> getMethods(int path) {
+        ArrayList<MethodData> methods = new ArrayList<MethodData>();
+        for (int p = path; p != NO_PARENT; p = mParent[p]) {
+            methods.add(mMethodData[p]);
+        }
+        Collections.reverse(methods);
+        return methods;
+    }
+
+    /**
+     * Returns the paths with the highest exclusive time, in decreasing order.
+     * @param count the max number of paths to return.
+     * @param cpuTime whether to compare the cpu times instead of the real times.
+     */
+    int[] getHottestPaths(int count, final boolean cpuTime) {
+        Comparator<Integer> comparator = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer path1, Integer path2) {
+                long time1 = cpuTime ? mExclusiveCpuTime[path1] : mExclusiveRealTime[path1];
+                long time2 = cpuTime ? mExclusiveCpuTime[path2] : mExclusiveRealTime[path2];
+                if (time1 != time2) {
+                    return time1 < time2 ? -1 : 1;
+                }
+                // the path found first wins ties.
+                return path2.compareTo(path1);
+            }
+        };
+
+        // keep the hottest paths in a min-heap of the given size.
+        PriorityQueue<Integer> hottest = new PriorityQueue<Integer>(Math.max(1, count),
+                comparator);
+        for (int path = 0; path < mSize && count > 0; path++) {
+            if (hottest.size() < count) {
+                hottest.add(path);
+            } else if (comparator.compare(path, hottest.peek()) > 0) {
+                hottest.poll();
+                hottest.add(path);
+            }
+        }
+
+        int[] paths = new int[hottest.size()];
+        for (int i = paths.length - 1; i >= 0; i--) {
+            paths[i] = hottest.poll();
+        }
+        return paths;
+    }
+
+    private int getPath(int parent, MethodData methodData) {
+        Long key = ((long) parent << 32) | (methodData.getId() & 0xffffffffL);
+        Integer path = mPathsByKey.get(key);
+        if (path != null) {
+            return path;
+        }
+
+        if (mSize == mParent.length) {
+            grow();
+        }
+        int newPath = mSize++;
+        mParent[newPath] = parent;
+        mMethodData[newPath] = methodData;
+        mPathsByKey.put(key, newPath);
+        return newPath;
+    }
+
+    private void grow() {
+        int size = mSize * 2;
+        int[] parent = new int[size];
+        System.arraycopy(mParent, 0, parent, 0, mSize);
+        mParent = parent;
+        MethodData[] methodData = new MethodData[size];
+        System.arraycopy(mMethodData, 0, methodData, 0, mSize);
+        mMethodData = methodData;
+        int[] calls = new int[size];
+        System.arraycopy(mCalls, 0, calls, 0, mSize);
+        mCalls = calls;
+        long[] exclusiveCpuTime = new long[size];
+        System.arraycopy(mExclusiveCpuTime, 0, exclusiveCpuTime, 0, mSize);
+        mExclusiveCpuTime = exclusiveCpuTime;
+        long[] exclusiveRealTime = new long[size];
+        System.arraycopy(mExclusiveRealTime, 0, exclusiveRealTime, 0, mSize);
+        mExclusiveRealTime = exclusiveRealTime;
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.HashMap;
+
+/**
+ * Call stack of a thread, used by the streaming parse of {@link DmTraceReader}.
+ * <p/>The frames are stored in parallel primitive arrays instead of {@link Call} objects. The
+ * time of a call is added to the {@link MethodData} of its method as soon as the call returns,
+ * so the memory used does not depend on the length of the trace.
+ * <p/>Frame 0 is the top-level call of the thread, which is never popped.
+ */
+final class CallStack {
+
+    private static final int INITIAL_DEPTH = 32;
+
+    private MethodData[] mMethods = new MethodData[INITIAL_DEPTH];
+    private boolean[] mRecursive = new boolean[INITIAL_DEPTH];
+    private long[] mGlobalStartTime = new long[INITIAL_DEPTH];
+    private long[] mExclusiveCpuTime = new long[INITIAL_DEPTH];
+    private long[] mInclusiveCpuTime = new long[INITIAL_DEPTH];
+    // inclusive real time of the calls made by the frame that already returned.
+    private long[] mChildrenRealTime = new long[INITIAL_DEPTH];
+    private int mTop = 0;
+
+    // This is a hash of all the methods that are currently on the stack.
+    private final HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
+
+    CallStack(MethodData topLevel) {
+        mMethods[0] = topLevel;
+    }
+
+    /**
+     * Returns the method of the current frame.
+     */
+    MethodData topMethod() {
+        return mMethods[mTop];
+    }
+
+    /**
+     * Pushes a new frame.
+     * @param method the method being called.
+     * @param globalStartTime the global time of the call.
+     */
+    void enter(MethodData method, long globalStartTime) {
+        if (++mTop == mMethods.length) {
+            grow();
+        }
+
+        mMethods[mTop] = method;
+        mGlobalStartTime[mTop] = globalStartTime;
+        mExclusiveCpuTime[mTop] = 0;
+        mInclusiveCpuTime[mTop] = 0;
+        mChildrenRealTime[mTop] = 0;
+
+        Integer num = mStackMethods.get(method);
+        if (num == null) {
+            num = 0;
+        }
+        mRecursive[mTop] = num > 0;
+        mStackMethods.put(method, num + 1);
+    }
+
+    /**
+     * Checks that a method exit matches the current frame.
+     * @return false if the stack only contains the top-level call.
+     * @throws RuntimeException if the current frame is for a different method.
+     */
+    boolean canExit(MethodData method) {
+        if (mTop == 0) {
+            return false;
+        }
+
+        if (mMethods[mTop] != method) {
+            String error = "Method exit (" + method.getName()
+                    + ") does not match current method (" + mMethods[mTop].getName()
+                    + ")";
+            throw new RuntimeException(error);
+        }
+
+        return true;
+    }
+
+    /**
+     * Pops the current frame and adds its time to its method and to its caller.
+     * @param globalEndTime the global time at which the call returned.
+     */
+    void exit(long globalEndTime) {
+        MethodData method = mMethods[mTop];
+
+        Integer num = mStackMethods.get(method);
+        if (num != null) {
+            if (num == 1) {
+                mStackMethods.remove(method);
+            } else {
+                mStackMethods.put(method, num - 1);
+            }
+        }
+
+        // Calculate exclusive real-time by subtracting inclusive real time
+        // accumulated by children from the total span.
+        long realTime = globalEndTime - mGlobalStartTime[mTop];
+        long exclusiveRealTime = Math.max(realTime - mChildrenRealTime[mTop], 0);
+        long exclusiveCpuTime = mExclusiveCpuTime[mTop];
+        long inclusiveCpuTime = mInclusiveCpuTime[mTop];
+        boolean isRecursive = mRecursive[mTop];
+        mMethods[mTop] = null;
+        mTop--;
+
+        mInclusiveCpuTime[mTop] += inclusiveCpuTime;
+        mChildrenRealTime[mTop] += realTime;
+
+        method.addElapsedExclusive(exclusiveCpuTime, exclusiveRealTime);
+        if (!isRecursive) {
+            method.addTopExclusive(exclusiveCpuTime, exclusiveRealTime);
+        }
+        method.addElapsedInclusive(inclusiveCpuTime, realTime, isRecursive,
+                mMethods[mTop], mRecursive[mTop]);
+    }
+
+    /**
+     * Adds thread cpu time to the current frame.
+     */
+    void addCpuTime(long elapsedCpuTime) {
+        mExclusiveCpuTime[mTop] += elapsedCpuTime;
+        mInclusiveCpuTime[mTop] += elapsedCpuTime;
+    }
+
+    /**
+     * Exits all the pending open-ended calls, and stores the time of the top-level frame in
+     * the root call of the thread.
+     * @param globalEndTime the global time of the end of the thread.
+     * @param callStore the store of the root call.
+     * @param rootCall the id of the root call of the thread.
+     */
+    void endTrace(long globalEndTime, CallStore callStore, int rootCall) {
+        while (mTop > 0) {
+            exit(globalEndTime);
+        }
+
+        callStore.mExclusiveCpuTime[rootCall] = mExclusiveCpuTime[0];
+        callStore.mInclusiveCpuTime[rootCall] = mInclusiveCpuTime[0];
+        callStore.mInclusiveRealTime[rootCall] = mChildrenRealTime[0];
+        mStackMethods.clear();
+    }
+
+    private void grow() {
+        int size = mMethods.length * 2;
+        MethodData[] methods = new MethodData[size];
+        System.arraycopy(mMethods, 0, methods, 0, mTop);
+        mMethods = methods;
+        boolean[] recursive = new boolean[size];
+        System.arraycopy(mRecursive, 0, recursive, 0, mTop);
+        mRecursive = recursive;
+        mGlobalStartTime = grow(mGlobalStartTime, size);
+        mExclusiveCpuTime = grow(mExclusiveCpuTime, size);
+        mInclusiveCpuTime = grow(mInclusiveCpuTime, size);
+        mChildrenRealTime = grow(mChildrenRealTime, size);
+    }
+
+    private long[] grow(long[] array, int size) {
+        long[] newArray = new long[size];
+        System.arraycopy(array, 0, newArray, 0, mTop);
+        return newArray;
+    }
+}
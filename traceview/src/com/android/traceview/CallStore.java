@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * Storage of all the calls of a trace, as parallel arrays indexed by call id.
+ * <p/>A call takes a few dozen bytes in the arrays, without any per-call object. {@link Call}
+ * objects are only created on demand, as views of a single call.
+ * <p/>The top-level call of each thread is stored like the other calls, with no caller.
+ * <p/>The arrays are reallocated when calls are added, so they must be read from the fields
+ * each time instead of being kept in local variables across calls to {@link #add}.
+ */
+final class CallStore {
+
+    /** Caller id of the top-level calls. */
+    static final int NO_CALLER = -1;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int mSize = 0;
+
+    ThreadData[] mThreadData = new ThreadData[INITIAL_CAPACITY];
+    MethodData[] mMethodData = new MethodData[INITIAL_CAPACITY];
+    int[] mCaller = new int[INITIAL_CAPACITY];
+    boolean[] mIsRecursive = new boolean[INITIAL_CAPACITY];
+
+    long[] mGlobalStartTime = new long[INITIAL_CAPACITY];
+    long[] mGlobalEndTime = new long[INITIAL_CAPACITY];
+
+    // thread times are 32-bit values in the trace file.
+    int[] mThreadStartTime = new int[INITIAL_CAPACITY];
+    int[] mThreadEndTime = new int[INITIAL_CAPACITY];
+
+    long[] mInclusiveRealTime = new long[INITIAL_CAPACITY];
+    long[] mExclusiveRealTime = new long[INITIAL_CAPACITY];
+    long[] mInclusiveCpuTime = new long[INITIAL_CAPACITY];
+    long[] mExclusiveCpuTime = new long[INITIAL_CAPACITY];
+
+    /**
+     * Adds a call.
+     * @param threadData the thread making the call.
+     * @param methodData the method called.
+     * @param caller the id of the caller, or {@link #NO_CALLER} for the top-level call of the
+     *      thread.
+     * @return the id of the new call.
+     */
+    int add(ThreadData threadData, MethodData methodData, int caller) {
+        if (mSize == mCaller.length) {
+            resize(mSize + (mSize >> 1));
+        }
+
+        int call = mSize++;
+        mThreadData[call] = threadData;
+        mMethodData[call] = methodData;
+        mCaller[call] = caller;
+        return call;
+    }
+
+    /**
+     * Releases the unused capacity of the arrays, once all the calls have been added.
+     */
+    void trimToSize() {
+        if (mSize < mCaller.length) {
+            resize(mSize);
+        }
+    }
+
+    /**
+     * Returns the number of calls.
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns a view of a call.
+     */
+    Call getCall(int call) {
+        return new Call(this, call);
+    }
+
+    /**
+     * Returns whether a call is the top-level call of its thread.
+     */
+    boolean isRootCall(int call) {
+        return mCaller[call] == NO_CALLER;
+    }
+
+    /**
+     * Adds cpu time to a call.
+     */
+    void addCpuTime(int call, long elapsedCpuTime) {
+        mExclusiveCpuTime[call] += elapsedCpuTime;
+        mInclusiveCpuTime[call] += elapsedCpuTime;
+    }
+
+    /**
+     * Record time spent in the method call.
+     */
+    void finish(int call) {
+        addTimeToCaller(call);
+        addTimeToMethods(call, 0, 1);
+    }
+
+    /**
+     * Adds the inclusive time of a call to its caller.
+     */
+    void addTimeToCaller(int call) {
+        int caller = mCaller[call];
+        if (caller != NO_CALLER) {
+            mInclusiveCpuTime[caller] += mInclusiveCpuTime[call];
+            mInclusiveRealTime[caller] += mInclusiveRealTime[call];
+        }
+    }
+
+    /**
+     * Adds the time of a call to the profile data of its method and of the method of its
+     * caller. Only the methods in the given partition are updated, so that each partition can
+     * be updated by a different thread.
+     * @see MethodData#getPartition(MethodData, int)
+     */
+    void addTimeToMethods(int call, int partition, int partitionCount) {
+        MethodData methodData = mMethodData[call];
+        int caller = mCaller[call];
+        MethodData callerMethodData = caller != NO_CALLER ? mMethodData[caller] : null;
+
+        if (MethodData.getPartition(methodData, partitionCount) == partition) {
+            long exclusiveCpuTime = mExclusiveCpuTime[call];
+            long exclusiveRealTime = mExclusiveRealTime[call];
+            methodData.addElapsedExclusive(exclusiveCpuTime, exclusiveRealTime);
+            if (!mIsRecursive[call]) {
+                methodData.addTopExclusive(exclusiveCpuTime, exclusiveRealTime);
+            }
+            methodData.addInclusiveCall(mInclusiveCpuTime[call], mInclusiveRealTime[call],
+                    mIsRecursive[call], callerMethodData);
+        }
+
+        if (callerMethodData != null
+                && MethodData.getPartition(callerMethodData, partitionCount) == partition) {
+            callerMethodData.addInclusiveChild(mInclusiveCpuTime[call], mInclusiveRealTime[call],
+                    mIsRecursive[caller], methodData);
+        }
+    }
+
+    private void resize(int size) {
+        ThreadData[] threadData = new ThreadData[size];
+        System.arraycopy(mThreadData, 0, threadData, 0, mSize);
+        mThreadData = threadData;
+        MethodData[] methodData = new MethodData[size];
+        System.arraycopy(mMethodData, 0, methodData, 0, mSize);
+        mMethodData = methodData;
+        boolean[] isRecursive = new boolean[size];
+        System.arraycopy(mIsRecursive, 0, isRecursive, 0, mSize);
+        mIsRecursive = isRecursive;
+        mCaller = resize(mCaller, size);
+        mThreadStartTime = resize(mThreadStartTime, size);
+        mThreadEndTime = resize(mThreadEndTime, size);
+        mGlobalStartTime = resize(mGlobalStartTime, size);
+        mGlobalEndTime = resize(mGlobalEndTime, size);
+        mInclusiveRealTime = resize(mInclusiveRealTime, size);
+        mExclusiveRealTime = resize(mExclusiveRealTime, size);
+        mInclusiveCpuTime = resize(mInclusiveCpuTime, size);
+        mExclusiveCpuTime = resize(mExclusiveCpuTime, size);
+    }
+
+    private int[] resize(int[] array, int size) {
+        int[] newArray = new int[size];
+        System.arraycopy(array, 0, newArray, 0, mSize);
+        return newArray;
+    }
+
+    private long[] resize(long[] array, int size) {
+        long[] newArray = new long[size];
+        System.arraycopy(array, 0, newArray, 0, mSize);
+        return newArray;
+    }
+}
@@ -23,6 +23,7 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
@@ -31,6 +32,13 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,16 +54,39 @@ public class DmTraceReader extends TraceReader {
     // many microseconds.
     private static final long MIN_CONTEXT_SWITCH_TIME_USEC = 100;
 
+    // Size of the part of the file mapped at once by the streaming parse.
+    private static final int STREAM_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    // Max size of the header of the data section.
+    private static final int MAX_DATA_HEADER_SIZE = 64 * 1024;
+
+    /**
+     * Receives the progress of a streaming parse.
+     */
+    public interface IParseListener {
+        /**
+         * Called each time a part of the data section has been parsed.
+         * @param parsedBytes the number of bytes of the data section parsed so far.
+         * @param totalBytes the size of the data section.
+         */
+        void parseProgress(long parsedBytes, long totalBytes);
+    }
+
     private enum ClockSource {
         THREAD_CPU, WALL, DUAL,
     };
 
     private int mVersionNumber;
     private boolean mRegression;
+    private boolean mStreaming;
+    private IParseListener mParseListener;
+    private int mStreamWindowSize;
+    private int mParallelism; // the number of tasks the analysis is split into
+    private ExecutorService mExecutor; // runs the tasks of the analysis, created on first use
     private ProfileProvider mProfileProvider;
     private String mTraceFileName;
     private MethodData mTopLevel;
-    private ArrayList<Call> mCallList;
+    private CallStore mCallStore;
     private HashMap<String, String> mPropertiesMap;
     private HashMap<Integer, MethodData> mMethodMap;
     private HashMap<Integer, ThreadData> mThreadMap;
@@ -66,17 +97,63 @@ public class DmTraceReader extends TraceReader {
     private MethodData mContextSwitch;
     private int mRecordSize;
     private ClockSource mClockSource;
+    private long mStreamGlobalTime; // global time rebuilt by the streaming parse
 
     // A regex for matching the thread "id name" lines in the .key file
     private static final Pattern mIdNamePattern = Pattern.compile("(\\d+)\t(.*)");  //$NON-NLS-1$
 
     public DmTraceReader(String traceFileName, boolean regression) throws IOException {
+        this(traceFileName, regression, false, null);
+    }
+
+    /**
+     * Creates a reader for a trace file.
+     * <p/>In streaming mode, the data section is parsed in a single pass over successive parts
+     * of the file. No {@link Call} objects are created: the time of each call is added to its
+     * {@link MethodData} as soon as the call returns. The memory used then depends on the
+     * number of methods and threads rather than on the length of the trace, which allows
+     * opening traces that are too large for the default mode. The drawback is that only the
+     * top-level call of each thread is available to the timeline.
+     * <p/>When the trace only has a thread cpu clock, the streaming parse places the context
+     * switches at the point the thread was switched out, so the rebuilt real times can differ
+     * slightly from the default mode. The cpu times are the same.
+     *
+     * @param traceFileName the path of the trace file.
+     * @param regression whether to dump the parsed data.
+     * @param streaming whether to use the streaming parse.
+     * @param listener an optional listener receiving the progress of the streaming parse.
+     */
+    public DmTraceReader(String traceFileName, boolean regression, boolean streaming,
+            IParseListener listener) throws IOException {
+        this(traceFileName, regression, streaming, listener,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a reader for a trace file, splitting the analysis in the given number of tasks.
+     * A parallelism of 1 analyzes the trace on the calling thread.
+     */
+    DmTraceReader(String traceFileName, boolean regression, boolean streaming,
+            IParseListener listener, int parallelism) throws IOException {
+        this(traceFileName, regression, streaming, listener, parallelism, STREAM_WINDOW_SIZE);
+    }
+
+    /**
+     * Creates a reader for a trace file, mapping up to <var>streamWindowSize</var> bytes of the
+     * file at once in streaming mode.
+     */
+    DmTraceReader(String traceFileName, boolean regression, boolean streaming,
+            IParseListener listener, int parallelism, int streamWindowSize) throws IOException {
         mTraceFileName = traceFileName;
+        mStreamWindowSize = streamWindowSize;
         mRegression = regression;
+        mStreaming = streaming;
+        mParseListener = listener;
+        mParallelism = Math.max(1, parallelism);
         mPropertiesMap = new HashMap<String, String>();
         mMethodMap = new HashMap<Integer, MethodData>();
         mThreadMap = new HashMap<Integer, ThreadData>();
-        mCallList = new ArrayList<Call>();
+        mCallStore = new CallStore();
 
         // Create a single top-level MethodData object to hold the profile data
         // for time spent in the unknown caller.
@@ -88,9 +165,35 @@ public class DmTraceReader extends TraceReader {
     }
 
     void generateTrees() throws IOException {
-        long offset = parseKeys();
-        parseData(offset);
-        analyzeData();
+        try {
+            long offset = parseKeys();
+            if (mStreaming) {
+                parseDataStreaming(offset);
+            } else {
+                parseData(offset);
+            }
+            analyzeData();
+        } finally {
+            if (mExecutor != null) {
+                mExecutor.shutdown();
+                mExecutor = null;
+            }
+        }
+    }
+
+    /**
+     * Returns whether the trace was read with the streaming parse.
+     */
+    boolean isStreaming() {
+        return mStreaming;
+    }
+
+    /**
+     * Returns the store of the calls of the trace. With the streaming parse, the store only
+     * contains the top-level call of each thread.
+     */
+    CallStore getCallStore() {
+        return mCallStore;
     }
 
     @Override
@@ -115,7 +218,7 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
-    private void readDataFileHeader(MappedByteBuffer buffer) {
+    private void readDataFileHeader(ByteBuffer buffer) {
         int magic = buffer.getInt();
         if (magic != TRACE_MAGIC) {
             System.err.printf(
@@ -165,10 +268,11 @@ public class DmTraceReader extends TraceReader {
         MappedByteBuffer buffer = mapFile(mTraceFileName, offset);
         readDataFileHeader(buffer);
 
-        ArrayList<TraceAction> trace = null;
+        TraceActionLog trace = null;
         if (mClockSource == ClockSource.THREAD_CPU) {
-            trace = new ArrayList<TraceAction>();
+            trace = new TraceActionLog();
         }
+        final CallStore store = mCallStore;
 
         final boolean haveThreadClock = mClockSource != ClockSource.WALL;
         final boolean haveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
@@ -221,19 +325,8 @@ public class DmTraceReader extends TraceReader {
 
             int methodAction = methodId & 0x03;
             methodId = methodId & ~0x03;
-            MethodData methodData = mMethodMap.get(methodId);
-            if (methodData == null) {
-                String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
-                methodData = new MethodData(methodId, name);
-                mMethodMap.put(methodId, methodData);
-            }
-
-            ThreadData threadData = mThreadMap.get(threadId);
-            if (threadData == null) {
-                String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
-                threadData = new ThreadData(threadId, name, mTopLevel);
-                mThreadMap.put(threadId, threadData);
-            }
+            MethodData methodData = getMethodData(methodId);
+            ThreadData threadData = getThreadData(threadId);
 
             long elapsedGlobalTime = 0;
             if (haveGlobalClock) {
@@ -268,17 +361,16 @@ public class DmTraceReader extends TraceReader {
                     // time and itself accounts for zero thread time.
                     if (prevThreadData != null && prevThreadData != threadData) {
                         // Begin context switch from previous thread.
-                        Call switchCall = prevThreadData.enter(mContextSwitch, trace);
-                        switchCall.mThreadStartTime = prevThreadData.mThreadEndTime;
-                        mCallList.add(switchCall);
+                        int switchCall = prevThreadData.enter(mContextSwitch, trace);
+                        store.mThreadStartTime[switchCall] = (int) prevThreadData.mThreadEndTime;
 
                         // Return from context switch to current thread.
-                        Call top = threadData.top();
-                        if (top.getMethodData() == mContextSwitch) {
+                        int top = threadData.top();
+                        if (store.mMethodData[top] == mContextSwitch) {
                             threadData.exit(mContextSwitch, trace);
                             long beforeSwitch = elapsedThreadTime / 2;
-                            top.mThreadStartTime += beforeSwitch;
-                            top.mThreadEndTime = top.mThreadStartTime;
+                            store.mThreadStartTime[top] += beforeSwitch;
+                            store.mThreadEndTime[top] = store.mThreadStartTime[top];
                         }
                     }
                     prevThreadData = threadData;
@@ -289,44 +381,42 @@ public class DmTraceReader extends TraceReader {
                     // As above, we represent the context switch using a special method call.
                     long sleepTime = elapsedGlobalTime - elapsedThreadTime;
                     if (sleepTime > MIN_CONTEXT_SWITCH_TIME_USEC) {
-                        Call switchCall = threadData.enter(mContextSwitch, trace);
+                        int switchCall = threadData.enter(mContextSwitch, trace);
                         long beforeSwitch = elapsedThreadTime / 2;
                         long afterSwitch = elapsedThreadTime - beforeSwitch;
-                        switchCall.mGlobalStartTime = globalTime - elapsedGlobalTime + beforeSwitch;
-                        switchCall.mGlobalEndTime = globalTime - afterSwitch;
-                        switchCall.mThreadStartTime = threadTime - afterSwitch;
-                        switchCall.mThreadEndTime = switchCall.mThreadStartTime;
+                        store.mGlobalStartTime[switchCall] =
+                                globalTime - elapsedGlobalTime + beforeSwitch;
+                        store.mGlobalEndTime[switchCall] = globalTime - afterSwitch;
+                        store.mThreadStartTime[switchCall] = (int) (threadTime - afterSwitch);
+                        store.mThreadEndTime[switchCall] = store.mThreadStartTime[switchCall];
                         threadData.exit(mContextSwitch, trace);
-                        mCallList.add(switchCall);
                     }
                 }
 
                 // Add thread CPU time.
-                Call top = threadData.top();
-                top.addCpuTime(elapsedThreadTime);
+                store.addCpuTime(threadData.top(), elapsedThreadTime);
             }
 
             switch (methodAction) {
                 case METHOD_TRACE_ENTER: {
-                    Call call = threadData.enter(methodData, trace);
+                    int call = threadData.enter(methodData, trace);
                     if (haveGlobalClock) {
-                        call.mGlobalStartTime = globalTime;
+                        store.mGlobalStartTime[call] = globalTime;
                     }
                     if (haveThreadClock) {
-                        call.mThreadStartTime = threadTime;
+                        store.mThreadStartTime[call] = (int) threadTime;
                     }
-                    mCallList.add(call);
                     break;
                 }
                 case METHOD_TRACE_EXIT:
                 case METHOD_TRACE_UNROLL: {
-                    Call call = threadData.exit(methodData, trace);
-                    if (call != null) {
+                    int call = threadData.exit(methodData, trace);
+                    if (call != CallStore.NO_CALLER) {
                         if (haveGlobalClock) {
-                            call.mGlobalEndTime = globalTime;
+                            store.mGlobalEndTime[call] = globalTime;
                         }
                         if (haveThreadClock) {
-                            call.mThreadEndTime = threadTime;
+                            store.mThreadEndTime[call] = (int) threadTime;
                         }
                     }
                     break;
@@ -338,57 +428,448 @@ public class DmTraceReader extends TraceReader {
 
         // Exit any pending open-ended calls.
         for (ThreadData threadData : mThreadMap.values()) {
-            threadData.endTrace(trace);
+            threadData.endTrace();
         }
 
         // Recreate the global timeline from thread times, if needed.
         if (!haveGlobalClock) {
             long globalTime = 0;
             prevThreadData = null;
-            for (TraceAction traceAction : trace) {
-                Call call = traceAction.mCall;
-                ThreadData threadData = call.getThreadData();
-
-                if (traceAction.mAction == TraceAction.ACTION_ENTER) {
-                    long threadTime = call.mThreadStartTime;
-                    globalTime += call.mThreadStartTime - threadData.mThreadCurrentTime;
-                    call.mGlobalStartTime = globalTime;
+            for (int i = 0; i < trace.size(); i++) {
+                int call = trace.getCall(i);
+                ThreadData threadData = store.mThreadData[call];
+
+                if (trace.isEnter(i)) {
+                    long threadTime = store.mThreadStartTime[call];
+                    globalTime += threadTime - threadData.mThreadCurrentTime;
+                    store.mGlobalStartTime[call] = globalTime;
                     if (!threadData.mHaveGlobalTime) {
                         threadData.mHaveGlobalTime = true;
                         threadData.mGlobalStartTime = globalTime;
                     }
                     threadData.mThreadCurrentTime = threadTime;
-                } else if (traceAction.mAction == TraceAction.ACTION_EXIT) {
-                    long threadTime = call.mThreadEndTime;
-                    globalTime += call.mThreadEndTime - threadData.mThreadCurrentTime;
-                    call.mGlobalEndTime = globalTime;
+                } else {
+                    long threadTime = store.mThreadEndTime[call];
+                    globalTime += threadTime - threadData.mThreadCurrentTime;
+                    store.mGlobalEndTime[call] = globalTime;
                     threadData.mGlobalEndTime = globalTime;
                     threadData.mThreadCurrentTime = threadTime;
-                } // else, ignore ACTION_INCOMPLETE calls, nothing to do
+                } // incomplete calls are not logged, nothing to do
                 prevThreadData = threadData;
             }
         }
 
+        mCallStore.trimToSize();
+
         // Finish updating all calls and calculate the total time spent.
-        for (int i = mCallList.size() - 1; i >= 0; i--) {
-            Call call = mCallList.get(i);
+        finishCalls();
+        finishRootCalls();
+    }
+
+    /**
+     * Computes the time of all the calls, and adds it to their methods.
+     * <p/>The calls of each thread are timed in parallel, then the methods are updated in
+     * parallel, each task updating a separate partition of the methods. Each method receives
+     * the calls in the same order as a sequential update, so the result does not depend on
+     * the number of tasks.
+     */
+    private void finishCalls() {
+        final CallStore store = mCallStore;
+        final int size = store.size();
+
+        // Partition the calls by thread: the ids of the calls of each thread are stored in a
+        // range of threadCalls, in increasing order.
+        HashMap<ThreadData, Integer> threadIndexes = new HashMap<ThreadData, Integer>();
+        for (ThreadData threadData : mThreadMap.values()) {
+            threadIndexes.put(threadData, threadIndexes.size());
+        }
+        int threadCount = threadIndexes.size();
+        int[] threadIndexOfCall = new int[size];
+        final int[] threadStarts = new int[threadCount + 1];
+        for (int call = 0; call < size; call++) {
+            int index = threadIndexes.get(store.mThreadData[call]);
+            threadIndexOfCall[call] = index;
+            threadStarts[index + 1]++;
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threadStarts[i + 1] += threadStarts[i];
+        }
+        final int[] threadCalls = new int[size];
+        int[] threadPositions = Arrays.copyOf(threadStarts, threadCount);
+        for (int call = 0; call < size; call++) {
+            threadCalls[threadPositions[threadIndexOfCall[call]]++] = call;
+        }
+
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < threadCount; t++) {
+            final int start = threadStarts[t];
+            final int end = threadStarts[t + 1];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = end - 1; i >= start; i--) {
+                        int call = threadCalls[i];
+                        if (store.isRootCall(call)) {
+                            continue;
+                        }
+
+                        // Calculate exclusive real-time by subtracting inclusive real time
+                        // accumulated by children from the total span.
+                        long realTime = store.mGlobalEndTime[call] - store.mGlobalStartTime[call];
+                        store.mExclusiveRealTime[call] =
+                                Math.max(realTime - store.mInclusiveRealTime[call], 0);
+                        store.mInclusiveRealTime[call] = realTime;
+
+                        store.addTimeToCaller(call);
+                    }
+                    return null;
+                }
+            });
+        }
+        runTasks(tasks);
+
+        // Bucket the calls by the partitions of the methods they update: the partition of
+        // their method and the partition of the method of their caller. The calls are added
+        // from the last one, which is the order of a sequential update.
+        final int partitionCount = mParallelism;
+        final int[] partitionStarts = new int[partitionCount + 1];
+        for (int call = 0; call < size; call++) {
+            if (!store.isRootCall(call)) {
+                int partition = getPartition(call, partitionCount);
+                partitionStarts[partition + 1]++;
+                int callerPartition = getCallerPartition(call, partitionCount);
+                if (callerPartition >= 0 && callerPartition != partition) {
+                    partitionStarts[callerPartition + 1]++;
+                }
+            }
+        }
+        for (int p = 0; p < partitionCount; p++) {
+            partitionStarts[p + 1] += partitionStarts[p];
+        }
+        final int[] partitionCalls = new int[partitionStarts[partitionCount]];
+        int[] partitionPositions = Arrays.copyOf(partitionStarts, partitionCount);
+        for (int call = size - 1; call >= 0; call--) {
+            if (!store.isRootCall(call)) {
+                int partition = getPartition(call, partitionCount);
+                partitionCalls[partitionPositions[partition]++] = call;
+                int callerPartition = getCallerPartition(call, partitionCount);
+                if (callerPartition >= 0 && callerPartition != partition) {
+                    partitionCalls[partitionPositions[callerPartition]++] = call;
+                }
+            }
+        }
+
+        tasks.clear();
+        for (int p = 0; p < partitionCount; p++) {
+            final int partition = p;
+            final int start = partitionStarts[p];
+            final int end = partitionStarts[p + 1];
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = start; i < end; i++) {
+                        store.addTimeToMethods(partitionCalls[i], partition, partitionCount);
+                    }
+                    return null;
+                }
+            });
+        }
+        runTasks(tasks);
+    }
+
+    /**
+     * Returns the partition of the method of a call.
+     */
+    private int getPartition(int call, int partitionCount) {
+        return MethodData.getPartition(mCallStore.mMethodData[call], partitionCount);
+    }
+
+    /**
+     * Returns the partition of the method of the caller of a call, or -1 if it has no caller.
+     */
+    private int getCallerPartition(int call, int partitionCount) {
+        int caller = mCallStore.mCaller[call];
+        if (caller == CallStore.NO_CALLER) {
+            return -1;
+        }
+        return getPartition(caller, partitionCount);
+    }
+
+    /**
+     * Runs independent tasks on the pool of {@link #mParallelism} threads shared by the whole
+     * analysis, and waits for all of them to complete. The tasks are run on the calling thread
+     * if there is only one.
+     */
+    private void runTasks(List<Callable<Void>> tasks) {
+        if (mParallelism <= 1 || tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return;
+        }
+
+        if (mExecutor == null) {
+            mExecutor = Executors.newFixedThreadPool(mParallelism,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "Trace Analysis"); //$NON-NLS-1$
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        try {
+            for (Future<Void> result : mExecutor.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Parses the data section without creating {@link Call} objects.
+     * @see #DmTraceReader(String, boolean, boolean, IParseListener)
+     */
+    private void parseDataStreaming(long offset) throws IOException {
+        FileInputStream dataFile = new FileInputStream(mTraceFileName);
+        try {
+            FileChannel fc = dataFile.getChannel();
+            long size = fc.size();
+
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(size - offset, MAX_DATA_HEADER_SIZE));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            readDataFileHeader(buffer);
+
+            final boolean haveThreadClock = mClockSource != ClockSource.WALL;
+            final boolean haveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
+
+            long start = offset + buffer.position();
+            long position = start;
+            long windowSize = Math.max(1, mStreamWindowSize / mRecordSize) * (long) mRecordSize;
+            ThreadData prevThreadData = null;
+
+            // Map the records one window at a time, ignoring a truncated last record.
+            while (size - position >= mRecordSize) {
+                long length = Math.min(windowSize, ((size - position) / mRecordSize) * mRecordSize);
+                buffer = fc.map(FileChannel.MapMode.READ_ONLY, position, length);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                position += length;
+
+                while (buffer.hasRemaining()) {
+                    int threadId;
+                    int methodId;
+                    long threadTime, globalTime;
+                    int recordEnd = buffer.position() + mRecordSize;
+
+                    if (mVersionNumber == 1) {
+                        threadId = buffer.get();
+                    } else {
+                        threadId = buffer.getShort();
+                    }
+
+                    methodId = buffer.getInt();
+
+                    switch (mClockSource) {
+                        case WALL:
+                            threadTime = 0;
+                            globalTime = buffer.getInt();
+                            break;
+                        case DUAL:
+                            threadTime = buffer.getInt();
+                            globalTime = buffer.getInt();
+                            break;
+                        default:
+                        case THREAD_CPU:
+                            threadTime = buffer.getInt();
+                            globalTime = 0;
+                            break;
+                    }
+
+                    buffer.position(recordEnd);
+
+                    int methodAction = methodId & 0x03;
+                    methodId = methodId & ~0x03;
+                    MethodData methodData = getMethodData(methodId);
+                    ThreadData threadData = getThreadData(threadId);
+                    CallStack stack = threadData.getCallStack();
+
+                    long elapsedGlobalTime = 0;
+                    if (haveGlobalClock) {
+                        if (!threadData.mHaveGlobalTime) {
+                            threadData.mGlobalStartTime = globalTime;
+                            threadData.mHaveGlobalTime = true;
+                        } else {
+                            elapsedGlobalTime = globalTime - threadData.mGlobalEndTime;
+                        }
+                        threadData.mGlobalEndTime = globalTime;
+                    }
+
+                    if (haveThreadClock) {
+                        long elapsedThreadTime = 0;
+                        if (!threadData.mHaveThreadTime) {
+                            threadData.mThreadStartTime = threadTime;
+                            threadData.mThreadCurrentTime = threadTime;
+                            threadData.mHaveThreadTime = true;
+                        } else {
+                            elapsedThreadTime = threadTime - threadData.mThreadEndTime;
+                        }
+                        threadData.mThreadEndTime = threadTime;
+
+                        // Context switches are detected the same way as in parseData().
+                        if (!haveGlobalClock) {
+                            if (prevThreadData != null && prevThreadData != threadData) {
+                                // Begin context switch from previous thread.
+                                streamEnter(prevThreadData, mContextSwitch, 0,
+                                        prevThreadData.mThreadEndTime, false);
+
+                                // Return from context switch to current thread.
+                                if (stack.topMethod() == mContextSwitch) {
+                                    streamExit(threadData, mContextSwitch, 0,
+                                            threadData.mThreadCurrentTime, false);
+                                }
+                            }
+                            prevThreadData = threadData;
+                        } else {
+                            long sleepTime = elapsedGlobalTime - elapsedThreadTime;
+                            if (sleepTime > MIN_CONTEXT_SWITCH_TIME_USEC) {
+                                long beforeSwitch = elapsedThreadTime / 2;
+                                long afterSwitch = elapsedThreadTime - beforeSwitch;
+                                streamEnter(threadData, mContextSwitch,
+                                        globalTime - elapsedGlobalTime + beforeSwitch, 0, true);
+                                streamExit(threadData, mContextSwitch, globalTime - afterSwitch,
+                                        0, true);
+                            }
+                        }
+
+                        // Add thread CPU time.
+                        stack.addCpuTime(elapsedThreadTime);
+                    }
+
+                    switch (methodAction) {
+                        case METHOD_TRACE_ENTER:
+                            streamEnter(threadData, methodData, globalTime, threadTime,
+                                    haveGlobalClock);
+                            break;
+                        case METHOD_TRACE_EXIT:
+                        case METHOD_TRACE_UNROLL:
+                            streamExit(threadData, methodData, globalTime, threadTime,
+                                    haveGlobalClock);
+                            break;
+                        default:
+                            throw new RuntimeException(
+                                    "Unrecognized method action: " + methodAction);
+                    }
+                }
+
+                if (mParseListener != null) {
+                    mParseListener.parseProgress(position - start, size - start);
+                }
+            }
+        } finally {
+            dataFile.close();
+        }
 
-            // Calculate exclusive real-time by subtracting inclusive real time
-            // accumulated by children from the total span.
-            long realTime = call.mGlobalEndTime - call.mGlobalStartTime;
-            call.mExclusiveRealTime = Math.max(realTime - call.mInclusiveRealTime, 0);
-            call.mInclusiveRealTime = realTime;
+        // Exit any pending open-ended calls.
+        for (ThreadData threadData : mThreadMap.values()) {
+            threadData.getCallStack().endTrace(threadData.mGlobalEndTime, mCallStore,
+                    threadData.getRootCallId());
+        }
+
+        finishRootCalls();
+    }
+
+    /**
+     * Enters a call in the streaming parse.
+     * <p/>When the trace has no global clock, the global time is rebuilt from the thread time
+     * the same way parseData() does it once all the calls are known.
+     */
+    private void streamEnter(ThreadData threadData, MethodData methodData, long globalTime,
+            long threadTime, boolean haveGlobalClock) {
+        if (threadData.markNotEmpty() && !haveGlobalClock) {
+            // the top-level call of the thread starts at thread time 0.
+            rebuildGlobalTime(threadData, 0, true);
+        }
+
+        if (!haveGlobalClock) {
+            globalTime = rebuildGlobalTime(threadData, threadTime, true);
+        }
+        threadData.getCallStack().enter(methodData, globalTime);
+    }
+
+    /**
+     * Exits a call in the streaming parse.
+     * @see #streamEnter(ThreadData, MethodData, long, long, boolean)
+     */
+    private void streamExit(ThreadData threadData, MethodData methodData, long globalTime,
+            long threadTime, boolean haveGlobalClock) {
+        CallStack stack = threadData.getCallStack();
+        if (stack.canExit(methodData)) {
+            if (!haveGlobalClock) {
+                globalTime = rebuildGlobalTime(threadData, threadTime, false);
+            }
+            stack.exit(globalTime);
+        }
+    }
+
+    private long rebuildGlobalTime(ThreadData threadData, long threadTime, boolean enter) {
+        mStreamGlobalTime += threadTime - threadData.mThreadCurrentTime;
+        threadData.mThreadCurrentTime = threadTime;
+        if (enter) {
+            if (!threadData.mHaveGlobalTime) {
+                threadData.mHaveGlobalTime = true;
+                threadData.mGlobalStartTime = mStreamGlobalTime;
+            }
+        } else {
+            threadData.mGlobalEndTime = mStreamGlobalTime;
+        }
+        return mStreamGlobalTime;
+    }
 
-            call.finish();
+    private MethodData getMethodData(int methodId) {
+        MethodData methodData = mMethodMap.get(methodId);
+        if (methodData == null) {
+            String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
+            methodData = new MethodData(methodId, name);
+            mMethodMap.put(methodId, methodData);
         }
+        return methodData;
+    }
+
+    private ThreadData getThreadData(int threadId) {
+        ThreadData threadData = mThreadMap.get(threadId);
+        if (threadData == null) {
+            String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
+            threadData = new ThreadData(threadId, name, mTopLevel, mCallStore);
+            mThreadMap.put(threadId, threadData);
+        }
+        return threadData;
+    }
+
+    /**
+     * Adds the time of the root call of each thread and computes the total time spent.
+     */
+    private void finishRootCalls() {
         mTotalCpuTime = 0;
         mTotalRealTime = 0;
         for (ThreadData threadData : mThreadMap.values()) {
-            Call rootCall = threadData.getRootCall();
+            int rootCall = threadData.getRootCallId();
             threadData.updateRootCallTimeBounds();
-            rootCall.finish();
-            mTotalCpuTime += rootCall.mInclusiveCpuTime;
-            mTotalRealTime += rootCall.mInclusiveRealTime;
+            mCallStore.finish(rootCall);
+            mTotalCpuTime += mCallStore.mInclusiveCpuTime[rootCall];
+            mTotalRealTime += mCallStore.mInclusiveRealTime[rootCall];
         }
 
         if (mRegression) {
@@ -502,7 +983,7 @@ public class DmTraceReader extends TraceReader {
         if (name == null) name = "(unknown)";
 
         int id = Integer.decode(idStr);
-        mThreadMap.put(id, new ThreadData(id, name, mTopLevel));
+        mThreadMap.put(id, new ThreadData(id, name, mTopLevel, mCallStore));
     }
 
     void parseMethod(String line) {
@@ -591,16 +1072,24 @@ public class DmTraceReader extends TraceReader {
             mSortedMethods[ii++] = md;
         }
 
-        // Let each method analyze its profile data
-        for (MethodData md : mSortedMethods) {
-            md.analyzeData(timeBase);
-        }
-
-        // Update all the calls to include the method rank in
-        // their name.
-        for (Call call : mCallList) {
-            call.updateName();
+        // Let each method analyze its profile data. The methods are split in ranges
+        // analyzed in parallel.
+        ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        int taskCount = mParallelism;
+        for (int t = 0; t < taskCount; t++) {
+            final int methodStart = mSortedMethods.length * t / taskCount;
+            final int methodEnd = mSortedMethods.length * (t + 1) / taskCount;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = methodStart; i < methodEnd; i++) {
+                        mSortedMethods[i].analyzeData(timeBase);
+                    }
+                    return null;
+                }
+            });
         }
+        runTasks(tasks);
 
         if (mRegression) {
             dumpMethodStats();
@@ -628,9 +1117,12 @@ public class DmTraceReader extends TraceReader {
             }
         }
 
-        for (Call call : mCallList) {
-            record = new TimeLineView.Record(call.getThreadData(), call);
-            timeRecs.add(record);
+        for (int call = 0; call < mCallStore.size(); call++) {
+            if (!mCallStore.isRootCall(call)) {
+                record = new TimeLineView.Record(mCallStore.mThreadData[call],
+                        mCallStore.getCall(call));
+                timeRecs.add(record);
+            }
         }
 
         if (mRegression) {
@@ -655,11 +1147,15 @@ public class DmTraceReader extends TraceReader {
     private void dumpCallTimes() {
         System.out.print("\nCall Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end    excl.    incl.  method\n");
-        for (Call call : mCallList) {
+        for (int i = 0; i < mCallStore.size(); i++) {
+            if (mCallStore.isRootCall(i)) {
+                continue;
+            }
+            Call call = mCallStore.getCall(i);
             System.out.format("%2d %8d %8d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
-                    call.mExclusiveCpuTime, call.mInclusiveCpuTime,
+                    call.getThreadId(), call.getThreadStartTime(), call.getThreadEndTime(),
+                    call.getStartTime(), call.getEndTime(),
+                    call.getExclusiveCpuTime(), call.getInclusiveCpuTime(),
                     call.getMethodData().getName());
         }
     }
@@ -681,8 +1177,8 @@ public class DmTraceReader extends TraceReader {
         for (TimeLineView.Record record : timeRecs) {
             Call call = (Call) record.block;
             System.out.format("%2d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
+                    call.getThreadId(), call.getThreadStartTime(), call.getThreadEndTime(),
+                    call.getStartTime(), call.getEndTime(),
                     call.getMethodData().getName());
         }
     }
@@ -222,9 +222,34 @@ public class MainWindow extends ApplicationWindow {
     }
 
 
+    /**
+     * Prints the progress of a streaming parse, which happens before the window is opened.
+     */
+    private static class ParseProgressPrinter implements DmTraceReader.IParseListener {
+        private int mPercent = -1;
+
+        @Override
+        public void parseProgress(long parsedBytes, long totalBytes) {
+            int percent = totalBytes > 0 ? (int) (parsedBytes * 100 / totalBytes) : 100;
+            if (percent != mPercent) {
+                mPercent = percent;
+                System.out.printf("Parsed %d%% of the trace%n", percent);
+            }
+        }
+    }
+
     public static void main(String[] args) {
         TraceReader reader = null;
         boolean regression = false;
+        boolean streaming = false;
+
+        // Export the profiles without the UI
+        if (args.length > 0 && args[0].equals("-e")) {
+            String[] exportArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, exportArgs, 0, exportArgs.length);
+            TraceExporter.main(exportArgs);
+            return;
+        }
 
         // ping the usage server
 
@@ -243,14 +268,19 @@ public class MainWindow extends ApplicationWindow {
             }
             if (arg.equals("-r")) {
                 regression = true;
+            } else if (arg.equals("-s")) {
+                streaming = true;
             } else {
                 break;
             }
             argc++;
         }
         if (argc != len - 1) {
-            System.out.printf("Usage: java %s [-r] trace%n", MainWindow.class.getName());
+            System.out.printf("Usage: java %s [-r] [-s] trace%n", MainWindow.class.getName());
             System.out.printf("  -r   regression only%n");
+            System.out.printf("  -s   streaming parse of large traces, without call timeline%n");
+            System.out.printf("Usage: java %s -e [options] trace...%n", MainWindow.class.getName());
+            System.out.printf("  -e   export the profiles of traces to CSV or JSON files, without UI%n");
             return;
         }
 
@@ -283,7 +313,8 @@ public class MainWindow extends ApplicationWindow {
             }
 
             try {
-                reader = new DmTraceReader(traceName, regression);
+                reader = new DmTraceReader(traceName, regression, streaming,
+                        streaming ? new ParseProgressPrinter() : null);
             } catch (IOException e) {
                 System.err.printf("Failed to read the trace file");
                 e.printStackTrace();
@@ -115,6 +115,37 @@ public class MethodData {
 
     public void addElapsedInclusive(long cpuTime, long realTime,
             boolean isRecursive, Call parent) {
+        if (parent == null) {
+            addElapsedInclusive(cpuTime, realTime, isRecursive, null, false);
+        } else {
+            addElapsedInclusive(cpuTime, realTime, isRecursive, parent.getMethodData(),
+                    parent.isRecursive());
+        }
+    }
+
+    /**
+     * Adds the time of a call to this method.
+     * @param cpuTime the inclusive cpu time of the call.
+     * @param realTime the inclusive real time of the call.
+     * @param isRecursive whether this method was already on the stack when it was called.
+     * @param parentMethod the method of the caller, or null for the top-level call.
+     * @param parentIsRecursive whether the call to the caller was recursive.
+     */
+    void addElapsedInclusive(long cpuTime, long realTime, boolean isRecursive,
+            MethodData parentMethod, boolean parentIsRecursive) {
+        addInclusiveCall(cpuTime, realTime, isRecursive, parentMethod);
+        if (parentMethod != null) {
+            parentMethod.addInclusiveChild(cpuTime, realTime, parentIsRecursive, this);
+        }
+    }
+
+    /**
+     * Adds the time of a call to this method, and to its parent. This only updates this
+     * {@link MethodData}.
+     * @see #addElapsedInclusive(long, long, boolean, MethodData, boolean)
+     */
+    void addInclusiveCall(long cpuTime, long realTime, boolean isRecursive,
+            MethodData parentMethod) {
         if (isRecursive == false) {
             mElapsedInclusiveCpuTime += cpuTime;
             mElapsedInclusiveRealTime += realTime;
@@ -123,20 +154,9 @@ public class MethodData {
             mNumCalls[1] += 1;
         }
 
-        if (parent == null)
+        if (parentMethod == null)
             return;
 
-        // Find the child method in the parent
-        MethodData parentMethod = parent.getMethodData();
-        if (parent.isRecursive()) {
-            parentMethod.mRecursiveChildren = updateInclusive(cpuTime, realTime,
-                    parentMethod, this, false,
-                    parentMethod.mRecursiveChildren);
-        } else {
-            parentMethod.mChildren = updateInclusive(cpuTime, realTime,
-                    parentMethod, this, false, parentMethod.mChildren);
-        }
-
         // Find the parent method in the child
         if (isRecursive) {
             mRecursiveParents = updateInclusive(cpuTime, realTime, this, parentMethod, true,
@@ -147,6 +167,36 @@ public class MethodData {
         }
     }
 
+    /**
+     * Adds the time of a call made by this method to one of its children. This only updates
+     * this {@link MethodData}.
+     * @param cpuTime the inclusive cpu time of the call to the child.
+     * @param realTime the inclusive real time of the call to the child.
+     * @param isRecursive whether the call to this method was recursive.
+     * @param childMethod the method called.
+     */
+    void addInclusiveChild(long cpuTime, long realTime, boolean isRecursive,
+            MethodData childMethod) {
+        // Find the child method in the parent
+        if (isRecursive) {
+            mRecursiveChildren = updateInclusive(cpuTime, realTime,
+                    this, childMethod, false, mRecursiveChildren);
+        } else {
+            mChildren = updateInclusive(cpuTime, realTime,
+                    this, childMethod, false, mChildren);
+        }
+    }
+
+    /**
+     * Returns the partition of a method, used to update the methods from several threads
+     * without locking.
+     * @param partitionCount the number of partitions.
+     */
+    static int getPartition(MethodData method, int partitionCount) {
+        int hash = method.mId * 0x9E3779B9;
+        return (hash >>> 16) % partitionCount;
+    }
+
     private HashMap<Integer, ProfileData> updateInclusive(long cpuTime, long realTime,
             MethodData contextMethod, MethodData elementMethod,
             boolean elementIsParent, HashMap<Integer, ProfileData> map) {
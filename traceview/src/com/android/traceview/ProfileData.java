@@ -69,6 +69,10 @@ public class ProfileData {
         mNumCalls = numCalls;
     }
 
+    public int getCallCount() {
+        return mNumCalls;
+    }
+
     public String getNumCalls() {
         int totalCalls;
         if (mElementIsParent)
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * Index of the segments of a row of the {@link TimeLineView}, used to render the row at any
+ * zoom level in a time proportional to the number of visible pixels instead of the number of
+ * visible segments.
+ * <p/>The segments are sorted by start time and don't overlap. Each segment has a weight,
+ * usually its duration, and the index is a tree of summaries of runs of 1, 2, 4... segments
+ * holding the segment with the highest weight of the run. The summaries are stored in a single
+ * array, where node <code>n</code> summarizes nodes <code>2n</code> and <code>2n + 1</code>, and
+ * the leaves are at <code>[count, 2 * count)</code>.
+ */
+final class SegmentIndex {
+
+    private final long[] mStartTimes;
+    private final long[] mEndTimes;
+    private final long[] mWeights;
+
+    // highest end time of the segments [0, i].
+    private final long[] mMaxEndTimes;
+
+    // index of the segment with the highest weight in each node of the tree.
+    private final int[] mTree;
+    private final int mCount;
+
+    /**
+     * Creates an index.
+     * @param startTimes the start times of the segments, in increasing order.
+     * @param endTimes the end times of the segments.
+     * @param weights the weights of the segments. Segments with a weight of 0 are never
+     *      returned by {@link #findHeaviest(int, int)}, unless all the segments of the range
+     *      have a weight of 0.
+     */
+    SegmentIndex(long[] startTimes, long[] endTimes, long[] weights) {
+        mStartTimes = startTimes;
+        mEndTimes = endTimes;
+        mWeights = weights;
+        mCount = startTimes.length;
+
+        mMaxEndTimes = new long[mCount];
+        long maxEndTime = Long.MIN_VALUE;
+        for (int i = 0; i < mCount; i++) {
+            maxEndTime = Math.max(maxEndTime, endTimes[i]);
+            mMaxEndTimes[i] = maxEndTime;
+        }
+
+        mTree = new int[2 * mCount];
+        for (int i = 0; i < mCount; i++) {
+            mTree[mCount + i] = i;
+        }
+        for (int n = mCount - 1; n > 0; n--) {
+            mTree[n] = heaviest(mTree[2 * n], mTree[2 * n + 1]);
+        }
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    long getStartTime(int segment) {
+        return mStartTimes[segment];
+    }
+
+    long getEndTime(int segment) {
+        return mEndTimes[segment];
+    }
+
+    long getWeight(int segment) {
+        return mWeights[segment];
+    }
+
+    /**
+     * Returns the first segment that ends after a given time, or {@link #getCount()} if there
+     * are none.
+     */
+    int findFirstEndingAfter(double time) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMaxEndTimes[mid] > time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first segment that starts at or after a given time, or {@link #getCount()}
+     * if there are none.
+     */
+    int findFirstStartingAt(double time) {
+        int low = 0;
+        int high = mCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mStartTimes[mid] >= time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first of a subset of the segments that may end after a given time, that is
+     * the first one that ends after it or follows a segment that does.
+     * @param subset segments of this index, in increasing order.
+     * @return an index into <var>subset</var>, or its length if there are none.
+     */
+    int findFirstEndingAfter(int[] subset, double time) {
+        int low = 0;
+        int high = subset.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mMaxEndTimes[subset[mid]] > time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the first of a subset of the segments that starts at or after a given time.
+     * @param subset segments of this index, in increasing order.
+     * @return an index into <var>subset</var>, or its length if there are none.
+     */
+    int findFirstStartingAt(int[] subset, double time) {
+        int low = 0;
+        int high = subset.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mStartTimes[subset[mid]] >= time) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the segment that covers the most of each pixel, for a range of visible segments.
+     * The candidates for a pixel are the segments that overlap its edges, and the heaviest
+     * segment between them, which is entirely in the pixel.
+     * @param first the first visible segment.
+     * @param last the end of the visible segments, exclusive.
+     * @param minVal the time at pixel 0.
+     * @param maxVal the last visible time.
+     * @param pixelsPerRange the number of pixels per time unit.
+     * @param numPixels the number of pixels.
+     * @param result receives the segments, and must hold at least <code>numPixels + 1</code>.
+     * @return the number of segments stored in <var>result</var>, in increasing order.
+     */
+    int findDominantSegments(int first, int last, double minVal, double maxVal,
+            double pixelsPerRange, int numPixels, int[] result) {
+        int count = 0;
+        int start = first;
+        for (int pixel = 0; pixel <= numPixels && start < last; ++pixel) {
+            // The values that are drawn on this pixel
+            double pixelStart = Math.max(minVal, minVal + (pixel - 0.5) / pixelsPerRange);
+            double pixelEnd = Math.min(maxVal, minVal + (pixel + 0.5) / pixelsPerRange);
+            start = Math.max(start, findFirstEndingAfter(pixelStart));
+            int end = Math.min(last, findFirstStartingAt(pixelEnd));
+            if (start >= end) {
+                continue;
+            }
+
+            int dominant = start;
+            double maxCoverage = computeCoverage(start, pixelStart, pixelEnd);
+            int middle = findHeaviest(start + 1, end - 1);
+            if (middle >= 0) {
+                double coverage = mWeights[middle];
+                if (coverage > maxCoverage) {
+                    dominant = middle;
+                    maxCoverage = coverage;
+                }
+            }
+            if (end - 1 > start) {
+                double coverage = computeCoverage(end - 1, pixelStart, pixelEnd);
+                if (coverage > maxCoverage) {
+                    dominant = end - 1;
+                }
+            }
+
+            if (count == 0 || result[count - 1] != dominant) {
+                result[count++] = dominant;
+            }
+
+            // The last segment may continue on the next pixel
+            start = end - 1;
+        }
+        return count;
+    }
+
+    private double computeCoverage(int segment, double start, double end) {
+        if (mWeights[segment] == 0) {
+            return 0;
+        }
+        return Math.min(mEndTimes[segment], end) - Math.max(mStartTimes[segment], start);
+    }
+
+    /**
+     * Returns the segment with the highest weight in a range of segments. Ties go to the first
+     * segment.
+     * @param from the first segment of the range.
+     * @param to the end of the range, exclusive.
+     * @return the index of the segment, or -1 if the range is empty.
+     */
+    int findHeaviest(int from, int to) {
+        int result = -1;
+        for (int low = from + mCount, high = to + mCount; low < high;
+                low >>>= 1, high >>>= 1) {
+            if ((low & 1) != 0) {
+                result = heaviest(result, mTree[low++]);
+            }
+            if ((high & 1) != 0) {
+                result = heaviest(result, mTree[--high]);
+            }
+        }
+        return result;
+    }
+
+    private int heaviest(int segment1, int segment2) {
+        if (segment1 < 0) {
+            return segment2;
+        }
+        if (segment2 < 0) {
+            return segment1;
+        }
+        long weight1 = mWeights[segment1];
+        long weight2 = mWeights[segment2];
+        if (weight1 != weight2) {
+            return weight1 > weight2 ? segment1 : segment2;
+        }
+        return Math.min(segment1, segment2);
+    }
+}
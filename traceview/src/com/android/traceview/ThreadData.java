@@ -16,7 +16,6 @@
 
 package com.android.traceview;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 class ThreadData implements TimeLineView.Row {
@@ -25,12 +24,19 @@ class ThreadData implements TimeLineView.Row {
     private String mName;
     private boolean mIsEmpty;
 
-    private Call mRootCall;
-    private ArrayList<Call> mStack = new ArrayList<Call>();
+    private final CallStore mCallStore;
+    private final int mRootCall;
+
+    // ids of the calls on the stack, starting with the root call.
+    private int[] mStack = new int[16];
+    private int mStackSize = 0;
 
     // This is a hash of all the methods that are currently on the stack.
     private HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
 
+    // Call stack used instead of the call store by the streaming parse.
+    private CallStack mCallStack;
+
     boolean mHaveGlobalTime;
     long mGlobalStartTime;
     long mGlobalEndTime;
@@ -41,13 +47,13 @@ class ThreadData implements TimeLineView.Row {
 
     long mThreadCurrentTime; // only used while parsing thread-cpu clock
 
-    ThreadData(int id, String name, MethodData topLevel) {
+    ThreadData(int id, String name, MethodData topLevel, CallStore callStore) {
         mId = id;
         mName = String.format("[%d] %s", id, name);
         mIsEmpty = true;
-        mRootCall = new Call(this, topLevel, null);
-        mRootCall.setName(mName);
-        mStack.add(mRootCall);
+        mCallStore = callStore;
+        mRootCall = callStore.add(this, topLevel, CallStore.NO_CALLER);
+        push(mRootCall);
     }
 
     @Override
@@ -56,6 +62,13 @@ class ThreadData implements TimeLineView.Row {
     }
 
     public Call getRootCall() {
+        return mCallStore.getCall(mRootCall);
+    }
+
+    /**
+     * Returns the id of the root call in the call store.
+     */
+    int getRootCallId() {
         return mRootCall;
     }
 
@@ -66,50 +79,80 @@ class ThreadData implements TimeLineView.Row {
         return mIsEmpty;
     }
 
-    Call enter(MethodData method, ArrayList<TraceAction> trace) {
+    /**
+     * Marks the thread as having recorded calls.
+     * @return true if no calls had been recorded for the thread before.
+     */
+    boolean markNotEmpty() {
+        boolean wasEmpty = mIsEmpty;
+        mIsEmpty = false;
+        return wasEmpty;
+    }
+
+    /**
+     * Returns the call stack used by the streaming parse, which does not store the calls.
+     */
+    CallStack getCallStack() {
+        if (mCallStack == null) {
+            mCallStack = new CallStack(mCallStore.mMethodData[mRootCall]);
+        }
+        return mCallStack;
+    }
+
+    /**
+     * Adds a call to the call store and pushes it on the stack.
+     * @return the id of the new call.
+     */
+    int enter(MethodData method, TraceActionLog trace) {
         if (mIsEmpty) {
             mIsEmpty = false;
             if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_ENTER, mRootCall));
+                trace.enter(mRootCall);
             }
         }
 
-        Call caller = top();
-        Call call = new Call(this, method, caller);
-        mStack.add(call);
+        int caller = top();
+        int call = mCallStore.add(this, method, caller);
+        push(call);
 
         if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_ENTER, call));
+            trace.enter(call);
         }
 
         Integer num = mStackMethods.get(method);
         if (num == null) {
             num = 0;
         } else if (num > 0) {
-            call.setRecursive(true);
+            mCallStore.mIsRecursive[call] = true;
         }
         mStackMethods.put(method, num + 1);
 
         return call;
     }
 
-    Call exit(MethodData method, ArrayList<TraceAction> trace) {
-        Call call = top();
-        if (call.mCaller == null) {
-            return null;
+    /**
+     * Pops the call at the top of the stack.
+     * @return the id of the call, or {@link CallStore#NO_CALLER} if the stack only contains
+     *      the root call.
+     */
+    int exit(MethodData method, TraceActionLog trace) {
+        int call = top();
+        if (mCallStore.isRootCall(call)) {
+            return CallStore.NO_CALLER;
         }
 
-        if (call.getMethodData() != method) {
+        MethodData callMethod = mCallStore.mMethodData[call];
+        if (callMethod != method) {
             String error = "Method exit (" + method.getName()
-                    + ") does not match current method (" + call.getMethodData().getName()
+                    + ") does not match current method (" + callMethod.getName()
                     + ")";
             throw new RuntimeException(error);
         }
 
-        mStack.remove(mStack.size() - 1);
+        mStackSize--;
 
         if (trace != null) {
-            trace.add(new TraceAction(TraceAction.ACTION_EXIT, call));
+            trace.exit(call);
         }
 
         Integer num = mStackMethods.get(method);
@@ -124,30 +167,39 @@ class ThreadData implements TimeLineView.Row {
         return call;
     }
 
-    Call top() {
-        return mStack.get(mStack.size() - 1);
+    /**
+     * Returns the id of the call at the top of the stack.
+     */
+    int top() {
+        return mStack[mStackSize - 1];
     }
 
-    void endTrace(ArrayList<TraceAction> trace) {
-        for (int i = mStack.size() - 1; i >= 1; i--) {
-            Call call = mStack.get(i);
-            call.mGlobalEndTime = mGlobalEndTime;
-            call.mThreadEndTime = mThreadEndTime;
-            if (trace != null) {
-                trace.add(new TraceAction(TraceAction.ACTION_INCOMPLETE, call));
-            }
+    void endTrace() {
+        for (int i = mStackSize - 1; i >= 1; i--) {
+            int call = mStack[i];
+            mCallStore.mGlobalEndTime[call] = mGlobalEndTime;
+            mCallStore.mThreadEndTime[call] = (int) mThreadEndTime;
         }
-        mStack.clear();
+        mStackSize = 0;
         mStackMethods.clear();
     }
 
     void updateRootCallTimeBounds() {
         if (!mIsEmpty) {
-            mRootCall.mGlobalStartTime = mGlobalStartTime;
-            mRootCall.mGlobalEndTime = mGlobalEndTime;
-            mRootCall.mThreadStartTime = mThreadStartTime;
-            mRootCall.mThreadEndTime = mThreadEndTime;
+            mCallStore.mGlobalStartTime[mRootCall] = mGlobalStartTime;
+            mCallStore.mGlobalEndTime[mRootCall] = mGlobalEndTime;
+            mCallStore.mThreadStartTime[mRootCall] = (int) mThreadStartTime;
+            mCallStore.mThreadEndTime[mRootCall] = (int) mThreadEndTime;
+        }
+    }
+
+    private void push(int call) {
+        if (mStackSize == mStack.length) {
+            int[] stack = new int[mStackSize * 2];
+            System.arraycopy(mStack, 0, stack, 0, mStackSize);
+            mStack = stack;
         }
+        mStack[mStackSize++] = call;
     }
 
     @Override
@@ -161,10 +213,10 @@ class ThreadData implements TimeLineView.Row {
     }
 
     public long getCpuTime() {
-        return mRootCall.mInclusiveCpuTime;
+        return mCallStore.mInclusiveCpuTime[mRootCall];
     }
 
     public long getRealTime() {
-        return mRootCall.mInclusiveRealTime;
+        return mCallStore.mInclusiveRealTime[mRootCall];
     }
 }
@@ -48,6 +48,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -56,6 +57,7 @@ public class TimeLineView extends Composite implements Observer {
     private HashMap<String, RowData> mRowByName;
     private RowData[] mRows;
     private Segment[] mSegments;
+    private Block[] mWeightBlocks = new Block[0];
     private HashMap<Integer, String> mThreadLabels;
     private Timescale mTimescale;
     private Surface mSurface;
@@ -107,6 +109,13 @@ public class TimeLineView extends Composite implements Observer {
     private Call mHighlightCall;
     private static final int MinInclusiveRange = 3;
 
+    /**
+     * Max number of segments per pixel for which the segments of a row are
+     * drawn one by one. Above that, only the segment covering the most of each
+     * pixel is drawn.
+     */
+    private static final int MaxSegmentsPerPixel = 2;
+
     /** Setting the fonts looks good on Linux but bad on Macs */
     private boolean mSetFonts = false;
 
@@ -526,12 +535,32 @@ public class TimeLineView extends Composite implements Observer {
                     long timeDiff = bd1.mStartTime - bd2.mStartTime;
                     if (timeDiff == 0)
                         timeDiff = bd1.mEndTime - bd2.mEndTime;
-                    return (int) timeDiff;
+                    return Long.signum(timeDiff);
                 }
                 return diff;
             }
         });
 
+        // Index the segments of each row, and keep one block per method
+        // to clear the pixel weights of the methods.
+        HashMap<MethodData, Block> weightBlocks = new HashMap<MethodData, Block>();
+        int firstSegment = 0;
+        while (firstSegment < mSegments.length) {
+            RowData rd = mSegments[firstSegment].mRowData;
+            int lastSegment = firstSegment + 1;
+            while (lastSegment < mSegments.length
+                    && mSegments[lastSegment].mRowData == rd)
+                lastSegment += 1;
+            rd.setSegments(mSegments, firstSegment, lastSegment);
+            for (int ii = firstSegment; ii < lastSegment; ++ii) {
+                Block block = mSegments[ii].mBlock;
+                weightBlocks.put(block.getMethodData(), block);
+            }
+            firstSegment = lastSegment;
+        }
+        Collection<Block> wb = weightBlocks.values();
+        mWeightBlocks = wb.toArray(new Block[wb.size()]);
+
         if (false) {
             for (Segment segment : mSegments) {
                 System.out.printf("seg '%s' [%6d, %6d] %s\n",
@@ -1344,8 +1373,8 @@ public class TimeLineView extends Composite implements Observer {
                 pixels[ii] = new Pixel();
 
             // Clear the per-block pixel data
-            for (int ii = 0; ii < mSegments.length; ++ii) {
-                mSegments[ii].mBlock.clearWeight();
+            for (Block block : mWeightBlocks) {
+                block.clearWeight();
             }
 
             mStripList.clear();
@@ -1381,174 +1410,236 @@ public class TimeLineView extends Composite implements Observer {
                 mHighlightInclusive.add(new Range(callPixelStart + LeftMargin,
                         callPixelEnd + LeftMargin, y1, color));
             }
-            for (Segment segment : mSegments) {
-                if (segment.mEndTime <= minVal)
-                    continue;
-                if (segment.mStartTime >= maxVal)
-                    continue;
-
-                Block block = segment.mBlock;
-
-                // Skip over blocks that were not assigned a color, including the
-                // top level block and others that have zero inclusive time.
-                Color color = block.getColor();
-                if (color == null)
-                    continue;
-
-                double recordStart = Math.max(segment.mStartTime, minVal);
-                double recordEnd = Math.min(segment.mEndTime, maxVal);
-                if (recordStart == recordEnd)
-                    continue;
-                int pixelStart = mScaleInfo.valueToPixel(recordStart);
-                int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
-                int width = pixelEnd - pixelStart;
-                boolean isContextSwitch = segment.mIsContextSwitch;
-
-                RowData rd = segment.mRowData;
-                MethodData md = block.getMethodData();
-
-                // We will add the scroll offset later when we draw the strips
-                int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
-
+            int[] dominantSegments = new int[mScaleInfo.getNumPixels() + 1];
+            for (RowData rd : mRows) {
                 // If we can't display any more rows, then quit
                 if (rd.mRank > mEndRow)
                     break;
+                SegmentIndex index = rd.mIndex;
+                if (index == null)
+                    continue;
 
-                // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
-                // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
-                // block.getName(), recordStart, recordEnd,
-                // scaleInfo.valueToPixelFraction(recordStart),
-                // scaleInfo.valueToPixelFraction(recordEnd),
-                // pixelStart, pixelEnd, pixels[rd.rank].start,
-                // pixels[rd.rank].maxWeight,
-                // pixels[rd.rank].segment != null
-                // ? pixels[rd.rank].segment.block.getName()
-                // : "null");
+                // Draw the visible segments one by one, unless there are many
+                // more of them than pixels. In that case only draw the segment
+                // that covers the most of each pixel, so that the time it takes
+                // only depends on the number of pixels.
+                int first = index.findFirstEndingAfter(minVal);
+                int last = index.findFirstStartingAt(maxVal);
+                int count = last - first;
+                boolean summarize =
+                        count > MaxSegmentsPerPixel * mScaleInfo.getNumPixels();
+                if (summarize) {
+                    count = index.findDominantSegments(first, last, minVal,
+                            maxVal, mScaleInfo.getPixelsPerRange(),
+                            mScaleInfo.getNumPixels(), dominantSegments);
+                }
 
-                if (mHighlightMethodData != null) {
-                    if (mHighlightMethodData == md) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
-                            callStart = block.getStartTime();
-                            int callPixelStart = -1;
-                            if (callStart >= minVal)
-                                callPixelStart = mScaleInfo.valueToPixel(callStart);
-                            int callPixelEnd = -1;
-                            callEnd = block.getEndTime();
-                            if (callEnd <= maxVal)
-                                callPixelEnd = mScaleInfo.valueToPixel(callEnd);
-                            if (prevCallStart != callPixelStart || prevCallEnd != callPixelEnd) {
-                                prevCallStart = callPixelStart;
-                                prevCallEnd = callPixelEnd;
-                                mHighlightInclusive.add(new Range(
-                                        callPixelStart + LeftMargin,
-                                        callPixelEnd + LeftMargin, y1, color));
-                            }
-                        }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
-                    }
-                } else if (mHighlightCall != null) {
-                    if (segment.mStartTime >= callStart
-                            && segment.mEndTime <= callEnd && callMethod == md
-                            && callRowData == rd) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
+                // Highlight the calls of the highlighted method, or the
+                // highlighted call, whether or not they are drawn.
+                MethodData highlightMethod = mHighlightMethodData;
+                double highlightStart = minVal;
+                double highlightEnd = maxVal;
+                if (highlightMethod == null && callRowData == rd) {
+                    highlightMethod = callMethod;
+                    highlightStart = Math.max(minVal, callStart);
+                    highlightEnd = Math.min(maxVal, callEnd);
+                }
+                int[] methodSegments = highlightMethod == null ? null
+                        : rd.mSegmentsByMethod.get(highlightMethod);
+                if (methodSegments != null) {
+                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+                    int from = index.findFirstEndingAfter(methodSegments,
+                            highlightStart);
+                    int to = index.findFirstStartingAt(methodSegments,
+                            highlightEnd);
+                    for (int jj = from; jj < to; ++jj) {
+                        Segment segment = mSegments[rd.mFirstSegment
+                                + methodSegments[jj]];
+                        if (segment.mEndTime <= minVal)
+                            continue;
+                        if (segment.mStartTime >= maxVal)
+                            continue;
+                        Block block = segment.mBlock;
+                        Color color = block.getColor();
+                        if (color == null)
+                            continue;
+                        if (mHighlightMethodData == null
+                                && (segment.mStartTime < callStart
+                                        || segment.mEndTime > callEnd))
+                            continue;
+
+                        double recordStart = Math.max(segment.mStartTime, minVal);
+                        double recordEnd = Math.min(segment.mEndTime, maxVal);
+                        if (recordStart == recordEnd)
+                            continue;
+                        int pixelStart = mScaleInfo.valueToPixel(recordStart);
+                        int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
+                        if (prevMethodStart == pixelStart && prevMethodEnd == pixelEnd)
+                            continue;
+                        prevMethodStart = pixelStart;
+                        prevMethodEnd = pixelEnd;
+                        int rangeWidth = pixelEnd - pixelStart;
+                        if (rangeWidth == 0)
+                            rangeWidth = 1;
+                        mHighlightExclusive.add(new Range(pixelStart
+                                + LeftMargin, rangeWidth, y1, color));
+                        if (mHighlightMethodData == null)
+                            continue;
+
+                        // The whole call of the highlighted method
+                        long blockStart = block.getStartTime();
+                        int callPixelStart = -1;
+                        if (blockStart >= minVal)
+                            callPixelStart = mScaleInfo.valueToPixel(blockStart);
+                        int callPixelEnd = -1;
+                        long blockEnd = block.getEndTime();
+                        if (blockEnd <= maxVal)
+                            callPixelEnd = mScaleInfo.valueToPixel(blockEnd);
+                        if (prevCallStart != callPixelStart
+                                || prevCallEnd != callPixelEnd) {
+                            prevCallStart = callPixelStart;
+                            prevCallEnd = callPixelEnd;
+                            mHighlightInclusive.add(new Range(
+                                    callPixelStart + LeftMargin,
+                                    callPixelEnd + LeftMargin, y1, color));
                         }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
                     }
                 }
 
-                // Cases:
-                // 1. This segment starts on a different pixel than the
-                // previous segment started on. In this case, emit
-                // the pixel strip, if any, and:
-                // A. If the width is 0, then add this segment's
-                // weight to the Pixel.
-                // B. If the width > 0, then emit a strip for this
-                // segment (no partial Pixel data).
-                //
-                // 2. Otherwise (the new segment starts on the same
-                // pixel as the previous segment): add its "weight"
-                // to the current pixel, and:
-                // A. If the new segment has width 1,
-                // then emit the pixel strip and then
-                // add the segment's weight to the pixel.
-                // B. If the new segment has width > 1,
-                // then emit the pixel strip, and emit the rest
-                // of the strip for this segment (no partial Pixel
-                // data).
-
-                Pixel pix = pixels[rd.mRank];
-                if (pix.mStart != pixelStart) {
-                    if (pix.mSegment != null) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
+                for (int jj = 0; jj < count; ++jj) {
+                    int ii = summarize ? dominantSegments[jj] : first + jj;
+                    Segment segment = mSegments[rd.mFirstSegment + ii];
+                    if (segment.mEndTime <= minVal)
+                        continue;
+                    if (segment.mStartTime >= maxVal)
+                        continue;
+
+                    Block block = segment.mBlock;
+
+                    // Skip over blocks that were not assigned a color, including the
+                    // top level block and others that have zero inclusive time.
+                    Color color = block.getColor();
+                    if (color == null)
+                        continue;
+
+                    double recordStart = Math.max(segment.mStartTime, minVal);
+                    double recordEnd = Math.min(segment.mEndTime, maxVal);
+                    if (recordStart == recordEnd)
+                        continue;
+                    int pixelStart = mScaleInfo.valueToPixel(recordStart);
+                    int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
+                    int width = pixelEnd - pixelStart;
+                    boolean isContextSwitch = segment.mIsContextSwitch;
+
+                    MethodData md = block.getMethodData();
+
+                    // We will add the scroll offset later when we draw the strips
+                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+
+                    // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
+                    // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
+                    // block.getName(), recordStart, recordEnd,
+                    // scaleInfo.valueToPixelFraction(recordStart),
+                    // scaleInfo.valueToPixelFraction(recordEnd),
+                    // pixelStart, pixelEnd, pixels[rd.rank].start,
+                    // pixels[rd.rank].maxWeight,
+                    // pixels[rd.rank].segment != null
+                    // ? pixels[rd.rank].segment.block.getName()
+                    // : "null");
+
+                    // The highlight ranges are computed separately from the
+                    // segments of the highlighted method, since a summarized
+                    // row doesn't draw all of them.
+                    if (mFadeColors) {
+                        if (mHighlightMethodData != null) {
+                            if (mHighlightMethodData != md)
+                                color = md.getFadedColor();
+                        } else if (mHighlightCall != null) {
+                            if (segment.mStartTime < callStart
+                                    || segment.mEndTime > callEnd || callMethod != md
+                                    || callRowData != rd)
+                                color = md.getFadedColor();
+                        }
                     }
 
-                    if (width == 0) {
-                        // Compute the "weight" of this segment for the first
-                        // pixel. For a pixel N, the "weight" of a segment is
-                        // how much of the region [N - 0.5, N + 0.5] is covered
-                        // by the segment.
+                    // Cases:
+                    // 1. This segment starts on a different pixel than the
+                    // previous segment started on. In this case, emit
+                    // the pixel strip, if any, and:
+                    // A. If the width is 0, then add this segment's
+                    // weight to the Pixel.
+                    // B. If the width > 0, then emit a strip for this
+                    // segment (no partial Pixel data).
+                    //
+                    // 2. Otherwise (the new segment starts on the same
+                    // pixel as the previous segment): add its "weight"
+                    // to the current pixel, and:
+                    // A. If the new segment has width 1,
+                    // then emit the pixel strip and then
+                    // add the segment's weight to the pixel.
+                    // B. If the new segment has width > 1,
+                    // then emit the pixel strip, and emit the rest
+                    // of the strip for this segment (no partial Pixel
+                    // data).
+
+                    Pixel pix = pixels[rd.mRank];
+                    if (pix.mStart != pixelStart) {
+                        if (pix.mSegment != null) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+                        }
+
+                        if (width == 0) {
+                            // Compute the "weight" of this segment for the first
+                            // pixel. For a pixel N, the "weight" of a segment is
+                            // how much of the region [N - 0.5, N + 0.5] is covered
+                            // by the segment.
+                            double weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = block.addWeight(pixelStart, rd.mRank, weight);
+                            if (weight > pix.mMaxWeight) {
+                                pix.setFields(pixelStart, weight, segment, color,
+                                        rd);
+                            }
+                        } else {
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd, segment, color);
+                            mStripList.add(strip);
+                        }
+                    } else {
                         double weight = computeWeight(recordStart, recordEnd,
                                 isContextSwitch, pixelStart);
                         weight = block.addWeight(pixelStart, rd.mRank, weight);
                         if (weight > pix.mMaxWeight) {
-                            pix.setFields(pixelStart, weight, segment, color,
-                                    rd);
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        }
+                        if (width == 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Compute the weight for the next pixel
+                            pixelStart += 1;
+                            weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = block.addWeight(pixelStart, rd.mRank, weight);
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        } else if (width > 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Emit a strip for the rest of the segment.
+                            pixelStart += 1;
+                            width -= 1;
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd,segment, color);
+                            mStripList.add(strip);
                         }
-                    } else {
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd, segment, color);
-                        mStripList.add(strip);
-                    }
-                } else {
-                    double weight = computeWeight(recordStart, recordEnd,
-                            isContextSwitch, pixelStart);
-                    weight = block.addWeight(pixelStart, rd.mRank, weight);
-                    if (weight > pix.mMaxWeight) {
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    }
-                    if (width == 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Compute the weight for the next pixel
-                        pixelStart += 1;
-                        weight = computeWeight(recordStart, recordEnd,
-                                isContextSwitch, pixelStart);
-                        weight = block.addWeight(pixelStart, rd.mRank, weight);
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    } else if (width > 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Emit a strip for the rest of the segment.
-                        pixelStart += 1;
-                        width -= 1;
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd,segment, color);
-                        mStripList.add(strip);
                     }
                 }
             }
@@ -2074,11 +2165,54 @@ public class TimeLineView extends Composite implements Observer {
             mStack.remove(mStack.size() - 1);
         }
 
+        /**
+         * Sets the range of the sorted segments that belong to this row, and
+         * indexes them.
+         */
+        public void setSegments(Segment[] segments, int first, int last) {
+            int count = last - first;
+            long[] startTimes = new long[count];
+            long[] endTimes = new long[count];
+            long[] weights = new long[count];
+            HashMap<MethodData, Integer> methodCounts = new HashMap<MethodData, Integer>();
+            for (int ii = 0; ii < count; ++ii) {
+                Segment segment = segments[first + ii];
+                startTimes[ii] = segment.mStartTime;
+                endTimes[ii] = segment.mEndTime;
+                // Blocks without a color are never drawn, so they never
+                // hide the other blocks of a pixel.
+                if (segment.mBlock.getColor() != null)
+                    weights[ii] = segment.mEndTime - segment.mStartTime;
+                MethodData md = segment.mBlock.getMethodData();
+                Integer methodCount = methodCounts.get(md);
+                methodCounts.put(md, methodCount == null ? 1 : methodCount + 1);
+            }
+            mFirstSegment = first;
+            mIndex = new SegmentIndex(startTimes, endTimes, weights);
+
+            // The segments of each method, in increasing order, to highlight
+            // a method without going through all the segments.
+            mSegmentsByMethod = new HashMap<MethodData, int[]>(methodCounts.size());
+            for (Map.Entry<MethodData, Integer> entry : methodCounts.entrySet()) {
+                mSegmentsByMethod.put(entry.getKey(), new int[entry.getValue()]);
+                entry.setValue(0);
+            }
+            for (int ii = 0; ii < count; ++ii) {
+                MethodData md = segments[first + ii].mBlock.getMethodData();
+                int next = methodCounts.get(md);
+                mSegmentsByMethod.get(md)[next] = ii;
+                methodCounts.put(md, next + 1);
+            }
+        }
+
         private String mName;
         private int mRank;
         private long mElapsed;
         private long mEndTime;
         private ArrayList<Block> mStack;
+        private int mFirstSegment;
+        private SegmentIndex mIndex;
+        private HashMap<MethodData, int[]> mSegmentsByMethod;
     }
 
     private static class Segment {
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * Log of the method entries and exits of a trace, in trace order. It is used to rebuild the
+ * global timeline of traces that only have a thread cpu clock.
+ * <p/>Each action is a single int: the id of the call for an entry, and its complement for
+ * an exit.
+ */
+final class TraceActionLog {
+
+    private int[] mActions = new int[1024];
+    private int mSize = 0;
+
+    /**
+     * Logs the entry of a call.
+     */
+    void enter(int call) {
+        add(call);
+    }
+
+    /**
+     * Logs the exit of a call.
+     */
+    void exit(int call) {
+        add(~call);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns whether an action is the entry of a call.
+     */
+    boolean isEnter(int index) {
+        return mActions[index] >= 0;
+    }
+
+    /**
+     * Returns the id of the call of an action.
+     */
+    int getCall(int index) {
+        int action = mActions[index];
+        return action >= 0 ? action : ~action;
+    }
+
+    private void add(int action) {
+        if (mSize == mActions.length) {
+            int[] actions = new int[mSize * 2];
+            System.arraycopy(mActions, 0, actions, 0, mSize);
+            mActions = actions;
+        }
+        mActions[mSize++] = action;
+    }
+}
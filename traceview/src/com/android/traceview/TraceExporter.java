@@ -0,0 +1,579 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Exports the profiles of traces to CSV or JSON files, without any UI.
+ * <p/>For each trace, the exporter writes the following tables. All the times are in
+ * microseconds.
+ * <ul>
+ * <li>summary: the clock source and the total times of the trace.</li>
+ * <li>methods: the calls and the inclusive and exclusive times of each method.</li>
+ * <li>threads: the cpu and real time of each thread.</li>
+ * <li>hotpaths: the call paths with the highest exclusive time. They are not available with
+ * the streaming parse.</li>
+ * <li>edges: the call graph, with the calls and inclusive time of each caller/callee pair.</li>
+ * </ul>
+ * In CSV, each table is written to its own <code>name-table.csv</code> file. In JSON, all the
+ * tables of a trace are written to a single <code>name.json</code> file, as arrays of objects.
+ * <p/>The rows are written as they are produced, and several traces can be exported at the
+ * same time with {@link #exportAll(List, int)}.
+ */
+public class TraceExporter {
+
+    /** Default number of hot paths exported for each trace. */
+    public final static int DEFAULT_HOT_PATH_COUNT = 100;
+
+    public enum Format {
+        CSV, JSON
+    }
+
+    private final Format mFormat;
+    private final File mOutputDir;
+    private final int mHotPathCount;
+    private final boolean mStreaming;
+
+    /**
+     * Creates an exporter.
+     * @param format the format of the output files.
+     * @param outputDir the directory of the output files.
+     * @param hotPathCount the max number of hot paths exported for each trace.
+     * @param streaming whether to use the streaming parse of {@link DmTraceReader}, which
+     *      uses less memory but does not export the hot paths.
+     */
+    public TraceExporter(Format format, File outputDir, int hotPathCount, boolean streaming) {
+        mFormat = format;
+        mOutputDir = outputDir;
+        mHotPathCount = hotPathCount;
+        mStreaming = streaming;
+    }
+
+    /**
+     * Exports the profile of a trace.
+     * @param traceFileName the path of the trace file.
+     * @param outputName the name of the output files, without extension.
+     * @throws IOException if the trace could not be read or the output could not be written.
+     */
+    public void export(String traceFileName, String outputName) throws IOException {
+        export(traceFileName, outputName, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Exports the profile of a trace, analyzing it on up to <var>parallelism</var> threads.
+     */
+    private void export(String traceFileName, String outputName, int parallelism)
+            throws IOException {
+        DmTraceReader reader = new DmTraceReader(traceFileName, false, mStreaming, null,
+                parallelism);
+
+        TableWriter writer;
+        if (mFormat == Format.JSON) {
+            writer = new JsonTableWriter(new File(mOutputDir, outputName + ".json")); //$NON-NLS-1$
+        } else {
+            writer = new CsvTableWriter(mOutputDir, outputName);
+        }
+
+        try {
+            writeSummary(traceFileName, reader, writer);
+            writeMethods(reader, writer);
+            writeThreads(reader, writer);
+            writeHotPaths(reader, writer);
+            writeEdges(reader, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Exports the profiles of several traces, exporting up to <var>threadCount</var> traces at
+     * the same time. This call is blocking until all the traces are exported.
+     * <p/>The output files of a trace are named after the trace file. A number is appended to
+     * the names of traces that have the same file name.
+     * @param traceFileNames the paths of the trace files.
+     * @param threadCount the max number of traces exported at the same time.
+     * @return a map of the traces that could not be exported to their error. The map is empty
+     *      if all the traces were exported.
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the
+     *      exports.
+     */
+    public Map<String, Exception> exportAll(List<String> traceFileNames, int threadCount)
+            throws InterruptedException {
+        Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+        if (traceFileNames.isEmpty()) {
+            return failures;
+        }
+
+        int poolSize = Math.max(1, Math.min(threadCount, traceFileNames.size()));
+        // the processors are split between the traces exported at the same time, instead of
+        // each trace analysis starting a thread per processor.
+        final int parallelism = Math.max(1,
+                Runtime.getRuntime().availableProcessors() / poolSize);
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Trace Export"); //$NON-NLS-1$
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        try {
+            Set<String> outputNames = new HashSet<String>();
+            List<Future<Void>> results = new ArrayList<Future<Void>>(traceFileNames.size());
+            for (final String traceFileName : traceFileNames) {
+                final String outputName = getOutputName(traceFileName, outputNames);
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        export(traceFileName, outputName, parallelism);
+                        return null;
+                    }
+                }));
+            }
+
+            for (int i = 0; i < traceFileNames.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failures.put(traceFileNames.get(i), cause instanceof Exception ?
+                            (Exception) cause : new RuntimeException(cause));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return failures;
+    }
+
+    private void writeSummary(String traceFileName, DmTraceReader reader, TableWriter writer)
+            throws IOException {
+        writer.startTable("summary", new String[] {
+                "trace", "clock", "total_cpu_usec", "total_real_usec",
+                "methods", "threads", "streaming"
+        });
+        writer.writeRow(new Object[] {
+                traceFileName, reader.getClockSource(),
+                reader.haveCpuTime() ? reader.getTotalCpuTime() : null,
+                reader.haveRealTime() ? reader.getTotalRealTime() : null,
+                reader.getMethods().length, reader.getThreads().length,
+                reader.isStreaming()
+        });
+        writer.endTable();
+    }
+
+    private void writeMethods(DmTraceReader reader, TableWriter writer) throws IOException {
+        writer.startTable("methods", new String[] {
+                "rank", "id", "name", "calls",
+                "inclusive_cpu_usec", "exclusive_cpu_usec",
+                "inclusive_real_usec", "exclusive_real_usec"
+        });
+        for (MethodData md : reader.getMethods()) {
+            writer.writeRow(new Object[] {
+                    md.getRank(), md.getId(), md.getName(), md.getTotalCalls(),
+                    md.getElapsedInclusiveCpuTime(), md.getElapsedExclusiveCpuTime(),
+                    md.getElapsedInclusiveRealTime(), md.getElapsedExclusiveRealTime()
+            });
+        }
+        writer.endTable();
+    }
+
+    private void writeThreads(DmTraceReader reader, TableWriter writer) throws IOException {
+        writer.startTable("threads", new String[] {
+                "id", "name", "cpu_usec", "real_usec"
+        });
+        for (ThreadData td : reader.getThreads()) {
+            if (td.isEmpty()) {
+                continue;
+            }
+            writer.writeRow(new Object[] {
+                    td.getId(), td.getName(), td.getCpuTime(), td.getRealTime()
+            });
+        }
+        writer.endTable();
+    }
+
+    private void writeHotPaths(DmTraceReader reader, TableWriter writer) throws IOException {
+        writer.startTable("hotpaths", new String[] {
+                "rank", "calls", "exclusive_cpu_usec", "exclusive_real_usec",
+                "path"
+        });
+        if (!reader.isStreaming()) {
+            CallPathTree tree = new CallPathTree(reader.getCallStore());
+            int[] paths = tree.getHottestPaths(mHotPathCount, reader.haveCpuTime());
+            for (int rank = 0; rank < paths.length; rank++) {
+                int path = paths[rank];
+                writer.writeRow(new Object[] {
+                        rank, tree.getCalls(path), tree.getExclusiveCpuTime(path),
+                        tree.getExclusiveRealTime(path), getPathName(tree, path)
+                });
+            }
+        }
+        writer.endTable();
+    }
+
+    /**
+     * Returns the names of the methods of a path separated by ';', without the top-level
+     * method unless it is the only one.
+     */
+    private static String getPathName(CallPathTree tree, int path) {
+        List<MethodData> methods = tree.getMethods(path);
+        if (methods.size() > 1) {
+            methods = methods.subList(1, methods.size());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (MethodData md : methods) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(md.getName());
+        }
+        return sb.toString();
+    }
+
+    private void writeEdges(DmTraceReader reader, TableWriter writer) throws IOException {
+        writer.startTable("edges", new String[] {
+                "caller_id", "caller", "callee_id", "callee", "recursive",
+                "calls", "inclusive_cpu_usec", "inclusive_real_usec"
+        });
+        for (MethodData md : reader.getMethods()) {
+            ProfileNode[] nodes = md.getProfileNodes();
+            if (nodes == null) {
+                continue;
+            }
+            for (ProfileNode node : nodes) {
+                if (node.isParent()) {
+                    continue;
+                }
+                for (ProfileData pd : node.getChildren()) {
+                    if (pd instanceof ProfileSelf) {
+                        continue;
+                    }
+                    MethodData callee = pd.getMethodData();
+                    writer.writeRow(new Object[] {
+                            md.getId(), md.getName(), callee.getId(), callee.getName(),
+                            node.isRecursive(), pd.getCallCount(),
+                            pd.getElapsedInclusiveCpuTime(), pd.getElapsedInclusiveRealTime()
+                    });
+                }
+            }
+        }
+        writer.endTable();
+    }
+
+    /**
+     * Returns the name of the output files of a trace, which is the name of the trace file
+     * without extension, made unique among <var>outputNames</var>.
+     */
+    private static String getOutputName(String traceFileName, Set<String> outputNames) {
+        String name = new File(traceFileName).getName();
+        if (name.endsWith(".trace")) { //$NON-NLS-1$
+            name = name.substring(0, name.length() - ".trace".length()); //$NON-NLS-1$
+        }
+
+        String outputName = name;
+        for (int i = 2; !outputNames.add(outputName); i++) {
+            outputName = name + "-" + i; //$NON-NLS-1$
+        }
+        return outputName;
+    }
+
+    /**
+     * Writer of the tables of a trace.
+     */
+    private static abstract class TableWriter {
+        abstract void startTable(String name, String[] columns) throws IOException;
+
+        /**
+         * Writes a row of the current table.
+         * @param values the values of the columns: strings, numbers, booleans or null.
+         */
+        abstract void writeRow(Object[] values) throws IOException;
+
+        abstract void endTable() throws IOException;
+
+        abstract void close() throws IOException;
+    }
+
+    private static Writer openFile(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8")); //$NON-NLS-1$
+    }
+
+    /**
+     * Writes each table to its own CSV file, with a header row.
+     */
+    private static final class CsvTableWriter extends TableWriter {
+        private final File mOutputDir;
+        private final String mOutputName;
+        private Writer mWriter;
+
+        CsvTableWriter(File outputDir, String outputName) {
+            mOutputDir = outputDir;
+            mOutputName = outputName;
+        }
+
+        @Override
+        void startTable(String name, String[] columns) throws IOException {
+            String fileName = mOutputName + "-" + name + ".csv"; //$NON-NLS-1$ //$NON-NLS-2$
+            mWriter = openFile(new File(mOutputDir, fileName));
+            writeRow(columns);
+        }
+
+        @Override
+        void writeRow(Object[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    mWriter.write(',');
+                }
+                Object value = values[i];
+                if (value instanceof String) {
+                    writeString((String) value);
+                } else if (value != null) {
+                    mWriter.write(value.toString());
+                }
+            }
+            mWriter.write('\n');
+        }
+
+        private void writeString(String value) throws IOException {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+
+            if (!quote) {
+                mWriter.write(value);
+                return;
+            }
+
+            mWriter.write('"');
+            mWriter.write(value.replace("\"", "\"\"")); //$NON-NLS-1$ //$NON-NLS-2$
+            mWriter.write('"');
+        }
+
+        @Override
+        void endTable() throws IOException {
+            Writer writer = mWriter;
+            mWriter = null;
+            writer.close();
+        }
+
+        @Override
+        void close() throws IOException {
+            if (mWriter != null) {
+                endTable();
+            }
+        }
+    }
+
+    /**
+     * Writes all the tables to a single JSON object, where each table is an array of objects.
+     */
+    private static final class JsonTableWriter extends TableWriter {
+        private final Writer mWriter;
+        private String[] mColumns;
+        private boolean mFirstTable = true;
+        private boolean mFirstRow;
+
+        JsonTableWriter(File file) throws IOException {
+            mWriter = openFile(file);
+            mWriter.write('{');
+        }
+
+        @Override
+        void startTable(String name, String[] columns) throws IOException {
+            mColumns = columns;
+            mFirstRow = true;
+            if (!mFirstTable) {
+                mWriter.write(',');
+            }
+            mFirstTable = false;
+            mWriter.write('\n');
+            writeString(name);
+            mWriter.write(": ["); //$NON-NLS-1$
+        }
+
+        @Override
+        void writeRow(Object[] values) throws IOException {
+            mWriter.write(mFirstRow ? "\n  {" : ",\n  {"); //$NON-NLS-1$ //$NON-NLS-2$
+            mFirstRow = false;
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    mWriter.write(", "); //$NON-NLS-1$
+                }
+                writeString(mColumns[i]);
+                mWriter.write(": "); //$NON-NLS-1$
+                Object value = values[i];
+                if (value instanceof String) {
+                    writeString((String) value);
+                } else {
+                    mWriter.write(String.valueOf(value));
+                }
+            }
+            mWriter.write('}');
+        }
+
+        private void writeString(String value) throws IOException {
+            mWriter.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        mWriter.write("\\\""); //$NON-NLS-1$
+                        break;
+                    case '\\':
+                        mWriter.write("\\\\"); //$NON-NLS-1$
+                        break;
+                    case '\n':
+                        mWriter.write("\\n"); //$NON-NLS-1$
+                        break;
+                    case '\r':
+                        mWriter.write("\\r"); //$NON-NLS-1$
+                        break;
+                    case '\t':
+                        mWriter.write("\\t"); //$NON-NLS-1$
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            mWriter.write(String.format("\\u%04x", (int) c)); //$NON-NLS-1$
+                        } else {
+                            mWriter.write(c);
+                        }
+                }
+            }
+            mWriter.write('"');
+        }
+
+        @Override
+        void endTable() throws IOException {
+            mWriter.write(mFirstRow ? "]" : "\n]"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        @Override
+        void close() throws IOException {
+            mWriter.write("\n}\n"); //$NON-NLS-1$
+            mWriter.close();
+        }
+    }
+
+    private static void printUsage() {
+        System.out.printf("Usage: java %s [-f csv|json] [-o dir] [-n count] [-j count] [-s]"
+                + " trace...%n", TraceExporter.class.getName());
+        System.out.printf("  -f   output format, csv (default) or json%n");
+        System.out.printf("  -o   output directory, the current directory by default%n");
+        System.out.printf("  -n   number of hot paths exported, %d by default%n",
+                DEFAULT_HOT_PATH_COUNT);
+        System.out.printf("  -j   number of traces exported at the same time, the number of%n");
+        System.out.printf("       processors by default%n");
+        System.out.printf("  -s   streaming parse of large traces, without hot paths%n");
+    }
+
+    public static void main(String[] args) {
+        Format format = Format.CSV;
+        File outputDir = new File("."); //$NON-NLS-1$
+        int hotPathCount = DEFAULT_HOT_PATH_COUNT;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        boolean streaming = false;
+
+        // Process command line arguments
+        int argc = 0;
+        int len = args.length;
+        try {
+            while (argc < len) {
+                String arg = args[argc];
+                if (arg.charAt(0) != '-') {
+                    break;
+                }
+                if (arg.equals("-s")) {
+                    streaming = true;
+                } else if (argc + 1 < len && arg.equals("-f")) {
+                    format = Format.valueOf(args[++argc].toUpperCase());
+                } else if (argc + 1 < len && arg.equals("-o")) {
+                    outputDir = new File(args[++argc]);
+                } else if (argc + 1 < len && arg.equals("-n")) {
+                    hotPathCount = Integer.parseInt(args[++argc]);
+                } else if (argc + 1 < len && arg.equals("-j")) {
+                    threadCount = Integer.parseInt(args[++argc]);
+                } else {
+                    break;
+                }
+                argc++;
+            }
+        } catch (IllegalArgumentException e) {
+            // unknown format or invalid number.
+            argc = -1;
+        }
+        if (argc < 0 || argc == len || args[argc].charAt(0) == '-') {
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.printf("cannot create output directory '%s'\n", outputDir);
+            System.exit(1);
+        }
+
+        List<String> traceFileNames = new ArrayList<String>();
+        for (int i = argc; i < len; i++) {
+            String traceName = args[i];
+            if (!new File(traceName).exists() && new File(traceName + ".trace").exists()) {
+                traceName = traceName + ".trace";
+            }
+            traceFileNames.add(traceName);
+        }
+
+        TraceExporter exporter = new TraceExporter(format, outputDir, hotPathCount, streaming);
+        Map<String, Exception> failures;
+        try {
+            failures = exporter.exportAll(traceFileNames, threadCount);
+        } catch (InterruptedException e) {
+            System.exit(1);
+            return;
+        }
+
+        for (Map.Entry<String, Exception> failure : failures.entrySet()) {
+            System.err.printf("Failed to export '%s': %s\n", failure.getKey(),
+                    failure.getValue());
+        }
+        System.exit(failures.isEmpty() ? 0 : 1);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link CallPathTree}.
+ */
+public class CallPathTreeTest extends TestCase {
+
+    /** Method actions of the trace records. */
+    static final int ENTER = 0;
+    static final int EXIT = 1;
+
+    private File mTraceFile;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mTraceFile != null) {
+            mTraceFile.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testHottestPaths() throws Exception {
+        // a() calls b() then c(), and b() is called again at the top level.
+        mTraceFile = createTrace(new String[] { "main" }, new String[] { "a", "b", "c" },
+                new int[] {
+                        1, 1, ENTER, 0,
+                        1, 2, ENTER, 10,
+                        1, 2, EXIT, 40,
+                        1, 3, ENTER, 50,
+                        1, 3, EXIT, 55,
+                        1, 1, EXIT, 60,
+                        1, 2, ENTER, 60,
+                        1, 2, EXIT, 80,
+                });
+        DmTraceReader reader = new DmTraceReader(mTraceFile.getPath(), false, false, null, 1);
+        CallPathTree tree = new CallPathTree(reader.getCallStore());
+
+        int[] paths = tree.getHottestPaths(3, true);
+        assertEquals(3, paths.length);
+        assertEquals("a;b", getPathName(tree, paths[0]));
+        assertEquals(30, tree.getExclusiveCpuTime(paths[0]));
+        assertEquals("a", getPathName(tree, paths[1]));
+        assertEquals(25, tree.getExclusiveCpuTime(paths[1]));
+        assertEquals("b", getPathName(tree, paths[2]));
+        assertEquals(20, tree.getExclusiveCpuTime(paths[2]));
+        assertEquals(1, tree.getCalls(paths[2]));
+
+        // asking for more paths than there are returns all of them, hottest first.
+        int[] all = tree.getHottestPaths(100, true);
+        assertEquals(tree.size(), all.length);
+        assertTrue(Arrays.equals(paths, Arrays.copyOf(all, 3)));
+        for (int i = 1; i < all.length; i++) {
+            assertTrue(tree.getExclusiveCpuTime(all[i - 1]) >= tree.getExclusiveCpuTime(all[i]));
+        }
+    }
+
+    public void testMergedPaths() throws Exception {
+        // the same path on two threads and twice on a thread is counted once.
+        mTraceFile = createTrace(new String[] { "main", "worker" }, new String[] { "a", "b" },
+                new int[] {
+                        1, 1, ENTER, 0,
+                        1, 2, ENTER, 10,
+                        1, 2, EXIT, 20,
+                        1, 2, ENTER, 20,
+                        1, 2, EXIT, 25,
+                        1, 1, EXIT, 30,
+                        2, 1, ENTER, 100,
+                        2, 2, ENTER, 105,
+                        2, 2, EXIT, 135,
+                        2, 1, EXIT, 140,
+                });
+        DmTraceReader reader = new DmTraceReader(mTraceFile.getPath(), false, false, null, 1);
+        CallPathTree tree = new CallPathTree(reader.getCallStore());
+
+        int[] paths = tree.getHottestPaths(1, true);
+        assertEquals(1, paths.length);
+        assertEquals("a;b", getPathName(tree, paths[0]));
+        assertEquals(3, tree.getCalls(paths[0]));
+        assertEquals(45, tree.getExclusiveCpuTime(paths[0]));
+    }
+
+    /** Returns the names of the methods of a path, without the top-level method. */
+    private static String getPathName(CallPathTree tree, int path) {
+        List<String> names = new ArrayList<String>();
+        for (MethodData md : tree.getMethods(path)) {
+            if (md.getId() != 0) {
+                names.add(md.getMethodName());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(name);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a version 3 trace with a dual clock, where the thread and global times are
+     * equal.
+     * @param threads the names of the threads, whose ids start at 1.
+     * @param methods the names of the methods, whose ids start at 1.
+     * @param records the records, as groups of thread id, method id, action and time.
+     */
+    static File createTrace(String[] threads, String[] methods, int[] records)
+            throws IOException {
+        StringBuilder keys = new StringBuilder();
+        keys.append("*version\n3\nclock=dual\n");
+        keys.append("*threads\n");
+        for (int t = 0; t < threads.length; t++) {
+            keys.append(t + 1).append('\t').append(threads[t]).append('\n');
+        }
+        keys.append("*methods\n");
+        for (int m = 0; m < methods.length; m++) {
+            keys.append("0x").append(Integer.toHexString((m + 1) << 2))
+                    .append("\tcom/example/Test\t").append(methods[m])
+                    .append("\t()V\tTest.java\t").append(m + 1).append('\n');
+        }
+        keys.append("*end\n");
+
+        int recordSize = 14;
+        int recordCount = records.length / 4;
+        ByteBuffer data = ByteBuffer.allocate(18 + recordCount * recordSize);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(0x574f4c53);
+        data.putShort((short) 3);
+        data.putShort((short) 18);
+        data.putLong(0);
+        data.putShort((short) recordSize);
+        for (int i = 0; i < records.length; i += 4) {
+            data.putShort((short) records[i]);
+            data.putInt((records[i + 1] << 2) | records[i + 2]);
+            data.putInt(records[i + 3]);
+            data.putInt(records[i + 3]);
+        }
+
+        File file = File.createTempFile("trace", ".trace"); //$NON-NLS-1$ //$NON-NLS-2$
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(keys.toString().getBytes("UTF-8")); //$NON-NLS-1$
+            out.write(data.array());
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
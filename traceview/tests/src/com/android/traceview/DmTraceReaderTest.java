@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link DmTraceReader}.
+ */
+public class DmTraceReaderTest extends TestCase {
+
+    private static final int THREAD_COUNT = 4;
+    private static final int METHOD_COUNT = 50;
+    private static final int RECORD_COUNT = 20000;
+
+    private File mTraceFile;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mTraceFile != null) {
+            mTraceFile.delete();
+        }
+        super.tearDown();
+    }
+
+    public void testParallelDualClock() throws Exception {
+        mTraceFile = createTrace("dual"); //$NON-NLS-1$
+        checkParallelAnalysis();
+    }
+
+    public void testParallelThreadClock() throws Exception {
+        mTraceFile = createTrace("thread-cpu"); //$NON-NLS-1$
+        checkParallelAnalysis();
+    }
+
+    /**
+     * Checks that analyzing the trace on several threads gives the same profile data as a
+     * sequential analysis.
+     */
+    private void checkParallelAnalysis() throws IOException {
+        DmTraceReader sequential = new DmTraceReader(mTraceFile.getPath(), false, false, null, 1);
+        String expected = describe(sequential);
+        assertTrue(sequential.getTotalCpuTime() > 0);
+
+        for (int parallelism = 2; parallelism <= 8; parallelism *= 2) {
+            DmTraceReader parallel = new DmTraceReader(mTraceFile.getPath(), false, false, null,
+                    parallelism);
+            assertEquals(sequential.getTotalCpuTime(), parallel.getTotalCpuTime());
+            assertEquals(sequential.getTotalRealTime(), parallel.getTotalRealTime());
+            assertEquals(expected, describe(parallel));
+        }
+    }
+
+    public void testStreamingDualClock() throws Exception {
+        mTraceFile = createTrace("dual"); //$NON-NLS-1$
+        checkStreamingParse(true);
+    }
+
+    public void testStreamingThreadClock() throws Exception {
+        // the real times are rebuilt differently without a global clock.
+        mTraceFile = createTrace("thread-cpu"); //$NON-NLS-1$
+        checkStreamingParse(false);
+    }
+
+    /**
+     * Checks that the streaming parse gives the same method, edge and thread data as the
+     * default parse, whatever the part of the file mapped at once.
+     */
+    private void checkStreamingParse(boolean realTime) throws IOException {
+        DmTraceReader reader = new DmTraceReader(mTraceFile.getPath(), false, false, null, 1);
+        assertFalse(reader.isStreaming());
+        String expected = describe(reader, realTime) + describeThreads(reader, realTime);
+
+        // windows of a single record, of a few records, of a size that is not a multiple of
+        // the record size, and of the whole file.
+        int[] windowSizes = { 1, 14 * 3, 1000, Integer.MAX_VALUE };
+        for (int windowSize : windowSizes) {
+            final List<long[]> progress = new ArrayList<long[]>();
+            DmTraceReader.IParseListener listener = new DmTraceReader.IParseListener() {
+                @Override
+                public void parseProgress(long parsedBytes, long totalBytes) {
+                    progress.add(new long[] { parsedBytes, totalBytes });
+                }
+            };
+            DmTraceReader streaming = new DmTraceReader(mTraceFile.getPath(), false, true,
+                    listener, 1, windowSize);
+            assertTrue(streaming.isStreaming());
+            assertEquals(reader.getTotalCpuTime(), streaming.getTotalCpuTime());
+            if (realTime) {
+                assertEquals(reader.getTotalRealTime(), streaming.getTotalRealTime());
+            }
+            assertEquals("window " + windowSize, expected,
+                    describe(streaming, realTime) + describeThreads(streaming, realTime));
+
+            // the progress is reported once per window, up to the size of the records.
+            assertFalse(progress.isEmpty());
+            long[] last = progress.get(progress.size() - 1);
+            assertEquals(RECORD_COUNT * 14L, last[0]);
+            assertEquals(last[1], last[0]);
+            for (int i = 1; i < progress.size(); i++) {
+                assertTrue(progress.get(i)[0] > progress.get(i - 1)[0]);
+            }
+        }
+    }
+
+    /**
+     * Returns the times and calls of all the methods of a trace, and of their parents and
+     * children.
+     */
+    private static String describe(DmTraceReader reader) {
+        return describe(reader, true);
+    }
+
+    /**
+     * Returns the times and calls of all the methods of a trace, and of their parents and
+     * children, optionally without the real times.
+     */
+    private static String describe(DmTraceReader reader, boolean realTime) {
+        MethodData[] methods = reader.getMethods();
+        List<String> lines = new ArrayList<String>();
+        for (MethodData method : methods) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(method.getId()).append(' ').append(method.getName());
+            sb.append(" excl=").append(method.getElapsedExclusiveCpuTime());
+            if (realTime) {
+                sb.append('/').append(method.getElapsedExclusiveRealTime());
+            }
+            sb.append(" incl=").append(method.getElapsedInclusiveCpuTime());
+            if (realTime) {
+                sb.append('/').append(method.getElapsedInclusiveRealTime());
+            }
+            sb.append(" top=").append(method.getTopExclusiveCpuTime());
+            if (realTime) {
+                sb.append('/').append(method.getTopExclusiveRealTime());
+            }
+            sb.append(" calls=").append(method.getCalls());
+            ProfileNode[] nodes = method.getProfileNodes();
+            if (nodes != null) {
+                for (ProfileNode node : nodes) {
+                    List<String> profiles = new ArrayList<String>();
+                    for (ProfileData data : node.getChildren()) {
+                        profiles.add(data.getMethodData().getId() + ":"
+                                + data.getElapsedInclusiveCpuTime() + "/"
+                                + (realTime ? data.getElapsedInclusiveRealTime() + "/" : "")
+                                + data.getNumCalls());
+                    }
+                    Collections.sort(profiles);
+                    sb.append("\n  ").append(node.getLabel()).append(' ').append(profiles);
+                }
+            }
+            lines.add(sb.toString());
+        }
+        Collections.sort(lines);
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the times of the threads of a trace that made calls, optionally without the
+     * real times.
+     */
+    private static String describeThreads(DmTraceReader reader, boolean realTime) {
+        StringBuilder sb = new StringBuilder();
+        for (ThreadData thread : reader.getThreads()) {
+            if (thread.isEmpty()) {
+                continue;
+            }
+            sb.append(thread.getId()).append(' ').append(thread.getName());
+            sb.append(" cpu=").append(thread.getCpuTime());
+            if (realTime) {
+                sb.append(" real=").append(thread.getRealTime());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates a version 3 trace of random nested and recursive calls on several threads.
+     */
+    private static File createTrace(String clock) throws IOException {
+        StringBuilder keys = new StringBuilder();
+        keys.append("*version\n3\nclock=").append(clock).append('\n');
+        keys.append("*threads\n");
+        for (int t = 1; t <= THREAD_COUNT; t++) {
+            keys.append(t).append("\tthread").append(t).append('\n');
+        }
+        keys.append("*methods\n");
+        for (int m = 1; m <= METHOD_COUNT; m++) {
+            keys.append("0x").append(Integer.toHexString(m << 2)).append("\tcom/example/Test")
+                    .append(m % 5).append("\tmethod").append(m).append("\t()V\tTest.java\t")
+                    .append(m).append('\n');
+        }
+        keys.append("*end\n");
+
+        int recordSize = 14;
+        ByteBuffer data = ByteBuffer.allocate(18 + RECORD_COUNT * recordSize);
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(0x574f4c53);
+        data.putShort((short) 3);
+        data.putShort((short) 18);
+        data.putLong(0);
+        data.putShort((short) recordSize);
+
+        Random random = new Random(42);
+        int[][] stacks = new int[THREAD_COUNT + 1][RECORD_COUNT];
+        int[] depths = new int[THREAD_COUNT + 1];
+        int[] threadTimes = new int[THREAD_COUNT + 1];
+        int globalTime = 0;
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            int thread = 1 + random.nextInt(THREAD_COUNT);
+            int action;
+            int method;
+            if (depths[thread] > 0 && random.nextInt(10) < 4 + depths[thread] / 4) {
+                action = random.nextInt(10) == 0 ? 2 : 1;
+                method = stacks[thread][--depths[thread]];
+            } else {
+                action = 0;
+                // a few methods are called recursively
+                method = depths[thread] > 0 && random.nextInt(8) == 0
+                        ? stacks[thread][depths[thread] - 1]
+                        : 1 + random.nextInt(METHOD_COUNT);
+                stacks[thread][depths[thread]++] = method;
+            }
+
+            int elapsed = 1 + random.nextInt(50);
+            globalTime += elapsed + (random.nextInt(20) == 0 ? 500 : 0);
+            threadTimes[thread] += elapsed;
+
+            data.putShort((short) thread);
+            data.putInt((method << 2) | action);
+            data.putInt(threadTimes[thread]);
+            data.putInt(globalTime);
+        }
+
+        File file = File.createTempFile("trace", ".trace"); //$NON-NLS-1$ //$NON-NLS-2$
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(keys.toString().getBytes("US-ASCII")); //$NON-NLS-1$
+            out.write(Arrays.copyOf(data.array(), data.position()));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link SegmentIndex}.
+ */
+public class SegmentIndexTest extends TestCase {
+
+    // Long segments with short calls of a method "M" (segments 1 and 4) between them.
+    private static final long[] START_TIMES = { 0, 100, 101, 200, 300, 302 };
+    private static final long[] END_TIMES = { 100, 101, 200, 300, 302, 400 };
+    private static final int[] M_SEGMENTS = { 1, 4 };
+
+    private static SegmentIndex createIndex() {
+        long[] weights = new long[START_TIMES.length];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = END_TIMES[i] - START_TIMES[i];
+        }
+        return new SegmentIndex(START_TIMES, END_TIMES, weights);
+    }
+
+    public void testFind() {
+        SegmentIndex index = createIndex();
+        assertEquals(0, index.findFirstEndingAfter(50));
+        assertEquals(2, index.findFirstEndingAfter(101));
+        assertEquals(6, index.findFirstEndingAfter(400));
+        assertEquals(3, index.findFirstStartingAt(150));
+        assertEquals(6, index.findFirstStartingAt(401));
+        assertEquals(0, index.findHeaviest(0, 6));
+        assertEquals(2, index.findHeaviest(1, 3));
+        assertEquals(-1, index.findHeaviest(2, 2));
+    }
+
+    public void testDominantSegments() {
+        SegmentIndex index = createIndex();
+        int numPixels = 3;
+        int[] result = new int[numPixels + 1];
+        int count = index.findDominantSegments(0, 6, 0, 400, numPixels / 400.0, numPixels,
+                result);
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                assertTrue(result[i] > result[i - 1]);
+            }
+            assertTrue(result[i] != 1 && result[i] != 4);
+        }
+    }
+
+    /**
+     * The short calls of a method are never dominant on their pixel, but the timeline
+     * highlights them from the segments of the method, which the index finds by time.
+     */
+    public void testNonDominantSegmentsAreHighlighted() {
+        SegmentIndex index = createIndex();
+        int numPixels = 3;
+        int[] result = new int[numPixels + 1];
+        int count = index.findDominantSegments(0, 6, 0, 400, numPixels / 400.0, numPixels,
+                result);
+        for (int i = 0; i < count; i++) {
+            assertTrue(result[i] != 1 && result[i] != 4);
+        }
+
+        assertEquals(0, index.findFirstEndingAfter(M_SEGMENTS, 0));
+        assertEquals(2, index.findFirstStartingAt(M_SEGMENTS, 400));
+
+        // Only the second call is visible from 150
+        assertEquals(1, index.findFirstEndingAfter(M_SEGMENTS, 150));
+        // and only the first one until 250
+        assertEquals(1, index.findFirstStartingAt(M_SEGMENTS, 250));
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import static com.android.traceview.CallPathTreeTest.ENTER;
+import static com.android.traceview.CallPathTreeTest.EXIT;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for {@link TraceExporter}.
+ */
+public class TraceExporterTest extends TestCase {
+
+    private static final String[] TABLES = {
+            "summary", "methods", "threads", "hotpaths", "edges"
+    };
+
+    private File mTraceFile;
+    private File mOutputDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // a thread and a method whose names must be escaped.
+        mTraceFile = CallPathTreeTest.createTrace(new String[] { "main, \"ui\" \\" },
+                new String[] { "run", "say,\"hi\"" },
+                new int[] {
+                        1, 1, ENTER, 0,
+                        1, 2, ENTER, 10,
+                        1, 2, EXIT, 40,
+                        1, 1, EXIT, 50,
+                });
+        mOutputDir = File.createTempFile("export", ""); //$NON-NLS-1$ //$NON-NLS-2$
+        mOutputDir.delete();
+        mOutputDir.mkdir();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTraceFile.delete();
+        File[] files = mOutputDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mOutputDir.delete();
+        super.tearDown();
+    }
+
+    public void testCsv() throws Exception {
+        TraceExporter exporter = new TraceExporter(TraceExporter.Format.CSV, mOutputDir, 10,
+                false);
+        exporter.export(mTraceFile.getPath(), "t");
+
+        for (String table : TABLES) {
+            assertTrue(table, new File(mOutputDir, "t-" + table + ".csv").exists());
+        }
+
+        List<String> threads = readLines(new File(mOutputDir, "t-threads.csv"));
+        assertEquals(Arrays.asList("id,name,cpu_usec,real_usec",
+                "1,\"[1] main, \"\"ui\"\" \\\",50,50"), threads);
+
+        List<String> methods = readLines(new File(mOutputDir, "t-methods.csv"));
+        assertEquals("rank,id,name,calls,inclusive_cpu_usec,exclusive_cpu_usec,"
+                + "inclusive_real_usec,exclusive_real_usec", methods.get(0));
+        String say = null;
+        for (String row : methods.subList(1, methods.size())) {
+            assertEquals(row, 8, splitCsv(row).size());
+            if (row.contains("say")) {
+                say = row;
+            }
+        }
+        assertNotNull(say);
+        List<String> values = splitCsv(say);
+        assertEquals("com/example/Test.say,\"hi\" ()V", values.get(2));
+        assertEquals("1", values.get(3));
+        assertEquals("30", values.get(4));
+        assertEquals("30", values.get(5));
+
+        List<String> hotPaths = readLines(new File(mOutputDir, "t-hotpaths.csv"));
+        assertEquals("rank,calls,exclusive_cpu_usec,exclusive_real_usec,path", hotPaths.get(0));
+        assertEquals("0,1,30,30,\"com/example/Test.run ()V;com/example/Test.say,\"\"hi\"\" ()V\"",
+                hotPaths.get(1));
+        assertEquals("1,1,20,20,com/example/Test.run ()V", hotPaths.get(2));
+    }
+
+    public void testJson() throws Exception {
+        TraceExporter exporter = new TraceExporter(TraceExporter.Format.JSON, mOutputDir, 1,
+                false);
+        exporter.export(mTraceFile.getPath(), "t");
+
+        File file = new File(mOutputDir, "t.json");
+        assertTrue(file.exists());
+        List<String> lines = readLines(file);
+        assertEquals("{", lines.get(0));
+        assertTrue(lines.get(1), lines.get(1).startsWith("\"summary\": ["));
+        assertEquals("}", lines.get(lines.size() - 1));
+
+        // each table is an array of objects, one row per line.
+        List<String> tables = new ArrayList<String>();
+        for (String line : lines) {
+            if (line.endsWith(": [") || line.endsWith(": []") || line.endsWith(": [],")) {
+                tables.add(line.substring(1, line.indexOf('"', 1)));
+            }
+        }
+        assertEquals(Arrays.asList(TABLES), tables);
+
+        assertTrue(lines.contains("\"threads\": ["));
+        int threads = lines.indexOf("\"threads\": [");
+        assertEquals("  {\"id\": 1, \"name\": \"[1] main, \\\"ui\\\" \\\\\", \"cpu_usec\": 50, "
+                + "\"real_usec\": 50}", lines.get(threads + 1));
+        assertEquals("],", lines.get(threads + 2));
+
+        // a single hot path was asked for.
+        int hotPaths = lines.indexOf("\"hotpaths\": [");
+        assertEquals("  {\"rank\": 0, \"calls\": 1, \"exclusive_cpu_usec\": 30, "
+                + "\"exclusive_real_usec\": 30, \"path\": "
+                + "\"com/example/Test.run ()V;com/example/Test.say,\\\"hi\\\" ()V\"}",
+                lines.get(hotPaths + 1));
+        assertEquals("],", lines.get(hotPaths + 2));
+    }
+
+    public void testExportAll() throws Exception {
+        TraceExporter exporter = new TraceExporter(TraceExporter.Format.CSV, mOutputDir, 10,
+                false);
+        String missing = new File(mOutputDir, "missing.trace").getPath();
+        Map<String, Exception> failures = exporter.exportAll(
+                Arrays.asList(mTraceFile.getPath(), mTraceFile.getPath(), missing), 3);
+
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(missing) instanceof IOException);
+
+        // traces with the same file name are exported to distinct files.
+        String name = mTraceFile.getName();
+        name = name.substring(0, name.length() - ".trace".length());
+        assertTrue(new File(mOutputDir, name + "-methods.csv").exists());
+        assertTrue(new File(mOutputDir, name + "-2-methods.csv").exists());
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+        try {
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /** Splits a CSV row, unquoting the quoted values. */
+    private static List<String> splitCsv(String row) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    sb.append(c);
+                } else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                    sb.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        values.add(sb.toString());
+        return values;
+    }
+}